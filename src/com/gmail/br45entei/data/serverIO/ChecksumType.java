@@ -0,0 +1,333 @@
+package com.gmail.br45entei.data.serverIO;
+
+import com.gmail.br45entei.util.StringUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/** The checksums that can be appended to packet frames to detect corrupted
+ * data. Checksums are turned on with
+ * {@link PacketCodec#setChecksumType(ChecksumType, java.io.OutputStream)},
+ * which sends a {@link PacketIDs#SET_CHECKSUM SET_CHECKSUM} packet so that the
+ * other end checks(and starts sending) the same checksum.<br>
+ * <br>
+ * Every frame sent after that(except for {@link PacketIDs#SET_CHECKSUM
+ * SET_CHECKSUM} frames themselves) ends with an 8 byte trailer: the frame's
+ * sequence number(counting from zero since the last
+ * {@link PacketIDs#SET_CHECKSUM SET_CHECKSUM} frame), followed by the checksum
+ * of the whole frame up to and including the sequence number, both
+ * big-endian.
+ * 
+ * @author Brian_Entei */
+public enum ChecksumType {
+	
+	/** No checksum(frames have no trailer) */
+	NONE(0),
+	/** CRC-32(hardware accelerated since Java 8) */
+	CRC32(1),
+	/** CRC-32C(Castagnoli). Uses {@code java.util.zip.CRC32C}, which is
+	 * hardware accelerated, when running on Java 9 or later, or a
+	 * table-driven implementation otherwise. */
+	CRC32C(2);
+	
+	/** The size of a frame's trailer(sequence number and checksum) */
+	public static final int trailerSize = 8;
+	
+	private static final ChecksumType[] byID = new ChecksumType[256];
+	
+	static {
+		for(ChecksumType type : values()) {
+			byID[type.getID()] = type;
+		}
+	}
+	
+	/** @param id The id of a checksum type
+	 * @return The checksum type with the given id, or {@code null} if there is
+	 *         no such type */
+	public static final ChecksumType getByID(int id) {
+		return id < 0 || id >= byID.length ? null : byID[id];
+	}
+	
+	private final int id;
+	private final ThreadLocal<Checksum> local = new ThreadLocal<Checksum>() {
+		@Override
+		protected final Checksum initialValue() {
+			return ChecksumType.this.newChecksum();
+		}
+	};
+	private final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>() {
+		@Override
+		protected final byte[] initialValue() {
+			return new byte[4096];
+		}
+	};
+	
+	private ChecksumType(int id) {
+		this.id = id;
+	}
+	
+	/** @return This checksum type's id(sent in
+	 *         {@link PacketIDs#SET_CHECKSUM SET_CHECKSUM} packets) */
+	public final int getID() {
+		return this.id;
+	}
+	
+	/** @return A new checksum of this type, or {@code null} if this is
+	 *         {@link #NONE} */
+	public final Checksum newChecksum() {
+		switch(this) {
+		case CRC32:
+			return new CRC32();
+		case CRC32C:
+			return Intrinsics.newCRC32C();
+		case NONE:
+		default:
+			return null;
+		}
+	}
+	
+	/** @return Whether or not the running JVM provides a hardware accelerated
+	 *         CRC-32C implementation({@code java.util.zip.CRC32C}, Java 9+) */
+	public static final boolean isCRC32CIntrinsic() {
+		return Intrinsics.crc32c != null;
+	}
+	
+	private final Checksum begin() {
+		Checksum checksum = this.local.get();
+		checksum.reset();
+		return checksum;
+	}
+	
+	private static final void updateInt(Checksum checksum, int i) {
+		checksum.update(i >>> 24);
+		checksum.update(i >>> 16);
+		checksum.update(i >>> 8);
+		checksum.update(i);
+	}
+	
+	/** Calculates the checksum of a frame whose parts are not stored next to
+	 * each other.
+	 * 
+	 * @param idByte The frame's first byte(the packet id, with the
+	 *            {@link Packet#correlatedFlag correlated flag} if it has a
+	 *            correlation id)
+	 * @param correlationID The frame's correlation id(only used if the
+	 *            correlated flag is set)
+	 * @param writeLength Whether or not the frame contains the data's length
+	 * @param data The array containing the frame's data
+	 * @param off The offset in the array at which the data starts
+	 * @param len The length of the data
+	 * @param sequence The frame's sequence number
+	 * @return The frame's checksum */
+	final int checksum(int idByte, int correlationID, boolean writeLength, byte[] data, int off, int len, int sequence) {
+		Checksum checksum = this.begin();
+		checksum.update(idByte);
+		if((idByte & Packet.correlatedFlag) != 0) {
+			updateInt(checksum, correlationID);
+		}
+		if(writeLength) {
+			updateInt(checksum, len);
+		}
+		if(len > 0) {
+			checksum.update(data, off, len);
+		}
+		updateInt(checksum, sequence);
+		return (int) checksum.getValue();
+	}
+	
+	/** Calculates the checksum of a frame that is stored in the given buffer.
+	 * The buffer's position and limit are not changed.
+	 * 
+	 * @param buf The buffer containing the frame
+	 * @param off The index in the buffer at which the frame starts
+	 * @param len The length of the frame up to and including its sequence
+	 *            number
+	 * @return The frame's checksum */
+	final int checksum(ByteBuffer buf, int off, int len) {
+		Checksum checksum = this.begin();
+		if(buf.hasArray()) {
+			checksum.update(buf.array(), buf.arrayOffset() + off, len);
+		} else {
+			final byte[] scratch = this.scratch.get();
+			ByteBuffer view = buf.duplicate();
+			view.limit(off + len).position(off);
+			while(view.hasRemaining()) {
+				final int count = Math.min(scratch.length, view.remaining());
+				view.get(scratch, 0, count);
+				checksum.update(scratch, 0, count);
+			}
+		}
+		return (int) checksum.getValue();
+	}
+	
+	/** Looks up the JDK's CRC32C class the first time it is needed. */
+	private static final class Intrinsics {
+		
+		static final Constructor<? extends Checksum> crc32c;
+		
+		static {
+			Constructor<? extends Checksum> constructor = null;
+			try {
+				constructor = Class.forName("java.util.zip.CRC32C").asSubclass(Checksum.class).getConstructor();
+			} catch(Throwable ignored) {//Java 8
+			}
+			crc32c = constructor;
+		}
+		
+		static final Checksum newCRC32C() {
+			if(crc32c != null) {
+				try {
+					return crc32c.newInstance();
+				} catch(ReflectiveOperationException ignored) {
+				}
+			}
+			return new SoftwareCRC32C();
+		}
+		
+	}
+	
+	/** A slicing-by-8 CRC-32C implementation, for runtimes that don't have
+	 * {@code java.util.zip.CRC32C}.
+	 * 
+	 * @author Brian_Entei */
+	static final class SoftwareCRC32C implements Checksum {
+		
+		private static final int[][] table = new int[8][256];
+		
+		static {
+			for(int n = 0; n < 256; n++) {
+				int c = n;
+				for(int k = 0; k < 8; k++) {
+					c = (c & 1) != 0 ? (c >>> 1) ^ 0x82F63B78 : c >>> 1;
+				}
+				table[0][n] = c;
+			}
+			for(int n = 0; n < 256; n++) {
+				int c = table[0][n];
+				for(int k = 1; k < 8; k++) {
+					c = table[0][c & 0xFF] ^ (c >>> 8);
+					table[k][n] = c;
+				}
+			}
+		}
+		
+		private int crc = 0xFFFFFFFF;
+		
+		@Override
+		public final void update(int b) {
+			this.crc = table[0][(this.crc ^ b) & 0xFF] ^ (this.crc >>> 8);
+		}
+		
+		@Override
+		public final void update(byte[] b, int off, int len) {
+			final int[] t0 = table[0], t1 = table[1], t2 = table[2], t3 = table[3], t4 = table[4], t5 = table[5], t6 = table[6], t7 = table[7];
+			int c = this.crc;
+			while(len >= 8) {
+				c ^= (b[off] & 0xFF) | ((b[off + 1] & 0xFF) << 8) | ((b[off + 2] & 0xFF) << 16) | ((b[off + 3] & 0xFF) << 24);
+				c = t7[c & 0xFF] ^ t6[(c >>> 8) & 0xFF] ^ t5[(c >>> 16) & 0xFF] ^ t4[c >>> 24] ^ t3[b[off + 4] & 0xFF] ^ t2[b[off + 5] & 0xFF] ^ t1[b[off + 6] & 0xFF] ^ t0[b[off + 7] & 0xFF];
+				off += 8;
+				len -= 8;
+			}
+			while(len-- > 0) {
+				c = t0[(c ^ b[off++]) & 0xFF] ^ (c >>> 8);
+			}
+			this.crc = c;
+		}
+		
+		@Override
+		public final long getValue() {
+			return ~this.crc & 0xFFFFFFFFL;
+		}
+		
+		@Override
+		public final void reset() {
+			this.crc = 0xFFFFFFFF;
+		}
+		
+	}
+	
+	//=============================================
+	
+	private static final double megabytesPerSecond(long bytes, long nanos) {
+		return (bytes / 1048576.0D) / (nanos / 1000000000.0D);
+	}
+	
+	/** Measures the raw speed of each checksum, then the cost of checksummed
+	 * frames end to end: the same packets are written with a
+	 * {@link PacketWriter} and read back with a {@link PacketReader} with and
+	 * without a CRC-32C trailer, and the extra time per megabyte is printed.
+	 * 
+	 * @param args Program command line arguments: [megabytes] [packet size]
+	 * @throws IOException Thrown if an I/O error occurs
+	 * @throws PacketReadException Thrown if a checksum did not match */
+	public static final void main(String[] args) throws IOException, PacketReadException {
+		final int megabytes = args.length > 0 && StringUtil.isStrInt(args[0]) ? Integer.parseInt(args[0]) : 64;
+		final int packetSize = args.length > 1 && StringUtil.isStrInt(args[1]) ? Integer.parseInt(args[1]) : 4096;
+		final byte[] data = new byte[1 << 20];
+		new Random(42).nextBytes(data);
+		
+		System.out.println("CRC32C intrinsic available: " + isCRC32CIntrinsic());
+		Checksum[] checksums = {new CRC32(), Intrinsics.newCRC32C(), new SoftwareCRC32C()};
+		String[] names = {"CRC32", isCRC32CIntrinsic() ? "CRC32C(java.util.zip)" : "CRC32C(software)", "CRC32C(software)"};
+		for(int i = 0; i < checksums.length; i++) {
+			Checksum checksum = checksums[i];
+			for(int warmup = 0; warmup < 32; warmup++) {
+				checksum.update(data, 0, data.length);
+			}
+			long startTime = System.nanoTime();
+			for(int j = 0; j < megabytes; j++) {
+				checksum.update(data, 0, data.length);
+			}
+			System.out.println(names[i] + ": " + String.format("%.0f", Double.valueOf(megabytesPerSecond(megabytes * (long) data.length, System.nanoTime() - startTime))) + " MB/sec");
+		}
+		checksums[1].reset();
+		checksums[2].reset();
+		checksums[1].update(data, 3, 1000);
+		checksums[2].update(data, 3, 1000);
+		if(checksums[1].getValue() != checksums[2].getValue()) {
+			System.err.println("Software CRC32C does not match: " + Long.toHexString(checksums[2].getValue()) + " != " + Long.toHexString(checksums[1].getValue()));
+		}
+		
+		final int packetsPerMB = data.length / packetSize;
+		long[] nanosPerMB = {Long.MAX_VALUE, Long.MAX_VALUE};
+		for(int round = 0; round < 8; round++) {//Keep the best round of each, to filter out JIT and GC noise
+			for(int mode = 0; mode < 2; mode++) {
+				final ChecksumType type = mode == 0 ? NONE : CRC32C;
+				long total = 0;
+				for(int j = 0; j < megabytes; j++) {
+					ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length + 0x10000);
+					PacketCodec writeCodec = new PacketCodec(false);
+					writeCodec.setChecksumType(type, null);
+					long startTime = System.nanoTime();
+					try(PacketWriter writer = new PacketWriter(baos)) {
+						writer.setCodec(writeCodec);
+						for(int k = 0; k < packetsPerMB; k++) {
+							writer.write(PacketIDs.FragmentID, data, k * packetSize, packetSize);
+						}
+					}
+					final long writeTime = System.nanoTime() - startTime;
+					PacketReader reader = new PacketReader(new ByteArrayInputStream(baos.toByteArray()));
+					reader.setCodec(new PacketCodec(false));
+					startTime = System.nanoTime();
+					int read = 0;
+					while(reader.next() != null) {
+						read++;
+					}
+					total += writeTime + (System.nanoTime() - startTime);
+					if(read != packetsPerMB) {
+						throw new IOException("Expected " + packetsPerMB + " packets, read " + read);
+					}
+				}
+				nanosPerMB[mode] = Math.min(nanosPerMB[mode], total / megabytes);
+			}
+		}
+		System.out.println("Packets of " + packetSize + " bytes, written and read back in memory: no checksum: " + String.format("%.3f", Double.valueOf(nanosPerMB[0] / 1000000.0D)) + "ms/MB; CRC32C: " + String.format("%.3f", Double.valueOf(nanosPerMB[1] / 1000000.0D)) + "ms/MB; overhead: " + String.format("%.3f", Double.valueOf((nanosPerMB[1] - nanosPerMB[0]) / 1000000.0D)) + "ms/MB(+" + (trailerSize * packetsPerMB) + " bytes/MB on the wire)");
+	}
+	
+}
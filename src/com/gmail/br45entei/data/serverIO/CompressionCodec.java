@@ -0,0 +1,44 @@
+package com.gmail.br45entei.data.serverIO;
+
+import java.io.IOException;
+
+/** A compression algorithm that can be used for {@link PacketIDs#StringID
+ * String} packets. Implementations must be thread-safe, and are made available
+ * to {@link PacketCodec}s by {@link CompressionCodecs#register(CompressionCodec)
+ * registering} them under an id that both ends of a connection agree on.
+ * 
+ * @author Brian_Entei
+ * @see CompressionCodecs */
+public interface CompressionCodec {
+	
+	/** @return This codec's id(0-255), which is sent to the other end of the
+	 *         connection when this codec is selected */
+	public int getID();
+	
+	/** @return This codec's name */
+	public String getName();
+	
+	/** @param len The length of the data that will be compressed
+	 * @return The largest number of bytes that
+	 *         {@link #compress(byte[], int, int, byte[], int)} could possibly
+	 *         produce for data of the given length */
+	public int maxCompressedLength(int len);
+	
+	/** @param src The array containing the data to compress
+	 * @param srcOff The offset in the array at which the data starts
+	 * @param len The length of the data
+	 * @param dst The array to write the compressed data to(must have at least
+	 *            {@link #maxCompressedLength(int)} bytes of room)
+	 * @param dstOff The offset in the array at which to start writing
+	 * @return The number of compressed bytes written
+	 * @throws IOException Thrown if the data could not be compressed */
+	public int compress(byte[] src, int srcOff, int len, byte[] dst, int dstOff) throws IOException;
+	
+	/** @param src The array containing the compressed data
+	 * @param off The offset in the array at which the compressed data starts
+	 * @param len The length of the compressed data
+	 * @return The decompressed data
+	 * @throws IOException Thrown if the compressed data is corrupt */
+	public byte[] decompress(byte[] src, int off, int len) throws IOException;
+	
+}
@@ -0,0 +1,673 @@
+package com.gmail.br45entei.data.serverIO;
+
+import com.gmail.br45entei.util.StringUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/** The registry of {@link CompressionCodec}s that can be negotiated with
+ * {@link PacketIDs#SET_COMPRESSION_CODEC SET_COMPRESSION_CODEC}, along with the
+ * built-in codecs:
+ * <ul>
+ * <li>{@link #GZIP}(id 0): the original format, compatible with
+ * {@link StringUtil#compressString(String, String)}, but using a reusable
+ * {@link Deflater} per thread instead of a new {@link java.util.zip.GZIPOutputStream}
+ * every time.</li>
+ * <li>{@link #DEFLATE_DICTIONARY}(id 1): raw deflate with a small shared preset
+ * dictionary and no gzip header or trailer, which makes a big difference for
+ * strings that are only a few hundred bytes long.</li>
+ * <li>{@link #LZ}(id 2): a pure-Java LZ77 codec using the LZ4 block format,
+ * which trades some compression ratio for much higher speed.</li>
+ * </ul>
+ * Data compressed by any codec other than {@link #GZIP} starts with the byte
+ * {@code 0xFF}(which never appears in UTF-8 text) followed by the codec's id,
+ * so compressed string packets can always be told apart from uncompressed
+ * ones, and decompressed without knowing which codec the sender picked.
+ * 
+ * @author Brian_Entei */
+public final class CompressionCodecs {
+	
+	private static final int codecMarker = 0xFF;
+	private static final int maxDecompressedSize = 1 << 26;//64MB
+	
+	private static final CompressionCodec[] codecs = new CompressionCodec[256];
+	
+	/** The default preset dictionary used by {@link #DEFLATE_DICTIONARY}. Both
+	 * ends of a connection must use the exact same dictionary, so this must
+	 * never be changed; register a new {@link DeflateCodec} with a different
+	 * id instead. */
+	private static final byte[] defaultDictionary = ("the and that have for not with you this but from they say her she will one all would there their what "//
+			+ "out about who get which when make can like time just him know take people into year your good some could them see other than "//
+			+ "then now look only come its over think also back after use two how our work first well way even new want because any these "//
+			+ "give day most us is are was were been has had do does did said the server client connection packet message error warning "//
+			+ "info debug user name value type id data text content length status request response true false null "//
+			+ "{\"name\":\"\",\"value\":\"\",\"type\":\"\",\"id\":\"\"} http://https://www..com.org.net/index.html\r\n").getBytes(StandardCharsets.UTF_8);
+	
+	/** The original GZIP format */
+	public static final GZipCodec GZIP = new GZipCodec();
+	/** Raw deflate with the default preset dictionary */
+	public static final DeflateCodec DEFLATE_DICTIONARY = new DeflateCodec(1, "deflate-dictionary", defaultDictionary);
+	/** The fast LZ77 codec */
+	public static final LZCodec LZ = new LZCodec();
+	
+	static {
+		register(GZIP);
+		register(DEFLATE_DICTIONARY);
+		register(LZ);
+	}
+	
+	/** @param codec The codec to register
+	 * @throws IllegalArgumentException Thrown if the codec's id is out of
+	 *             range or already taken by a different codec */
+	public static final synchronized void register(CompressionCodec codec) {
+		final int id = codec.getID();
+		if(id < 0 || id > 255) {
+			throw new IllegalArgumentException("Codec id out of range(must be >= 0 and <= 255): " + id);
+		}
+		if(codecs[id] != null && codecs[id] != codec) {
+			throw new IllegalArgumentException("Codec id " + id + " is already taken by codec \"" + codecs[id].getName() + "\"!");
+		}
+		codecs[id] = codec;
+	}
+	
+	/** @param id The codec's id
+	 * @return The codec registered with the given id, or {@code null} if there
+	 *         isn't one */
+	public static final CompressionCodec getByID(int id) {
+		return id < 0 || id > 255 ? null : codecs[id];
+	}
+	
+	/** @param codec The codec to compress with
+	 * @param data The data to compress
+	 * @return The compressed data, including the codec marker if the codec is
+	 *         not {@link #GZIP}
+	 * @throws IOException Thrown if the data could not be compressed */
+	public static final byte[] compress(CompressionCodec codec, byte[] data) throws IOException {
+		final int headerSize = codec == GZIP ? 0 : 2;
+		byte[] dst = getScratch(headerSize + codec.maxCompressedLength(data.length));
+		if(headerSize != 0) {
+			dst[0] = (byte) codecMarker;
+			dst[1] = (byte) codec.getID();
+		}
+		final int len = codec.compress(data, 0, data.length, dst, headerSize);
+		return Arrays.copyOf(dst, headerSize + len);
+	}
+	
+	/** @param data The array containing the data
+	 * @param off The offset in the array at which the data starts
+	 * @param len The length of the data
+	 * @return Whether or not the data was produced by one of the codecs(i.e.
+	 *         starts with the GZIP header or the codec marker). Since a UTF-8
+	 *         string can never start with either of those, this tells
+	 *         compressed and uncompressed string packets apart without the
+	 *         receiver having to guess from the data's length. */
+	public static final boolean isCompressed(byte[] data, int off, int len) {
+		return len >= 2 && isCompressed(data[off], data[off + 1]);
+	}
+	
+	/** @param b0 The first byte of the data
+	 * @param b1 The second byte of the data
+	 * @return Whether or not data starting with the given two bytes was
+	 *         produced by one of the codecs */
+	static final boolean isCompressed(byte b0, byte b1) {
+		return (b0 == (byte) 0x1f && b1 == (byte) 0x8b) || b0 == (byte) codecMarker;
+	}
+	
+	/** @param data The compressed data
+	 * @return The decompressed data
+	 * @throws IOException Thrown if the data is corrupt or was compressed with
+	 *             a codec that is not registered */
+	public static final byte[] decompress(byte[] data) throws IOException {
+		if(data.length >= 2 && data[0] == (byte) codecMarker) {
+			CompressionCodec codec = getByID(data[1] & 0xFF);
+			if(codec == null) {
+				throw new IOException("Unknown compression codec id: " + (data[1] & 0xFF));
+			}
+			return codec.decompress(data, 2, data.length - 2);
+		}
+		return GZIP.decompress(data, 0, data.length);
+	}
+	
+	/** @param data The compressed data
+	 * @return The decompressed UTF-8 string, or {@code null} if the data could
+	 *         not be decompressed */
+	public static final String decompressString(byte[] data) {
+		try {
+			return new String(decompress(data), StandardCharsets.UTF_8);
+		} catch(IOException ignored) {
+			return null;
+		}
+	}
+	
+	//=============================================
+	
+	private static final ThreadLocal<byte[]> scratch = new ThreadLocal<>();
+	
+	private static final byte[] getScratch(int size) {
+		byte[] buf = scratch.get();
+		if(buf == null || buf.length < size) {
+			buf = new byte[Math.max(size, 4096)];
+			scratch.set(buf);
+		}
+		return buf;
+	}
+	
+	private static final void writeIntLE(byte[] b, int off, int i) {
+		b[off] = (byte) i;
+		b[off + 1] = (byte) (i >>> 8);
+		b[off + 2] = (byte) (i >>> 16);
+		b[off + 3] = (byte) (i >>> 24);
+	}
+	
+	private static final int readIntLE(byte[] b, int off) {
+		return (b[off] & 0xFF) | ((b[off + 1] & 0xFF) << 8) | ((b[off + 2] & 0xFF) << 16) | ((b[off + 3] & 0xFF) << 24);
+	}
+	
+	private static final int readDecompressedLength(byte[] src, int off, int len) throws IOException {
+		if(len < 4) {
+			throw new IOException("Compressed data is too short!");
+		}
+		final int size = readIntLE(src, off);
+		if(size < 0 || size > maxDecompressedSize) {
+			throw new IOException("Decompressed size out of bounds(must be >= 0 and <= " + maxDecompressedSize + "): " + size);
+		}
+		return size;
+	}
+	
+	private static final int deflate(Deflater deflater, byte[] src, int srcOff, int len, byte[] dst, int dstOff) throws IOException {
+		deflater.setInput(src, srcOff, len);
+		deflater.finish();
+		int count = 0;
+		while(!deflater.finished()) {
+			final int written = deflater.deflate(dst, dstOff + count, dst.length - dstOff - count);
+			if(written == 0 && dst.length - dstOff - count == 0) {
+				throw new IOException("Compressed data did not fit into the output buffer!");
+			}
+			count += written;
+		}
+		return count;
+	}
+	
+	/** The decompressed length is read from the data itself, so it can't be
+	 * trusted to allocate the whole output up front(a few bytes could claim
+	 * {@link #maxDecompressedSize}). Decompression starts with a buffer sized
+	 * from the compressed length instead, which {@link #grow(byte[], int, int)}
+	 * then enlarges as data is actually produced.
+	 * 
+	 * @param size The declared decompressed length
+	 * @param compressedLength The length of the compressed data
+	 * @return A new output buffer */
+	private static final byte[] allocateOutput(int size, int compressedLength) {
+		return new byte[(int) Math.min(size, Math.max(4096L, compressedLength * 4L))];
+	}
+	
+	/** @param dst The output buffer
+	 * @param needed The number of bytes the buffer must be able to hold
+	 * @param size The declared decompressed length
+	 * @return The given buffer if it is large enough, or a larger copy of it
+	 * @throws IOException Thrown if more than the declared length is needed */
+	private static final byte[] grow(byte[] dst, int needed, int size) throws IOException {
+		if(needed < 0 || needed > size) {
+			throw new IOException("Compressed data is corrupt(decompresses to more than the declared " + size + " bytes)!");
+		}
+		return needed <= dst.length ? dst : Arrays.copyOf(dst, (int) Math.min(size, Math.max(needed, dst.length * 2L)));
+	}
+	
+	private static final byte[] inflate(Inflater inflater, byte[] dictionary, byte[] src, int off, int len, int size) throws IOException {
+		byte[] dst = allocateOutput(size, len);
+		inflater.setInput(src, off, len);
+		try {
+			int count = 0;
+			while(count < size) {
+				if(count == dst.length) {
+					dst = grow(dst, count + 1, size);
+				}
+				final int read = inflater.inflate(dst, count, dst.length - count);
+				if(read == 0) {
+					if(inflater.needsDictionary() && dictionary != null) {
+						inflater.setDictionary(dictionary);
+						continue;
+					}
+					if(inflater.finished() || inflater.needsInput() || inflater.needsDictionary()) {
+						throw new IOException("Compressed data is truncated(decompressed " + count + " of " + size + " bytes)!");
+					}
+				}
+				count += read;
+			}
+		} catch(DataFormatException e) {
+			throw new IOException("Compressed data is corrupt: " + e.getMessage(), e);
+		}
+		return dst;
+	}
+	
+	/** The GZIP codec. Produces exactly the same format as
+	 * {@link java.util.zip.GZIPOutputStream}, so older peers that use
+	 * {@link StringUtil#decompressString(byte[])} can still read it.
+	 * 
+	 * @author Brian_Entei */
+	public static final class GZipCodec implements CompressionCodec {
+		
+		private static final byte[] header = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+		
+		private final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+			@Override
+			protected Deflater initialValue() {
+				return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			}
+		};
+		private final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+			@Override
+			protected Inflater initialValue() {
+				return new Inflater(true);
+			}
+		};
+		private final ThreadLocal<CRC32> crcs = new ThreadLocal<CRC32>() {
+			@Override
+			protected CRC32 initialValue() {
+				return new CRC32();
+			}
+		};
+		
+		GZipCodec() {
+		}
+		
+		@Override
+		public final int getID() {
+			return 0;
+		}
+		
+		@Override
+		public final String getName() {
+			return "gzip";
+		}
+		
+		@Override
+		public final int maxCompressedLength(int len) {
+			return header.length + len + (len >>> 5) + 64 + 8;
+		}
+		
+		@Override
+		public final int compress(byte[] src, int srcOff, int len, byte[] dst, int dstOff) throws IOException {
+			System.arraycopy(header, 0, dst, dstOff, header.length);
+			Deflater deflater = this.deflaters.get();
+			deflater.reset();
+			final int count = header.length + deflate(deflater, src, srcOff, len, dst, dstOff + header.length);
+			CRC32 crc = this.crcs.get();
+			crc.reset();
+			crc.update(src, srcOff, len);
+			writeIntLE(dst, dstOff + count, (int) crc.getValue());
+			writeIntLE(dst, dstOff + count + 4, len);
+			return count + 8;
+		}
+		
+		@Override
+		public final byte[] decompress(byte[] src, int off, int len) throws IOException {
+			if(len < header.length + 8 || src[off] != header[0] || src[off + 1] != header[1] || src[off + 2] != Deflater.DEFLATED) {
+				throw new IOException("Not in GZIP format");
+			}
+			if(src[off + 3] != 0) {//Optional header fields are present; let GZIPInputStream deal with them
+				try(GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(src, off, len))) {
+					return readAll(in);
+				}
+			}
+			Inflater inflater = this.inflaters.get();
+			inflater.reset();
+			final byte[] dst = inflate(inflater, null, src, off + header.length, len - header.length - 8, readDecompressedLength(src, off + len - 4, 4));
+			CRC32 crc = this.crcs.get();
+			crc.reset();
+			crc.update(dst, 0, dst.length);
+			if((int) crc.getValue() != readIntLE(src, off + len - 8)) {
+				throw new IOException("Corrupt GZIP trailer");
+			}
+			return dst;
+		}
+		
+		private static final byte[] readAll(GZIPInputStream in) throws IOException {
+			byte[] buf = new byte[4096];
+			int count = 0, read;
+			while((read = in.read(buf, count, buf.length - count)) != -1) {
+				count += read;
+				if(count == buf.length) {
+					if(buf.length >= maxDecompressedSize) {
+						throw new IOException("Decompressed data is too large!");
+					}
+					buf = Arrays.copyOf(buf, buf.length * 2);
+				}
+			}
+			return Arrays.copyOf(buf, count);
+		}
+		
+	}
+	
+	/** A raw deflate codec with a preset dictionary and no header or
+	 * trailer(other than the decompressed length). The dictionary helps the
+	 * most for short strings, where a plain compressor would not have seen
+	 * enough data yet to find anything worth referring back to.
+	 * 
+	 * @author Brian_Entei */
+	public static final class DeflateCodec implements CompressionCodec {
+		
+		private final int id;
+		private final String name;
+		private final byte[] dictionary;
+		private final int level;
+		
+		private final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+			@Override
+			protected Deflater initialValue() {
+				return new Deflater(DeflateCodec.this.level, true);
+			}
+		};
+		private final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+			@Override
+			protected Inflater initialValue() {
+				return new Inflater(true);
+			}
+		};
+		
+		/** @param id The codec's id(must not already be registered)
+		 * @param name The codec's name
+		 * @param dictionary The preset dictionary to use, or {@code null} for
+		 *            none. Both ends of the connection must use the same
+		 *            dictionary for the same codec id. */
+		public DeflateCodec(int id, String name, byte[] dictionary) {
+			this(id, name, dictionary, Deflater.DEFAULT_COMPRESSION);
+		}
+		
+		/** @param id The codec's id(must not already be registered)
+		 * @param name The codec's name
+		 * @param dictionary The preset dictionary to use, or {@code null} for
+		 *            none. Both ends of the connection must use the same
+		 *            dictionary for the same codec id.
+		 * @param level The compression level(0-9) */
+		public DeflateCodec(int id, String name, byte[] dictionary, int level) {
+			this.id = id;
+			this.name = name;
+			this.dictionary = dictionary == null || dictionary.length == 0 ? null : dictionary.clone();
+			this.level = level;
+		}
+		
+		@Override
+		public final int getID() {
+			return this.id;
+		}
+		
+		@Override
+		public final String getName() {
+			return this.name;
+		}
+		
+		@Override
+		public final int maxCompressedLength(int len) {
+			return 4 + len + (len >>> 5) + 64;
+		}
+		
+		@Override
+		public final int compress(byte[] src, int srcOff, int len, byte[] dst, int dstOff) throws IOException {
+			writeIntLE(dst, dstOff, len);
+			Deflater deflater = this.deflaters.get();
+			deflater.reset();
+			if(this.dictionary != null) {
+				deflater.setDictionary(this.dictionary);
+			}
+			return 4 + deflate(deflater, src, srcOff, len, dst, dstOff + 4);
+		}
+		
+		@Override
+		public final byte[] decompress(byte[] src, int off, int len) throws IOException {
+			final int size = readDecompressedLength(src, off, len);
+			Inflater inflater = this.inflaters.get();
+			inflater.reset();
+			if(this.dictionary != null) {
+				inflater.setDictionary(this.dictionary);
+			}
+			return inflate(inflater, this.dictionary, src, off + 4, len - 4, size);
+		}
+		
+	}
+	
+	/** A pure-Java LZ77 codec that uses the LZ4 block format(a 4-byte
+	 * little-endian decompressed length followed by a single LZ4 block). It
+	 * only looks for one match candidate per position, which makes it many
+	 * times faster than deflate at the cost of some compression ratio.
+	 * 
+	 * @author Brian_Entei */
+	public static final class LZCodec implements CompressionCodec {
+		
+		private static final int minMatch = 4;
+		private static final int lastLiterals = 5;//The LZ4 format requires the last 5 bytes to be literals
+		private static final int matchFindLimit = 12;//... and the last match to start at least 12 bytes before the end
+		private static final int maxOffset = 0xFFFF;
+		private static final int hashLog = 12;
+		
+		private final ThreadLocal<int[]> hashTables = new ThreadLocal<int[]>() {
+			@Override
+			protected int[] initialValue() {
+				return new int[1 << hashLog];
+			}
+		};
+		
+		LZCodec() {
+		}
+		
+		@Override
+		public final int getID() {
+			return 2;
+		}
+		
+		@Override
+		public final String getName() {
+			return "lz";
+		}
+		
+		@Override
+		public final int maxCompressedLength(int len) {
+			return 4 + len + (len / 255) + 16;
+		}
+		
+		private static final int readInt(byte[] b, int i) {
+			return (b[i] & 0xFF) | ((b[i + 1] & 0xFF) << 8) | ((b[i + 2] & 0xFF) << 16) | ((b[i + 3] & 0xFF) << 24);
+		}
+		
+		private static final int hash(int i) {
+			return (i * -1640531535) >>> (32 - hashLog);
+		}
+		
+		private static final int writeLength(int length, byte[] dst, int op) {
+			while(length >= 255) {
+				dst[op++] = (byte) 255;
+				length -= 255;
+			}
+			dst[op++] = (byte) length;
+			return op;
+		}
+		
+		private static final int writeLiterals(byte[] src, int anchor, int litLen, byte[] dst, int op, int token) {
+			final int tokenPos = op++;
+			if(litLen >= 15) {
+				dst[tokenPos] = (byte) (0xF0 | token);
+				op = writeLength(litLen - 15, dst, op);
+			} else {
+				dst[tokenPos] = (byte) ((litLen << 4) | token);
+			}
+			System.arraycopy(src, anchor, dst, op, litLen);
+			return op + litLen;
+		}
+		
+		@Override
+		public final int compress(byte[] src, int srcOff, int len, byte[] dst, int dstOff) {
+			writeIntLE(dst, dstOff, len);
+			int op = dstOff + 4;
+			final int end = srcOff + len;
+			int anchor = srcOff;
+			if(len >= matchFindLimit + 1) {
+				//The table is never cleared; entries left over from earlier calls are harmless since every candidate is verified before use.
+				final int[] table = this.hashTables.get();
+				final int matchLimit = end - lastLiterals;
+				final int findLimit = end - matchFindLimit;
+				int ip = srcOff;
+				while(ip < findLimit) {
+					final int sequence = readInt(src, ip);
+					final int h = hash(sequence);
+					int ref = srcOff + table[h];
+					table[h] = ip - srcOff;
+					if(ref < srcOff || ref >= ip || ip - ref > maxOffset || readInt(src, ref) != sequence) {
+						ip++;
+						continue;
+					}
+					while(ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+						ip--;
+						ref--;
+					}
+					int matchLen = minMatch;
+					while(ip + matchLen < matchLimit && src[ip + matchLen] == src[ref + matchLen]) {
+						matchLen++;
+					}
+					final int ml = matchLen - minMatch;
+					op = writeLiterals(src, anchor, ip - anchor, dst, op, ml >= 15 ? 15 : ml);
+					final int offset = ip - ref;
+					dst[op++] = (byte) offset;
+					dst[op++] = (byte) (offset >>> 8);
+					if(ml >= 15) {
+						op = writeLength(ml - 15, dst, op);
+					}
+					ip += matchLen;
+					anchor = ip;
+				}
+			}
+			op = writeLiterals(src, anchor, end - anchor, dst, op, 0);
+			return op - dstOff;
+		}
+		
+		@Override
+		public final byte[] decompress(byte[] src, int off, int len) throws IOException {
+			final int size = readDecompressedLength(src, off, len);
+			byte[] dst = allocateOutput(size, len);
+			final int end = off + len;
+			int ip = off + 4;
+			int op = 0;
+			try {
+				while(true) {
+					final int token = src[ip++] & 0xFF;
+					int litLen = token >>> 4;
+					if(litLen == 15) {
+						int b;
+						do {
+							b = src[ip++] & 0xFF;
+							litLen += b;
+						} while(b == 255);
+					}
+					dst = grow(dst, op + litLen, size);
+					System.arraycopy(src, ip, dst, op, litLen);
+					ip += litLen;
+					op += litLen;
+					if(ip >= end) {
+						break;
+					}
+					final int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+					ip += 2;
+					int matchLen = token & 0x0F;
+					if(matchLen == 15) {
+						int b;
+						do {
+							b = src[ip++] & 0xFF;
+							matchLen += b;
+						} while(b == 255);
+					}
+					matchLen += minMatch;
+					int ref = op - offset;
+					if(offset == 0 || ref < 0 || op + matchLen > size) {
+						throw new IOException("Compressed data is corrupt(bad match at output position " + op + ")");
+					}
+					dst = grow(dst, op + matchLen, size);
+					for(int i = 0; i < matchLen; i++) {//Byte by byte, since the match may overlap the bytes being written
+						dst[op++] = dst[ref++];
+					}
+				}
+			} catch(ArrayIndexOutOfBoundsException e) {
+				throw new IOException("Compressed data is corrupt or truncated", e);
+			}
+			if(op != size) {
+				throw new IOException("Compressed data is truncated(decompressed " + op + " of " + size + " bytes)!");
+			}
+			return dst;
+		}
+		
+	}
+	
+	//=============================================
+	
+	/** Compares the compression ratio and throughput of each built-in codec
+	 * against the original {@link StringUtil#compressString(String, String)}
+	 * path, for a few typical string packet sizes.
+	 * 
+	 * @param args Program command line arguments */
+	public static final void main(String[] args) {
+		final Random random = new Random(1337L);
+		final String[] words = {"server", "client", "connection", "packet", "message", "user", "name", "value", "status", "error", "the", "and", "data", "request", "response", "true", "false", "id", "length", "hello", "world"};
+		final int[] sizes = {256, 512, 1024, 4096, 16384};
+		final int iterations = args.length > 0 && StringUtil.isStrInt(args[0]) ? Integer.parseInt(args[0]) : 5000;
+		for(int size : sizes) {
+			StringBuilder sb = new StringBuilder();
+			while(sb.length() < size) {
+				sb.append(words[random.nextInt(words.length)]).append(random.nextInt(4) == 0 ? ": " + random.nextInt(100000) + "\r\n" : " ");
+			}
+			final String text = sb.substring(0, size);
+			final byte[] data = text.getBytes(StandardCharsets.UTF_8);
+			System.out.println("===== " + size + " byte string:");
+			for(int run = 0; run < 2; run++) {//The first run is just to warm up the JIT
+				final boolean print = run == 1;
+				long startTime = System.nanoTime();
+				byte[] compressed = null;
+				for(int i = 0; i < iterations; i++) {
+					compressed = StringUtil.compressString(text, StandardCharsets.UTF_8);
+				}
+				long compressTime = System.nanoTime() - startTime;
+				startTime = System.nanoTime();
+				for(int i = 0; i < iterations; i++) {
+					StringUtil.decompressString(compressed);
+				}
+				long decompressTime = System.nanoTime() - startTime;
+				if(print) {
+					printResult("StringUtil(gzip)", data.length, compressed.length, iterations, compressTime, decompressTime);
+				}
+				for(CompressionCodec codec : new CompressionCodec[] {GZIP, DEFLATE_DICTIONARY, LZ}) {
+					try {
+						startTime = System.nanoTime();
+						for(int i = 0; i < iterations; i++) {
+							compressed = compress(codec, data);
+						}
+						compressTime = System.nanoTime() - startTime;
+						byte[] decompressed = null;
+						startTime = System.nanoTime();
+						for(int i = 0; i < iterations; i++) {
+							decompressed = decompress(compressed);
+						}
+						decompressTime = System.nanoTime() - startTime;
+						if(!Arrays.equals(data, decompressed)) {
+							System.out.println(codec.getName() + ": round trip FAILED!");
+						} else if(print) {
+							printResult(codec.getName(), data.length, compressed.length, iterations, compressTime, decompressTime);
+						}
+					} catch(IOException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		}
+	}
+	
+	private static final void printResult(String name, int size, int compressedSize, int iterations, long compressTime, long decompressTime) {
+		final double mb = ((double) size * iterations) / 1048576.0D;
+		System.out.println(String.format("%-20s ratio: %5.1f%%; compress: %8.1f MB/s; decompress: %8.1f MB/s", name, (compressedSize * 100.0D) / size, mb / (compressTime / 1000000000.0D), mb / (decompressTime / 1000000000.0D)));
+	}
+	
+}
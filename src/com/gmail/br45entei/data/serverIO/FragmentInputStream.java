@@ -0,0 +1,313 @@
+package com.gmail.br45entei.data.serverIO;
+
+import com.gmail.br45entei.data.DisposableByteArrayOutputStream;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** An input stream that reads the message sent by a
+ * {@link FragmentOutputStream}, one {@link PacketIDs#FragmentID fragment} at a
+ * time. When reading from a plain input stream, the message data is passed
+ * straight through from the source without being buffered; only each
+ * fragment's header is parsed here. That only works for streams that carry
+ * nothing but plain fragments, though; if the sender may also use
+ * {@link ChecksumType checksums} or send other control packets in between,
+ * read the stream through a {@link PacketCodec} with
+ * {@link #FragmentInputStream(InputStream, PacketCodec)} instead(each
+ * fragment is then buffered while its trailer is checked).<br>
+ * The stream ends once the final fragment has been read. Closing it does
+ * <b>not</b> close the underlying stream, but it does skip over whatever is
+ * left of the message so that the next packet can be read normally.
+ * 
+ * @author Brian_Entei
+ * @see FragmentOutputStream */
+public class FragmentInputStream extends InputStream {
+	
+	private final InputStream in;
+	private final PacketCodec codec;
+	private final PacketReader reader;
+	private final ReentrantLock lock = new ReentrantLock();
+	/** Used by {@link #read()}(under {@link #lock}) */
+	private final byte[] single = new byte[1];
+	
+	private byte[] pending = null;
+	private int pendingPos = 0;
+	private int readerPos = 0;
+	
+	private volatile PacketType messageID = null;
+	private int remaining = 0;
+	private boolean lastFragment = false;
+	private volatile boolean closed = false;
+	
+	/** @param in The input stream to read the fragments from. The next packet
+	 *            in the stream must be the message's first fragment, and the
+	 *            stream must not use checksums or contain control packets(see
+	 *            {@link #FragmentInputStream(InputStream, PacketCodec)}). */
+	public FragmentInputStream(InputStream in) {
+		this(in, (PacketCodec) null);
+	}
+	
+	/** @param in The input stream to read the fragments from. The next packet
+	 *            in the stream must be the message's first fragment.
+	 * @param codec The codec to read the fragments with(which verifies
+	 *            checksum trailers and handles control packets), or
+	 *            {@code null} to parse plain fragments straight from the
+	 *            stream */
+	public FragmentInputStream(InputStream in, PacketCodec codec) {
+		if(in == null) {
+			throw new NullPointerException("in cannot be null!");
+		}
+		this.in = in;
+		this.codec = codec;
+		this.reader = null;
+	}
+	
+	/** @param firstFragment The message's first fragment, as returned by
+	 *            {@link Packet#readNextPacket(InputStream)}
+	 * @param in The input stream to read the rest of the fragments from
+	 * @throws IOException Thrown if the given packet is not a valid
+	 *             fragment */
+	public FragmentInputStream(Packet firstFragment, InputStream in) throws IOException {
+		this(firstFragment, in, null);
+	}
+	
+	/** @param firstFragment The message's first fragment, as returned by
+	 *            {@link PacketCodec#readNextPacket(InputStream)}
+	 * @param in The input stream to read the rest of the fragments from
+	 * @param codec The codec to read the rest of the fragments with, or
+	 *            {@code null} to parse plain fragments straight from the
+	 *            stream
+	 * @throws IOException Thrown if the given packet is not a valid
+	 *             fragment */
+	public FragmentInputStream(Packet firstFragment, InputStream in, PacketCodec codec) throws IOException {
+		this(in, codec);
+		if(firstFragment.getType() != PacketIDs.FragmentID) {
+			throw new IOException("Expected a fragment but got: " + firstFragment.getType());
+		}
+		final byte[] data = firstFragment.getBackingData();
+		if(data.length == 0) {
+			throw new IOException("Malformed fragment: missing header byte!");
+		}
+		this.startFragment(data[0] & 0xFF, data.length - 1);
+		this.pending = data;
+		this.pendingPos = 1;
+	}
+	
+	/** @param reader The packet reader to read the fragments from. If the
+	 *            reader's current packet is a fragment, the message starts
+	 *            with it; otherwise the next packet read must be the message's
+	 *            first fragment. */
+	public FragmentInputStream(PacketReader reader) {
+		if(reader == null) {
+			throw new NullPointerException("reader cannot be null!");
+		}
+		this.in = null;
+		this.codec = null;
+		this.reader = reader;
+		if(reader.getID() == PacketIDs.FragmentID && reader.getLength() > 0) {
+			this.startFragment(reader.getByte() & 0xFF, reader.getLength() - 1);
+			this.readerPos = 1;
+		}
+	}
+	
+	/** @return The id of the message being read, or {@code null} if no
+	 *         fragment has been read yet */
+	public final PacketType getMessageID() {
+		return this.messageID;
+	}
+	
+	private final void startFragment(int header, int length) {
+		final PacketType id = PacketTypes.getByID(header & ~FragmentOutputStream.finalFragmentFlag);
+		if(this.messageID == null) {
+			this.messageID = id;
+		}
+		this.remaining = length;
+		this.lastFragment = (header & FragmentOutputStream.finalFragmentFlag) != 0;
+	}
+	
+	/** Reads the header of the next fragment.
+	 * 
+	 * @return False if the final fragment has already been read */
+	private final boolean nextFragment() throws IOException {
+		if(this.lastFragment) {
+			return false;
+		}
+		this.pending = null;
+		final int header;
+		final int length;
+		if(this.reader != null) {
+			final PacketType id;
+			try {
+				id = this.reader.next();
+			} catch(PacketReadException e) {
+				throw new IOException(e.getMessage(), e);
+			}
+			if(id == null) {
+				throw new EOFException("End of stream reached before the final fragment!");
+			}
+			if(id != PacketIDs.FragmentID || this.reader.getLength() == 0) {
+				throw new IOException("Expected a fragment but got: " + id);
+			}
+			header = this.reader.getByte() & 0xFF;
+			length = this.reader.getLength() - 1;
+			this.readerPos = 1;
+		} else if(this.codec != null) {
+			final Packet packet;
+			try {
+				packet = this.codec.readNextPacket(this.in);
+			} catch(PacketReadException e) {
+				throw new IOException(e.getMessage(), e);
+			}
+			if(packet == null) {
+				throw new EOFException("End of stream reached before the final fragment!");
+			}
+			final byte[] data = packet.getType() == PacketIDs.FragmentID ? packet.getBackingData() : null;
+			if(data == null || data.length == 0) {
+				throw new IOException("Expected a fragment but got: " + packet.getType());
+			}
+			header = data[0] & 0xFF;
+			length = data.length - 1;
+			this.pending = data;
+			this.pendingPos = 1;
+		} else {
+			int readID = this.in.read();
+			if(readID == -1) {
+				throw new EOFException("End of stream reached before the final fragment!");
+			}
+			if((readID & Packet.correlatedFlag) != 0) {
+				readID &= ~Packet.correlatedFlag;
+				Packet.readInt(this.in);//Fragments don't use the correlation id
+			}
+			if(readID != PacketIDs.FragmentID.getID()) {
+				final PacketType id = PacketTypes.getByID(readID);
+				if(id != null && PacketCodec.isControlPacket(id)) {
+					throw new IOException("Received a " + id + " control packet while reading a fragmented message; use a PacketCodec to read streams that may contain checksums or control packets!");
+				}
+				throw new IOException("Expected a fragment but got: " + id);
+			}
+			final int len = Packet.readInt(this.in);
+			if(len < 1 || len > Packet.maxSize) {
+				throw new IOException("Fragment size out of bounds(must be >= 1 and <= " + Packet.maxSize + "): " + len);
+			}
+			header = this.in.read();
+			if(header == -1) {
+				throw new EOFException("End of stream reached before the final fragment!");
+			}
+			length = len - 1;
+		}
+		final PacketType previousID = this.messageID;
+		this.startFragment(header, length);
+		if(previousID != null && previousID != this.messageID) {
+			throw new IOException("Fragment for message " + PacketTypes.getByID(header & ~FragmentOutputStream.finalFragmentFlag) + " received in the middle of message " + previousID + "!");
+		}
+		return true;
+	}
+	
+	private final void checkClosed() throws IOException {
+		if(this.closed) {
+			throw new IOException("FragmentInputStream is closed!");
+		}
+	}
+	
+	@Override
+	public final int read() throws IOException {
+		this.lock.lock();
+		try {
+			return this.read(this.single, 0, 1) == -1 ? -1 : this.single[0] & 0xFF;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	@Override
+	public final int read(byte[] b, int off, int len) throws IOException {
+		this.lock.lock();
+		try {
+			this.checkClosed();
+			if(b == null) {
+				throw new NullPointerException();
+			} else if(off < 0 || len < 0 || len > b.length - off) {
+				throw new IndexOutOfBoundsException();
+			} else if(len == 0) {
+				return 0;
+			}
+			while(this.remaining == 0) {
+				if(!this.nextFragment()) {
+					return -1;
+				}
+			}
+			final int toRead = Math.min(len, this.remaining);
+			final int read;
+			if(this.pending != null) {
+				System.arraycopy(this.pending, this.pendingPos, b, off, toRead);
+				this.pendingPos += toRead;
+				read = toRead;
+			} else if(this.reader != null) {
+				read = this.reader.getData(this.readerPos, b, off, toRead);
+				this.readerPos += read;
+			} else {
+				read = this.in.read(b, off, toRead);
+				if(read == -1) {
+					throw new EOFException("End of stream reached in the middle of a fragment!");
+				}
+			}
+			this.remaining -= read;
+			return read;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	@Override
+	public final int available() throws IOException {
+		this.lock.lock();
+		try {
+			if(this.closed) {
+				return 0;
+			}
+			if(this.pending != null || this.reader != null) {
+				return this.remaining;
+			}
+			return Math.min(this.remaining, this.in.available());
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	/** Reads the rest of the message into memory. Only use this for messages
+	 * that are known to be reasonably small.
+	 * 
+	 * @return The rest of the message's data
+	 * @throws IOException Thrown if an I/O error occurs */
+	public final byte[] readFully() throws IOException {
+		DisposableByteArrayOutputStream baos = new DisposableByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int read;
+		while((read = this.read(buf, 0, buf.length)) != -1) {
+			baos.write(buf, 0, read);
+		}
+		return baos.getBytesAndDispose();
+	}
+	
+	/** Skips over whatever is left of the message, without closing the
+	 * underlying stream. */
+	@Override
+	public final void close() throws IOException {
+		this.lock.lock();
+		try {
+			if(this.closed) {
+				return;
+			}
+			byte[] buf = new byte[8192];
+			while(this.read(buf, 0, buf.length) != -1) {
+			}
+			this.closed = true;
+			this.pending = null;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+}
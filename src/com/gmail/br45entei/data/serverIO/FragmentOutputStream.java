@@ -0,0 +1,178 @@
+package com.gmail.br45entei.data.serverIO;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** An output stream that sends everything written to it as a sequence of
+ * {@link PacketIDs#FragmentID fragment} packets, allowing messages that are
+ * larger than the maximum packet size to be streamed without having to buffer
+ * them whole or split them up by hand.<br>
+ * Calling {@link #close()} sends the final fragment, which tells the other end
+ * that the message is complete; it does <b>not</b> close the underlying stream
+ * or packet writer.
+ * 
+ * @author Brian_Entei
+ * @see FragmentInputStream */
+public class FragmentOutputStream extends OutputStream {
+	
+	/** The bit that is set in a fragment's header byte when it is the last
+	 * fragment of its message */
+	public static final int finalFragmentFlag = 0x80;
+	/** The maximum number of message bytes that fit into a single fragment */
+	public static final int maxFragmentSize = Packet.maxSize - 1;
+	
+	private final PacketWriter writer;
+	private final int messageID;
+	private final byte[] buf;
+	private final ReentrantLock lock = new ReentrantLock();
+	private int count = 1;//buf[0] is the fragment header
+	private volatile boolean closed = false;
+	
+	/** @param writer The packet writer that the fragments will be written to
+	 * @param messageID The id that the reassembled message will have */
+	public FragmentOutputStream(PacketWriter writer, PacketType messageID) {
+		if(writer == null || messageID == null) {
+			throw new NullPointerException();
+		}
+		if(messageID == PacketIDs.FragmentID) {
+			throw new IllegalArgumentException("Fragments cannot contain other fragments!");
+		}
+		this.writer = writer;
+		this.messageID = messageID.getID();
+		this.buf = new byte[Packet.maxSize];
+	}
+	
+	/** @param out The output stream that the fragments will be written to
+	 * @param messageID The id that the reassembled message will have */
+	public FragmentOutputStream(OutputStream out, PacketType messageID) {
+		this(new PacketWriter(out), messageID);
+	}
+	
+	private final void sendFragment(boolean last) throws IOException {
+		this.buf[0] = (byte) (this.messageID | (last ? finalFragmentFlag : 0));
+		this.writer.write(PacketIDs.FragmentID, this.buf, 0, this.count);
+		this.count = 1;
+	}
+	
+	private final void checkClosed() throws IOException {
+		if(this.closed) {
+			throw new IOException("FragmentOutputStream is closed!");
+		}
+	}
+	
+	@Override
+	public final void write(int b) throws IOException {
+		this.lock.lock();
+		try {
+			this.checkClosed();
+			if(this.count == this.buf.length) {
+				this.sendFragment(false);
+			}
+			this.buf[this.count++] = (byte) b;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	@Override
+	public final void write(byte[] b, int off, int len) throws IOException {
+		this.lock.lock();
+		try {
+			this.checkClosed();
+			if(b == null) {
+				throw new NullPointerException();
+			} else if(off < 0 || len < 0 || len > b.length - off) {
+				throw new IndexOutOfBoundsException();
+			}
+			while(len > 0) {
+				if(this.count == this.buf.length) {
+					this.sendFragment(false);
+				}
+				final int toCopy = Math.min(len, this.buf.length - this.count);
+				System.arraycopy(b, off, this.buf, this.count, toCopy);
+				this.count += toCopy;
+				off += toCopy;
+				len -= toCopy;
+			}
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	/** Copies everything from the given input stream into this fragment
+	 * stream(without closing either of them).
+	 * 
+	 * @param in The input stream to read from
+	 * @return The number of bytes copied
+	 * @throws IOException Thrown if an I/O error occurs */
+	public final long transferFrom(InputStream in) throws IOException {
+		this.lock.lock();
+		try {
+			this.checkClosed();
+			long total = 0;
+			int read;
+			while(true) {
+				if(this.count == this.buf.length) {
+					this.sendFragment(false);
+				}
+				read = in.read(this.buf, this.count, this.buf.length - this.count);
+				if(read == -1) {
+					break;
+				}
+				this.count += read;
+				total += read;
+			}
+			return total;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	/** Sends any buffered message data as a (non-final) fragment and flushes
+	 * the underlying packet writer. */
+	@Override
+	public final void flush() throws IOException {
+		this.lock.lock();
+		try {
+			this.checkClosed();
+			if(this.count > 1) {
+				this.sendFragment(false);
+			}
+			this.writer.flush();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	/** Sends the final fragment of the message and flushes the underlying
+	 * packet writer. */
+	@Override
+	public final void close() throws IOException {
+		this.lock.lock();
+		try {
+			if(this.closed) {
+				return;
+			}
+			this.sendFragment(true);
+			this.closed = true;
+			this.writer.flush();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	/** Sends the given data as a sequence of fragments.
+	 * 
+	 * @param messageID The id that the reassembled message will have
+	 * @param data The message data
+	 * @param out The output stream to write the fragments to
+	 * @throws IOException Thrown if an I/O error occurs */
+	public static final void writeFragmented(PacketType messageID, byte[] data, OutputStream out) throws IOException {
+		try(FragmentOutputStream fragments = new FragmentOutputStream(out, messageID)) {
+			fragments.write(data, 0, data.length);
+		}
+	}
+	
+}
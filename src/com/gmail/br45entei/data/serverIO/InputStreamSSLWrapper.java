@@ -1,20 +1,29 @@
 package com.gmail.br45entei.data.serverIO;
 
-import com.gmail.br45entei.data.DisposableByteArrayOutputStream;
-
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
 
-/** @author Brian_Entei */
+/** An input stream that lets a server look at the first byte of a connection
+ * (to tell TLS apart from plain text, see {@link #isNextByteClientHello()})
+ * and put bytes back in front of the rest of the stream.<br>
+ * Bytes that were put back are kept in a small internal buffer, which is read
+ * from first; once it is empty, every read goes straight to the source
+ * stream, so bulk reads cost the same as they would without the wrapper.
+ * 
+ * @author Brian_Entei */
 public class InputStreamSSLWrapper extends InputStream {
 	
 	/** The first byte sent when a client connects to a server attempting to use
 	 * an TLS(HTTPS over SSL) connection */
 	public static final int sslClientHello = 0x16;
 	private volatile InputStream source;
-	private volatile DisposableByteArrayOutputStream baos = new DisposableByteArrayOutputStream();
-	
-	//private volatile long								deleteme		= 0L;
+	/** The bytes that are read before the source; only
+	 * {@code buf[pos]} to {@code buf[limit - 1]} are still unread */
+	private byte[] buf = new byte[16];
+	private volatile int pos = 0, limit = 0;
+	private final ReentrantLock lock = new ReentrantLock();
 	
 	/** @param source The InputStream to read from */
 	public InputStreamSSLWrapper(InputStream source) {
@@ -23,100 +32,147 @@ public class InputStreamSSLWrapper extends InputStream {
 	
 	/** @param source The new InputStream to read from */
 	public final void setSource(InputStream source) {
-		this.source = null;
-		this.baos.dispose();
-		this.source = source;
+		this.lock.lock();
+		try {
+			this.source = null;
+			this.pos = this.limit = 0;
+			this.source = source;
+		} finally {
+			this.lock.unlock();
+		}
 	}
 	
-	/** @param b Adds a single byte to the ByteArrayOutputStream that is read
-	 *            from first when any of the various {@link #read()} methods are
-	 *            called
+	/** @param b Adds a single byte to the end of the internal buffer that is
+	 *            read from first when any of the various {@link #read()}
+	 *            methods are called
 	 * @return This input stream wrapper */
-	public final synchronized InputStreamSSLWrapper addByteToInternalBuffer(int b) {
-		this.baos.write(b);
-		return this;
+	public final InputStreamSSLWrapper addByteToInternalBuffer(int b) {
+		return this.addBytesToInternalBuffer(new byte[] {(byte) b});
 	}
 	
-	/** @param bytes Adds {@code bytes.length} bytes to the
-	 *            ByteArrayOutputStream that is read from first when any of the
-	 *            various {@link #read()} methods are called
+	/** @param bytes Adds {@code bytes.length} bytes to the end of the internal
+	 *            buffer that is read from first when any of the various
+	 *            {@link #read()} methods are called
 	 * @return This input stream wrapper */
-	public final synchronized InputStreamSSLWrapper addBytesToInternalBuffer(byte[] bytes) {
-		this.baos.write(bytes, 0, bytes.length);
-		return this;
-	}
-	
-	private final int internalRead() throws IOException {
-		if(this.source == null || this.baos == null) {
-			return -1;
+	public final InputStreamSSLWrapper addBytesToInternalBuffer(byte[] bytes) {
+		this.lock.lock();
+		try {
+			final int unread = this.limit - this.pos;
+			if(this.pos > 0) {//Move the unread bytes to the front
+				System.arraycopy(this.buf, this.pos, this.buf, 0, unread);
+				this.pos = 0;
+			}
+			if(unread + bytes.length > this.buf.length) {
+				this.buf = Arrays.copyOf(this.buf, Math.max(this.buf.length * 2, unread + bytes.length));
+			}
+			System.arraycopy(bytes, 0, this.buf, unread, bytes.length);
+			this.limit = unread + bytes.length;
+			return this;
+		} finally {
+			this.lock.unlock();
 		}
-		int read = this.source.read();
-		this.baos.dispose();//XXX comment/remove this if reading more than one byte at a time!
-		this.baos.write(read);
-		return read;
 	}
 	
-	/** @return Whether or not the ByteArrayOutputStream that is read from first
-	 *         when any of the various {@link #read()} methods are called is
+	/** @return Whether or not the internal buffer that is read from first when
+	 *         any of the various {@link #read()} methods are called is
 	 *         empty(i.e. will the next call to the {@link #read()} methods
 	 *         actually read from the input stream or not) */
 	public final boolean isInternalBufferEmpty() {
-		if(this.baos == null) {
-			return true;
-		}
-		return this.baos.isEmpty();
+		return this.pos == this.limit;
 	}
 	
-	/** For convenient use in future implementations of 'InputStreamReader'
+	/** Returns the next byte without consuming it: if the internal buffer is
+	 * empty, a single byte is read from the source and put into it.
 	 * 
-	 * @param b
-	 * @param off
-	 * @param len
-	 * @return
-	 * @throws IOException */
-	protected final int internalRead(byte[] b, int off, int len) throws IOException {
-		if(b == null) {
-			throw new NullPointerException();
-		} else if(off < 0 || len < 0 || len > b.length - off) {
-			throw new IndexOutOfBoundsException();
-		} else if(len == 0) {
-			return 0;
-		}
-		int c = this.internalRead();
-		if(c == -1) {
-			return -1;
+	 * @return The next byte, or {@code -1} if the end of the stream has been
+	 *         reached
+	 * @throws IOException Thrown if there was an error reading the next byte
+	 *             from the underlying socket */
+	public final int peek() throws IOException {
+		this.lock.lock();
+		try {
+			if(this.pos < this.limit) {
+				return this.buf[this.pos] & 0xFF;
+			}
+			final InputStream source = this.source;
+			final int read = source == null ? -1 : source.read();
+			if(read != -1) {
+				this.buf[0] = (byte) read;
+				this.pos = 0;
+				this.limit = 1;
+			}
+			return read;
+		} finally {
+			this.lock.unlock();
 		}
-		b[off] = (byte) c;
-		int i = 1;
-		for(; i < len; i++) {
-			c = this.internalRead();
-			if(c == -1) {
-				break;
+	}
+	
+	/** Reads at most {@code len} bytes from the internal buffer.
+	 * 
+	 * @return The number of bytes read(zero if the buffer is empty) */
+	private final int readBuffered(byte[] b, int off, int len) {
+		this.lock.lock();
+		try {
+			final int count = Math.min(len, this.limit - this.pos);
+			if(count > 0) {
+				System.arraycopy(this.buf, this.pos, b, off, count);
+				this.pos += count;
 			}
-			b[off + i] = (byte) c;
+			return count;
+		} finally {
+			this.lock.unlock();
 		}
-		return i;
 	}
 	
-	/** @param b The byte to check with
+	/** For convenient use in future implementations of 'InputStreamReader'
+	 * 
+	 * @param b The buffer to read into
+	 * @param off The offset in the buffer to start at
+	 * @param len The maximum number of bytes to read
+	 * @return The number of bytes that were read, or {@code -1} if the end of
+	 *         the stream has been reached
+	 * @throws IOException Thrown if an I/O error occurs
+	 * @see #read(byte[], int, int) */
+	protected final int internalRead(byte[] b, int off, int len) throws IOException {
+		return this.read(b, off, len);
+	}
+	
+	/** If the next byte is the given byte, it is consumed; otherwise it is
+	 * left in the internal buffer, so that the next read returns it.
+	 * 
+	 * @param b The byte to check with
 	 * @return True if the next int is equal to the given byte(converted to int
 	 *         using ' & 0xFF')
 	 * @throws IOException Thrown if there was an error reading the next byte
 	 *             from the underlying socket */
 	public final boolean isNextByte(byte b) throws IOException {
-		return this.internalRead() == (b & 0xFF);
+		return this.isNextByte(b & 0xFF);
 	}
 	
-	/** @param b The byte to check with
+	/** If the next byte is the given byte, it is consumed; otherwise it is
+	 * left in the internal buffer, so that the next read returns it.
+	 * 
+	 * @param b The byte to check with
 	 * @return True if the next byte is equal to the given integer
 	 * @throws IOException Thrown if there was an error reading the next byte
 	 *             from the underlying socket */
 	public final boolean isNextByte(int b) throws IOException {
-		return this.internalRead() == b;
+		this.lock.lock();
+		try {
+			if(this.peek() != b) {
+				return false;
+			}
+			this.pos++;
+			return true;
+		} finally {
+			this.lock.unlock();
+		}
 	}
 	
 	/** If the result of this method is {@code false}, then the read byte is
-	 * added to the internal buffer.
+	 * left in the internal buffer; otherwise it is consumed(and has to be
+	 * {@link #addByteToInternalBuffer(int) put back} before the stream is
+	 * handed to an SSL socket).
 	 * 
 	 * @return True if the next byte is the
 	 *         {@link InputStreamSSLWrapper#sslClientHello}, or '22'
@@ -127,16 +183,26 @@ public class InputStreamSSLWrapper extends InputStream {
 	}
 	
 	@Override
-	public final synchronized void mark(int readlimit) {
-		if(this.source != null) {
-			this.source.mark(readlimit);
+	public final void mark(int readlimit) {
+		this.lock.lock();
+		try {
+			if(this.source != null) {
+				this.source.mark(readlimit);
+			}
+		} finally {
+			this.lock.unlock();
 		}
 	}
 	
 	@Override
-	public final synchronized void reset() throws IOException {
-		if(this.source != null) {
-			this.source.reset();
+	public final void reset() throws IOException {
+		this.lock.lock();
+		try {
+			if(this.source != null) {
+				this.source.reset();
+			}
+		} finally {
+			this.lock.unlock();
 		}
 	}
 	
@@ -147,12 +213,16 @@ public class InputStreamSSLWrapper extends InputStream {
 	
 	@Override
 	public final int available() throws IOException {
-		if(this.source == null) {
+		final InputStream source = this.source;
+		if(source == null) {
 			return -1;
 		}
-		return this.source.available();
+		return (this.limit - this.pos) + source.available();
 	}
 	
+	/** Reads from the internal buffer if it isn't empty(returning only what
+	 * was in it, so that this never blocks when there is data to return), and
+	 * otherwise hands the read straight to the source stream. */
 	@Override
 	public final int read(byte[] b, int off, int len) throws IOException {
 		if(b == null) {
@@ -162,57 +232,64 @@ public class InputStreamSSLWrapper extends InputStream {
 		} else if(len == 0) {
 			return 0;
 		}
-		
-		int c = this.read();
-		if(c == -1) {
-			return -1;
-		}
-		b[off] = (byte) c;
-		
-		int i = 1;
-		try {
-			for(; i < len; i++) {
-				c = this.read();
-				if(c == -1) {
-					break;
-				}
-				b[off + i] = (byte) c;
+		if(this.pos != this.limit) {
+			final int count = this.readBuffered(b, off, len);
+			if(count > 0) {
+				return count;
 			}
-		} catch(IOException ee) {
 		}
-		return i;
+		final InputStream source = this.source;
+		return source == null ? -1 : source.read(b, off, len);
 	}
 	
-	//private volatile boolean normalMode = false;
-	
-	//public final void setNormalMode() {
-	//	this.normalMode = true;
-	//}
-	
 	@Override
 	public int read() throws IOException {
-		if(this.baos == null || this.source == null) {
-			return -1;
+		if(this.pos != this.limit) {
+			this.lock.lock();
+			try {
+				if(this.pos < this.limit) {
+					return this.buf[this.pos++] & 0xFF;
+				}
+			} finally {
+				this.lock.unlock();
+			}
 		}
-		if(this.baos.available() == 0 || this.baos.isEmpty()) {
-			return this.source.read();//this.normalMode ? this.source.read() : (this.source.available() > 0 ? this.source.read() : -1);
+		final InputStream source = this.source;
+		return source == null ? -1 : source.read();
+	}
+	
+	@Override
+	public final long skip(long n) throws IOException {
+		if(n <= 0) {
+			return 0;
 		}
-		//System.out.println("HAY! Num: " + (this.deleteme++) + "; this.baos.available(): " + this.baos.available());
-		//return this.baos.read();
-		int read = this.baos.read();
-		if(read == -1) {
-			read = this.source.read();//this.normalMode ? this.source.read() : (this.source.available() > 0 ? this.source.read() : -1);
+		if(this.pos != this.limit) {
+			this.lock.lock();
+			try {
+				final int count = (int) Math.min(n, this.limit - this.pos);
+				this.pos += count;
+				return count;
+			} finally {
+				this.lock.unlock();
+			}
 		}
-		return read;
+		final InputStream source = this.source;
+		return source == null ? 0 : source.skip(n);
 	}
 	
 	/** Removes this InputStreamReader's reference to its' source InputStream,
 	 * and disposes of this InputStreamReader's internal byte buffer. */
 	public final void dispose() {
-		this.baos.dispose();
-		this.baos = null;
-		this.source = null;
-		System.gc();
+		this.lock.lock();
+		try {
+			if(this.buf.length > 16) {
+				this.buf = new byte[16];
+			}
+			this.pos = this.limit = 0;
+			this.source = null;
+		} finally {
+			this.lock.unlock();
+		}
 	}
 	
 	@Override
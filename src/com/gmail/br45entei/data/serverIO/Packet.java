@@ -4,24 +4,26 @@ import static com.gmail.br45entei.data.serverIO.PacketIDs.BooleanID;
 import static com.gmail.br45entei.data.serverIO.PacketIDs.ByteID;
 import static com.gmail.br45entei.data.serverIO.PacketIDs.CharID;
 import static com.gmail.br45entei.data.serverIO.PacketIDs.DISABLE_COMPRESSION;
+import static com.gmail.br45entei.data.serverIO.PacketIDs.DoubleArrayID;
 import static com.gmail.br45entei.data.serverIO.PacketIDs.DoubleID;
 import static com.gmail.br45entei.data.serverIO.PacketIDs.ENABLE_COMPRESSION;
 import static com.gmail.br45entei.data.serverIO.PacketIDs.FloatID;
+import static com.gmail.br45entei.data.serverIO.PacketIDs.IntArrayID;
 import static com.gmail.br45entei.data.serverIO.PacketIDs.IntID;
+import static com.gmail.br45entei.data.serverIO.PacketIDs.LongArrayID;
 import static com.gmail.br45entei.data.serverIO.PacketIDs.LongID;
 import static com.gmail.br45entei.data.serverIO.PacketIDs.ShortID;
 import static com.gmail.br45entei.data.serverIO.PacketIDs.StringID;
-import static com.gmail.br45entei.data.serverIO.PacketIDs.getByID;
 
 import com.gmail.br45entei.data.DisposableByteArrayInputStream;
 import com.gmail.br45entei.data.DisposableByteArrayOutputStream;
 import com.gmail.br45entei.swt.Functions;
-import com.gmail.br45entei.util.StringUtil;
 
-import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 
@@ -29,151 +31,273 @@ import java.util.ArrayList;
 @SuppressWarnings("javadoc")
 public final class Packet {
 	
-	private static volatile boolean	enableStrCompression	= true;
-	private static final int		compressionRatio		= 244;
+	static final int				compressionRatio		= 244;
 	
 	protected static final int		_696190					= 0x0a9f7e;	//lol
 	protected static final int		_255					= 0xFF;
 	
-	private static final int		maxSize					= 32768;
-	
+	static final int				maxSize					= 32768;
+	
+	/** Set in a frame's id byte when the id is followed by a 4 byte
+	 * (big-endian) correlation id. Packet ids only go up to 127, so frames
+	 * without a correlation id are unaffected. */
+	static final int				correlatedFlag			= 0x80;
+	/** The correlation id of packets that do not have one */
+	public static final int			noCorrelationID			= 0;
+	/** The size of the largest possible frame: the id, correlation id,
+	 * length, data and {@link ChecksumType checksum} trailer */
+	static final int				maxFrameSize			= 1 + 4 + 4 + maxSize + ChecksumType.trailerSize;
+	
+	/** Reads the next packet from the given input stream using the
+	 * {@link PacketCodec#getDefault() default codec}.<br>
+	 * Connections that should not share their compression state with every
+	 * other connection in the JVM should use their own {@link PacketCodec}
+	 * instead.
+	 * 
+	 * @see PacketCodec#readNextPacket(InputStream) */
 	public static final Packet readNextPacket(InputStream in) throws IOException, PacketReadException {
-		int readID = in.read();
-		if(readID >= 0 && readID < 128) {
-			PacketIDs id = getByID(readID);
-			if(id == null) {
-				throw new PacketReadException("Unknown packet id: " + readID);
-			}
-			if(id == ENABLE_COMPRESSION || id == DISABLE_COMPRESSION) {
-				enableStrCompression = id == ENABLE_COMPRESSION;
-				return readNextPacket(in);
-			}
-			final int length;
-			if(id.getLength() == -1) {
-				length = readInt(in);
-				if(length == -1) {
-					throw new IOException("Error reading packet: End of stream reached");
-				}
-				if(length > Packet.maxSize || length < 0) {
-					throw new PacketReadException("Packet size out of bounds(must be >= 0 and <= " + Packet.maxSize + "): " + length);
-				}
-			} else {
-				length = id.getLength();
-			}
-			return new Packet(id, length, in);
-		}
-		return null;
+		return PacketCodec.getDefault().readNextPacket(in);
 	}
 	
+	/** @return Whether or not large {@link PacketIDs#StringID String} packets
+	 *         are currently being compressed by the
+	 *         {@link PacketCodec#getDefault() default codec} */
+	public static final boolean isCompressionEnabled() {
+		return PacketCodec.getDefault().isCompressionEnabled();
+	}
+	
+	/** @see PacketCodec#setCompressionEnabled(boolean, OutputStream) */
 	public static final void setEnableCompression(boolean enable, OutputStream out) throws IOException {
-		enableStrCompression = enable;
-		if(out != null) {
-			writePacket(new Packet((enableStrCompression ? ENABLE_COMPRESSION : DISABLE_COMPRESSION), new byte[0]), out);
-		}
+		PacketCodec.getDefault().setCompressionEnabled(enable, out);
 	}
 	
-	@SuppressWarnings("resource")
+	/** Writes the given packet to the given output stream using the
+	 * {@link PacketCodec#getDefault() default codec}.
+	 * 
+	 * @see PacketCodec#writePacket(Packet, OutputStream) */
 	public static final void writePacket(Packet packet, OutputStream out) throws IOException {
-		if(packet == null || out == null) {
-			return;
-		}
-		if(packet.isCompressed && !enableStrCompression) {
-			setEnableCompression(true, out);
-		}
-		packet.id.write(out);//send the packet id first, telling the other end what to expect
-		final int len = packet.data.length;
-		if(packet.id.getLength() == -1) {//Where -1 means the packet has a volatile length. If the packet id has a fixed length, there's no need to send the length over, since the other side should also know what the length of the packet id is.
-			new DataOutputStream(out).writeInt(len);
-		}
-		out.write(packet.data, 0, len);//send the data
-		out.flush();//doo eet. doo eet nao. naoooo
+		PacketCodec.getDefault().writePacket(packet, out);
 	}
 	
-	private final PacketIDs	id;
-	private final byte[]	data;
+	private final PacketType	type;
+	private final byte[]		data;
 	
-	protected Packet(PacketIDs id, int len, InputStream in) throws IOException, PacketReadException {
-		this.id = id;
+	Packet(PacketType type, int len, InputStream in, boolean compressionEnabled, int correlationID) throws IOException, PacketReadException {
+		this.type = type;
+		this.correlationID = correlationID;
 		if(len > maxSize) {
 			throw new IllegalArgumentException("Max packet size is: " + maxSize);
 		}
-		final byte[] data = new byte[maxSize];
-		int read = in.read(data, 0, len);
-		this.data = new byte[read];
-		System.arraycopy(data, 0, this.data, 0, read);
-		this.isCompressed = (this.id == StringID && enableStrCompression && this.data.length >= compressionRatio);
+		final byte[] data = new byte[len];
+		readFully(in, data, 0, len);
+		this.data = data;
+		this.isCompressed = this.type == StringID && compressionEnabled && CompressionCodecs.isCompressed(this.data, 0, this.data.length);
 		if(this.getValue() == null) {
-			throw new PacketReadException("Malformed Packet('" + this.getID().toString() + "') data; packet.getValue() returns null!");
+			throw new PacketReadException("Malformed Packet('" + this.type.toString() + "') data; packet.getValue() returns null!");
 		}
 	}
 	
-	public Packet(PacketIDs id, byte[] data) {
-		this.id = id;
+	/** @param type The packet's type(either one of the {@link PacketIDs} or an
+	 *            application-defined {@link PacketTypes#register(int, String, int)
+	 *            registered} type)
+	 * @param data The packet's data */
+	public Packet(PacketType type, byte[] data) {
+		this.type = type;
+		this.data = data;
+	}
+	
+	Packet(PacketType type, byte[] data, boolean isCompressed) {
+		this(type, data, isCompressed, noCorrelationID);
+	}
+	
+	Packet(PacketType type, byte[] data, boolean isCompressed, int correlationID) {
+		this.type = type;
 		this.data = data;
+		this.isCompressed = isCompressed;
+		this.correlationID = correlationID;
 	}
 	
 	private volatile boolean isCompressed = false;
+	private volatile int correlationID = noCorrelationID;
 	
+	/** @param text The text that this packet will contain. If the
+	 *            {@link PacketCodec#getDefault() default codec} has
+	 *            compression enabled and the text is long enough, it will be
+	 *            compressed with the default codec's
+	 *            {@link PacketCodec#getCompressionCodec() compression codec}. */
 	public Packet(String text) {
-		this.id = StringID;
+		this(text, PacketCodec.getDefault().isCompressionEnabled() ? PacketCodec.getDefault().getCompressionCodec() : null);
+	}
+	
+	/** @param text The text that this packet will contain
+	 * @param compress Whether or not the text should be compressed with
+	 *            {@link CompressionCodecs#GZIP GZIP}(if it is long enough for
+	 *            compression to be worth it) */
+	public Packet(String text, boolean compress) {
+		this(text, compress ? CompressionCodecs.GZIP : null);
+	}
+	
+	/** @param text The text that this packet will contain
+	 * @param codec The codec to compress the text with(if it is long enough
+	 *            for compression to be worth it), or {@code null} to leave it
+	 *            uncompressed */
+	public Packet(String text, CompressionCodec codec) {
+		this.type = StringID;
 		byte[] data = text.getBytes(StandardCharsets.UTF_8);
-		if(enableStrCompression && data.length >= compressionRatio) {
-			data = StringUtil.compressString(text, StandardCharsets.UTF_8);
-			this.isCompressed = true;
+		if(codec != null && data.length >= compressionRatio) {
+			try {
+				byte[] compressed = CompressionCodecs.compress(codec, data);
+				if(compressed.length < data.length) {
+					data = compressed;
+					this.isCompressed = true;
+				}
+			} catch(IOException ignored) {//Just send it uncompressed
+			}
 		}
 		this.data = data;
 	}
 	
 	public Packet(byte b) {
-		this.id = ByteID;
+		this.type = ByteID;
 		this.data = new byte[] {b};
 	}
 	
 	public Packet(boolean b) {
-		this.id = BooleanID;
+		this.type = BooleanID;
 		this.data = new byte[] {(byte) (b ? 1 : 0)};
 	}
 	
 	public Packet(short s) {
-		this.id = ShortID;
+		this.type = ShortID;
 		this.data = new byte[] {(byte) s, (byte) (s >> 8)};
 	}
 	
 	public Packet(char c) {
-		this.id = CharID;
+		this.type = CharID;
 		this.data = new byte[] {(byte) c, (byte) (c >> 8)};
 	}
 	
 	public Packet(int i) {
-		this.id = IntID;
+		this.type = IntID;
 		this.data = new byte[] {(byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8), (byte) (i >>> 0)};
 	}
 	
 	public Packet(long l) {
-		this.id = LongID;
+		this.type = LongID;
 		this.data = longToBytes(l);
 	}
 	
 	public Packet(float f) {
-		this.id = FloatID;
+		this.type = FloatID;
 		final int i = Float.floatToIntBits(f);
 		this.data = new byte[] {(byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8), (byte) (i >>> 0)};
 	}
 	
 	public Packet(double d) {
-		this.id = DoubleID;
+		this.type = DoubleID;
 		final long l = Double.doubleToLongBits(d);
 		this.data = longToBytes(l);
 	}
 	
+	/** @param values The values that this packet will contain */
+	public Packet(int[] values) {
+		this(values, 0, values.length);
+	}
+	
+	/** @param values The array containing the values that this packet will
+	 *            contain
+	 * @param off The offset in the array at which the values start
+	 * @param len The number of values */
+	public Packet(int[] values, int off, int len) {
+		this.type = IntArrayID;
+		this.data = new byte[getArrayDataLength(len, 4)];
+		ByteBuffer.wrap(this.data).asIntBuffer().put(values, off, len);
+	}
+	
+	/** @param values The values that this packet will contain */
+	public Packet(long[] values) {
+		this(values, 0, values.length);
+	}
+	
+	/** @param values The array containing the values that this packet will
+	 *            contain
+	 * @param off The offset in the array at which the values start
+	 * @param len The number of values */
+	public Packet(long[] values, int off, int len) {
+		this.type = LongArrayID;
+		this.data = new byte[getArrayDataLength(len, 8)];
+		ByteBuffer.wrap(this.data).asLongBuffer().put(values, off, len);
+	}
+	
+	/** @param values The values that this packet will contain */
+	public Packet(double[] values) {
+		this(values, 0, values.length);
+	}
+	
+	/** @param values The array containing the values that this packet will
+	 *            contain
+	 * @param off The offset in the array at which the values start
+	 * @param len The number of values */
+	public Packet(double[] values, int off, int len) {
+		this.type = DoubleArrayID;
+		this.data = new byte[getArrayDataLength(len, 8)];
+		ByteBuffer.wrap(this.data).asDoubleBuffer().put(values, off, len);
+	}
+	
+	/** @param len The number of values in the array
+	 * @param valueSize The size of each value, in bytes
+	 * @return The length of the packet data needed to hold the values
+	 * @throws IllegalArgumentException Thrown if the values would not fit into
+	 *             a single packet */
+	static final int getArrayDataLength(int len, int valueSize) {
+		if(len < 0) {
+			throw new IndexOutOfBoundsException();
+		}
+		if(len > maxSize / valueSize) {
+			throw new IllegalArgumentException("Max packet size is: " + maxSize + "(" + (maxSize / valueSize) + " values of " + valueSize + " bytes each)");
+		}
+		return len * valueSize;
+	}
+	
+	/** @return This packet's id, or {@code null} if this packet has an
+	 *         application-defined {@link #getType() type} */
 	public final PacketIDs getID() {
-		return this.id;
+		return this.type instanceof PacketIDs ? (PacketIDs) this.type : null;
+	}
+	
+	/** @return This packet's type */
+	public final PacketType getType() {
+		return this.type;
+	}
+	
+	/** @return The id that matches this packet to the request that it
+	 *         answers(or to the response that answers it), or
+	 *         {@link #noCorrelationID} if it does not have one
+	 * @see PacketConnection#request(Packet) */
+	public final int getCorrelationID() {
+		return this.correlationID;
+	}
+	
+	/** @return Whether or not this packet has a correlation id */
+	public final boolean hasCorrelationID() {
+		return this.correlationID != noCorrelationID;
+	}
+	
+	/** @param correlationID The correlation id that the returned packet will
+	 *            have, or {@link #noCorrelationID} for none
+	 * @return A packet with the same type and data as this one(sharing this
+	 *         packet's data array) and the given correlation id */
+	public final Packet withCorrelationID(int correlationID) {
+		if(correlationID == this.correlationID) {
+			return this;
+		}
+		return new Packet(this.type, this.data, this.isCompressed, correlationID);
 	}
 	
 	/** @return A string from this packet's data and the UTF-8 charset */
 	public final String getText() {
 		if(this.isCompressed) {
-			String check = StringUtil.decompressString(this.data);
+			String check = CompressionCodecs.decompressString(this.data);
 			if(check != null) {
 				return check;
 			}
@@ -181,6 +305,17 @@ public final class Packet {
 		return new String(this.data, StandardCharsets.UTF_8);
 	}
 	
+	/** @return Whether or not this packet's data is compressed */
+	public final boolean isCompressed() {
+		return this.isCompressed;
+	}
+	
+	/** @return This packet's actual data array(not a copy; do not modify
+	 *         it!) */
+	final byte[] getBackingData() {
+		return this.data;
+	}
+	
 	/** @return A copy of this packet's data */
 	public final byte[] getData() {
 		byte[] rtrn = new byte[this.data.length];
@@ -188,40 +323,159 @@ public final class Packet {
 		return rtrn;
 	}
 	
+	private final void checkLength(int minLength) {
+		if(this.data.length < minLength) {
+			throw new IllegalStateException("This packet(" + this.type.toString() + ") is too short: " + this.data.length + " < " + minLength);
+		}
+	}
+	
+	/** @return This packet's value as a boolean */
+	public final boolean getBoolean() {
+		this.checkLength(1);
+		return this.data[0] == 1;
+	}
+	
+	/** @return This packet's value as a byte */
+	public final byte getByte() {
+		this.checkLength(1);
+		return this.data[0];
+	}
+	
+	/** @return This packet's value as a short */
+	public final short getShort() {
+		this.checkLength(2);
+		return (short) ((this.data[0] & 0xFF) | (this.data[1] << 8));//Shorts and chars are sent little-endian(see Packet(short))
+	}
+	
+	/** @return This packet's value as a char */
+	public final char getChar() {
+		this.checkLength(2);
+		return (char) ((this.data[0] & 0xFF) | ((this.data[1] & 0xFF) << 8));
+	}
+	
+	/** @return This packet's value as an int */
+	public final int getInt() {
+		this.checkLength(4);
+		return getInt(this.data, 0);
+	}
+	
+	/** @return This packet's value as a float */
+	public final float getFloat() {
+		return Float.intBitsToFloat(this.getInt());
+	}
+	
+	/** @return This packet's value as a long */
+	public final long getLong() {
+		this.checkLength(8);
+		return ((long) getInt(this.data, 0) << 32) | (getInt(this.data, 4) & 0xFFFFFFFFL);
+	}
+	
+	/** @return This packet's value as a double */
+	public final double getDouble() {
+		return Double.longBitsToDouble(this.getLong());
+	}
+	
+	private static final int getInt(byte[] b, int off) {
+		return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16) | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+	}
+	
+	/** Copies this packet's values into the given array without allocating a
+	 * new one.
+	 * 
+	 * @param dst The array to copy the values into
+	 * @param off The offset in the array at which to start
+	 * @return The number of values copied
+	 * @see #Packet(int[], int, int) */
+	public final int getInts(int[] dst, int off) {
+		final int count = Math.min(this.data.length >> 2, dst.length - off);
+		ByteBuffer.wrap(this.data).asIntBuffer().get(dst, off, count);
+		return count;
+	}
+	
+	/** @return This packet's values as a new int array
+	 * @see #Packet(int[], int, int) */
+	public final int[] getIntArray() {
+		int[] rtrn = new int[this.data.length >> 2];
+		this.getInts(rtrn, 0);
+		return rtrn;
+	}
+	
+	/** Copies this packet's values into the given array without allocating a
+	 * new one.
+	 * 
+	 * @param dst The array to copy the values into
+	 * @param off The offset in the array at which to start
+	 * @return The number of values copied
+	 * @see #Packet(long[], int, int) */
+	public final int getLongs(long[] dst, int off) {
+		final int count = Math.min(this.data.length >> 3, dst.length - off);
+		ByteBuffer.wrap(this.data).asLongBuffer().get(dst, off, count);
+		return count;
+	}
+	
+	/** @return This packet's values as a new long array
+	 * @see #Packet(long[], int, int) */
+	public final long[] getLongArray() {
+		long[] rtrn = new long[this.data.length >> 3];
+		this.getLongs(rtrn, 0);
+		return rtrn;
+	}
+	
+	/** Copies this packet's values into the given array without allocating a
+	 * new one.
+	 * 
+	 * @param dst The array to copy the values into
+	 * @param off The offset in the array at which to start
+	 * @return The number of values copied
+	 * @see #Packet(double[], int, int) */
+	public final int getDoubles(double[] dst, int off) {
+		final int count = Math.min(this.data.length >> 3, dst.length - off);
+		ByteBuffer.wrap(this.data).asDoubleBuffer().get(dst, off, count);
+		return count;
+	}
+	
+	/** @return This packet's values as a new double array
+	 * @see #Packet(double[], int, int) */
+	public final double[] getDoubleArray() {
+		double[] rtrn = new double[this.data.length >> 3];
+		this.getDoubles(rtrn, 0);
+		return rtrn;
+	}
+	
+	/** @return This packet's decoded value, or a copy of its data if it has an
+	 *         application-defined {@link #getType() type} */
 	public final Object getValue() {
+		final PacketIDs id = this.getID();
+		if(id == null) {
+			return this.getData();
+		}
 		try {
-			switch(this.id) {
+			switch(id) {
 			case BooleanID:
-				return Boolean.valueOf(this.data[0] == 1);
+				return Boolean.valueOf(this.getBoolean());
 			case ByteID:
-				return Byte.valueOf(this.data[0]);
+				return Byte.valueOf(this.getByte());
 			case CharID:
-				return Character.valueOf((char) ((this.data[0] << 0) + (this.data[1] << 8)));
+				return Character.valueOf(this.getChar());
 			case DoubleID:
-				return Double.valueOf(Double.longBitsToDouble(bytesToLong(this.data)));
+				return Double.valueOf(this.getDouble());
 			case FloatID:
-				return Float.valueOf(Float.intBitsToFloat(((this.data[0] & 255) << 24) + ((this.data[1] & 255) << 16) + ((this.data[2] & 255) << 8) + ((this.data[3] & 255) << 0)));
+				return Float.valueOf(this.getFloat());
 			case IntID:
-				return Integer.valueOf(((this.data[0] & 255) << 24) + ((this.data[1] & 255) << 16) + ((this.data[2] & 255) << 8) + ((this.data[3] & 255) << 0));
+				return Integer.valueOf(this.getInt());
 			case LongID:
-				return Long.valueOf(((long) this.data[0] << 56) + //
-						((long) (this.data[1] & 255) << 48) + //
-						((long) (this.data[2] & 255) << 40) + //
-						((long) (this.data[3] & 255) << 32) + //
-						((long) (this.data[4] & 255) << 24) + //
-						((this.data[5] & 255) << 16) + //
-						((this.data[6] & 255) << 8) + //
-						((this.data[7] & 255) << 0));
+				return Long.valueOf(this.getLong());
 			case ShortID:
-				return Short.valueOf((short) ((this.data[0] << 0) + (this.data[1] << 8)));
-			case StringID:
-			case Client_Hello:
-			case Close:
-			case ResendLastPacket:
+				return Short.valueOf(this.getShort());
+			case IntArrayID:
+				return this.data.length % 4 == 0 ? this.getIntArray() : null;
+			case LongArrayID:
+				return this.data.length % 8 == 0 ? this.getLongArray() : null;
+			case DoubleArrayID:
+				return this.data.length % 8 == 0 ? this.getDoubleArray() : null;
 			case DISABLE_COMPRESSION:
-				return Boolean.valueOf(!enableStrCompression);
 			case ENABLE_COMPRESSION:
-				return Boolean.valueOf(enableStrCompression);
+				return Boolean.valueOf(id == ENABLE_COMPRESSION);
 			default:
 				return this.getText();
 			}
@@ -238,12 +492,12 @@ public final class Packet {
 	
 	@Override
 	public final String toString() {
-		return this.id.toString() + " " + this.data.length + (this.isCompressed ? "[Compressed]" : "") + " '" + this.getValue() + "'";
+		return this.type.toString() + (this.hasCorrelationID() ? "#" + this.correlationID : "") + " " + this.data.length + (this.isCompressed ? "[Compressed]" : "") + " '" + this.getValue() + "'";
 	}
 	
 	//=============================================
 	
-	private static final int readInt(InputStream in) throws IOException {
+	static final int readInt(InputStream in) throws IOException {
 		int ch1 = in.read();
 		int ch2 = in.read();
 		int ch3 = in.read();
@@ -254,6 +508,29 @@ public final class Packet {
 		return((ch1 << 24) + (ch2 << 16) + (ch3 << 8) + (ch4 << 0));
 	}
 	
+	/** Reads exactly {@code len} bytes from the given input stream, since a
+	 * single call to {@link InputStream#read(byte[], int, int)} may return
+	 * fewer bytes than requested(e.g. when a packet arrives over TCP in more
+	 * than one segment).
+	 * 
+	 * @param in The input stream to read from
+	 * @param b The array to read into
+	 * @param off The offset in the array at which to start
+	 * @param len The number of bytes to read
+	 * @throws EOFException Thrown if the end of the stream is reached before
+	 *             {@code len} bytes were read
+	 * @throws IOException Thrown if an I/O error occurs */
+	static final void readFully(InputStream in, byte[] b, int off, int len) throws IOException {
+		int count = 0;
+		while(count < len) {
+			final int read = in.read(b, off + count, len - count);
+			if(read == -1) {
+				throw new EOFException("Error reading packet: End of stream reached(read " + count + " of " + len + " bytes)");
+			}
+			count += read;
+		}
+	}
+	
 	@SuppressWarnings("unused")
 	private static final void writeInt(OutputStream out, int i) throws IOException {
 		out.write((i >>> 24) & 0xFF);
@@ -271,23 +548,6 @@ public final class Packet {
 		return result;
 	}
 	
-	private static final long bytesToLong(byte[] data) {
-		/*long result = 0;
-		for(int i = 0; i < 8; i++) {
-			result <<= 8;
-			result |= (data[i] & 0xFF);
-		}
-		return result;*/
-		return ((long) data[0] << 56) + //
-				((long) (data[1] & 255) << 48) + //
-				((long) (data[2] & 255) << 40) + //
-				((long) (data[3] & 255) << 32) + //
-				((long) (data[4] & 255) << 24) + //
-				((data[5] & 255) << 16) + //
-				((data[6] & 255) << 8) + //
-				((data[7] & 255) << 0);
-	}
-	
 	public static final void main(String[] args) {
 		DisposableByteArrayOutputStream out = new DisposableByteArrayOutputStream();
 		final Packet[] packets = new Packet[] {//
@@ -0,0 +1,760 @@
+package com.gmail.br45entei.data.serverIO;
+
+import com.gmail.br45entei.util.StringUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Benchmarks for the packet protocol, to give every optimization of this
+ * package a baseline to compare against. For each packet type and payload
+ * size(and for string packets, with compression off and with each built-in
+ * {@link CompressionCodec}), it measures:
+ * <ul>
+ * <li>encoding with {@link PacketCodec#writePacket(Packet, OutputStream)} and
+ * with a {@link PacketWriter}(including creating the packet, which is where
+ * strings are compressed),</li>
+ * <li>decoding with {@link PacketCodec#readNextPacket(InputStream)} and with a
+ * {@link PacketReader}(including reading the packet's value),</li>
+ * <li>{@link StringUtil#compressString(String, String)} against
+ * {@link CompressionCodecs#compress(CompressionCodec, byte[])},</li>
+ * <li>writing to a loopback socket through its output stream against
+ * {@link PacketCodec#writePacket(Packet, java.nio.channels.GatheringByteChannel)
+ * gathering writes} to its channel,</li>
+ * <li>the round trip latency of {@link PacketConnection#request(Packet)}
+ * to an echoing {@link PacketServer} over loopback,</li>
+ * <li>and reading a stream directly against reading it through an
+ * {@link InputStreamSSLWrapper}, from memory and from a loopback socket.</li>
+ * </ul>
+ * Every measurement is preceded by a warm-up period, and reports the average
+ * time per operation, the payload throughput and the number of bytes
+ * allocated per operation by the measuring thread(the same number that JMH's
+ * {@code -prof gc} reports as {@code gc.alloc.rate.norm}).
+ * 
+ * @author Brian_Entei */
+public final class PacketBenchmark {
+	
+	/** The payload sizes that variable-length packets are measured with */
+	public static final int[] payloadSizes = {16, 256, 4096, Packet.maxSize};
+	
+	private static final int batchSize = 64;
+	
+	private static final OutputStream discard = new OutputStream() {
+		@Override
+		public final void write(int b) {
+		}
+		
+		@Override
+		public final void write(byte[] b, int off, int len) {
+		}
+	};
+	
+	/** One packet type and payload size(and compression codec, for
+	 * strings). */
+	private static abstract class Scenario {
+		final String type;
+		final int size;
+		final CompressionCodec codec;
+		
+		Scenario(String type, int size, CompressionCodec codec) {
+			this.type = type;
+			this.size = size;
+			this.codec = codec;
+		}
+		
+		/** @return A new codec set up the way this scenario needs it */
+		final PacketCodec newCodec() {
+			PacketCodec codec = new PacketCodec(this.codec != null);
+			if(this.codec != null) {
+				try {
+					codec.setCompressionCodec(this.codec, null);
+				} catch(IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+			return codec;
+		}
+		
+		abstract Packet create(PacketCodec codec);
+		
+		abstract long consume(Packet packet);
+		
+		abstract long consume(PacketReader reader);
+		
+		@Override
+		public final String toString() {
+			return String.format("%-12s %6d %-18s", this.type, Integer.valueOf(this.size), this.codec == null ? "-" : this.codec.getName());
+		}
+	}
+	
+	/** An operation that is measured by running it many times. */
+	private static interface Operation {
+		/** @param count The number of times to run the operation
+		 * @return A value computed from the results, so that the JIT can't
+		 *         skip the work
+		 * @throws Exception Thrown if the operation fails */
+		public long run(int count) throws Exception;
+	}
+	
+	/** An input stream that endlessly repeats the same data. */
+	private static final class RepeatingInputStream extends InputStream {
+		private final byte[] data;
+		private int pos = 0;
+		
+		RepeatingInputStream(byte[] data) {
+			this.data = data;
+		}
+		
+		@Override
+		public final int read() {
+			final int b = this.data[this.pos++] & 0xFF;
+			if(this.pos == this.data.length) {
+				this.pos = 0;
+			}
+			return b;
+		}
+		
+		@Override
+		public final int read(byte[] b, int off, int len) {
+			final int count = Math.min(len, this.data.length - this.pos);
+			System.arraycopy(this.data, this.pos, b, off, count);
+			this.pos += count;
+			if(this.pos == this.data.length) {
+				this.pos = 0;
+			}
+			return count;
+		}
+		
+		@Override
+		public final int available() {
+			return this.data.length - this.pos;
+		}
+	}
+	
+	private static volatile long blackhole = 0;
+	private static long measureMillis = 200L;
+	
+	private static final long getAllocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1L;
+	}
+	
+	private static final void measure(String name, Scenario scenario, int payloadSize, Operation operation) throws Exception {
+		final int batch = payloadSize >= 4096 ? 16 : 256;
+		long result = 0;
+		long endTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(measureMillis / 2L);
+		while(System.nanoTime() < endTime) {//Warm up
+			result += operation.run(batch);
+		}
+		long ops = 0;
+		final long allocated = getAllocatedBytes();
+		final long startTime = System.nanoTime();
+		endTime = startTime + TimeUnit.MILLISECONDS.toNanos(measureMillis);
+		long now;
+		do {
+			result += operation.run(batch);
+			ops += batch;
+		} while((now = System.nanoTime()) < endTime);
+		final long bytes = allocated < 0 ? -1L : getAllocatedBytes() - allocated;
+		blackhole += result;
+		final double nanosPerOp = (now - startTime) / (double) ops;
+		final double megabytesPerSecond = payloadSize / nanosPerOp * 1000000000.0D / 1048576.0D;
+		System.out.println(String.format("%-22s %s %12.1f %10.1f %10s", name, scenario.toString(), Double.valueOf(nanosPerOp), Double.valueOf(megabytesPerSecond), bytes < 0 ? "n/a" : Long.toString(Math.round(bytes / (double) ops))));
+	}
+	
+	private static final String text(int size) {
+		final String[] words = {"the", "packet", "server", "client", "connection", "compression", "quick", "brown", "fox", "jumps", "over", "lazy", "dog", "data", "stream"};
+		StringBuilder sb = new StringBuilder(size + 16);
+		Random random = new Random(size);
+		while(sb.length() < size) {
+			sb.append(words[random.nextInt(words.length)]).append(' ');
+		}
+		sb.setLength(size);
+		return sb.toString();
+	}
+	
+	private static final List<Scenario> scenarios() {
+		List<Scenario> list = new ArrayList<>();
+		list.add(new Scenario("Boolean", 1, null) {
+			@Override
+			final Packet create(PacketCodec codec) {
+				return new Packet(true);
+			}
+			
+			@Override
+			final long consume(Packet packet) {
+				return packet.getBoolean() ? 1 : 0;
+			}
+			
+			@Override
+			final long consume(PacketReader reader) {
+				return reader.getBoolean() ? 1 : 0;
+			}
+		});
+		list.add(new Scenario("Int", 4, null) {
+			@Override
+			final Packet create(PacketCodec codec) {
+				return new Packet(0x12345678);
+			}
+			
+			@Override
+			final long consume(Packet packet) {
+				return packet.getInt();
+			}
+			
+			@Override
+			final long consume(PacketReader reader) {
+				return reader.getInt();
+			}
+		});
+		list.add(new Scenario("Long", 8, null) {
+			@Override
+			final Packet create(PacketCodec codec) {
+				return new Packet(0x123456789ABCDEFL);
+			}
+			
+			@Override
+			final long consume(Packet packet) {
+				return packet.getLong();
+			}
+			
+			@Override
+			final long consume(PacketReader reader) {
+				return reader.getLong();
+			}
+		});
+		list.add(new Scenario("Double", 8, null) {
+			@Override
+			final Packet create(PacketCodec codec) {
+				return new Packet(Math.PI);
+			}
+			
+			@Override
+			final long consume(Packet packet) {
+				return (long) packet.getDouble();
+			}
+			
+			@Override
+			final long consume(PacketReader reader) {
+				return (long) reader.getDouble();
+			}
+		});
+		for(final int size : payloadSizes) {
+			final String text = text(size);
+			for(CompressionCodec codec : new CompressionCodec[] {null, CompressionCodecs.GZIP, CompressionCodecs.DEFLATE_DICTIONARY, CompressionCodecs.LZ}) {
+				list.add(new Scenario("String", size, codec) {
+					@Override
+					final Packet create(PacketCodec codec) {
+						return codec.newPacket(text);
+					}
+					
+					@Override
+					final long consume(Packet packet) {
+						return packet.getText().length();
+					}
+					
+					@Override
+					final long consume(PacketReader reader) {
+						return reader.getText().length();
+					}
+				});
+			}
+		}
+		for(final int size : payloadSizes) {
+			final int[] ints = new int[size / 4];
+			final long[] longs = new long[size / 8];
+			final double[] doubles = new double[size / 8];
+			final byte[] bytes = new byte[size];
+			for(int i = 0; i < ints.length; i++) {
+				ints[i] = i * 31;
+			}
+			for(int i = 0; i < longs.length; i++) {
+				longs[i] = i * 31L;
+				doubles[i] = i / 3.0D;
+			}
+			new Random(size).nextBytes(bytes);
+			list.add(new Scenario("IntArray", size, null) {
+				private final int[] scratch = new int[ints.length];
+				
+				@Override
+				final Packet create(PacketCodec codec) {
+					return new Packet(ints);
+				}
+				
+				@Override
+				final long consume(Packet packet) {
+					return packet.getInts(this.scratch, 0);
+				}
+				
+				@Override
+				final long consume(PacketReader reader) {
+					return reader.getInts(this.scratch, 0);
+				}
+			});
+			list.add(new Scenario("LongArray", size, null) {
+				private final long[] scratch = new long[longs.length];
+				
+				@Override
+				final Packet create(PacketCodec codec) {
+					return new Packet(longs);
+				}
+				
+				@Override
+				final long consume(Packet packet) {
+					return packet.getLongs(this.scratch, 0);
+				}
+				
+				@Override
+				final long consume(PacketReader reader) {
+					return reader.getLongs(this.scratch, 0);
+				}
+			});
+			list.add(new Scenario("DoubleArray", size, null) {
+				private final double[] scratch = new double[doubles.length];
+				
+				@Override
+				final Packet create(PacketCodec codec) {
+					return new Packet(doubles);
+				}
+				
+				@Override
+				final long consume(Packet packet) {
+					return packet.getDoubles(this.scratch, 0);
+				}
+				
+				@Override
+				final long consume(PacketReader reader) {
+					return reader.getDoubles(this.scratch, 0);
+				}
+			});
+			list.add(new Scenario("Fragment", size, null) {
+				private final byte[] scratch = new byte[bytes.length];
+				
+				@Override
+				final Packet create(PacketCodec codec) {
+					return new Packet(PacketIDs.FragmentID, bytes);
+				}
+				
+				@Override
+				final long consume(Packet packet) {
+					return packet.getLength();
+				}
+				
+				@Override
+				final long consume(PacketReader reader) {
+					return reader.getData(this.scratch, 0);
+				}
+			});
+		}
+		return list;
+	}
+	
+	private static final byte[] encodeBatch(Scenario scenario) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PacketCodec codec = scenario.newCodec();
+		for(int i = 0; i < batchSize; i++) {
+			codec.writePacket(scenario.create(codec), out);
+		}
+		return out.toByteArray();
+	}
+	
+	private static final void runEncodeDecode(String filter, final Scenario scenario) throws Exception {
+		if(matches(filter, "encode.codec", scenario)) {
+			final PacketCodec codec = scenario.newCodec();
+			measure("encode.codec", scenario, scenario.size, new Operation() {
+				@Override
+				public final long run(int count) throws IOException {
+					for(int i = 0; i < count; i++) {
+						codec.writePacket(scenario.create(codec), discard);
+					}
+					return count;
+				}
+			});
+		}
+		if(matches(filter, "encode.writer", scenario)) {
+			final PacketCodec codec = scenario.newCodec();
+			final PacketWriter writer = new PacketWriter(discard).setCodec(codec);
+			writer.setMaxLatency(-1L);
+			measure("encode.writer", scenario, scenario.size, new Operation() {
+				@Override
+				public final long run(int count) throws IOException {
+					for(int i = 0; i < count; i++) {
+						writer.write(scenario.create(codec));
+					}
+					return writer.getBufferedBytes();
+				}
+			});
+		}
+		final byte[] encoded = encodeBatch(scenario);
+		if(matches(filter, "decode.codec", scenario)) {
+			final PacketCodec codec = scenario.newCodec();
+			final InputStream in = new RepeatingInputStream(encoded);
+			measure("decode.codec", scenario, scenario.size, new Operation() {
+				@Override
+				public final long run(int count) throws IOException, PacketReadException {
+					long result = 0;
+					for(int i = 0; i < count; i++) {
+						result += scenario.consume(codec.readNextPacket(in));
+					}
+					return result;
+				}
+			});
+		}
+		if(matches(filter, "decode.reader", scenario)) {
+			final PacketReader reader = new PacketReader(new RepeatingInputStream(encoded)).setCodec(scenario.newCodec());
+			measure("decode.reader", scenario, scenario.size, new Operation() {
+				@Override
+				public final long run(int count) throws IOException, PacketReadException {
+					long result = 0;
+					for(int i = 0; i < count; i++) {
+						reader.next();
+						result += scenario.consume(reader);
+					}
+					return result;
+				}
+			});
+		}
+	}
+	
+	private static final void runCompressString(String filter) throws Exception {
+		for(int size : payloadSizes) {
+			final String text = text(size);
+			Scenario scenario = new Scenario("String", size, CompressionCodecs.GZIP) {
+				@Override
+				final Packet create(PacketCodec codec) {
+					return null;
+				}
+				
+				@Override
+				final long consume(Packet packet) {
+					return 0;
+				}
+				
+				@Override
+				final long consume(PacketReader reader) {
+					return 0;
+				}
+			};
+			if(matches(filter, "StringUtil.compress", scenario)) {
+				measure("StringUtil.compress", scenario, size, new Operation() {
+					@Override
+					public final long run(int count) {
+						long result = 0;
+						for(int i = 0; i < count; i++) {
+							result += StringUtil.compressString(text, "UTF-8").length;
+						}
+						return result;
+					}
+				});
+			}
+			if(matches(filter, "Codecs.compress", scenario)) {
+				measure("Codecs.compress", scenario, size, new Operation() {
+					@Override
+					public final long run(int count) throws IOException {
+						long result = 0;
+						for(int i = 0; i < count; i++) {
+							result += CompressionCodecs.compress(CompressionCodecs.GZIP, text.getBytes(StandardCharsets.UTF_8)).length;
+						}
+						return result;
+					}
+				});
+			}
+		}
+	}
+	
+	private static final void runRoundTrips(String filter, List<Scenario> scenarios) throws Exception {
+		try(PacketServer server = new PacketServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), new PacketHandler() {
+			@Override
+			public final void onConnect(PacketConnection connection) {
+			}
+			
+			@Override
+			public final void onPacket(PacketConnection connection, Packet packet) throws IOException {
+				connection.reply(packet, packet);//echo
+			}
+			
+			@Override
+			public final void onDisconnect(PacketConnection connection, Throwable cause) {
+			}
+		}).start(); PacketClient client = new PacketClient()) {
+			final PacketConnection connection = client.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()), new PacketHandler() {
+				@Override
+				public final void onConnect(PacketConnection connection) {
+				}
+				
+				@Override
+				public final void onPacket(PacketConnection connection, Packet packet) {
+				}
+				
+				@Override
+				public final void onDisconnect(PacketConnection connection, Throwable cause) {
+				}
+			});
+			for(Scenario scenario : scenarios) {
+				if(!matches(filter, "roundtrip", scenario) || (scenario.codec != null && scenario.codec != CompressionCodecs.GZIP)) {
+					continue;
+				}
+				final Packet packet = scenario.create(scenario.newCodec());
+				long endTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(measureMillis / 2L);
+				while(System.nanoTime() < endTime) {//Warm up
+					scenario.consume(connection.request(packet).get());
+				}
+				long[] latencies = new long[4096];
+				int count = 0;
+				long result = 0;
+				endTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(measureMillis);
+				long now;
+				do {
+					final long startTime = System.nanoTime();
+					result += scenario.consume(connection.request(packet).get());
+					now = System.nanoTime();
+					if(count == latencies.length) {
+						latencies = Arrays.copyOf(latencies, count * 2);
+					}
+					latencies[count++] = now - startTime;
+				} while(now < endTime);
+				blackhole += result;
+				Arrays.sort(latencies, 0, count);
+				long total = 0;
+				for(int i = 0; i < count; i++) {
+					total += latencies[i];
+				}
+				System.out.println(String.format("%-22s %s %12.1f %10.1f %10s   p50: %.1fus; p99: %.1fus", "roundtrip", scenario.toString(), Double.valueOf(total / (double) count), Double.valueOf(scenario.size * 2 / (total / (double) count) * 1000000000.0D / 1048576.0D), "-", Double.valueOf(latencies[count / 2] / 1000.0D), Double.valueOf(latencies[(int) (count * 0.99D)] / 1000.0D)));
+			}
+		}
+	}
+	
+	/** Compares writing packets to a loopback socket through its output
+	 * stream against gathering writes to its channel, one packet at a time
+	 * and in batches. */
+	private static final void runSocketWrites(String filter, List<Scenario> scenarios) throws Exception {
+		try(ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+			serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			try(final SocketChannel channel = SocketChannel.open(serverChannel.getLocalAddress()); final SocketChannel accepted = serverChannel.accept()) {
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+				final AtomicLong received = new AtomicLong(0);
+				final PacketCodec readCodec = new PacketCodec();
+				Thread drain = new Thread(new Runnable() {
+					@Override
+					public final void run() {
+						PacketReader reader = new PacketReader(accepted).setCodec(readCodec);
+						try {
+							while(reader.next() != null) {
+								received.incrementAndGet();
+							}
+						} catch(IOException | PacketReadException ignored) {
+						}
+					}
+				}, "PacketBenchmark-drain");
+				drain.setDaemon(true);
+				drain.start();
+				final PacketCodec codec = new PacketCodec();
+				final OutputStream out = channel.socket().getOutputStream();
+				long sent = 0;
+				for(final Scenario scenario : scenarios) {
+					if(scenario.codec != null || scenario.size < 4 || scenario.type.equals("LongArray") || scenario.type.equals("DoubleArray")) {
+						continue;
+					}
+					final Packet packet = scenario.create(codec);
+					final List<Packet> batch = new ArrayList<>();
+					for(int i = 0; i < 16; i++) {
+						batch.add(packet);
+					}
+					final long[] count = new long[1];
+					if(matches(filter, "socket.stream", scenario)) {
+						measure("socket.stream", scenario, scenario.size, new Operation() {
+							@Override
+							public final long run(int n) throws IOException {
+								for(int i = 0; i < n; i++) {
+									codec.writePacket(packet, out);
+								}
+								count[0] += n;
+								return n;
+							}
+						});
+					}
+					if(matches(filter, "socket.gather", scenario)) {
+						measure("socket.gather", scenario, scenario.size, new Operation() {
+							@Override
+							public final long run(int n) throws IOException {
+								for(int i = 0; i < n; i++) {
+									codec.writePacket(packet, channel);
+								}
+								count[0] += n;
+								return n;
+							}
+						});
+					}
+					if(matches(filter, "socket.gather.batch", scenario)) {
+						measure("socket.gather.batch", scenario, scenario.size, new Operation() {
+							@Override
+							public final long run(int n) throws IOException {
+								for(int i = 0; i < n; i += batch.size()) {
+									codec.writePackets(batch, channel);
+								}
+								count[0] += n;
+								return n;
+							}
+						});
+					}
+					sent += count[0];
+				}
+				channel.shutdownOutput();
+				drain.join(10000L);
+				if(received.get() != sent) {
+					System.err.println("socket writes: sent " + sent + " packets, but " + received.get() + " were received!");
+				}
+			}
+		}
+	}
+	
+	/** A scenario for the stream reading benchmarks, which only need a name
+	 * and a size */
+	private static final Scenario streamScenario(String source, int readSize) {
+		return new Scenario(source, readSize, null) {
+			@Override
+			final Packet create(PacketCodec codec) {
+				return null;
+			}
+			
+			@Override
+			final long consume(Packet packet) {
+				return 0;
+			}
+			
+			@Override
+			final long consume(PacketReader reader) {
+				return 0;
+			}
+		};
+	}
+	
+	/** Measures reading the given number of bytes at a time from the given
+	 * stream({@link InputStream#read()} for single bytes). */
+	private static final void measureReads(String name, Scenario scenario, final InputStream in) throws Exception {
+		final byte[] buf = new byte[scenario.size];
+		measure(name, scenario, scenario.size, new Operation() {
+			@Override
+			public final long run(int count) throws IOException {
+				long result = 0;
+				for(int i = 0; i < count; i++) {
+					if(buf.length == 1) {
+						result += in.read();
+						continue;
+					}
+					int read = 0;
+					while(read < buf.length) {
+						final int n = in.read(buf, read, buf.length - read);
+						if(n == -1) {
+							throw new IOException("End of stream reached");
+						}
+						read += n;
+					}
+					result += buf[0];
+				}
+				return result;
+			}
+		});
+	}
+	
+	/** Compares reading a stream directly against reading it through an
+	 * {@link InputStreamSSLWrapper}(after the ClientHello check that
+	 * {@link SocketWrapper} does on every connection), from memory and from a
+	 * loopback socket that is kept full by another thread. */
+	private static final void runWrapperReads(String filter) throws Exception {
+		final byte[] data = new byte[0x100000];
+		new Random(0).nextBytes(data);
+		data[0] = 'G';//Plain text, as far as the ClientHello check is concerned
+		final int[] readSizes = {1, 4096, 0x10000};
+		final RepeatingInputStream memory = new RepeatingInputStream(data);
+		final InputStreamSSLWrapper memoryWrapper = new InputStreamSSLWrapper(memory);
+		memoryWrapper.isNextByteClientHello();
+		for(int size : readSizes) {
+			final Scenario scenario = streamScenario("Memory", size);
+			if(matches(filter, "stream.raw", scenario)) {
+				measureReads("stream.raw", scenario, memory);
+			}
+			if(matches(filter, "stream.sslwrapper", scenario)) {
+				measureReads("stream.sslwrapper", scenario, memoryWrapper);
+			}
+		}
+		try(ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+			serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			try(final SocketChannel channel = SocketChannel.open(serverChannel.getLocalAddress()); final SocketChannel accepted = serverChannel.accept()) {
+				Thread fill = new Thread(new Runnable() {
+					@Override
+					public final void run() {
+						try {
+							final OutputStream out = accepted.socket().getOutputStream();
+							while(true) {
+								out.write(data);
+							}
+						} catch(IOException ignored) {
+						}
+					}
+				}, "PacketBenchmark-fill");
+				fill.setDaemon(true);
+				fill.start();
+				final InputStream socket = channel.socket().getInputStream();
+				final InputStreamSSLWrapper socketWrapper = new InputStreamSSLWrapper(socket);
+				socketWrapper.isNextByteClientHello();
+				for(int size : readSizes) {
+					final Scenario scenario = streamScenario("Socket", size);
+					if(matches(filter, "stream.raw", scenario)) {
+						measureReads("stream.raw", scenario, socket);
+					}
+					if(matches(filter, "stream.sslwrapper", scenario)) {
+						measureReads("stream.sslwrapper", scenario, socketWrapper);
+					}
+				}
+			}
+		}
+	}
+	
+	private static final boolean matches(String filter, String name, Scenario scenario) {
+		return filter == null || (name + " " + scenario.toString()).toLowerCase().contains(filter.toLowerCase());
+	}
+	
+	/** Runs the benchmarks.
+	 * 
+	 * @param args Program command line arguments: [filter(only runs the
+	 *            benchmarks whose name, type or codec contains it, e.g.
+	 *            "decode", "String" or "lz"; "all" runs everything)]
+	 *            [milliseconds per measurement]
+	 * @throws Exception Thrown if a benchmark fails */
+	public static final void main(String[] args) throws Exception {
+		final String filter = args.length > 0 && !args[0].equalsIgnoreCase("all") ? args[0] : null;
+		measureMillis = args.length > 1 && StringUtil.isStrLong(args[1]) ? Long.parseLong(args[1]) : 200L;
+		System.out.println(String.format("%-22s %-12s %6s %-18s %12s %10s %10s", "Benchmark", "Type", "Size", "Compression", "ns/op", "MB/s", "B/op"));
+		List<Scenario> scenarios = scenarios();
+		for(Scenario scenario : scenarios) {
+			runEncodeDecode(filter, scenario);
+		}
+		runCompressString(filter);
+		runSocketWrites(filter, scenarios);
+		runRoundTrips(filter, scenarios);
+		runWrapperReads(filter);
+		if(blackhole == 42) {
+			System.out.print("");
+		}
+	}
+	
+}
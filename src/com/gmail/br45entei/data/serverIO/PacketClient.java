@@ -0,0 +1,175 @@
+package com.gmail.br45entei.data.serverIO;
+
+import com.gmail.br45entei.util.StringUtil;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+/** The client side counterpart of {@link PacketServer}: any number of
+ * outgoing connections share a single selector thread and worker pool.
+ * 
+ * @author Brian_Entei
+ * @see PacketServer */
+public class PacketClient extends PacketEventLoop {
+	
+	/** Creates a new client that handles packets on a worker pool with one
+	 * thread per processor
+	 * 
+	 * @throws IOException Thrown if the selector could not be opened */
+	public PacketClient() throws IOException {
+		this(null);
+	}
+	
+	/** @param workers The executor that packets will be handled on, or
+	 *            {@code null} to create a pool with one thread per
+	 *            processor
+	 * @throws IOException Thrown if the selector could not be opened */
+	public PacketClient(Executor workers) throws IOException {
+		super("PacketClient", workers);
+	}
+	
+	/** Connects to the given address(blocking until the connection has been
+	 * established) and registers the connection with this client's selector
+	 * thread.
+	 * 
+	 * @param address The address to connect to
+	 * @param handler The handler that will receive the connection's events
+	 * @return The new connection
+	 * @throws IOException Thrown if the connection could not be
+	 *             established */
+	public final PacketConnection connect(InetSocketAddress address, PacketHandler handler) throws IOException {
+		return this.connect(address, handler, null);
+	}
+	
+	/** Connects to the given address(blocking until the connection has been
+	 * established, but not until the TLS handshake has completed) and
+	 * registers the connection with this client's selector thread.
+	 * 
+	 * @param address The address to connect to
+	 * @param handler The handler that will receive the connection's events
+	 * @param context The context to create the connection's TLS engine with,
+	 *            or {@code null} for a plaintext connection
+	 * @return The new connection
+	 * @throws IOException Thrown if the connection could not be
+	 *             established */
+	public final PacketConnection connect(InetSocketAddress address, PacketHandler handler, SSLContext context) throws IOException {
+		if(handler == null) {
+			throw new NullPointerException("handler cannot be null!");
+		}
+		this.startLoop();
+		SocketChannel channel = SocketChannel.open();
+		try {
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+			channel.connect(address);
+			SSLEngine engine = null;
+			if(context != null) {
+				engine = context.createSSLEngine(address.getHostString(), address.getPort());//The peer's host and port let sessions be resumed
+				engine.setUseClientMode(true);
+			}
+			return this.register(channel, handler, null, engine);
+		} catch(IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	@Override
+	final void handleOther(SelectionKey key) {
+	}
+	
+	//=============================================
+	
+	/** Compares waiting for each response before sending the next request
+	 * against keeping every request in flight at once(with
+	 * {@link PacketConnection#request(Packet)}), over a loopback connection
+	 * whose server delays every response to simulate the round trip time of a
+	 * slower link.
+	 * 
+	 * @param args Program command line arguments: [requests] [simulated round
+	 *            trip time in milliseconds]
+	 * @throws IOException Thrown if an I/O error occurs
+	 * @throws InterruptedException Thrown if the thread is interrupted
+	 * @throws ExecutionException Thrown if a request failed */
+	public static final void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+		final int requests = args.length > 0 && StringUtil.isStrInt(args[0]) ? Integer.parseInt(args[0]) : 500;
+		final long latency = args.length > 1 && StringUtil.isStrInt(args[1]) ? Long.parseLong(args[1]) : 2L;
+		final ScheduledExecutorService link = Executors.newSingleThreadScheduledExecutor();
+		try(PacketServer server = new PacketServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), new PacketHandler() {
+			@Override
+			public final void onConnect(PacketConnection connection) {
+			}
+			
+			@Override
+			public final void onPacket(final PacketConnection connection, final Packet request) {
+				link.schedule(new Runnable() {
+					@Override
+					public final void run() {
+						try {
+							connection.reply(request, new Packet(request.getInt() * 2));
+						} catch(IOException ignored) {
+						}
+					}
+				}, latency, TimeUnit.MILLISECONDS);
+			}
+			
+			@Override
+			public final void onDisconnect(PacketConnection connection, Throwable cause) {
+			}
+		}).start(); PacketClient client = new PacketClient()) {
+			PacketConnection connection = client.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()), new PacketHandler() {
+				@Override
+				public final void onConnect(PacketConnection connection) {
+				}
+				
+				@Override
+				public final void onPacket(PacketConnection connection, Packet packet) {
+					System.err.println("Unexpected packet: " + packet);
+				}
+				
+				@Override
+				public final void onDisconnect(PacketConnection connection, Throwable cause) {
+				}
+			});
+			int errors = 0;
+			long startTime = System.nanoTime();
+			for(int i = 0; i < requests; i++) {
+				if(connection.request(new Packet(i)).get().getInt() != i * 2) {
+					errors++;
+				}
+			}
+			final long sequential = System.nanoTime() - startTime;
+			System.out.println("One request at a time: " + requests + " requests in " + TimeUnit.NANOSECONDS.toMillis(sequential) + "ms(" + Math.round(requests / (sequential / 1000000000.0D)) + " requests/sec)");
+			
+			startTime = System.nanoTime();
+			List<CompletableFuture<Packet>> responses = new ArrayList<>(requests);
+			for(int i = 0; i < requests; i++) {
+				responses.add(connection.request(new Packet(i)));
+			}
+			for(int i = 0; i < requests; i++) {
+				if(responses.get(i).get().getInt() != i * 2) {
+					errors++;
+				}
+			}
+			final long pipelined = System.nanoTime() - startTime;
+			System.out.println("Pipelined:             " + requests + " requests in " + TimeUnit.NANOSECONDS.toMillis(pipelined) + "ms(" + Math.round(requests / (pipelined / 1000000000.0D)) + " requests/sec); " + String.format("%.1f", Double.valueOf(sequential / (double) pipelined)) + "x faster; simulated round trip: " + latency + "ms; errors: " + errors + "; still pending: " + connection.getPendingRequestCount());
+		} finally {
+			link.shutdownNow();
+		}
+	}
+	
+}
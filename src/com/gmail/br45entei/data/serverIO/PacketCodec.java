@@ -0,0 +1,635 @@
+package com.gmail.br45entei.data.serverIO;
+
+import static com.gmail.br45entei.data.serverIO.PacketIDs.DISABLE_COMPRESSION;
+import static com.gmail.br45entei.data.serverIO.PacketIDs.ENABLE_COMPRESSION;
+import static com.gmail.br45entei.data.serverIO.PacketIDs.RESEND_FRAMES;
+import static com.gmail.br45entei.data.serverIO.PacketIDs.SET_CHECKSUM;
+import static com.gmail.br45entei.data.serverIO.PacketIDs.SET_COMPRESSION_CODEC;
+
+import com.gmail.br45entei.data.DisposableByteArrayOutputStream;
+import com.gmail.br45entei.util.StringUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** Holds the protocol state of a single connection(whether or not large
+ * {@link PacketIDs#StringID String} packets are compressed, with which
+ * {@link CompressionCodec}, and which {@link ChecksumType checksum} is
+ * appended to each frame), so that the {@link PacketIDs#ENABLE_COMPRESSION
+ * ENABLE_COMPRESSION}, {@link PacketIDs#DISABLE_COMPRESSION
+ * DISABLE_COMPRESSION}, {@link PacketIDs#SET_COMPRESSION_CODEC
+ * SET_COMPRESSION_CODEC} and {@link PacketIDs#SET_CHECKSUM SET_CHECKSUM}
+ * packets sent by one peer only affect the connection they were sent
+ * over.<br>
+ * Each connection should use its own codec for both reading and writing; the
+ * static methods in {@link Packet} all use the shared
+ * {@link #getDefault() default codec}.<br>
+ * The state is kept in atomic fields, so reading and writing never have to
+ * take a lock.
+ * 
+ * @author Brian_Entei */
+public final class PacketCodec {
+	
+	private static final PacketCodec defaultCodec = new PacketCodec();
+	
+	/** @return The codec used by {@link Packet}'s static read and write
+	 *         methods */
+	public static final PacketCodec getDefault() {
+		return defaultCodec;
+	}
+	
+	private final AtomicBoolean compressionEnabled = new AtomicBoolean(true);
+	private volatile CompressionCodec compressionCodec = CompressionCodecs.GZIP;
+	
+	//Each direction switches checksums in-band(with a SET_CHECKSUM frame), so they are tracked separately:
+	private volatile ChecksumType checksumType = ChecksumType.NONE;
+	private final AtomicReference<ChecksumType> outgoingChecksum = new AtomicReference<>(ChecksumType.NONE);
+	private volatile ChecksumType incomingChecksum = ChecksumType.NONE;
+	private final AtomicInteger outgoingSequence = new AtomicInteger(0);
+	private volatile int incomingSequence = 0;
+	
+	/** Creates a new codec with string compression enabled */
+	public PacketCodec() {
+	}
+	
+	/** @param compressionEnabled Whether or not large string packets should
+	 *            be compressed */
+	public PacketCodec(boolean compressionEnabled) {
+		this.compressionEnabled.set(compressionEnabled);
+	}
+	
+	/** @return Whether or not large {@link PacketIDs#StringID String} packets
+	 *         are currently being compressed on this connection */
+	public final boolean isCompressionEnabled() {
+		return this.compressionEnabled.get();
+	}
+	
+	/** @param enable Whether or not large string packets should be compressed
+	 * @param out The output stream to send the corresponding
+	 *            {@link PacketIDs#ENABLE_COMPRESSION ENABLE_COMPRESSION} or
+	 *            {@link PacketIDs#DISABLE_COMPRESSION DISABLE_COMPRESSION}
+	 *            packet to, or {@code null} to only change the local state
+	 * @throws IOException Thrown if an I/O error occurs */
+	public final void setCompressionEnabled(boolean enable, OutputStream out) throws IOException {
+		this.compressionEnabled.set(enable);
+		if(out != null) {
+			this.writeRaw(new Packet(enable ? ENABLE_COMPRESSION : DISABLE_COMPRESSION, new byte[0]), out);
+		}
+	}
+	
+	/** @return The codec that large string packets are currently being
+	 *         compressed with on this connection */
+	public final CompressionCodec getCompressionCodec() {
+		return this.compressionCodec;
+	}
+	
+	/** @param codec The codec that large string packets should be compressed
+	 *            with from now on. It must be
+	 *            {@link CompressionCodecs#register(CompressionCodec)
+	 *            registered} on both ends of the connection.
+	 * @param out The output stream to send the corresponding
+	 *            {@link PacketIDs#SET_COMPRESSION_CODEC SET_COMPRESSION_CODEC}
+	 *            packet to, or {@code null} to only change the local state
+	 * @throws IOException Thrown if an I/O error occurs */
+	public final void setCompressionCodec(CompressionCodec codec, OutputStream out) throws IOException {
+		if(codec == null) {
+			throw new NullPointerException("codec cannot be null!");
+		}
+		if(CompressionCodecs.getByID(codec.getID()) != codec) {
+			throw new IllegalArgumentException("Compression codec \"" + codec.getName() + "\" is not registered!");
+		}
+		this.compressionCodec = codec;
+		if(out != null) {
+			this.writeRaw(new Packet(SET_COMPRESSION_CODEC, new byte[] {(byte) codec.getID()}), out);
+		}
+	}
+	
+	/** @return The checksum that is(or will be, from the next frame on)
+	 *         appended to the frames sent over this connection */
+	public final ChecksumType getChecksumType() {
+		return this.checksumType;
+	}
+	
+	/** Sets the checksum that is appended to the frames sent over this
+	 * connection. The other end is told with a {@link PacketIDs#SET_CHECKSUM
+	 * SET_CHECKSUM} packet before the next frame(or right away, if an output
+	 * stream is given), after which it checks every frame it receives and
+	 * appends the same checksum to the frames it sends back.
+	 * 
+	 * @param type The checksum to use, or {@link ChecksumType#NONE} to stop
+	 *            sending checksums
+	 * @param out The output stream to send the
+	 *            {@link PacketIDs#SET_CHECKSUM SET_CHECKSUM} packet to right
+	 *            away, or {@code null} to send it along with the next packet
+	 * @throws IOException Thrown if an I/O error occurs */
+	public final void setChecksumType(ChecksumType type, OutputStream out) throws IOException {
+		this.checksumType = type == null ? ChecksumType.NONE : type;
+		if(out != null) {
+			final ChecksumType announce = this.checksumSwitch();
+			if(announce != null) {
+				this.writeRaw(checksumSwitchPacket(announce), out);
+			}
+		}
+	}
+	
+	/** @return The checksum that is currently appended to outgoing frames */
+	final ChecksumType getOutgoingChecksum() {
+		return this.outgoingChecksum.get();
+	}
+	
+	/** @return The checksum that incoming frames are expected to have */
+	final ChecksumType getIncomingChecksum() {
+		return this.incomingChecksum;
+	}
+	
+	/** Must be called before each outgoing frame is written(while holding the
+	 * writer's lock).
+	 * 
+	 * @return The checksum that must be announced with a
+	 *         {@link PacketIDs#SET_CHECKSUM SET_CHECKSUM} frame before the next
+	 *         frame, or {@code null} if it hasn't changed */
+	final ChecksumType checksumSwitch() {
+		final ChecksumType type = this.checksumType, current = this.outgoingChecksum.get();
+		if(type != current && this.outgoingChecksum.compareAndSet(current, type)) {
+			this.outgoingSequence.set(0);
+			return type;
+		}
+		return null;
+	}
+	
+	static final Packet checksumSwitchPacket(ChecksumType type) {
+		return new Packet(SET_CHECKSUM, new byte[] {(byte) type.getID()});
+	}
+	
+	/** @return The sequence number of the next outgoing frame(must be called
+	 *         while holding the writer's lock) */
+	final int nextOutgoingSequence() {
+		return this.outgoingSequence.getAndIncrement();
+	}
+	
+	/** @return The sequence number that the next incoming frame should have */
+	final int getIncomingSequence() {
+		return this.incomingSequence;
+	}
+	
+	/** Called by the reader once a frame with the expected sequence number
+	 * has been verified. */
+	final void advanceIncomingSequence() {
+		this.incomingSequence++;
+	}
+	
+	/** Checks the trailer of an incoming frame. The frame is counted even if
+	 * it is rejected(a corrupt frame takes up the expected sequence number,
+	 * and an out of sequence frame moves the expected number past its own),
+	 * so that the frames after it can still be read.
+	 * 
+	 * @param sequence The sequence number in the frame's trailer
+	 * @param expected The checksum in the frame's trailer
+	 * @param actual The checksum that was calculated for the frame
+	 * @throws PacketReadException Thrown if the checksums don't match or the
+	 *             frame is out of sequence */
+	final void verifyTrailer(int sequence, int expected, int actual) throws PacketReadException {
+		final int expectedSequence = this.incomingSequence++;
+		if(expected != actual) {
+			throw new PacketReadException("Frame #" + expectedSequence + " is corrupt: " + this.incomingChecksum + " mismatch(expected " + Integer.toHexString(expected) + ", got " + Integer.toHexString(actual) + ")");
+		}
+		if(sequence != expectedSequence) {
+			this.incomingSequence = sequence + 1;
+			throw new PacketReadException("Frame out of sequence: expected #" + expectedSequence + ", got #" + sequence);
+		}
+	}
+	
+	/** Checks the trailer of an incoming frame that is stored in the given
+	 * buffer(directly after the frame).
+	 * 
+	 * @param buf The buffer containing the frame
+	 * @param off The index in the buffer at which the frame starts
+	 * @param len The length of the frame without its trailer
+	 * @throws PacketReadException Thrown if the checksums don't match or the
+	 *             frame is out of sequence */
+	final void verifyTrailer(ByteBuffer buf, int off, int len) throws PacketReadException {
+		this.verifyTrailer(buf.getInt(off + len), buf.getInt(off + len + 4), this.incomingChecksum.checksum(buf, off, len + 4));
+	}
+	
+	/** @param text The text that the packet will contain
+	 * @return A new string packet, compressed with this codec's compression
+	 *         codec if compression is enabled and the text is long enough */
+	public final Packet newPacket(String text) {
+		return new Packet(text, this.isCompressionEnabled() ? this.compressionCodec : null);
+	}
+	
+	/** @param id The type of a packet
+	 * @return True if the packet changes this codec's state(and should not be
+	 *         passed on to the application) */
+	static final boolean isControlPacket(PacketType id) {
+		return id == ENABLE_COMPRESSION || id == DISABLE_COMPRESSION || id == SET_COMPRESSION_CODEC || id == SET_CHECKSUM || id == RESEND_FRAMES;
+	}
+	
+	/** Applies a {@link #isControlPacket(PacketType) control packet} to this
+	 * codec.
+	 * 
+	 * @param id The type of the packet that was just read
+	 * @param arg The first byte of the packet's data, or -1 if it has none
+	 * @throws PacketReadException Thrown if the other end selected a
+	 *             compression codec that is not registered here, or a
+	 *             checksum that is not supported */
+	final void handleIncoming(PacketType id, int arg) throws PacketReadException {
+		if(id == ENABLE_COMPRESSION || id == DISABLE_COMPRESSION) {
+			this.compressionEnabled.set(id == ENABLE_COMPRESSION);
+		} else if(id == SET_COMPRESSION_CODEC) {
+			CompressionCodec codec = CompressionCodecs.getByID(arg);
+			if(codec == null) {
+				throw new PacketReadException("Unsupported compression codec id: " + arg);
+			}
+			this.compressionCodec = codec;
+		} else if(id == SET_CHECKSUM) {
+			ChecksumType type = ChecksumType.getByID(arg);
+			if(type == null) {
+				throw new PacketReadException("Unsupported checksum id: " + arg);
+			}
+			this.incomingChecksum = type;
+			this.incomingSequence = 0;
+			this.checksumType = type;//Answer with the same checksum
+		}//RESEND_FRAMES can only be answered by a PacketConnection, which keeps the frames it sent
+	}
+	
+	/** @param packet The packet that is about to be written
+	 * @return True if compression was disabled and an
+	 *         {@link PacketIDs#ENABLE_COMPRESSION ENABLE_COMPRESSION} packet
+	 *         must be sent before the given(compressed) packet */
+	final boolean needsEnableCompression(Packet packet) {
+		return packet.isCompressed() && this.compressionEnabled.compareAndSet(false, true);
+	}
+	
+	/** Reads the next packet from the given input stream. Any
+	 * {@link #isControlPacket(PacketType) control packets} that are read first
+	 * are applied to this codec and skipped.
+	 * 
+	 * @param in The input stream to read from
+	 * @return The packet that was read, or {@code null} if the end of the
+	 *         stream was reached
+	 * @throws IOException Thrown if an I/O error occurs
+	 * @throws PacketReadException Thrown if the incoming data is not a valid
+	 *             packet */
+	public final Packet readNextPacket(InputStream in) throws IOException, PacketReadException {
+		while(true) {
+			int readID = in.read();
+			if(readID < 0) {
+				return null;
+			}
+			int correlationID = Packet.noCorrelationID;
+			if((readID & Packet.correlatedFlag) != 0) {
+				readID &= ~Packet.correlatedFlag;
+				correlationID = Packet.readInt(in);
+				if(correlationID == -1) {//Correlation ids are never negative
+					throw new EOFException("Error reading packet: End of stream reached");
+				}
+			}
+			PacketType id = PacketTypes.getByID(readID);
+			if(id == null) {
+				throw new PacketReadException("Unknown packet id: " + readID);
+			}
+			final int length;
+			if(id.getLength() == -1) {
+				length = Packet.readInt(in);
+				if(length == -1) {
+					throw new EOFException("Error reading packet: End of stream reached");
+				}
+				if(length > Packet.maxSize || length < 0) {
+					throw new PacketReadException("Packet size out of bounds(must be >= 0 and <= " + Packet.maxSize + "): " + length);
+				}
+			} else {
+				length = id.getLength();
+			}
+			final ChecksumType checksum = id == SET_CHECKSUM ? ChecksumType.NONE : this.incomingChecksum;
+			if(checksum == ChecksumType.NONE && !isControlPacket(id)) {
+				return new Packet(id, length, in, this.isCompressionEnabled(), correlationID);
+			}
+			final byte[] data = new byte[length];
+			Packet.readFully(in, data, 0, length);
+			if(checksum != ChecksumType.NONE) {
+				final byte[] trailer = new byte[ChecksumType.trailerSize];
+				Packet.readFully(in, trailer, 0, trailer.length);
+				final ByteBuffer buf = ByteBuffer.wrap(trailer);
+				final int sequence = buf.getInt(0);
+				this.verifyTrailer(sequence, buf.getInt(4), checksum.checksum(id.getID() | (correlationID != Packet.noCorrelationID ? Packet.correlatedFlag : 0), correlationID, id.getLength() == -1, data, 0, length, sequence));
+			}
+			if(isControlPacket(id)) {
+				this.handleIncoming(id, length > 0 ? data[0] & 0xFF : -1);
+				continue;
+			}
+			final Packet packet = new Packet(id, data, id == PacketIDs.StringID && this.isCompressionEnabled() && CompressionCodecs.isCompressed(data, 0, data.length), correlationID);
+			if(packet.getValue() == null) {
+				throw new PacketReadException("Malformed Packet('" + id.toString() + "') data; packet.getValue() returns null!");
+			}
+			return packet;
+		}
+	}
+	
+	/** Writes the given packet to the given output stream and flushes it. If
+	 * the packet is compressed but this codec currently has compression
+	 * disabled, an {@link PacketIDs#ENABLE_COMPRESSION ENABLE_COMPRESSION}
+	 * packet is sent first.
+	 * 
+	 * @param packet The packet to write
+	 * @param out The output stream to write to
+	 * @throws IOException Thrown if an I/O error occurs */
+	public final void writePacket(Packet packet, OutputStream out) throws IOException {
+		if(packet == null || out == null) {
+			return;
+		}
+		final ChecksumType announce = this.checksumSwitch();
+		if(announce != null) {
+			this.writeRaw(checksumSwitchPacket(announce), out);
+		}
+		if(this.needsEnableCompression(packet)) {
+			this.writeRaw(new Packet(ENABLE_COMPRESSION, new byte[0]), out);
+		}
+		this.writeRaw(packet, out);
+	}
+	
+	/** Writes the given packets to the given output stream, flushing it only
+	 * once after the last one.
+	 * 
+	 * @param packets The packets to write
+	 * @param out The output stream to write to
+	 * @throws IOException Thrown if an I/O error occurs
+	 * @see #writePacket(Packet, OutputStream) */
+	public final void writePackets(Collection<Packet> packets, OutputStream out) throws IOException {
+		if(packets == null || out == null) {
+			return;
+		}
+		for(Packet packet : packets) {
+			if(packet == null) {
+				continue;
+			}
+			final ChecksumType announce = this.checksumSwitch();
+			if(announce != null) {
+				this.writeFrame(checksumSwitchPacket(announce), out);
+			}
+			if(this.needsEnableCompression(packet)) {
+				this.writeFrame(new Packet(ENABLE_COMPRESSION, new byte[0]), out);
+			}
+			this.writeFrame(packet, out);
+		}
+		out.flush();
+	}
+	
+	/** Writes the given packet to the given channel with a single gathering
+	 * write of its header, data and trailer, instead of the separate writes
+	 * that {@link #writePacket(Packet, OutputStream)} makes for each of them.
+	 * The packet's data is handed to the channel as-is, without being copied
+	 * into an intermediate buffer first.
+	 * 
+	 * @param packet The packet to write
+	 * @param channel The (blocking) channel to write to, such as the
+	 *            {@link Socket#getChannel() channel} of a socket that was
+	 *            opened with {@link SocketChannel#open()}
+	 * @throws IOException Thrown if an I/O error occurs
+	 * @throws IllegalBlockingModeException Thrown if the channel is in
+	 *             non-blocking mode */
+	public final void writePacket(Packet packet, GatheringByteChannel channel) throws IOException {
+		if(packet == null || channel == null) {
+			return;
+		}
+		List<ByteBuffer> buffers = new ArrayList<>(3);
+		this.gather(packet, buffers);
+		writeFully(buffers, channel);
+	}
+	
+	/** Writes the given packets to the given channel with as few gathering
+	 * writes as possible(usually one).
+	 * 
+	 * @param packets The packets to write
+	 * @param channel The (blocking) channel to write to
+	 * @throws IOException Thrown if an I/O error occurs
+	 * @throws IllegalBlockingModeException Thrown if the channel is in
+	 *             non-blocking mode
+	 * @see #writePacket(Packet, GatheringByteChannel) */
+	public final void writePackets(Collection<Packet> packets, GatheringByteChannel channel) throws IOException {
+		if(packets == null || channel == null) {
+			return;
+		}
+		List<ByteBuffer> buffers = new ArrayList<>(packets.size() * 2);
+		for(Packet packet : packets) {
+			if(packet != null) {
+				this.gather(packet, buffers);
+			}
+		}
+		writeFully(buffers, channel);
+	}
+	
+	/** Writes the given packet to the given socket, using a gathering write if
+	 * the socket has a blocking {@link Socket#getChannel() channel}, and its
+	 * output stream otherwise(e.g. for {@link javax.net.ssl.SSLSocket
+	 * SSLSockets}, which must encrypt everything that is sent).
+	 * 
+	 * @param packet The packet to write
+	 * @param socket The socket to write to
+	 * @throws IOException Thrown if an I/O error occurs */
+	public final void writePacket(Packet packet, Socket socket) throws IOException {
+		final SocketChannel channel = socket.getChannel();
+		if(channel != null && channel.isBlocking()) {
+			this.writePacket(packet, (GatheringByteChannel) channel);
+		} else {
+			this.writePacket(packet, socket.getOutputStream());
+		}
+	}
+	
+	/** Writes the given packets to the given socket, using a gathering write
+	 * if the socket has a blocking {@link Socket#getChannel() channel}, and
+	 * its output stream otherwise.
+	 * 
+	 * @param packets The packets to write
+	 * @param socket The socket to write to
+	 * @throws IOException Thrown if an I/O error occurs */
+	public final void writePackets(Collection<Packet> packets, Socket socket) throws IOException {
+		final SocketChannel channel = socket.getChannel();
+		if(channel != null && channel.isBlocking()) {
+			this.writePackets(packets, (GatheringByteChannel) channel);
+		} else {
+			this.writePackets(packets, socket.getOutputStream());
+		}
+	}
+	
+	private final void gather(Packet packet, List<ByteBuffer> buffers) {
+		final ChecksumType announce = this.checksumSwitch();
+		if(announce != null) {
+			this.gatherFrame(checksumSwitchPacket(announce), buffers);
+		}
+		if(this.needsEnableCompression(packet)) {
+			this.gatherFrame(new Packet(ENABLE_COMPRESSION, new byte[0]), buffers);
+		}
+		this.gatherFrame(packet, buffers);
+	}
+	
+	/** Adds the buffers that make up the given packet's frame to the given
+	 * list: the header(id, correlation id and length), the packet's data(if
+	 * it has any) and the checksum trailer(if checksums are enabled). */
+	private final void gatherFrame(Packet packet, List<ByteBuffer> buffers) {
+		final PacketType id = packet.getType();
+		final byte[] data = packet.getBackingData();
+		final int len = data.length;
+		final int idByte = packet.hasCorrelationID() ? id.getID() | Packet.correlatedFlag : id.getID();
+		final ByteBuffer header = ByteBuffer.allocate(9);
+		header.put((byte) idByte);
+		if(packet.hasCorrelationID()) {
+			header.putInt(packet.getCorrelationID());
+		}
+		if(id.getLength() == -1) {
+			header.putInt(len);
+		}
+		header.flip();
+		buffers.add(header);
+		if(len > 0) {
+			buffers.add(ByteBuffer.wrap(data));
+		}
+		final ChecksumType checksum = id == SET_CHECKSUM ? ChecksumType.NONE : this.outgoingChecksum.get();
+		if(checksum != ChecksumType.NONE) {
+			final int sequence = this.nextOutgoingSequence();
+			final ByteBuffer trailer = ByteBuffer.allocate(ChecksumType.trailerSize);
+			trailer.putInt(sequence).putInt(checksum.checksum(idByte, packet.getCorrelationID(), id.getLength() == -1, data, 0, len, sequence));
+			trailer.flip();
+			buffers.add(trailer);
+		}
+	}
+	
+	private static final void writeFully(List<ByteBuffer> list, GatheringByteChannel channel) throws IOException {
+		if(channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking()) {
+			throw new IllegalBlockingModeException();//Same as Socket.getOutputStream(); a non-blocking channel would have us spin here
+		}
+		final ByteBuffer[] buffers = list.toArray(new ByteBuffer[list.size()]);
+		int offset = 0;
+		while(offset < buffers.length) {
+			channel.write(buffers, offset, buffers.length - offset);//Writes as many buffers as the OS accepts in one call(up to IOV_MAX)
+			while(offset < buffers.length && !buffers[offset].hasRemaining()) {
+				offset++;
+			}
+		}
+	}
+	
+	private final void writeRaw(Packet packet, OutputStream out) throws IOException {
+		this.writeFrame(packet, out);
+		out.flush();//doo eet. doo eet nao. naoooo
+	}
+	
+	@SuppressWarnings("resource")
+	private final void writeFrame(Packet packet, OutputStream out) throws IOException {
+		final PacketType id = packet.getType();
+		final byte[] data = packet.getBackingData();
+		final int len = data.length;
+		final int idByte = packet.hasCorrelationID() ? id.getID() | Packet.correlatedFlag : id.getID();
+		out.write(idByte);//send the packet id first, telling the other end what to expect
+		if(packet.hasCorrelationID()) {
+			new DataOutputStream(out).writeInt(packet.getCorrelationID());
+		}
+		if(id.getLength() == -1) {//Where -1 means the packet has a volatile length. If the packet id has a fixed length, there's no need to send the length over, since the other side should also know what the length of the packet id is.
+			new DataOutputStream(out).writeInt(len);
+		}
+		out.write(data, 0, len);//send the data
+		final ChecksumType checksum = id == SET_CHECKSUM ? ChecksumType.NONE : this.outgoingChecksum.get();
+		if(checksum != ChecksumType.NONE) {
+			final int sequence = this.nextOutgoingSequence();
+			DataOutputStream dos = new DataOutputStream(out);
+			dos.writeInt(sequence);
+			dos.writeInt(checksum.checksum(idByte, packet.getCorrelationID(), id.getLength() == -1, data, 0, len, sequence));
+		}
+	}
+	
+	@Override
+	public final String toString() {
+		return "PacketCodec[compression=" + this.isCompressionEnabled() + ", codec=" + this.compressionCodec.getName() + "]";
+	}
+	
+	/** Runs many simulated connections at once, each with its own codec and
+	 * each toggling compression on its own schedule, then checks that every
+	 * string came back exactly as it was sent(i.e. that no connection's
+	 * toggles leaked into another's) and prints the combined throughput for
+	 * increasing numbers of connections.
+	 * 
+	 * @param args Program command line arguments */
+	public static final void main(String[] args) {
+		final int maxConnections = args.length > 0 && StringUtil.isStrInt(args[0]) ? Integer.parseInt(args[0]) : 64;
+		final int messagesPerConnection = args.length > 1 && StringUtil.isStrInt(args[1]) ? Integer.parseInt(args[1]) : 2000;
+		for(int connections = 1; connections <= maxConnections; connections *= 2) {
+			final AtomicLong mismatches = new AtomicLong(0);
+			final AtomicLong totalBytes = new AtomicLong(0);
+			Thread[] threads = new Thread[connections];
+			for(int i = 0; i < connections; i++) {
+				final int connectionNum = i;
+				threads[i] = new Thread(new Runnable() {
+					@Override
+					public final void run() {
+						final Random random = new Random(connectionNum);
+						final PacketCodec sender = new PacketCodec(), receiver = new PacketCodec();
+						final String[] sent = new String[messagesPerConnection];
+						DisposableByteArrayOutputStream out = new DisposableByteArrayOutputStream();
+						try {
+							for(int j = 0; j < messagesPerConnection; j++) {
+								if(random.nextInt(8) == 0) {
+									sender.setCompressionEnabled(random.nextBoolean(), out);
+								}
+								if(random.nextInt(16) == 0) {
+									sender.setCompressionCodec(CompressionCodecs.getByID(random.nextInt(3)), out);
+								}
+								StringBuilder sb = new StringBuilder();
+								final int words = random.nextInt(100);
+								for(int k = 0; k < words; k++) {
+									sb.append("connection ").append(connectionNum).append(" message ").append(j).append(' ');
+								}
+								sent[j] = sb.toString();
+								sender.writePacket(sender.newPacket(sent[j]), out);
+							}
+							final byte[] encoded = out.getBytesAndDispose();
+							totalBytes.addAndGet(encoded.length);
+							ByteArrayInputStream in = new ByteArrayInputStream(encoded);
+							for(int j = 0; j < messagesPerConnection; j++) {
+								Packet packet = receiver.readNextPacket(in);
+								if(packet == null || !sent[j].equals(packet.getText())) {
+									mismatches.incrementAndGet();
+								}
+							}
+						} catch(IOException | PacketReadException e) {
+							e.printStackTrace();
+							mismatches.incrementAndGet();
+						}
+					}
+				}, "PacketCodecTest-" + i);
+			}
+			final long startTime = System.nanoTime();
+			for(Thread thread : threads) {
+				thread.start();
+			}
+			for(Thread thread : threads) {
+				try {
+					thread.join();
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			final double elapsedSeconds = (System.nanoTime() - startTime) / 1000000000.0D;
+			final long messages = (long) connections * messagesPerConnection;
+			System.out.println(connections + " connection" + (connections == 1 ? "" : "s") + ": " + Math.round(messages / elapsedSeconds) + " messages/sec(" + Math.round(totalBytes.get() / elapsedSeconds / 1048576.0D) + " MB/sec encoded); mismatched messages: " + mismatches.get());
+		}
+	}
+	
+}
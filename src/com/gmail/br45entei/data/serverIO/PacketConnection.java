@@ -0,0 +1,773 @@
+package com.gmail.br45entei.data.serverIO;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLSession;
+
+/** A single non-blocking connection managed by a {@link PacketServer} or
+ * {@link PacketClient}.<br>
+ * Incoming data is parsed incrementally as it arrives, so a connection only
+ * holds on to the packet that is currently being received(instead of a whole
+ * read buffer), which keeps idle connections cheap. Complete packets are
+ * queued and handed to the connection's {@link PacketHandler} by the worker
+ * pool, one at a time and in order.<br>
+ * {@link #send(Packet)} may be called from any thread. It writes straight to
+ * the channel when nothing else is queued, and otherwise queues the data for
+ * the selector thread to write once the channel can take more.<br>
+ * <br>
+ * {@link #request(Packet)} tags a packet with a correlation id and returns a
+ * future that is completed with the response that carries the same id, so
+ * any number of requests can be in flight on one connection at once and be
+ * answered in any order. The other end answers with
+ * {@link #reply(Packet, Packet)}, or asks for the request to be sent again
+ * with {@link #requestResend(Packet, String)}.<br>
+ * <br>
+ * When a {@link ChecksumType checksum} is in use, the last frames that were
+ * sent are kept in a bounded retransmit buffer. A frame that arrives
+ * corrupted is dropped along with every frame after it, and the other end is
+ * asked to send them all again(in order) with a
+ * {@link PacketIDs#RESEND_FRAMES RESEND_FRAMES} packet, so the handler never
+ * sees the corrupted packet and never sees packets out of order. If the
+ * frames are no longer in the retransmit buffer, or they still haven't arrived
+ * intact after {@link #maxFrameResends} requests, the connection is closed.
+ * 
+ * @author Brian_Entei */
+public final class PacketConnection implements Closeable {
+	
+	/** The number of received packets that may be waiting to be handled
+	 * before the connection stops reading from its channel(until the handler
+	 * catches up) */
+	public static final int maxQueuedPackets = 1024;
+	/** The number of times that a request is sent again when the other end
+	 * answers it with {@link PacketIDs#ResendLastPacket ResendLastPacket}
+	 * before its future fails */
+	public static final int maxResends = 3;
+	/** The maximum number of sent frames that are kept for retransmission
+	 * while a checksum is in use */
+	public static final int retransmitBufferFrames = 256;
+	/** The maximum number of bytes of sent frames that are kept for
+	 * retransmission while a checksum is in use(1MB) */
+	public static final int retransmitBufferBytes = 0x100000;
+	/** The number of times in a row that the other end is asked to
+	 * retransmit its frames with {@link PacketIDs#RESEND_FRAMES RESEND_FRAMES}
+	 * before the connection is closed */
+	public static final int maxFrameResends = 8;
+	/** The number of milliseconds after which a
+	 * {@link PacketIDs#RESEND_FRAMES RESEND_FRAMES} request is sent again if
+	 * frames keep arriving but the one that was asked for doesn't(e.g.
+	 * because the retransmitted frame's sequence number was corrupted too) */
+	public static final long frameResendTimeout = 5000L;
+	private static final int maxPacketsPerDispatch = 64;
+	private static final byte[] empty = new byte[0];
+	
+	private final PacketEventLoop loop;
+	private final SocketChannel channel;
+	private final SSLChannel tls;
+	private final PacketHandler handler;
+	private final SocketAddress remoteAddress;
+	private final PacketCodec codec = new PacketCodec();
+	volatile SelectionKey key;
+	private volatile Object attachment;
+	
+	//Incoming state(only used by the selector thread):
+	private final byte[] headerBytes = new byte[8];
+	private int headerCount = 0, headerSize = 0;
+	private boolean currentCorrelated = false;
+	private int currentIDByte = 0;
+	private ChecksumType currentChecksum = ChecksumType.NONE;
+	private final byte[] trailerBytes = new byte[ChecksumType.trailerSize];
+	private int trailerCount = 0;
+	private boolean awaitingResend = false;
+	private int frameResends = 0;
+	private long frameResendTime = 0L;
+	private PacketType currentType = null;
+	private byte[] currentData = null;
+	private int currentCount = 0;
+	
+	//Requests sent with request(Packet) that have not been answered yet:
+	private final ConcurrentHashMap<Integer, PendingRequest> pending = new ConcurrentHashMap<>();
+	private final AtomicInteger nextCorrelationID;
+	
+	//Received packets that have not been handled yet:
+	private final ConcurrentLinkedQueue<Packet> inbound = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger inboundCount = new AtomicInteger(0);
+	private final AtomicBoolean dispatching = new AtomicBoolean(false);
+	private volatile boolean readPaused = false;
+	private volatile boolean connectHandled = false;
+	private final AtomicBoolean disconnectHandled = new AtomicBoolean(false);
+	
+	//Outgoing data that could not be written right away(guarded by itself):
+	private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+	private long outboundBytes = 0;
+	//Sent frames that may have to be sent again(also guarded by the outbound lock):
+	private final ArrayDeque<ByteBuffer> sent = new ArrayDeque<>();
+	private int sentFirstSequence = 0;
+	private long sentBytes = 0;
+	
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+	private volatile Throwable closeCause = null;
+	
+	private final Runnable dispatchTask = new Runnable() {
+		@Override
+		public final void run() {
+			PacketConnection.this.handleQueued();
+		}
+	};
+	private final Runnable interestTask = new Runnable() {
+		@Override
+		public final void run() {
+			PacketConnection.this.updateInterest();
+			PacketConnection.this.loop.readBuffered(PacketConnection.this);
+		}
+	};
+	
+	PacketConnection(PacketEventLoop loop, SocketChannel channel, PacketHandler handler) {
+		this(loop, channel, handler, null);
+	}
+	
+	PacketConnection(PacketEventLoop loop, SocketChannel channel, PacketHandler handler, SSLChannel tls) {
+		this.loop = loop;
+		this.channel = channel;
+		this.tls = tls;
+		this.handler = handler;
+		//Accepted connections use even correlation ids and outgoing ones use odd ids, so that requests sent by both ends at once can never be mistaken for responses:
+		this.nextCorrelationID = new AtomicInteger(loop instanceof PacketServer ? 0 : -1);
+		SocketAddress remoteAddress = null;
+		try {
+			remoteAddress = channel.getRemoteAddress();
+		} catch(IOException ignored) {
+		}
+		this.remoteAddress = remoteAddress;
+	}
+	
+	/** @return The channel that this connection uses */
+	public final SocketChannel getChannel() {
+		return this.channel;
+	}
+	
+	/** @return The TLS session of this connection(which is a placeholder
+	 *         until the handshake has completed), or {@code null} if this
+	 *         connection is not encrypted */
+	public final SSLSession getSSLSession() {
+		return this.tls == null ? null : this.tls.getSession();
+	}
+	
+	/** @return Whether or not this connection is encrypted with TLS */
+	public final boolean isSecure() {
+		return this.tls != null;
+	}
+	
+	/** Starts a new TLS handshake on this connection(a renegotiation for TLS
+	 * 1.2 and earlier, or a key update for TLS 1.3). Packets can keep being
+	 * sent meanwhile; they go out once the handshake allows it.
+	 * 
+	 * @throws IOException Thrown if this connection is closed or not
+	 *             encrypted, or if an I/O error occurs */
+	public final void renegotiate() throws IOException {
+		if(this.tls == null) {
+			throw new IOException("Connection is not encrypted!");
+		}
+		if(this.closed.get()) {
+			throw new IOException("Connection is closed!");
+		}
+		synchronized(this.outbound) {
+			try {
+				this.tls.renegotiate();
+			} catch(IOException e) {
+				this.close(e);
+				throw e;
+			}
+		}
+		this.loop.execute(this.interestTask);
+	}
+	
+	/** @return The codec that holds this connection's protocol state */
+	public final PacketCodec getCodec() {
+		return this.codec;
+	}
+	
+	/** @return The address of the other end of this connection, or
+	 *         {@code null} if it is not known */
+	public final SocketAddress getRemoteAddress() {
+		return this.remoteAddress;
+	}
+	
+	/** @return The object attached to this connection, if any */
+	public final Object getAttachment() {
+		return this.attachment;
+	}
+	
+	/** @param attachment The object to attach to this connection(e.g. the
+	 *            application's per-connection state)
+	 * @return This connection */
+	public final PacketConnection setAttachment(Object attachment) {
+		this.attachment = attachment;
+		return this;
+	}
+	
+	/** @return Whether or not this connection is still open */
+	public final boolean isOpen() {
+		return !this.closed.get();
+	}
+	
+	/** @return The number of requests that are waiting for a response */
+	public final int getPendingRequestCount() {
+		return this.pending.size();
+	}
+	
+	/** @return The number of bytes that have been sent but could not be
+	 *         written to the channel yet */
+	public final long getQueuedBytes() {
+		synchronized(this.outbound) {
+			return this.outboundBytes;
+		}
+	}
+	
+	//=============================================
+	
+	/** Sends the given packet to the other end of this connection. If the
+	 * packet is compressed but this connection's codec currently has
+	 * compression disabled, an {@link PacketIDs#ENABLE_COMPRESSION
+	 * ENABLE_COMPRESSION} packet is sent first.
+	 * 
+	 * @param packet The packet to send
+	 * @throws IOException Thrown if the connection is closed or an I/O error
+	 *             occurs */
+	public final void send(Packet packet) throws IOException {
+		if(this.closed.get()) {
+			throw new IOException("Connection is closed!");
+		}
+		final boolean trailer = this.codec.getChecksumType() != ChecksumType.NONE;
+		final ByteBuffer frame = encode(packet.getType(), packet.getBackingData(), packet.getCorrelationID(), trailer);
+		synchronized(this.outbound) {
+			final ChecksumType announce = this.codec.checksumSwitch();
+			if(announce != null) {
+				this.sent.clear();
+				this.sentBytes = 0;
+				this.enqueue(encode(PacketIDs.SET_CHECKSUM, new byte[] {(byte) announce.getID()}, Packet.noCorrelationID, false));
+			}
+			if(this.codec.needsEnableCompression(packet)) {
+				this.enqueueFrame(encode(PacketIDs.ENABLE_COMPRESSION, empty, Packet.noCorrelationID, trailer));
+			}
+			this.enqueueFrame(frame);
+		}
+	}
+	
+	/** @param text The text to send, compressed according to this connection's
+	 *            codec
+	 * @throws IOException Thrown if the connection is closed or an I/O error
+	 *             occurs */
+	public final void send(String text) throws IOException {
+		this.send(this.codec.newPacket(text));
+	}
+	
+	/** Sends the given packet as a request, tagged with a new correlation id.
+	 * The returned future is completed(on a worker thread, in place of the
+	 * handler's {@link PacketHandler#onPacket(PacketConnection, Packet)
+	 * onPacket} method) with the response that the other end sends back with
+	 * {@link #reply(Packet, Packet)}, or completed exceptionally if this
+	 * connection is closed first or the other end could not read the request
+	 * after {@link #maxResends} retransmissions.<br>
+	 * Requests do not wait for each other, so any number of them may be in
+	 * flight at once, and their responses may arrive in any order.
+	 * 
+	 * @param packet The request to send(any correlation id that it already
+	 *            has is replaced)
+	 * @return A future that is completed with the response
+	 * @throws IOException Thrown if the connection is closed or an I/O error
+	 *             occurs */
+	public final CompletableFuture<Packet> request(Packet packet) throws IOException {
+		int correlationID;
+		do {
+			correlationID = this.nextCorrelationID.addAndGet(2) & 0x7FFFFFFF;
+		} while(correlationID == Packet.noCorrelationID || this.pending.containsKey(Integer.valueOf(correlationID)));
+		final PendingRequest request = new PendingRequest(packet.withCorrelationID(correlationID));
+		this.pending.put(Integer.valueOf(correlationID), request);//Before sending, since the response may arrive before send(...) even returns
+		try {
+			this.send(request.packet);
+		} catch(IOException | RuntimeException e) {
+			this.pending.remove(Integer.valueOf(correlationID));
+			throw e;
+		}
+		if(this.closed.get() && this.pending.remove(Integer.valueOf(correlationID)) != null) {//close(...) may have missed it
+			request.future.completeExceptionally(new IOException("Connection is closed!", this.closeCause));
+		}
+		return request.future;
+	}
+	
+	/** Sends a response to a request that was sent with
+	 * {@link #request(Packet)} by the other end.
+	 * 
+	 * @param request The request that is being answered
+	 * @param response The response to send back
+	 * @throws IOException Thrown if the connection is closed or an I/O error
+	 *             occurs */
+	public final void reply(Packet request, Packet response) throws IOException {
+		this.send(response.withCorrelationID(request.getCorrelationID()));
+	}
+	
+	/** Asks the other end to send the given request again(e.g. because it
+	 * could not be read), by answering it with a
+	 * {@link PacketIDs#ResendLastPacket ResendLastPacket} packet. If the
+	 * request has a correlation id, only that request is sent again.
+	 * 
+	 * @param request The request that could not be read
+	 * @param reason The reason that is given to the other end, or
+	 *            {@code null}
+	 * @throws IOException Thrown if the connection is closed or an I/O error
+	 *             occurs */
+	public final void requestResend(Packet request, String reason) throws IOException {
+		this.send(new Packet(PacketIDs.ResendLastPacket, (reason == null ? "" : reason).getBytes(StandardCharsets.UTF_8)).withCorrelationID(request.getCorrelationID()));
+	}
+	
+	/** Completes(or retransmits) the request that the given packet answers.
+	 * 
+	 * @param packet A packet that was just received
+	 * @return True if the packet was a response to one of this end's requests
+	 *         and has been handled */
+	private final boolean handleResponse(Packet packet) {
+		if(!packet.hasCorrelationID()) {
+			return false;
+		}
+		final Integer correlationID = Integer.valueOf(packet.getCorrelationID());
+		final PendingRequest request = this.pending.get(correlationID);
+		if(request == null) {
+			return false;
+		}
+		if(packet.getType() == PacketIDs.ResendLastPacket) {
+			if(request.resends++ < maxResends) {
+				try {
+					this.send(request.packet);
+					return true;
+				} catch(IOException e) {
+					if(this.pending.remove(correlationID, request)) {
+						request.future.completeExceptionally(e);
+					}
+					return true;
+				}
+			}
+			if(this.pending.remove(correlationID, request)) {
+				request.future.completeExceptionally(new IOException("The other end could not read request #" + correlationID + " after " + maxResends + " retransmissions: " + packet.getText()));
+			}
+			return true;
+		}
+		if(this.pending.remove(correlationID, request)) {
+			request.future.complete(packet);
+		}
+		return true;
+	}
+	
+	private static final class PendingRequest {
+		final Packet packet;
+		final CompletableFuture<Packet> future = new CompletableFuture<>();
+		int resends = 0;//Only used by the(single) worker handling the connection's packets
+		
+		PendingRequest(Packet packet) {
+			this.packet = packet;
+		}
+		
+	}
+	
+	/** @param type The frame's packet type
+	 * @param data The frame's data
+	 * @param correlationID The frame's correlation id
+	 * @param trailer Whether or not to leave room for a checksum trailer
+	 *            after the frame(past its limit)
+	 * @return The encoded frame */
+	private static final ByteBuffer encode(PacketType type, byte[] data, int correlationID, boolean trailer) {
+		final boolean writeLength = type.getLength() == -1;
+		if(!writeLength && type.getLength() != data.length) {
+			throw new IllegalArgumentException("Packet id " + type.toString() + " requires exactly " + type.getLength() + " bytes of data, not " + data.length + "!");
+		}
+		if(data.length > Packet.maxSize) {
+			throw new IllegalArgumentException("Max packet size is: " + Packet.maxSize);
+		}
+		final boolean correlated = correlationID != Packet.noCorrelationID;
+		ByteBuffer frame = ByteBuffer.allocate((correlated ? 4 : 0) + (writeLength ? 5 : 1) + data.length + (trailer ? ChecksumType.trailerSize : 0));
+		if(correlated) {
+			frame.put((byte) (type.getID() | Packet.correlatedFlag));
+			frame.putInt(correlationID);
+		} else {
+			frame.put((byte) type.getID());
+		}
+		if(writeLength) {
+			frame.putInt(data.length);
+		}
+		frame.put(data);
+		frame.flip();
+		return frame;
+	}
+	
+	/** Appends the current checksum trailer(if any) to the given frame, keeps
+	 * it for retransmission and queues it. Must be called while holding the
+	 * outbound lock. */
+	private final void enqueueFrame(ByteBuffer frame) throws IOException {
+		final ChecksumType checksum = this.codec.getOutgoingChecksum();
+		if(checksum != ChecksumType.NONE) {
+			final int len = frame.limit();
+			if(frame.capacity() - len < ChecksumType.trailerSize) {//The checksum was turned on after the frame was encoded
+				frame = ByteBuffer.allocate(len + ChecksumType.trailerSize).put(frame);
+				frame.flip();
+			}
+			final int sequence = this.codec.nextOutgoingSequence();
+			frame.limit(len + ChecksumType.trailerSize);
+			frame.putInt(len, sequence);
+			frame.putInt(len + 4, checksum.checksum(frame, 0, len + 4));
+			if(this.sent.isEmpty()) {
+				this.sentFirstSequence = sequence;
+			}
+			this.sent.add(frame.duplicate());
+			this.sentBytes += frame.limit();
+			while(this.sent.size() > retransmitBufferFrames || this.sentBytes > retransmitBufferBytes) {
+				this.sentBytes -= this.sent.poll().limit();
+				this.sentFirstSequence++;
+			}
+		}
+		this.enqueue(frame);
+	}
+	
+	/** Sends every frame from the one with the given sequence number onwards
+	 * again. Called by the selector thread when the other end sends
+	 * {@link PacketIDs#RESEND_FRAMES RESEND_FRAMES}.
+	 * 
+	 * @param sequence The sequence number of the first frame to send again
+	 * @throws IOException Thrown if the frames are no longer in the
+	 *             retransmit buffer, or if an I/O error occurs */
+	private final void retransmit(int sequence) throws IOException {
+		synchronized(this.outbound) {
+			if(this.sent.isEmpty() || sequence < this.sentFirstSequence || sequence >= this.sentFirstSequence + this.sent.size()) {
+				throw new IOException("Frame #" + sequence + " can't be sent again: it is no longer in the retransmit buffer(frames #" + this.sentFirstSequence + " to #" + (this.sentFirstSequence + this.sent.size() - 1) + ")");
+			}
+			int current = this.sentFirstSequence;
+			for(ByteBuffer frame : this.sent) {
+				if(current++ >= sequence) {
+					this.enqueue(frame.duplicate());
+				}
+			}
+		}
+	}
+	
+	/** Must be called while holding the outbound lock. */
+	private final void enqueue(ByteBuffer frame) throws IOException {
+		if(this.outbound.isEmpty()) {
+			try {
+				this.write(frame);
+			} catch(IOException e) {
+				this.close(e);
+				throw e;
+			}
+			if(!frame.hasRemaining()) {
+				if(this.tls != null && this.tls.needsWrite()) {//The last record didn't fit into the socket's send buffer
+					this.loop.execute(this.interestTask);
+				}
+				return;
+			}
+			this.outbound.add(frame);
+			this.outboundBytes += frame.remaining();
+			this.loop.execute(this.interestTask);//Wait for the channel to become writable again
+			return;
+		}
+		this.outbound.add(frame);
+		this.outboundBytes += frame.remaining();
+	}
+	
+	/** Writes to the channel, encrypting if this connection uses TLS. */
+	private final int write(ByteBuffer src) throws IOException {
+		return this.tls == null ? this.channel.write(src) : this.tls.write(src);
+	}
+	
+	/** Reads from the channel, decrypting if this connection uses TLS. Called
+	 * by the selector thread only.
+	 * 
+	 * @param dst The buffer to read into
+	 * @return The number of bytes read, or -1 at the end of the stream
+	 * @throws IOException Thrown if an I/O error occurs */
+	final int read(ByteBuffer dst) throws IOException {
+		if(this.tls == null) {
+			return this.channel.read(dst);
+		}
+		final int read = this.tls.read(dst);
+		this.updateInterest();//The handshake may have something to send, or may have just finished so that the queued frames can go out
+		return read;
+	}
+	
+	/** @return Whether or not TLS records that were already received are
+	 *         waiting to be read(and reading isn't paused) */
+	final boolean hasBufferedInput() {
+		return this.tls != null && !this.readPaused && this.tls.hasBufferedData();
+	}
+	
+	/** Called by the selector thread when the channel is writable. */
+	final void writeQueued() throws IOException {
+		if(this.tls != null) {
+			this.tls.flush();
+		}
+		synchronized(this.outbound) {
+			ByteBuffer frame;
+			while((frame = this.outbound.peek()) != null) {
+				final int written = this.write(frame);
+				this.outboundBytes -= written;
+				if(frame.hasRemaining()) {
+					if(this.tls == null) {
+						return;
+					}
+					break;//May be waiting for the other end during a handshake rather than for the channel
+				}
+				this.outbound.poll();
+			}
+		}
+		this.updateInterest();
+	}
+	
+	/** Called by the selector thread to update which operations the channel
+	 * is selected for. */
+	final void updateInterest() {
+		final SelectionKey key = this.key;
+		if(key == null || !key.isValid()) {
+			return;
+		}
+		final boolean writePending;
+		synchronized(this.outbound) {
+			writePending = this.tls == null ? !this.outbound.isEmpty() : this.tls.needsWrite() || (!this.outbound.isEmpty() && this.tls.canWrite());
+		}
+		key.interestOps((this.readPaused ? 0 : SelectionKey.OP_READ) | (writePending ? SelectionKey.OP_WRITE : 0));
+	}
+	
+	//=============================================
+	
+	/** Parses as much of the given data as possible, queueing every packet
+	 * that is completed. Called by the selector thread only.
+	 * 
+	 * @param src The data that was just read from the channel
+	 * @throws IOException Thrown if the other end asked for frames that are no
+	 *             longer in the retransmit buffer
+	 * @throws PacketReadException Thrown if the incoming data is not a valid
+	 *             packet */
+	final void decode(ByteBuffer src) throws IOException, PacketReadException {
+		while(src.hasRemaining()) {
+			if(this.currentType == null) {
+				final int readID = src.get() & 0xFF;
+				final PacketType type = PacketTypes.getByID(readID & ~Packet.correlatedFlag);
+				if(type == null) {
+					throw new PacketReadException("Unknown packet id: " + readID);
+				}
+				this.currentType = type;
+				this.currentIDByte = readID;
+				this.currentChecksum = type == PacketIDs.SET_CHECKSUM ? ChecksumType.NONE : this.codec.getIncomingChecksum();
+				this.trailerCount = 0;
+				this.currentCorrelated = (readID & Packet.correlatedFlag) != 0;
+				this.headerCount = 0;
+				this.headerSize = (this.currentCorrelated ? 4 : 0) + (type.getLength() == -1 ? 4 : 0);
+				this.currentCount = 0;
+				this.currentData = null;
+			}
+			if(this.currentData == null) {
+				while(this.headerCount < this.headerSize && src.hasRemaining()) {
+					this.headerBytes[this.headerCount++] = src.get();
+				}
+				if(this.headerCount < this.headerSize) {
+					return;
+				}
+				final int length = this.currentType.getLength() == -1 ? getInt(this.headerBytes, this.headerSize - 4) : this.currentType.getLength();
+				if(length > Packet.maxSize || length < 0) {
+					throw new PacketReadException("Packet size out of bounds(must be >= 0 and <= " + Packet.maxSize + "): " + length);
+				}
+				this.currentData = length == 0 ? empty : new byte[length];
+			}
+			final int toCopy = Math.min(src.remaining(), this.currentData.length - this.currentCount);
+			src.get(this.currentData, this.currentCount, toCopy);
+			this.currentCount += toCopy;
+			if(this.currentCount < this.currentData.length) {
+				return;
+			}
+			if(this.currentChecksum != ChecksumType.NONE) {
+				while(this.trailerCount < ChecksumType.trailerSize && src.hasRemaining()) {
+					this.trailerBytes[this.trailerCount++] = src.get();
+				}
+				if(this.trailerCount < ChecksumType.trailerSize) {
+					return;
+				}
+			}
+			final PacketType type = this.currentType;
+			final byte[] data = this.currentData;
+			final int correlationID = this.currentCorrelated ? getInt(this.headerBytes, 0) : Packet.noCorrelationID;
+			this.currentType = null;
+			this.currentData = null;
+			if(this.currentChecksum != ChecksumType.NONE && !this.verifyTrailer(type, data, correlationID)) {
+				continue;
+			}
+			if(type == PacketIDs.RESEND_FRAMES) {
+				this.retransmit(getInt(data, 0));
+				continue;
+			}
+			if(PacketCodec.isControlPacket(type)) {
+				this.codec.handleIncoming(type, data.length > 0 ? data[0] & 0xFF : -1);
+				if(type == PacketIDs.SET_CHECKSUM) {
+					this.awaitingResend = false;
+					this.frameResends = 0;
+				}
+				continue;
+			}
+			final boolean compressed = type == PacketIDs.StringID && this.codec.isCompressionEnabled() && CompressionCodecs.isCompressed(data, 0, data.length);
+			this.inbound.add(new Packet(type, data, compressed, correlationID));
+			if(this.inboundCount.incrementAndGet() >= maxQueuedPackets && !this.readPaused) {
+				this.readPaused = true;
+				this.updateInterest();
+			}
+		}
+	}
+	
+	/** Checks the trailer of the frame that was just received. If the frame is
+	 * corrupt(or is not the next one in sequence), the other end is asked to
+	 * send it and every frame after it again, and those frames are dropped
+	 * until the retransmitted ones arrive. The request is repeated if the
+	 * retransmitted frame is corrupted as well(or doesn't show up within
+	 * {@link #frameResendTimeout} milliseconds while other frames do).
+	 * 
+	 * @return True if the frame is intact and in sequence
+	 * @throws PacketReadException Thrown if the other end has already been
+	 *             asked to retransmit {@link #maxFrameResends} times in a row */
+	private final boolean verifyTrailer(PacketType type, byte[] data, int correlationID) throws PacketReadException {
+		final int sequence = getInt(this.trailerBytes, 0);
+		final boolean intact = getInt(this.trailerBytes, 4) == this.currentChecksum.checksum(this.currentIDByte, correlationID, type.getLength() == -1, data, 0, data.length, sequence);
+		final int expected = this.codec.getIncomingSequence();
+		if(intact && sequence == expected) {
+			this.awaitingResend = false;
+			this.frameResends = 0;
+			this.codec.advanceIncomingSequence();
+			return true;
+		}
+		if(intact && sequence < expected) {//Retransmitted frames that were already received are just dropped
+			return false;
+		}
+		final long now = System.currentTimeMillis();
+		if(!this.awaitingResend || (!intact && sequence == expected) || now - this.frameResendTime >= frameResendTimeout) {
+			if(this.frameResends++ >= maxFrameResends) {
+				throw new PacketReadException("Frame #" + expected + " did not arrive intact after " + maxFrameResends + " retransmission requests!");
+			}
+			this.awaitingResend = true;
+			this.frameResendTime = now;
+			try {
+				this.send(new Packet(PacketIDs.RESEND_FRAMES, new byte[] {(byte) (expected >>> 24), (byte) (expected >>> 16), (byte) (expected >>> 8), (byte) expected}));
+			} catch(IOException ignored) {//Already closed by send(...)
+			}
+		}
+		return false;
+	}
+	
+	private static final int getInt(byte[] b, int off) {
+		return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16) | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+	}
+	
+	/** Makes sure that a worker is handling this connection's queued events,
+	 * unless one already is. */
+	final void dispatch() {
+		if((!this.inbound.isEmpty() || !this.connectHandled || (this.closed.get() && !this.disconnectHandled.get())) && this.dispatching.compareAndSet(false, true)) {
+			try {
+				this.loop.getWorkers().execute(this.dispatchTask);
+			} catch(RuntimeException e) {//The worker pool was shut down
+				this.dispatching.set(false);
+			}
+		}
+	}
+	
+	final void handleQueued() {
+		try {
+			if(!this.connectHandled) {
+				this.connectHandled = true;
+				if(!this.closed.get()) {
+					this.handler.onConnect(this);
+				} else {//Closed before the handler ever saw it, so it doesn't get any packets either
+					this.inbound.clear();
+				}
+			}
+			Packet packet;
+			int handled = 0;
+			while(handled < maxPacketsPerDispatch && (packet = this.inbound.poll()) != null) {
+				this.inboundCount.decrementAndGet();
+				handled++;
+				if(!this.handleResponse(packet)) {//Still handled after close(), so that packets that were already received aren't lost
+					this.handler.onPacket(this, packet);
+				}
+			}
+			if(this.readPaused && this.inboundCount.get() < maxQueuedPackets / 2) {
+				this.readPaused = false;
+				this.loop.execute(this.interestTask);
+			}
+		} catch(Throwable e) {
+			this.close(e);
+			this.inbound.clear();
+		} finally {
+			if(this.closed.get() && this.inbound.isEmpty() && this.disconnectHandled.compareAndSet(false, true)) {
+				this.loop.removeConnection(this);
+				this.handler.onDisconnect(this, this.closeCause);
+			}
+			this.dispatching.set(false);
+			this.dispatch();
+		}
+	}
+	
+	//=============================================
+	
+	/** Closes this connection. Any packets that were already received are
+	 * still handled before the handler's
+	 * {@link PacketHandler#onDisconnect(PacketConnection, Throwable)
+	 * onDisconnect} method is called. */
+	@Override
+	public final void close() {
+		this.close(null);
+	}
+	
+	/** @param cause The reason that this connection is being closed, or
+	 *            {@code null} if it is being closed normally */
+	final void close(Throwable cause) {
+		if(!this.closed.compareAndSet(false, true)) {
+			return;
+		}
+		this.closeCause = cause;
+		final SelectionKey key = this.key;
+		if(key != null) {
+			key.cancel();
+		}
+		try {
+			if(this.tls != null) {
+				this.tls.close();//Sends a close_notify first
+			} else {
+				this.channel.close();
+			}
+		} catch(IOException ignored) {
+		}
+		synchronized(this.outbound) {
+			this.outbound.clear();
+			this.outboundBytes = 0;
+			this.sent.clear();
+			this.sentBytes = 0;
+		}
+		List<PendingRequest> requests = new ArrayList<>(this.pending.values());
+		this.pending.clear();
+		for(PendingRequest request : requests) {
+			request.future.completeExceptionally(new IOException("Connection is closed!", cause));
+		}
+		this.dispatch();
+	}
+	
+	@Override
+	public final String toString() {
+		return "PacketConnection[" + this.getRemoteAddress() + (this.closed.get() ? ", closed" : "") + "]";
+	}
+	
+}
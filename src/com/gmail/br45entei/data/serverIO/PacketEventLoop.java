@@ -0,0 +1,326 @@
+package com.gmail.br45entei.data.serverIO;
+
+import com.gmail.br45entei.util.ThreadUtils.CustomThreadFactory;
+import com.gmail.br45entei.util.ThreadUtils.ExecutorGroup;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
+import javax.net.ssl.SSLEngine;
+
+/** The selector thread shared by {@link PacketServer} and
+ * {@link PacketClient}. It reads from every ready connection into one shared
+ * buffer, lets each {@link PacketConnection} parse what arrived, and hands
+ * complete packets to the worker pool.
+ * 
+ * @author Brian_Entei */
+abstract class PacketEventLoop implements Runnable, Closeable {
+	
+	/** The size of the buffer that every connection is read into(64KB) */
+	static final int readBufferSize = 0x10000;
+	
+	final Selector selector;
+	private final Executor workers;
+	private final boolean ownsWorkers;
+	private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(readBufferSize);
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final Set<PacketConnection> connections = Collections.newSetFromMap(new ConcurrentHashMap<PacketConnection, Boolean>());
+	private final String name;
+	private volatile Thread thread = null;
+	private volatile boolean running = false;
+	
+	/** @param name The name of the selector thread
+	 * @param workers The executor that packets will be handled on, or
+	 *            {@code null} to create a pool with one thread per
+	 *            processor(which is shut down when this loop is closed)
+	 * @throws IOException Thrown if the selector could not be opened */
+	PacketEventLoop(String name, Executor workers) throws IOException {
+		this.name = name;
+		this.selector = Selector.open();
+		if(workers == null) {
+			this.workers = new ExecutorGroup(new CustomThreadFactory(name + "-", "-worker-", true)).getExecutor(Runtime.getRuntime().availableProcessors());
+			this.ownsWorkers = true;
+		} else {
+			this.workers = workers;
+			this.ownsWorkers = false;
+		}
+	}
+	
+	/** @return The executor that packets are handled on */
+	public final Executor getWorkers() {
+		return this.workers;
+	}
+	
+	/** @return Whether or not the selector thread is running */
+	public final boolean isRunning() {
+		return this.running;
+	}
+	
+	/** @return The connections that are currently open */
+	public final Collection<PacketConnection> getConnections() {
+		return Collections.unmodifiableSet(this.connections);
+	}
+	
+	/** @return The number of connections that are currently open */
+	public final int getConnectionCount() {
+		return this.connections.size();
+	}
+	
+	/** Starts the selector thread, if it is not already running. */
+	synchronized void startLoop() {
+		if(this.thread != null) {
+			return;
+		}
+		this.running = true;
+		this.thread = new Thread(this, this.name);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+	
+	/** Runs the given task on the selector thread.
+	 * 
+	 * @param task The task to run */
+	final void execute(Runnable task) {
+		this.tasks.add(task);
+		if(Thread.currentThread() != this.thread) {
+			this.selector.wakeup();
+		}
+	}
+	
+	/** Registers the given (connected) channel with this loop. Must not be
+	 * called from the selector thread.
+	 * 
+	 * @param channel The channel to register
+	 * @param handler The handler that will receive the connection's events
+	 * @return The new connection
+	 * @throws IOException Thrown if the channel could not be registered */
+	final PacketConnection register(SocketChannel channel, PacketHandler handler) throws IOException {
+		return this.register(channel, handler, null, null);
+	}
+	
+	/** Registers the given (connected) channel with this loop, decoding the
+	 * bytes that were already read from it before anything else is read.
+	 * Must not be called from the selector thread.
+	 * 
+	 * @param channel The channel to register
+	 * @param handler The handler that will receive the connection's events
+	 * @param initialData The bytes that were already read from the channel,
+	 *            or {@code null}
+	 * @param engine The engine to speak TLS over the channel with, or
+	 *            {@code null} for a plaintext connection
+	 * @return The new connection
+	 * @throws IOException Thrown if the channel could not be registered */
+	final PacketConnection register(final SocketChannel channel, PacketHandler handler, final ByteBuffer initialData, SSLEngine engine) throws IOException {
+		channel.configureBlocking(false);
+		final SSLChannel tls = engine == null ? null : new SSLChannel(channel, engine, initialData);
+		final PacketConnection connection = new PacketConnection(this, channel, handler, tls);
+		final IOException[] error = new IOException[1];
+		final CountDownLatch registered = new CountDownLatch(1);
+		this.execute(new Runnable() {
+			@Override
+			public final void run() {
+				try {
+					PacketEventLoop.this.accepted(channel, connection);
+					if(tls != null || initialData != null) {
+						try {
+							if(tls != null) {//Send the ClientHello, or answer the one that was peeked
+								tls.flush();
+								PacketEventLoop.this.read(connection);
+							} else {
+								connection.decode(initialData);
+								connection.dispatch();
+							}
+						} catch(IOException | PacketReadException | RuntimeException e) {
+							connection.close(e);
+						}
+					}
+				} catch(IOException e) {
+					error[0] = e;
+				} finally {
+					registered.countDown();
+				}
+			}
+		});
+		try {
+			registered.await();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			connection.close(e);
+			throw new IOException("Interrupted while registering the connection", e);
+		}
+		if(error[0] != null) {
+			throw error[0];
+		}
+		return connection;
+	}
+	
+	/** Called on the selector thread to register a newly accepted or
+	 * connected channel.
+	 * 
+	 * @param channel The channel to register
+	 * @param connection The channel's connection
+	 * @throws IOException Thrown if the channel could not be registered */
+	final void accepted(SocketChannel channel, PacketConnection connection) throws IOException {
+		if(!this.running) {
+			connection.close();
+			throw new IOException("The selector thread is not running!");
+		}
+		this.connections.add(connection);
+		try {
+			connection.key = channel.register(this.selector, SelectionKey.OP_READ, connection);
+		} catch(IOException e) {
+			connection.close(e);
+			throw e;
+		}
+		connection.updateInterest();//In case something was sent before the channel was registered
+		connection.dispatch();//Let the handler know about the new connection
+	}
+	
+	final void removeConnection(PacketConnection connection) {
+		this.connections.remove(connection);
+	}
+	
+	/** Called on the selector thread when a key that does not belong to a
+	 * connection is ready(e.g. a server socket that can accept).
+	 * 
+	 * @param key The key that is ready
+	 * @throws IOException Thrown if an I/O error occurs */
+	abstract void handleOther(SelectionKey key) throws IOException;
+	
+	@Override
+	public final void run() {
+		try {
+			while(this.running) {
+				Runnable task;
+				while((task = this.tasks.poll()) != null) {
+					task.run();
+				}
+				this.selector.select();
+				Iterator<SelectionKey> it = this.selector.selectedKeys().iterator();
+				while(it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					if(!key.isValid()) {
+						continue;
+					}
+					Object attachment = key.attachment();
+					if(!(attachment instanceof PacketConnection)) {
+						try {
+							this.handleOther(key);
+						} catch(IOException e) {
+							e.printStackTrace();
+						}
+						continue;
+					}
+					this.handle(key, (PacketConnection) attachment);
+				}
+			}
+		} catch(IOException | ClosedSelectorException e) {
+			if(this.running) {
+				e.printStackTrace();
+			}
+		} finally {
+			this.running = false;
+			this.closeAll();
+		}
+	}
+	
+	private final void handle(SelectionKey key, PacketConnection connection) {
+		try {
+			if(key.isWritable()) {
+				connection.writeQueued();
+			}
+			if(key.isValid() && (key.isReadable() || connection.hasBufferedInput())) {
+				this.read(connection);
+			}
+		} catch(IOException | PacketReadException | RuntimeException e) {
+			connection.close(e);
+		}
+	}
+	
+	/** Reads and decodes whatever is available from the given connection.
+	 * Called on the selector thread only.
+	 * 
+	 * @param connection The connection to read from
+	 * @throws IOException Thrown if an I/O error occurs
+	 * @throws PacketReadException Thrown if the incoming data is not a valid
+	 *             packet */
+	final void read(PacketConnection connection) throws IOException, PacketReadException {
+		do {
+			this.readBuffer.clear();
+			final int read = connection.read(this.readBuffer);
+			if(read == -1) {
+				connection.close();
+				return;
+			}
+			this.readBuffer.flip();
+			connection.decode(this.readBuffer);
+			connection.dispatch();
+		} while(connection.hasBufferedInput());//TLS records that were already received but didn't fit
+	}
+	
+	/** Reads the data that a connection already has buffered(e.g. after its
+	 * reading was resumed), closing the connection if that fails. Called on
+	 * the selector thread only.
+	 * 
+	 * @param connection The connection to read from */
+	final void readBuffered(PacketConnection connection) {
+		try {
+			if(connection.hasBufferedInput()) {
+				this.read(connection);
+			}
+		} catch(IOException | PacketReadException | RuntimeException e) {
+			connection.close(e);
+		}
+	}
+	
+	private final void closeAll() {
+		List<PacketConnection> connections = new ArrayList<>(this.connections);
+		for(PacketConnection connection : connections) {
+			connection.close();
+		}
+		try {
+			this.selector.close();
+		} catch(IOException ignored) {
+		}
+		if(this.ownsWorkers) {
+			((ExecutorService) this.workers).shutdown();
+		}
+	}
+	
+	/** Stops the selector thread and closes every connection. */
+	@Override
+	public void close() throws IOException {
+		this.running = false;
+		this.selector.wakeup();
+		final Thread thread = this.thread;
+		if(thread == null) {
+			this.closeAll();
+			return;
+		}
+		if(thread != Thread.currentThread()) {
+			try {
+				thread.join();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,45 @@
+package com.gmail.br45entei.data.serverIO;
+
+import java.io.IOException;
+
+/** Receives the events of the {@link PacketConnection}s managed by a
+ * {@link PacketServer} or {@link PacketClient}.<br>
+ * The methods are called from the worker pool, never from the selector
+ * thread, so they may block; however, the events of any one connection are
+ * always delivered one at a time and in order: {@link #onConnect}
+ * first, then every packet in the order it was received, then
+ * {@link #onDisconnect} last.
+ * 
+ * @author Brian_Entei */
+public interface PacketHandler {
+	
+	/** Called once when the connection has been established, before any of
+	 * its packets are handled.
+	 * 
+	 * @param connection The new connection
+	 * @throws IOException Thrown if an I/O error occurs(closes the
+	 *             connection) */
+	public void onConnect(PacketConnection connection) throws IOException;
+	
+	/** Called for each complete packet received over the connection. The
+	 * packet is never a compression control packet; those are applied to the
+	 * connection's {@link PacketConnection#getCodec() codec} automatically.
+	 * Nor is it a response to one of this end's
+	 * {@link PacketConnection#request(Packet) requests}; those complete the
+	 * request's future instead.
+	 * 
+	 * @param connection The connection that the packet was received over
+	 * @param packet The packet that was received
+	 * @throws IOException Thrown if an I/O error occurs(closes the
+	 *             connection) */
+	public void onPacket(PacketConnection connection, Packet packet) throws IOException;
+	
+	/** Called once after the connection has been closed and all of its
+	 * remaining packets have been handled.
+	 * 
+	 * @param connection The connection that was closed
+	 * @param cause The error that caused the connection to be closed, or
+	 *            {@code null} if it was closed normally(by either end) */
+	public void onDisconnect(PacketConnection connection, Throwable cause);
+	
+}
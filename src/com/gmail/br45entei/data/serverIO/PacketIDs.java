@@ -5,7 +5,7 @@ import java.io.OutputStream;
 
 /** @author Brian_Entei */
 @SuppressWarnings("javadoc")
-public enum PacketIDs {
+public enum PacketIDs implements PacketType {
 	/** The packet id sent when a server or client wants to close the
 	 * connection */
 	Close(0x0, -1),
@@ -31,9 +31,38 @@ public enum PacketIDs {
 	DoubleID(0x09, 8),
 	/** The long packet id */
 	LongID(0x0a, 8),
+	/** One piece of a larger message that is streamed as a sequence of
+	 * fragments. The first byte of each fragment's data holds the message's
+	 * packet id, with the high bit({@code 0x80}) set on the final fragment.
+	 * 
+	 * @see FragmentOutputStream
+	 * @see FragmentInputStream */
+	FragmentID(0x0b, -1),
+	/** The int[] packet id. The values are sent back to back, big-endian. */
+	IntArrayID(0x0c, -1),
+	/** The long[] packet id. The values are sent back to back, big-endian. */
+	LongArrayID(0x0d, -1),
+	/** The double[] packet id. The values are sent back to back, big-endian. */
+	DoubleArrayID(0x0e, -1),
 	
 	//==================
 	
+	/** Packet used to ask the other end to send its frames again, starting
+	 * with the frame whose {@link ChecksumType trailer} has the given
+	 * sequence number(sent when a frame's checksum does not match). Its 4
+	 * bytes of data are the sequence number, big-endian. */
+	RESEND_FRAMES(0x7a, 4),
+	/** Packet used to tell the other end which {@link ChecksumType} will be
+	 * appended to the frames that follow. Its single byte of data is the
+	 * checksum type's {@link ChecksumType#getID() id}; the other end checks
+	 * the same checksum from then on and switches to it for the frames it
+	 * sends back. This frame itself never has a trailer. */
+	SET_CHECKSUM(0x7b, 1),
+	/** Packet used to tell the other end which {@link CompressionCodec} will
+	 * be used to compress [string] packets from now on. Its single byte of data
+	 * is the codec's {@link CompressionCodec#getID() id}; the other end
+	 * switches to the same codec for the packets it sends back. */
+	SET_COMPRESSION_CODEC(0x7c, 1),
 	/** Packet used to tell the other end to enable [string] compression. */
 	ENABLE_COMPRESSION(0x7d, 0),
 	/** Packet used to tell the other end to disable [string] compression. */
@@ -43,6 +72,14 @@ public enum PacketIDs {
 	 * row) */
 	ResendLastPacket(0x7f, -1);
 	
+	private static final PacketIDs[] byID = new PacketIDs[128];
+	
+	static {
+		for(PacketIDs id : values()) {
+			byID[id.getID()] = id;
+		}
+	}
+	
 	private final byte	id;
 	private final int	packetLength;
 	
@@ -51,13 +88,12 @@ public enum PacketIDs {
 		this.packetLength = packetLength;
 	}
 	
+	/** @param id The packet id
+	 * @return The built-in packet id with the given value, or {@code null} if
+	 *         there isn't one
+	 * @see PacketTypes#getByID(int) */
 	public static final PacketIDs getByID(int id) {
-		for(PacketIDs ID : values()) {
-			if(ID.equals(id)) {
-				return ID;
-			}
-		}
-		return null;
+		return id < 0 || id >= byID.length ? null : byID[id];
 	}
 	
 	public static final void main(String[] args) {
@@ -72,10 +108,17 @@ public enum PacketIDs {
 		return (this.name().endsWith("ID") ? this.name().substring(0, this.name().length() - 2) : this.name()) + "(ID:" + this.id + (this.packetLength == -1 ? "" : ";Length:" + this.packetLength) + ")";
 	}
 	
+	@Override
 	public final int getID() {
 		return this.id & 0x7F;//byte & 0x7F - Grabs 7 bits of data from the byte.
 	}
 	
+	@Override
+	public final String getName() {
+		return this.name();
+	}
+	
+	@Override
 	public final int getLength() {
 		return this.packetLength;
 	}
@@ -85,7 +128,7 @@ public enum PacketIDs {
 	}
 	
 	public final void write(OutputStream out) throws IOException {
-		out.write(new byte[] {this.id});
+		out.write(this.id);
 	}
 	
 }
@@ -0,0 +1,590 @@
+package com.gmail.br45entei.data.serverIO;
+
+import com.gmail.br45entei.data.DisposableByteArrayOutputStream;
+import com.gmail.br45entei.util.StringUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Reads {@link Packet}s from an {@link InputStream} or a
+ * {@link ReadableByteChannel} into a single reusable buffer and parses them in
+ * place.<br>
+ * Instead of creating a new {@link Packet} (and its data array) for every
+ * incoming packet, {@link #next()} simply makes the next packet in the buffer
+ * the 'current' one, whose value can then be read with the primitive accessors
+ * ({@link #getInt()}, {@link #getLong()}, etc.) or viewed as a read-only
+ * {@link #getSlice() slice} of the buffer.<br>
+ * The current packet's data is only valid until the next call to
+ * {@link #next()}; use {@link #toPacket()} to keep a copy of it.<br>
+ * <br>
+ * Since this reads ahead into its buffer, nothing else should read from the
+ * underlying stream or channel while it is in use.
+ * 
+ * @author Brian_Entei */
+public class PacketReader implements Closeable {
+	
+	/** The default size of the internal buffer(64KB) */
+	public static final int defaultBufferSize = 0x10000;
+	
+	private final InputStream in;
+	private final ReadableByteChannel channel;
+	private final ByteBuffer buffer;
+	private final ReentrantLock lock = new ReentrantLock();
+	private byte[] scratch;
+	private volatile PacketCodec codec = PacketCodec.getDefault();
+	
+	private volatile PacketType currentType = null;
+	private volatile int currentOffset = 0, currentLength = 0;
+	private volatile boolean currentCompressed = false;
+	private volatile int currentCorrelationID = Packet.noCorrelationID;
+	private volatile boolean endOfStream = false;
+	
+	/** @param in The input stream that packets will be read from */
+	public PacketReader(InputStream in) {
+		this(in, defaultBufferSize);
+	}
+	
+	/** @param in The input stream that packets will be read from
+	 * @param bufferSize The size of the internal buffer, in bytes(will be
+	 *            raised to fit the largest allowed packet if necessary) */
+	public PacketReader(InputStream in, int bufferSize) {
+		if(in == null) {
+			throw new NullPointerException("in cannot be null!");
+		}
+		this.in = in;
+		this.channel = null;
+		this.buffer = ByteBuffer.allocate(Math.max(Packet.maxFrameSize, bufferSize));//Heap buffer, since InputStream.read(...) needs a byte[] array anyway
+		this.buffer.flip();//Start out empty, in 'read' mode
+	}
+	
+	/** @param channel The channel that packets will be read from. If the
+	 *            channel is in non-blocking mode, {@link #next()} will return
+	 *            {@code null} whenever a complete packet has not arrived
+	 *            yet. */
+	public PacketReader(ReadableByteChannel channel) {
+		this(channel, defaultBufferSize);
+	}
+	
+	/** @param channel The channel that packets will be read from. If the
+	 *            channel is in non-blocking mode, {@link #next()} will return
+	 *            {@code null} whenever a complete packet has not arrived yet.
+	 * @param bufferSize The size of the internal buffer, in bytes(will be
+	 *            raised to fit the largest allowed packet if necessary) */
+	public PacketReader(ReadableByteChannel channel, int bufferSize) {
+		if(channel == null) {
+			throw new NullPointerException("channel cannot be null!");
+		}
+		this.in = null;
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(Math.max(Packet.maxFrameSize, bufferSize));//Direct buffer, so the channel doesn't have to copy out of one
+		this.buffer.flip();
+	}
+	
+	/** @return The codec that holds this connection's protocol state */
+	public final PacketCodec getCodec() {
+		return this.codec;
+	}
+	
+	/** @param codec The codec that holds this connection's protocol
+	 *            state(should be the same one that is used to write packets
+	 *            to the other end)
+	 * @return This packet reader */
+	public final PacketReader setCodec(PacketCodec codec) {
+		this.codec = codec == null ? PacketCodec.getDefault() : codec;
+		return this;
+	}
+	
+	/** Reads more data from the source into the free space at the end of the
+	 * buffer, compacting it first if there is no room left.
+	 * 
+	 * @return The number of bytes read, or -1 if the end of the stream was
+	 *         reached */
+	private final int fill() throws IOException {
+		if(this.buffer.limit() == this.buffer.capacity()) {
+			this.buffer.compact().flip();
+		}
+		final int limit = this.buffer.limit();
+		final int read;
+		if(this.in != null) {
+			read = this.in.read(this.buffer.array(), this.buffer.arrayOffset() + limit, this.buffer.capacity() - limit);
+			if(read > 0) {
+				this.buffer.limit(limit + read);
+			}
+		} else {
+			final int position = this.buffer.position();
+			this.buffer.position(limit).limit(this.buffer.capacity());
+			try {
+				read = this.channel.read(this.buffer);
+			} finally {
+				this.buffer.limit(this.buffer.position()).position(position);
+			}
+		}
+		return read;
+	}
+	
+	/** @param numBytes The number of bytes that must be available
+	 * @return True if the requested number of bytes are now in the buffer;
+	 *         false if the end of the stream was reached before any bytes were
+	 *         read, or if a non-blocking channel has no more data for now
+	 * @throws IOException Thrown if an I/O error occurs, or if the end of the
+	 *             stream is reached in the middle of a packet */
+	private final boolean ensure(int numBytes) throws IOException {
+		while(this.buffer.remaining() < numBytes) {
+			if(this.buffer.position() + numBytes > this.buffer.capacity()) {
+				this.buffer.compact().flip();
+			}
+			final int read = this.fill();
+			if(read == -1) {
+				this.endOfStream = true;
+				if(this.buffer.hasRemaining()) {
+					throw new IOException("Error reading packet: End of stream reached");
+				}
+				return false;
+			}
+			if(read == 0 && this.channel != null) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/** Parses the next complete packet in the buffer, reading more data from
+	 * the source if necessary. Compression toggle packets are handled here and
+	 * are never returned.
+	 * 
+	 * @return The next packet's type, or {@code null} if the end of the stream
+	 *         was reached(see {@link #isEndOfStream()}) or if a non-blocking
+	 *         channel does not have a complete packet available yet
+	 * @throws IOException Thrown if an I/O error occurs
+	 * @throws PacketReadException Thrown if the incoming data is not a valid
+	 *             packet */
+	public final PacketType next() throws IOException, PacketReadException {
+		this.lock.lock();
+		try {
+			this.currentType = null;
+			this.currentOffset = this.currentLength = 0;
+			this.currentCompressed = false;
+			this.currentCorrelationID = Packet.noCorrelationID;
+			while(true) {
+				if(!this.ensure(1)) {
+					return null;
+				}
+				final int start = this.buffer.position();
+				final int readID = this.buffer.get(start) & 0xFF;
+				final boolean correlated = (readID & Packet.correlatedFlag) != 0;
+				final PacketType id = PacketTypes.getByID(readID & ~Packet.correlatedFlag);
+				if(id == null) {
+					throw new PacketReadException("Unknown packet id: " + readID);
+				}
+				final int headerSize = (correlated ? 4 : 0) + (id.getLength() == -1 ? 5 : 1);
+				if(!this.ensure(headerSize)) {
+					return null;
+				}
+				final int length = id.getLength() == -1 ? this.buffer.getInt(this.buffer.position() + headerSize - 4) : id.getLength();
+				if(length > Packet.maxSize || length < 0) {
+					throw new PacketReadException("Packet size out of bounds(must be >= 0 and <= " + Packet.maxSize + "): " + length);
+				}
+				final ChecksumType checksum = id == PacketIDs.SET_CHECKSUM ? ChecksumType.NONE : this.codec.getIncomingChecksum();
+				final int trailerSize = checksum == ChecksumType.NONE ? 0 : ChecksumType.trailerSize;
+				if(!this.ensure(headerSize + length + trailerSize)) {
+					return null;
+				}
+				final int frameStart = this.buffer.position();//ensure(...) may have compacted the buffer, so don't use 'start' here
+				final int offset = frameStart + headerSize;
+				final int correlationID = correlated ? this.buffer.getInt(frameStart + 1) : Packet.noCorrelationID;
+				this.buffer.position(offset + length + trailerSize);//Skip the frame first, so that a corrupt one doesn't get read again by the next call
+				if(trailerSize != 0) {
+					this.codec.verifyTrailer(this.buffer, frameStart, headerSize + length);
+				}
+				if(PacketCodec.isControlPacket(id)) {
+					this.codec.handleIncoming(id, length > 0 ? this.buffer.get(offset) & 0xFF : -1);
+					continue;
+				}
+				this.currentType = id;
+				this.currentOffset = offset;
+				this.currentLength = length;
+				this.currentCorrelationID = correlationID;
+				this.currentCompressed = id == PacketIDs.StringID && this.codec.isCompressionEnabled() && length >= 2 && CompressionCodecs.isCompressed(this.buffer.get(offset), this.buffer.get(offset + 1));
+				return id;
+			}
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	/** @return Whether or not the end of the stream has been reached */
+	public final boolean isEndOfStream() {
+		return this.endOfStream;
+	}
+	
+	/** @return The current packet's id, or {@code null} if there is no current
+	 *         packet or it has an application-defined {@link #getType() type} */
+	public final PacketIDs getID() {
+		return this.currentType instanceof PacketIDs ? (PacketIDs) this.currentType : null;
+	}
+	
+	/** @return The current packet's type, or {@code null} if there is no
+	 *         current packet */
+	public final PacketType getType() {
+		return this.currentType;
+	}
+	
+	/** @return The length of the current packet's data, or -1 if there is no
+	 *         current packet */
+	public final int getLength() {
+		return this.currentType == null ? -1 : this.currentLength;
+	}
+	
+	/** @return The current packet's correlation id, or
+	 *         {@link Packet#noCorrelationID} if it does not have one
+	 * @see Packet#getCorrelationID() */
+	public final int getCorrelationID() {
+		return this.currentCorrelationID;
+	}
+	
+	/** @return Whether or not the current packet's data is compressed */
+	public final boolean isCompressed() {
+		return this.currentCompressed;
+	}
+	
+	private final int checkCurrent(int minLength) {
+		if(this.currentType == null) {
+			throw new IllegalStateException("There is no current packet!");
+		}
+		if(this.currentLength < minLength) {
+			throw new IllegalStateException("The current packet(" + this.currentType.toString() + ") is too short: " + this.currentLength + " < " + minLength);
+		}
+		return this.currentOffset;
+	}
+	
+	/** @return The current packet's value as a boolean */
+	public final boolean getBoolean() {
+		return this.buffer.get(this.checkCurrent(1)) == 1;
+	}
+	
+	/** @return The current packet's value as a byte */
+	public final byte getByte() {
+		return this.buffer.get(this.checkCurrent(1));
+	}
+	
+	/** @return The current packet's value as a short */
+	public final short getShort() {
+		final int offset = this.checkCurrent(2);
+		return (short) ((this.buffer.get(offset) & 0xFF) | (this.buffer.get(offset + 1) << 8));//Shorts and chars are sent little-endian(see Packet(short))
+	}
+	
+	/** @return The current packet's value as a char */
+	public final char getChar() {
+		final int offset = this.checkCurrent(2);
+		return (char) ((this.buffer.get(offset) & 0xFF) | ((this.buffer.get(offset + 1) & 0xFF) << 8));
+	}
+	
+	/** @return The current packet's value as an int */
+	public final int getInt() {
+		return this.buffer.getInt(this.checkCurrent(4));
+	}
+	
+	/** @return The current packet's value as a float */
+	public final float getFloat() {
+		return this.buffer.getFloat(this.checkCurrent(4));
+	}
+	
+	/** @return The current packet's value as a long */
+	public final long getLong() {
+		return this.buffer.getLong(this.checkCurrent(8));
+	}
+	
+	/** @return The current packet's value as a double */
+	public final double getDouble() {
+		return this.buffer.getDouble(this.checkCurrent(8));
+	}
+	
+	/** Copies the current packet's values into the given array without
+	 * allocating a new one.
+	 * 
+	 * @param dst The array to copy the values into
+	 * @param off The offset in the array at which to start
+	 * @return The number of values copied
+	 * @throws IndexOutOfBoundsException Thrown if {@code off} is negative or
+	 *             greater than {@code dst.length}
+	 * @see Packet#Packet(int[], int, int) */
+	public final int getInts(int[] dst, int off) {
+		if(off < 0 || off > dst.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		final int offset = this.checkCurrent(0);
+		final int count = Math.min(this.currentLength >> 2, dst.length - off);
+		for(int i = 0; i < count; i++) {
+			dst[off + i] = this.buffer.getInt(offset + (i << 2));
+		}
+		return count;
+	}
+	
+	/** @return The current packet's values as a new int array
+	 * @see Packet#Packet(int[], int, int) */
+	public final int[] getIntArray() {
+		this.checkCurrent(0);
+		int[] rtrn = new int[this.currentLength >> 2];
+		this.getInts(rtrn, 0);
+		return rtrn;
+	}
+	
+	/** Copies the current packet's values into the given array without
+	 * allocating a new one.
+	 * 
+	 * @param dst The array to copy the values into
+	 * @param off The offset in the array at which to start
+	 * @return The number of values copied
+	 * @throws IndexOutOfBoundsException Thrown if {@code off} is negative or
+	 *             greater than {@code dst.length}
+	 * @see Packet#Packet(long[], int, int) */
+	public final int getLongs(long[] dst, int off) {
+		if(off < 0 || off > dst.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		final int offset = this.checkCurrent(0);
+		final int count = Math.min(this.currentLength >> 3, dst.length - off);
+		for(int i = 0; i < count; i++) {
+			dst[off + i] = this.buffer.getLong(offset + (i << 3));
+		}
+		return count;
+	}
+	
+	/** @return The current packet's values as a new long array
+	 * @see Packet#Packet(long[], int, int) */
+	public final long[] getLongArray() {
+		this.checkCurrent(0);
+		long[] rtrn = new long[this.currentLength >> 3];
+		this.getLongs(rtrn, 0);
+		return rtrn;
+	}
+	
+	/** Copies the current packet's values into the given array without
+	 * allocating a new one.
+	 * 
+	 * @param dst The array to copy the values into
+	 * @param off The offset in the array at which to start
+	 * @return The number of values copied
+	 * @throws IndexOutOfBoundsException Thrown if {@code off} is negative or
+	 *             greater than {@code dst.length}
+	 * @see Packet#Packet(double[], int, int) */
+	public final int getDoubles(double[] dst, int off) {
+		if(off < 0 || off > dst.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		final int offset = this.checkCurrent(0);
+		final int count = Math.min(this.currentLength >> 3, dst.length - off);
+		for(int i = 0; i < count; i++) {
+			dst[off + i] = this.buffer.getDouble(offset + (i << 3));
+		}
+		return count;
+	}
+	
+	/** @return The current packet's values as a new double array
+	 * @see Packet#Packet(double[], int, int) */
+	public final double[] getDoubleArray() {
+		this.checkCurrent(0);
+		double[] rtrn = new double[this.currentLength >> 3];
+		this.getDoubles(rtrn, 0);
+		return rtrn;
+	}
+	
+	/** @return A read-only view of the current packet's data. The view is only
+	 *         valid until the next call to {@link #next()}. */
+	public final ByteBuffer getSlice() {
+		final int offset = this.checkCurrent(0);
+		ByteBuffer view = this.buffer.duplicate();
+		view.limit(offset + this.currentLength).position(offset);
+		return view.slice().asReadOnlyBuffer();
+	}
+	
+	/** Copies the current packet's data into the given array.
+	 * 
+	 * @param dst The array to copy the data into
+	 * @param off The offset in the array at which to start
+	 * @return The number of bytes copied
+	 * @throws IndexOutOfBoundsException Thrown if {@code off} is negative or
+	 *             greater than {@code dst.length} */
+	public final int getData(byte[] dst, int off) {
+		if(off < 0 || off > dst.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		final int offset = this.checkCurrent(0);
+		final int len = Math.min(this.currentLength, dst.length - off);
+		ByteBuffer view = this.buffer.duplicate();
+		view.limit(offset + len).position(offset);
+		view.get(dst, off, len);
+		return len;
+	}
+	
+	/** Copies part of the current packet's data into the given array.
+	 * 
+	 * @param pos The position within the current packet's data to start
+	 *            copying from
+	 * @param dst The array to copy the data into
+	 * @param off The offset in the array at which to start
+	 * @param len The maximum number of bytes to copy
+	 * @return The number of bytes copied
+	 * @throws IndexOutOfBoundsException Thrown if {@code off} or {@code len}
+	 *             is negative, or if {@code len} is greater than
+	 *             {@code dst.length - off} */
+	final int getData(int pos, byte[] dst, int off, int len) {
+		if(off < 0 || len < 0 || len > dst.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		final int offset = this.checkCurrent(0);
+		len = Math.min(len, this.currentLength - pos);
+		if(len <= 0) {
+			return 0;
+		}
+		ByteBuffer view = this.buffer.duplicate();
+		view.limit(offset + pos + len).position(offset + pos);
+		view.get(dst, off, len);
+		return len;
+	}
+	
+	/** @return The current packet's data as a string, decompressing it first
+	 *         if necessary */
+	public final String getText() {
+		final int offset = this.checkCurrent(0);
+		final int len = this.currentLength;
+		if(this.currentCompressed) {
+			byte[] data = new byte[len];
+			this.getData(data, 0);
+			String check = CompressionCodecs.decompressString(data);
+			if(check != null) {
+				return check;
+			}
+			return new String(data, StandardCharsets.UTF_8);
+		}
+		if(this.buffer.hasArray()) {
+			return new String(this.buffer.array(), this.buffer.arrayOffset() + offset, len, StandardCharsets.UTF_8);
+		}
+		if(this.scratch == null || this.scratch.length < len) {
+			this.scratch = new byte[Math.max(len, 256)];
+		}
+		this.getData(this.scratch, 0);
+		return new String(this.scratch, 0, len, StandardCharsets.UTF_8);
+	}
+	
+	/** @return A new {@link Packet} containing a copy of the current packet's
+	 *         data, or {@code null} if there is no current packet */
+	public final Packet toPacket() {
+		final PacketType id = this.currentType;
+		if(id == null) {
+			return null;
+		}
+		byte[] data = new byte[this.currentLength];
+		this.getData(data, 0);
+		return new Packet(id, data, this.currentCompressed, this.currentCorrelationID);
+	}
+	
+	/** Closes the underlying stream or channel.
+	 * 
+	 * @throws IOException Thrown if an I/O error occurs */
+	@Override
+	public final void close() throws IOException {
+		this.currentType = null;
+		if(this.in != null) {
+			this.in.close();
+		} else {
+			this.channel.close();
+		}
+	}
+	
+	/** Compares the number of bytes allocated while reading the same packets
+	 * with {@link Packet#readNextPacket(InputStream)} and with a
+	 * {@link PacketReader}.
+	 * 
+	 * @param args Program command line arguments */
+	public static final void main(String[] args) {
+		final int numPackets = args.length > 0 && StringUtil.isStrInt(args[0]) ? Integer.parseInt(args[0]) : 200000;
+		DisposableByteArrayOutputStream out = new DisposableByteArrayOutputStream();
+		PacketWriter writer = new PacketWriter(out);
+		try {
+			for(int i = 0; i < numPackets; i++) {
+				switch(i % 4) {
+				case 0:
+					writer.write(new Packet(i));
+					break;
+				case 1:
+					writer.write(new Packet((long) i * 31L));
+					break;
+				case 2:
+					writer.write(new Packet(i / 3.0D));
+					break;
+				default:
+					writer.write(new Packet((i & 1) == 0));
+					break;
+				}
+			}
+			writer.flush();
+		} catch(IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		final byte[] encoded = out.getBytesAndDispose();
+		System.out.println("Encoded " + numPackets + " packets(" + encoded.length + " bytes).");
+		for(int run = 0; run < 3; run++) {//The first runs are just to warm up the JIT
+			long sum = 0;
+			long allocated = getAllocatedBytes();
+			long startTime = System.nanoTime();
+			try {
+				ByteArrayInputStream in = new ByteArrayInputStream(encoded);
+				Packet packet;
+				while((packet = Packet.readNextPacket(in)) != null) {
+					Object value = packet.getValue();
+					sum += value instanceof Number ? ((Number) value).longValue() : (value == Boolean.TRUE ? 1 : 0);
+				}
+			} catch(IOException | PacketReadException e) {
+				e.printStackTrace();
+			}
+			long elapsed = System.nanoTime() - startTime;
+			allocated = allocated < 0 ? -1L : getAllocatedBytes() - allocated;
+			System.out.println("Packet.readNextPacket: " + (elapsed / 1000000.0D) + "ms; " + (allocated < 0 ? "n/a" : Long.toString(allocated / numPackets)) + " bytes allocated per packet");
+			
+			allocated = getAllocatedBytes();
+			startTime = System.nanoTime();
+			try(PacketReader reader = new PacketReader(new ByteArrayInputStream(encoded))) {
+				while(reader.next() != null) {
+					switch(reader.getID()) {
+					case IntID:
+						sum += reader.getInt();
+						break;
+					case LongID:
+						sum += reader.getLong();
+						break;
+					case DoubleID:
+						sum += (long) reader.getDouble();
+						break;
+					default:
+						sum += reader.getBoolean() ? 1 : 0;
+						break;
+					}
+				}
+			} catch(IOException | PacketReadException e) {
+				e.printStackTrace();
+			}
+			elapsed = System.nanoTime() - startTime;
+			allocated = allocated < 0 ? -1L : getAllocatedBytes() - allocated;
+			System.out.println("PacketReader:          " + (elapsed / 1000000.0D) + "ms; " + (allocated < 0 ? "n/a" : Long.toString(allocated / numPackets)) + " bytes allocated per packet(checksum: " + sum + ")");
+		}
+	}
+	
+	private static final long getAllocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if(bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1L;
+	}
+	
+}
@@ -0,0 +1,267 @@
+package com.gmail.br45entei.data.serverIO;
+
+import com.gmail.br45entei.util.StringUtil;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+/** A non-blocking packet server. A single selector thread accepts
+ * connections and reads from all of them, parsing packets incrementally as
+ * the data arrives; complete packets are handed to the {@link PacketHandler}
+ * on a worker pool. Unlike a thread-per-connection server, idle connections
+ * don't cost a thread(or a read buffer) each, so thousands of them can be
+ * kept open at once.
+ * 
+ * @author Brian_Entei
+ * @see PacketClient */
+public class PacketServer extends PacketEventLoop {
+	
+	private final ServerSocketChannel serverChannel;
+	private final PacketHandler handler;
+	
+	/** @param bindAddress The address to listen on
+	 * @param handler The handler that will receive the events of every
+	 *            accepted connection
+	 * @throws IOException Thrown if the server socket could not be bound */
+	public PacketServer(InetSocketAddress bindAddress, PacketHandler handler) throws IOException {
+		this(bindAddress, handler, null);
+	}
+	
+	/** @param bindAddress The address to listen on
+	 * @param handler The handler that will receive the events of every
+	 *            accepted connection
+	 * @param workers The executor that packets will be handled on, or
+	 *            {@code null} to create a pool with one thread per
+	 *            processor
+	 * @throws IOException Thrown if the server socket could not be bound */
+	public PacketServer(InetSocketAddress bindAddress, PacketHandler handler, Executor workers) throws IOException {
+		super("PacketServer-" + bindAddress.getPort(), workers);
+		if(handler == null) {
+			throw new NullPointerException("handler cannot be null!");
+		}
+		this.handler = handler;
+		this.serverChannel = ServerSocketChannel.open();
+		try {
+			this.serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, Boolean.TRUE);
+			this.serverChannel.bind(bindAddress, 1024);
+			this.serverChannel.configureBlocking(false);
+			this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+		} catch(IOException e) {
+			this.serverChannel.close();
+			this.selector.close();
+			throw e;
+		}
+	}
+	
+	/** Starts accepting connections.
+	 * 
+	 * @return This server */
+	public final PacketServer start() {
+		this.startLoop();
+		return this;
+	}
+	
+	/** @return The port that this server is listening on */
+	public final int getLocalPort() {
+		return this.serverChannel.socket().getLocalPort();
+	}
+	
+	@Override
+	final void handleOther(SelectionKey key) throws IOException {
+		if(!key.isAcceptable()) {
+			return;
+		}
+		SocketChannel channel;
+		while((channel = this.serverChannel.accept()) != null) {
+			try {
+				channel.configureBlocking(false);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+				this.accepted(channel, new PacketConnection(this, channel, this.handler));
+			} catch(IOException e) {
+				channel.close();
+			}
+		}
+	}
+	
+	/** Takes over a connection that was accepted somewhere else, such as by a
+	 * {@link ProtocolDetector} that shares one port between several
+	 * protocols, as if this server had accepted it itself. The server does
+	 * not have to be listening for this; it only has to be
+	 * {@link #start() started}.
+	 * 
+	 * @param channel The connected channel
+	 * @param peeked The bytes that were already read from the channel(which
+	 *            are decoded before anything else is read from it), or
+	 *            {@code null}
+	 * @return The new connection
+	 * @throws IOException Thrown if the channel could not be registered */
+	public final PacketConnection adopt(SocketChannel channel, ByteBuffer peeked) throws IOException {
+		return this.adopt(channel, peeked, null);
+	}
+	
+	/** Takes over a connection that was accepted somewhere else, like
+	 * {@link #adopt(SocketChannel, ByteBuffer)}, but speaks TLS over it: the
+	 * connection's handshake and records are handled by an {@link SSLChannel}
+	 * on this server's selector thread, alongside its plaintext connections.
+	 * 
+	 * @param channel The connected channel
+	 * @param peeked The bytes that were already read from the channel(e.g.
+	 *            the start of the ClientHello that a {@link ProtocolDetector}
+	 *            recognized), or {@code null}
+	 * @param context The context to create the connection's TLS engine with,
+	 *            or {@code null} for a plaintext connection
+	 * @return The new connection
+	 * @throws IOException Thrown if the channel could not be registered */
+	public final PacketConnection adopt(SocketChannel channel, ByteBuffer peeked, SSLContext context) throws IOException {
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+		SSLEngine engine = null;
+		if(context != null) {
+			engine = context.createSSLEngine();
+			engine.setUseClientMode(false);
+		}
+		return this.register(channel, this.handler, peeked, engine);
+	}
+	
+	/** Stops accepting connections, then closes every open connection. */
+	@Override
+	public final void close() throws IOException {
+		try {
+			this.serverChannel.close();
+		} finally {
+			super.close();
+		}
+	}
+	
+	//=============================================
+	
+	/** Load test against a local loopback server: opens a number of idle
+	 * connections that never send anything, then has a number of active
+	 * connections send int[] and string packets to an echo handler as fast as
+	 * they can, and reports the round trip throughput along with the threads
+	 * and heap used.
+	 * 
+	 * @param args Program command line arguments: [idle connections] [active
+	 *            connections] [packets per active connection] */
+	public static final void main(String[] args) throws IOException, InterruptedException {
+		final int idleConnections = args.length > 0 && StringUtil.isStrInt(args[0]) ? Integer.parseInt(args[0]) : 2000;
+		final int activeConnections = args.length > 1 && StringUtil.isStrInt(args[1]) ? Integer.parseInt(args[1]) : 32;
+		final int packetsPerConnection = args.length > 2 && StringUtil.isStrInt(args[2]) ? Integer.parseInt(args[2]) : 20000;
+		final Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		final long baseHeap = runtime.totalMemory() - runtime.freeMemory();
+		final int baseThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+		
+		try(PacketServer server = new PacketServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), new PacketHandler() {
+			@Override
+			public final void onConnect(PacketConnection connection) {
+			}
+			
+			@Override
+			public final void onPacket(PacketConnection connection, Packet packet) throws IOException {
+				connection.send(packet);//echo
+			}
+			
+			@Override
+			public final void onDisconnect(PacketConnection connection, Throwable cause) {
+				if(cause != null) {
+					System.err.println("Server: " + connection + " closed: " + cause);
+				}
+			}
+		}).start(); PacketClient client = new PacketClient()) {
+			final InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+			final PacketHandler idleHandler = new PacketHandler() {
+				@Override
+				public final void onConnect(PacketConnection connection) {
+				}
+				
+				@Override
+				public final void onPacket(PacketConnection connection, Packet packet) {
+				}
+				
+				@Override
+				public final void onDisconnect(PacketConnection connection, Throwable cause) {
+				}
+			};
+			long startTime = System.nanoTime();
+			for(int i = 0; i < idleConnections; i++) {
+				client.connect(address, idleHandler);
+			}
+			while(server.getConnectionCount() < idleConnections) {
+				Thread.sleep(10L);
+			}
+			System.gc();
+			final long idleHeap = runtime.totalMemory() - runtime.freeMemory();
+			System.out.println(idleConnections + " idle connections opened in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + "ms; threads: " + (ManagementFactory.getThreadMXBean().getThreadCount() - baseThreads) + "; heap per connection(client and server side): ~" + (Math.max(0, idleHeap - baseHeap) / Math.max(1, idleConnections)) + " bytes");
+			
+			final CountDownLatch done = new CountDownLatch(activeConnections);
+			final AtomicLong received = new AtomicLong(0), errors = new AtomicLong(0);
+			final int[] values = new int[64];
+			for(int i = 0; i < values.length; i++) {
+				values[i] = i * 31;
+			}
+			final String text = "The quick brown fox jumps over the lazy dog";
+			List<PacketConnection> active = new ArrayList<>();
+			for(int i = 0; i < activeConnections; i++) {
+				active.add(client.connect(address, new PacketHandler() {
+					private int count = 0;
+					
+					@Override
+					public final void onConnect(PacketConnection connection) {
+					}
+					
+					@Override
+					public final void onPacket(PacketConnection connection, Packet packet) {
+						final boolean expectInts = (this.count & 1) == 0;
+						if(expectInts ? packet.getType() != PacketIDs.IntArrayID || packet.getIntArray()[63] != values[63] : !text.equals(packet.getText())) {
+							errors.incrementAndGet();
+						}
+						received.incrementAndGet();
+						if(++this.count == packetsPerConnection) {
+							done.countDown();
+						}
+					}
+					
+					@Override
+					public final void onDisconnect(PacketConnection connection, Throwable cause) {
+						if(this.count < packetsPerConnection) {
+							System.err.println("Client: " + connection + " closed early: " + cause);
+							done.countDown();
+						}
+					}
+				}));
+			}
+			startTime = System.nanoTime();
+			final Packet intPacket = new Packet(values), textPacket = new Packet(text);
+			for(int j = 0; j < packetsPerConnection; j++) {
+				for(PacketConnection connection : active) {
+					while(connection.getQueuedBytes() > 0x100000) {//Don't let a slow reader make us queue up everything in memory
+						Thread.sleep(1L);
+					}
+					connection.send((j & 1) == 0 ? intPacket : textPacket);
+				}
+			}
+			if(!done.await(60, TimeUnit.SECONDS)) {
+				System.err.println("Timed out waiting for the echoed packets!");
+			}
+			final double seconds = (System.nanoTime() - startTime) / 1000000000.0D;
+			System.out.println(activeConnections + " active connections: " + received.get() + " packets echoed in " + String.format("%.3f", Double.valueOf(seconds)) + "s(" + Math.round(received.get() / seconds) + " round trips/sec); errors: " + errors.get() + "; threads: " + (ManagementFactory.getThreadMXBean().getThreadCount() - baseThreads));
+		}
+	}
+	
+}
@@ -0,0 +1,23 @@
+package com.gmail.br45entei.data.serverIO;
+
+/** A kind of packet that can be sent over a connection: either one of the
+ * built-in {@link PacketIDs}, or an application-defined type that was
+ * {@link PacketTypes#register(int, String, int) registered} with
+ * {@link PacketTypes}.
+ * 
+ * @author Brian_Entei
+ * @see PacketTypes */
+public interface PacketType {
+	
+	/** @return This packet type's id(0-127), which is sent as the first byte
+	 *         of every packet of this type */
+	public int getID();
+	
+	/** @return This packet type's name */
+	public String getName();
+	
+	/** @return The exact length of this packet type's data, or -1 if the
+	 *         length varies and is sent along with each packet */
+	public int getLength();
+	
+}
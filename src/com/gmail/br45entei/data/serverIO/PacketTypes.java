@@ -0,0 +1,116 @@
+package com.gmail.br45entei.data.serverIO;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/** The registry of every {@link PacketType} that can be read from or written
+ * to a connection. All of the built-in {@link PacketIDs} are registered up
+ * front; applications can register their own packet types with a fixed or
+ * variable length instead of sending everything as
+ * {@link PacketIDs#StringID String} packets.<br>
+ * Looking a type up by its id is a single array access, so this is safe to
+ * call for every packet that is read.<br>
+ * Both ends of a connection must register the same types under the same ids
+ * before any packets of those types are sent.
+ * 
+ * @author Brian_Entei */
+public final class PacketTypes {
+	
+	/** The lowest id that applications may register their own packet types
+	 * under. Lower ids are reserved for the built-in packets. */
+	public static final int firstCustomID = 0x20;
+	/** The highest id that applications may register their own packet types
+	 * under. Higher ids are reserved for the built-in control packets. */
+	public static final int lastCustomID = 0x6f;
+	
+	private static final AtomicReferenceArray<PacketType> types = new AtomicReferenceArray<>(128);
+	
+	static {
+		for(PacketIDs id : PacketIDs.values()) {
+			types.set(id.getID(), id);
+		}
+	}
+	
+	/** @param id The packet type's id
+	 * @return The packet type registered with the given id, or {@code null}
+	 *         if there isn't one */
+	public static final PacketType getByID(int id) {
+		return id < 0 || id >= 128 ? null : types.get(id);
+	}
+	
+	/** Registers a new application-defined packet type.
+	 * 
+	 * @param id The packet type's id(must be &gt;= {@link #firstCustomID} and
+	 *            &lt;= {@link #lastCustomID})
+	 * @param name The packet type's name
+	 * @param length The exact length of the packet type's data, or -1 if the
+	 *            length varies and should be sent along with each packet
+	 * @return The new packet type
+	 * @throws IllegalArgumentException Thrown if the id or length is out of
+	 *             range, or if the id is already taken */
+	public static final PacketType register(int id, String name, int length) {
+		if(id < firstCustomID || id > lastCustomID) {
+			throw new IllegalArgumentException("Custom packet id out of range(must be >= " + firstCustomID + " and <= " + lastCustomID + "): " + id);
+		}
+		if(length < -1 || length > Packet.maxSize) {
+			throw new IllegalArgumentException("Packet length out of range(must be -1 or >= 0 and <= " + Packet.maxSize + "): " + length);
+		}
+		if(name == null || name.isEmpty()) {
+			throw new IllegalArgumentException("Packet type name cannot be null or empty!");
+		}
+		CustomPacketType type = new CustomPacketType(id, name, length);
+		if(!types.compareAndSet(id, null, type)) {
+			throw new IllegalArgumentException("Packet id " + id + " is already taken by packet type " + types.get(id).toString() + "!");
+		}
+		return type;
+	}
+	
+	/** @param type The application-defined packet type to unregister
+	 * @return True if the packet type was unregistered, false if it was not
+	 *         registered to begin with
+	 * @throws IllegalArgumentException Thrown if the given type is one of the
+	 *             built-in {@link PacketIDs} */
+	public static final boolean unregister(PacketType type) {
+		if(type instanceof PacketIDs) {
+			throw new IllegalArgumentException("Built-in packet types cannot be unregistered!");
+		}
+		return types.compareAndSet(type.getID(), type, null);
+	}
+	
+	/** An application-defined packet type.
+	 * 
+	 * @author Brian_Entei */
+	public static final class CustomPacketType implements PacketType {
+		
+		private final int id;
+		private final String name;
+		private final int length;
+		
+		CustomPacketType(int id, String name, int length) {
+			this.id = id;
+			this.name = name;
+			this.length = length;
+		}
+		
+		@Override
+		public final int getID() {
+			return this.id;
+		}
+		
+		@Override
+		public final String getName() {
+			return this.name;
+		}
+		
+		@Override
+		public final int getLength() {
+			return this.length;
+		}
+		
+		@Override
+		public final String toString() {
+			return this.name + "(ID:" + this.id + (this.length == -1 ? "" : ";Length:" + this.length) + ")";
+		}
+		
+	}
+	
+}
@@ -0,0 +1,519 @@
+package com.gmail.br45entei.data.serverIO;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Writes {@link Packet}s to an {@link OutputStream} or a (blocking)
+ * {@link WritableByteChannel}, encoding each packet's id, length and data into
+ * a single reusable buffer so that many small packets can be sent with one
+ * write call.<br>
+ * Unlike {@link Packet#writePacket(Packet, OutputStream)}, this does not flush
+ * after every packet; the buffer is only written out when it is full, when
+ * {@link #flush()} is called, or when the amount of buffered data or the time
+ * since the first buffered packet exceeds the configured thresholds.
+ * 
+ * @author Brian_Entei */
+public class PacketWriter implements Closeable, Flushable {
+	
+	/** The default size of the internal buffer(64KB) */
+	public static final int defaultBufferSize = 0x10000;
+	/** The default number of buffered bytes that will trigger an automatic
+	 * flush(8KB) */
+	public static final int defaultFlushThreshold = 0x2000;
+	/** The default amount of time(in milliseconds) that a packet may sit in the
+	 * buffer before the next write triggers an automatic flush */
+	public static final long defaultMaxLatency = 5L;
+	
+	private final OutputStream out;
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+	private final ReentrantLock lock = new ReentrantLock();
+	
+	private volatile int flushThreshold = defaultFlushThreshold;
+	private volatile long maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(defaultMaxLatency);
+	
+	private volatile PacketCodec codec = PacketCodec.getDefault();
+	private long firstBufferedTime = -1L;
+	private int arrayStart = 0;
+	private ChecksumType arrayChecksum = ChecksumType.NONE;
+	private volatile boolean closed = false;
+	
+	/** @param out The output stream that packets will be written to */
+	public PacketWriter(OutputStream out) {
+		this(out, defaultBufferSize);
+	}
+	
+	/** @param out The output stream that packets will be written to
+	 * @param bufferSize The size of the internal buffer, in bytes */
+	public PacketWriter(OutputStream out, int bufferSize) {
+		if(out == null) {
+			throw new NullPointerException("out cannot be null!");
+		}
+		this.out = out;
+		this.channel = null;
+		this.buffer = ByteBuffer.allocate(Math.max(32, bufferSize));//Heap buffer, since OutputStream.write(...) needs a byte[] array anyway
+	}
+	
+	/** @param channel The (blocking) channel that packets will be written
+	 *            to */
+	public PacketWriter(WritableByteChannel channel) {
+		this(channel, defaultBufferSize);
+	}
+	
+	/** @param channel The (blocking) channel that packets will be written to
+	 * @param bufferSize The size of the internal buffer, in bytes */
+	public PacketWriter(WritableByteChannel channel, int bufferSize) {
+		if(channel == null) {
+			throw new NullPointerException("channel cannot be null!");
+		}
+		this.out = null;
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(Math.max(32, bufferSize));//Direct buffer, so the channel doesn't have to copy it into one
+	}
+	
+	/** @return The codec that holds this connection's protocol state */
+	public final PacketCodec getCodec() {
+		return this.codec;
+	}
+	
+	/** @param codec The codec that holds this connection's protocol
+	 *            state(should be the same one that is used to read packets
+	 *            from the other end)
+	 * @return This packet writer */
+	public final PacketWriter setCodec(PacketCodec codec) {
+		this.codec = codec == null ? PacketCodec.getDefault() : codec;
+		return this;
+	}
+	
+	/** @return The number of buffered bytes that will cause the buffer to be
+	 *         flushed automatically */
+	public final int getFlushThreshold() {
+		return this.flushThreshold;
+	}
+	
+	/** @param flushThreshold The number of buffered bytes that will cause the
+	 *            buffer to be flushed automatically(values larger than the
+	 *            buffer's capacity simply mean 'flush when full')
+	 * @return This packet writer */
+	public final PacketWriter setFlushThreshold(int flushThreshold) {
+		this.flushThreshold = Math.max(0, flushThreshold);
+		return this;
+	}
+	
+	/** @return The maximum amount of time(in milliseconds) that a packet may sit
+	 *         in the buffer before the next write causes it to be flushed */
+	public final long getMaxLatency() {
+		return TimeUnit.NANOSECONDS.toMillis(this.maxLatencyNanos);
+	}
+	
+	/** @param maxLatency The maximum amount of time(in milliseconds) that a
+	 *            packet may sit in the buffer before the next write(or call to
+	 *            {@link #flushIfStale()}) causes it to be flushed, or
+	 *            {@code -1} to only flush based on size
+	 * @return This packet writer */
+	public final PacketWriter setMaxLatency(long maxLatency) {
+		this.maxLatencyNanos = maxLatency < 0 ? -1L : TimeUnit.MILLISECONDS.toNanos(maxLatency);
+		return this;
+	}
+	
+	/** @return The number of bytes that are currently buffered and have not
+	 *         yet been written */
+	public final int getBufferedBytes() {
+		this.lock.lock();
+		try {
+			return this.buffer.position();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	/** Encodes the given packet into the internal buffer, flushing the buffer
+	 * beforehand if the packet would not fit and afterwards if either of the
+	 * flush thresholds were reached.
+	 * 
+	 * @param packet The packet to write
+	 * @throws IOException Thrown if an I/O error occurs
+	 * @throws IllegalArgumentException Thrown if the packet's data is larger
+	 *             than {@link Packet#maxSize} */
+	public final void write(Packet packet) throws IOException {
+		this.lock.lock();
+		try {
+			this.checkClosed();
+			if(packet == null) {
+				return;
+			}
+			checkSize(packet);
+			if(this.codec.needsEnableCompression(packet)) {
+				this.encode(PacketIDs.ENABLE_COMPRESSION, null, 0, 0);
+			}
+			final byte[] data = packet.getBackingData();
+			this.encode(packet.getType(), data, 0, data.length, packet.getCorrelationID());
+			this.checkThresholds();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	/** Encodes the given packets into the internal buffer, flushing only when
+	 * the buffer fills up or once all of the packets have been encoded and one
+	 * of the flush thresholds was reached.
+	 * 
+	 * @param packets The packets to write
+	 * @throws IOException Thrown if an I/O error occurs
+	 * @throws IllegalArgumentException Thrown if any of the packets' data is
+	 *             larger than {@link Packet#maxSize}(in which case none of
+	 *             them are written) */
+	public final void write(Packet... packets) throws IOException {
+		this.lock.lock();
+		try {
+			this.checkClosed();
+			if(packets == null) {
+				return;
+			}
+			for(Packet packet : packets) {
+				if(packet != null) {
+					checkSize(packet);
+				}
+			}
+			for(Packet packet : packets) {
+				if(packet == null) {
+					continue;
+				}
+				if(this.codec.needsEnableCompression(packet)) {
+					this.encode(PacketIDs.ENABLE_COMPRESSION, null, 0, 0);
+				}
+				final byte[] data = packet.getBackingData();
+				this.encode(packet.getType(), data, 0, data.length, packet.getCorrelationID());
+			}
+			this.checkThresholds();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	private static final void checkSize(Packet packet) {
+		if(packet.getBackingData().length > Packet.maxSize) {
+			throw new IllegalArgumentException("Max packet size is: " + Packet.maxSize);
+		}
+	}
+	
+	/** Encodes a packet with the given id and data into the internal buffer
+	 * without having to create a {@link Packet} for it first.
+	 * 
+	 * @param id The packet's type
+	 * @param data The array containing the packet's data
+	 * @param off The offset in the array at which the data starts
+	 * @param len The length of the packet's data
+	 * @throws IOException Thrown if an I/O error occurs */
+	public final void write(PacketType id, byte[] data, int off, int len) throws IOException {
+		this.lock.lock();
+		try {
+			this.checkClosed();
+			if(off < 0 || len < 0 || len > data.length - off) {
+				throw new IndexOutOfBoundsException();
+			}
+			if(id.getLength() != -1 && id.getLength() != len) {
+				throw new IllegalArgumentException("Packet id " + id.toString() + " requires exactly " + id.getLength() + " bytes of data, not " + len + "!");
+			}
+			if(len > Packet.maxSize) {
+				throw new IllegalArgumentException("Max packet size is: " + Packet.maxSize);
+			}
+			this.encode(id, data, off, len);
+			this.checkThresholds();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	/** Encodes an {@link PacketIDs#IntArrayID int[]} packet straight into the
+	 * internal buffer, without creating a {@link Packet} or a byte array for
+	 * it first.
+	 * 
+	 * @param values The array containing the values to write
+	 * @param off The offset in the array at which the values start
+	 * @param len The number of values to write
+	 * @throws IOException Thrown if an I/O error occurs */
+	public final void writeInts(int[] values, int off, int len) throws IOException {
+		this.lock.lock();
+		try {
+			if(!this.beginArray(PacketIDs.IntArrayID, values.length, off, len, 4)) {
+				this.write(new Packet(values, off, len));
+				return;
+			}
+			this.buffer.asIntBuffer().put(values, off, len);
+			this.endArray(len << 2);
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	/** Encodes a {@link PacketIDs#LongArrayID long[]} packet straight into the
+	 * internal buffer, without creating a {@link Packet} or a byte array for
+	 * it first.
+	 * 
+	 * @param values The array containing the values to write
+	 * @param off The offset in the array at which the values start
+	 * @param len The number of values to write
+	 * @throws IOException Thrown if an I/O error occurs */
+	public final void writeLongs(long[] values, int off, int len) throws IOException {
+		this.lock.lock();
+		try {
+			if(!this.beginArray(PacketIDs.LongArrayID, values.length, off, len, 8)) {
+				this.write(new Packet(values, off, len));
+				return;
+			}
+			this.buffer.asLongBuffer().put(values, off, len);
+			this.endArray(len << 3);
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	/** Encodes a {@link PacketIDs#DoubleArrayID double[]} packet straight into
+	 * the internal buffer, without creating a {@link Packet} or a byte array
+	 * for it first.
+	 * 
+	 * @param values The array containing the values to write
+	 * @param off The offset in the array at which the values start
+	 * @param len The number of values to write
+	 * @throws IOException Thrown if an I/O error occurs */
+	public final void writeDoubles(double[] values, int off, int len) throws IOException {
+		this.lock.lock();
+		try {
+			if(!this.beginArray(PacketIDs.DoubleArrayID, values.length, off, len, 8)) {
+				this.write(new Packet(values, off, len));
+				return;
+			}
+			this.buffer.asDoubleBuffer().put(values, off, len);
+			this.endArray(len << 3);
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	/** Writes the header of an array packet into the internal buffer and makes
+	 * sure that there is room for its data right after it.
+	 * 
+	 * @return False if the packet is larger than the entire buffer(in which
+	 *         case nothing was written) */
+	private final boolean beginArray(PacketIDs id, int arrayLength, int off, int len, int valueSize) throws IOException {
+		this.checkClosed();
+		if(off < 0 || len < 0 || len > arrayLength - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		final int dataLength = Packet.getArrayDataLength(len, valueSize);
+		if(5 + dataLength + ChecksumType.trailerSize > this.buffer.capacity()) {
+			return false;
+		}
+		this.arrayChecksum = this.beginFrame(id);
+		if(5 + dataLength + ChecksumType.trailerSize > this.buffer.remaining()) {
+			this.flushBuffer();
+		}
+		if(this.buffer.position() == 0) {
+			this.firstBufferedTime = System.nanoTime();
+		}
+		this.arrayStart = this.buffer.position();
+		this.buffer.put((byte) id.getID());
+		this.buffer.putInt(dataLength);
+		return true;
+	}
+	
+	private final void endArray(int dataLength) throws IOException {
+		this.buffer.position(this.buffer.position() + dataLength);//The typed view buffers don't move this buffer's position
+		this.endFrame(this.arrayChecksum, this.arrayStart);
+		this.checkThresholds();
+	}
+	
+	private final void encode(PacketType id, byte[] data, int off, int len) throws IOException {
+		this.encode(id, data, off, len, Packet.noCorrelationID);
+	}
+	
+	private final void encode(PacketType id, byte[] data, int off, int len, int correlationID) throws IOException {
+		final ChecksumType checksum = this.beginFrame(id);
+		final int trailerSize = checksum == ChecksumType.NONE ? 0 : ChecksumType.trailerSize;
+		final boolean writeLength = id.getLength() == -1;//Fixed-length packet ids don't need their length sent; the other end already knows it.
+		final boolean correlated = correlationID != Packet.noCorrelationID;
+		final int headerSize = (correlated ? 4 : 0) + (writeLength ? 5 : 1);
+		if(headerSize + len + trailerSize > this.buffer.remaining()) {
+			this.flushBuffer();
+		}
+		if(this.buffer.position() == 0) {
+			this.firstBufferedTime = System.nanoTime();
+		}
+		final int start = this.buffer.position();
+		final int idByte = correlated ? id.getID() | Packet.correlatedFlag : id.getID();
+		this.buffer.put((byte) idByte);
+		if(correlated) {
+			this.buffer.putInt(correlationID);
+		}
+		if(writeLength) {
+			this.buffer.putInt(len);
+		}
+		if(len + trailerSize <= this.buffer.remaining()) {
+			if(len > 0) {
+				this.buffer.put(data, off, len);
+			}
+			this.endFrame(checksum, start);
+			return;
+		}
+		//The data is larger than the entire buffer, so send the header and then the data as-is instead of copying it in pieces:
+		final int sequence = trailerSize == 0 ? 0 : this.codec.nextOutgoingSequence();
+		final int crc = trailerSize == 0 ? 0 : checksum.checksum(idByte, correlationID, writeLength, data, off, len, sequence);
+		this.flushBuffer();
+		if(this.out != null) {
+			this.out.write(data, off, len);
+		} else {
+			ByteBuffer wrapped = ByteBuffer.wrap(data, off, len);
+			while(wrapped.hasRemaining()) {
+				this.channel.write(wrapped);
+			}
+		}
+		if(trailerSize != 0) {
+			this.firstBufferedTime = System.nanoTime();
+			this.buffer.putInt(sequence);
+			this.buffer.putInt(crc);
+		}
+	}
+	
+	/** Announces a change of checksum(if there was one) before a frame of the
+	 * given type is encoded.
+	 * 
+	 * @param id The type of the frame that is about to be encoded
+	 * @return The checksum that the frame must end with
+	 * @throws IOException Thrown if an I/O error occurs */
+	private final ChecksumType beginFrame(PacketType id) throws IOException {
+		if(id == PacketIDs.SET_CHECKSUM) {
+			return ChecksumType.NONE;
+		}
+		final ChecksumType announce = this.codec.checksumSwitch();
+		if(announce != null) {
+			this.encode(PacketIDs.SET_CHECKSUM, new byte[] {(byte) announce.getID()}, 0, 1, Packet.noCorrelationID);
+		}
+		return this.codec.getOutgoingChecksum();
+	}
+	
+	/** Appends the trailer to the frame that was just encoded into the buffer
+	 * (there must be room for it).
+	 * 
+	 * @param checksum The checksum that the frame must end with
+	 * @param start The position in the buffer at which the frame starts */
+	private final void endFrame(ChecksumType checksum, int start) {
+		if(checksum == ChecksumType.NONE) {
+			return;
+		}
+		this.buffer.putInt(this.codec.nextOutgoingSequence());
+		this.buffer.putInt(checksum.checksum(this.buffer, start, this.buffer.position() - start));
+	}
+	
+	private final void checkThresholds() throws IOException {
+		final int buffered = this.buffer.position();
+		if(buffered == 0) {
+			return;
+		}
+		if(buffered >= this.flushThreshold) {
+			this.flush();
+			return;
+		}
+		final long maxLatencyNanos = this.maxLatencyNanos;
+		if(maxLatencyNanos >= 0 && System.nanoTime() - this.firstBufferedTime >= maxLatencyNanos) {
+			this.flush();
+		}
+	}
+	
+	/** Flushes the internal buffer if the oldest buffered packet has been
+	 * waiting for longer than the {@link #getMaxLatency() maximum latency}.
+	 * This is meant to be called periodically by applications that may stop
+	 * writing packets for a while but still want the last few delivered on
+	 * time.
+	 * 
+	 * @return Whether or not the buffer was flushed
+	 * @throws IOException Thrown if an I/O error occurs */
+	public final boolean flushIfStale() throws IOException {
+		this.lock.lock();
+		try {
+			final long maxLatencyNanos = this.maxLatencyNanos;
+			if(this.closed || this.buffer.position() == 0 || maxLatencyNanos < 0 || System.nanoTime() - this.firstBufferedTime < maxLatencyNanos) {
+				return false;
+			}
+			this.flush();
+			return true;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	private final void flushBuffer() throws IOException {
+		if(this.buffer.position() == 0) {
+			return;
+		}
+		this.buffer.flip();
+		try {
+			if(this.out != null) {
+				this.out.write(this.buffer.array(), this.buffer.arrayOffset(), this.buffer.limit());
+			} else {
+				while(this.buffer.hasRemaining()) {
+					this.channel.write(this.buffer);
+				}
+			}
+		} finally {
+			this.buffer.clear();
+			this.firstBufferedTime = -1L;
+		}
+	}
+	
+	/** Writes out any buffered packets and flushes the underlying stream.
+	 * 
+	 * @throws IOException Thrown if an I/O error occurs */
+	@Override
+	public final void flush() throws IOException {
+		this.lock.lock();
+		try {
+			this.checkClosed();
+			this.flushBuffer();
+			if(this.out != null) {
+				this.out.flush();
+			}
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+	private final void checkClosed() throws IOException {
+		if(this.closed) {
+			throw new IOException("PacketWriter is closed!");
+		}
+	}
+	
+	/** Flushes any remaining buffered packets and then closes the underlying
+	 * stream or channel.
+	 * 
+	 * @throws IOException Thrown if an I/O error occurs */
+	@Override
+	public final void close() throws IOException {
+		this.lock.lock();
+		try {
+			if(this.closed) {
+				return;
+			}
+			try {
+				this.flush();
+			} finally {
+				this.closed = true;
+				if(this.out != null) {
+					this.out.close();
+				} else {
+					this.channel.close();
+				}
+			}
+		} finally {
+			this.lock.unlock();
+		}
+	}
+	
+}
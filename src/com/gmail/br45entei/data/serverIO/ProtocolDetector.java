@@ -0,0 +1,624 @@
+package com.gmail.br45entei.data.serverIO;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/** Lets one port serve several protocols(e.g. TLS, {@link Packet}s and
+ * HTTP/1.1) by looking at the first few bytes that each new connection
+ * sends and handing the connection to the handler of the first
+ * {@link Protocol} that recognizes them.<br>
+ * <br>
+ * The bytes are read in bulk into a small buffer(at most
+ * {@link #maxPeekLength} bytes, usually only the first read's worth) rather
+ * than one at a time, and are then given to the handler along with the
+ * connection, so nothing is lost or read twice. Blocking {@link Socket}s are
+ * handled by {@link #dispatch(Socket)}; non-blocking {@link SocketChannel}s
+ * by {@link #dispatch(SocketChannel, ByteBuffer)}, which can be called from
+ * a selector loop each time the channel becomes readable.<br>
+ * <br>
+ * Protocols are tried in the order that they were registered in; a
+ * protocol that can't decide yet holds up the ones after it until more data
+ * arrives. Since the ids of custom {@link PacketTypes packet types} can
+ * overlap with ASCII letters, {@link #HTTP} should be registered before
+ * {@link #PACKET}.
+ * 
+ * @author Brian_Entei
+ * @see SocketWrapper */
+public class ProtocolDetector {
+	
+	/** The most bytes that are read from a connection before giving up on
+	 * recognizing it */
+	public static final int maxPeekLength = 16;
+	
+	/** The result of matching a connection's first bytes against a
+	 * {@link Protocol}
+	 * 
+	 * @author Brian_Entei */
+	public static enum Match {
+		/** The bytes belong to the protocol */
+		MATCH,
+		/** The bytes don't belong to the protocol */
+		NO_MATCH,
+		/** Not enough bytes have been read yet to tell */
+		NEED_MORE_DATA;
+	}
+	
+	/** A protocol that can be recognized by the first bytes that a client
+	 * sends.
+	 * 
+	 * @author Brian_Entei */
+	public static interface Protocol {
+		
+		/** @return The name of this protocol */
+		public String getName();
+		
+		/** @param peeked The bytes that have been read from the connection so
+		 *            far, from its position to its limit(read only; at least
+		 *            one byte)
+		 * @return Whether or not the bytes belong to this protocol, or
+		 *         {@link Match#NEED_MORE_DATA} if it can't tell yet */
+		public Match match(ByteBuffer peeked);
+		
+	}
+	
+	/** Handles the blocking connections that were recognized as a protocol.
+	 * 
+	 * @author Brian_Entei */
+	public static interface StreamHandler {
+		
+		/** @param socket The connection
+		 * @param peeked The bytes that were already read from the connection
+		 *            (read only)
+		 * @param in The socket's input stream, which returns the peeked bytes
+		 *            first
+		 * @throws IOException Thrown if an I/O error occurs */
+		public void handle(Socket socket, ByteBuffer peeked, InputStream in) throws IOException;
+		
+	}
+	
+	/** Handles the non-blocking connections that were recognized as a
+	 * protocol.
+	 * 
+	 * @author Brian_Entei */
+	public static interface ChannelHandler {
+		
+		/** @param channel The connection
+		 * @param peeked The bytes that were already read from the channel,
+		 *            from its position to its limit, which have to be
+		 *            processed before anything else is read from it
+		 * @throws IOException Thrown if an I/O error occurs */
+		public void handle(SocketChannel channel, ByteBuffer peeked) throws IOException;
+		
+	}
+	
+	/** A TLS(or SSL 3.0) handshake record: {@code 0x16 0x03 0x00-0x04} */
+	public static final Protocol TLS = new Protocol() {
+		@Override
+		public final String getName() {
+			return "TLS";
+		}
+		
+		@Override
+		public final Match match(ByteBuffer peeked) {
+			final int pos = peeked.position(), count = peeked.remaining();
+			if(peeked.get(pos) != 0x16 || (count > 1 && peeked.get(pos + 1) != 0x03) || (count > 2 && (peeked.get(pos + 2) & 0xFF) > 0x04)) {
+				return Match.NO_MATCH;
+			}
+			return count < 3 ? Match.NEED_MORE_DATA : Match.MATCH;
+		}
+		
+		@Override
+		public final String toString() {
+			return this.getName();
+		}
+	};
+	
+	/** An HTTP/1.x request line: a method token of uppercase letters followed
+	 * by a space(e.g. {@code GET /}). HTTP/2's {@code PRI *} connection
+	 * preface matches as well. */
+	public static final Protocol HTTP = new Protocol() {
+		@Override
+		public final String getName() {
+			return "HTTP";
+		}
+		
+		@Override
+		public final Match match(ByteBuffer peeked) {
+			final int pos = peeked.position(), count = peeked.remaining();
+			for(int i = 0; i < count; i++) {
+				final byte b = peeked.get(pos + i);
+				if(b == ' ') {
+					return i > 0 ? Match.MATCH : Match.NO_MATCH;
+				}
+				if(b < 'A' || b > 'Z') {
+					return Match.NO_MATCH;
+				}
+			}
+			return Match.NEED_MORE_DATA;
+		}
+		
+		@Override
+		public final String toString() {
+			return this.getName();
+		}
+	};
+	
+	/** A {@link Packet} whose {@link PacketTypes type} is registered(built in
+	 * or custom) */
+	public static final Protocol PACKET = new Protocol() {
+		@Override
+		public final String getName() {
+			return "Packet";
+		}
+		
+		@Override
+		public final Match match(ByteBuffer peeked) {
+			return PacketTypes.getByID(peeked.get(peeked.position()) & ~Packet.correlatedFlag) != null ? Match.MATCH : Match.NO_MATCH;
+		}
+		
+		@Override
+		public final String toString() {
+			return this.getName();
+		}
+	};
+	
+	private static final class Registration {
+		final Protocol protocol;
+		volatile StreamHandler streamHandler = null;
+		volatile ChannelHandler channelHandler = null;
+		
+		Registration(Protocol protocol) {
+			this.protocol = protocol;
+		}
+	}
+	
+	private static final Registration unknown = new Registration(null);
+	
+	private final CopyOnWriteArrayList<Registration> registrations = new CopyOnWriteArrayList<>();
+	
+	private final synchronized Registration getRegistration(Protocol protocol) {
+		if(protocol == null) {
+			throw new NullPointerException("protocol cannot be null!");
+		}
+		for(Registration registration : this.registrations) {
+			if(registration.protocol == protocol) {
+				return registration;
+			}
+		}
+		Registration registration = new Registration(protocol);
+		this.registrations.add(registration);
+		return registration;
+	}
+	
+	/** Sets the handler for the blocking connections that are recognized as
+	 * the given protocol. A protocol that is registered for the first time is
+	 * tried after the ones that were registered before it.
+	 * 
+	 * @param protocol The protocol
+	 * @param handler The handler
+	 * @return This detector */
+	public final ProtocolDetector register(Protocol protocol, StreamHandler handler) {
+		this.getRegistration(protocol).streamHandler = handler;
+		return this;
+	}
+	
+	/** Sets the handler for the non-blocking connections that are recognized
+	 * as the given protocol. A protocol that is registered for the first time
+	 * is tried after the ones that were registered before it.
+	 * 
+	 * @param protocol The protocol
+	 * @param handler The handler
+	 * @return This detector */
+	public final ProtocolDetector register(Protocol protocol, ChannelHandler handler) {
+		this.getRegistration(protocol).channelHandler = handler;
+		return this;
+	}
+	
+	/** Stops recognizing the given protocol.
+	 * 
+	 * @param protocol The protocol
+	 * @return Whether or not the protocol was registered */
+	public final synchronized boolean unregister(Protocol protocol) {
+		for(Registration registration : this.registrations) {
+			if(registration.protocol == protocol) {
+				return this.registrations.remove(registration);
+			}
+		}
+		return false;
+	}
+	
+	/** @param peeked The bytes read so far
+	 * @param channel Whether to look for protocols with a channel handler or
+	 *            a stream handler
+	 * @param full Whether or not no more bytes will be read
+	 * @return The matching registration, {@code null} if one of the
+	 *         protocols needs more data, or {@link #unknown} */
+	private final Registration match(ByteBuffer peeked, boolean channel, boolean full) {
+		for(Registration registration : this.registrations) {
+			if((channel ? registration.channelHandler : registration.streamHandler) == null) {
+				continue;
+			}
+			switch(registration.protocol.match(peeked.duplicate())) {
+			case MATCH:
+				return registration;
+			case NEED_MORE_DATA:
+				if(!full) {
+					return null;
+				}
+				continue;
+			case NO_MATCH:
+			default:
+				continue;
+			}
+		}
+		return unknown;
+	}
+	
+	/** Reads the first bytes from the given blocking socket and hands it to
+	 * the handler of the protocol that they belong to. The handler is called
+	 * on the current thread.<br>
+	 * To avoid waiting forever on clients that never send anything, set the
+	 * socket's {@link Socket#setSoTimeout(int) timeout} first.
+	 * 
+	 * @param socket The newly accepted socket
+	 * @return The protocol that the socket was handed to, or {@code null} if
+	 *         none of the registered protocols matched or the socket was
+	 *         closed before anything was received(in which case it is up to
+	 *         the caller to close it)
+	 * @throws IOException Thrown if an I/O error occurs */
+	public final Protocol dispatch(Socket socket) throws IOException {
+		final InputStream source = socket.getInputStream();
+		final byte[] buf = new byte[maxPeekLength];
+		int count = 0;
+		Registration registration = null;
+		while(registration == null) {
+			final int read = source.read(buf, count, buf.length - count);
+			if(read == -1) {
+				if(count == 0) {
+					return null;
+				}
+				registration = this.match(ByteBuffer.wrap(buf, 0, count), false, true);
+				break;
+			}
+			count += read;
+			registration = this.match(ByteBuffer.wrap(buf, 0, count), false, count == buf.length);
+		}
+		final StreamHandler handler = registration.streamHandler;
+		if(registration == unknown || handler == null) {
+			return null;
+		}
+		final byte[] peeked = new byte[count];
+		System.arraycopy(buf, 0, peeked, 0, count);
+		handler.handle(socket, ByteBuffer.wrap(peeked).asReadOnlyBuffer(), new InputStreamSSLWrapper(source).addBytesToInternalBuffer(peeked));
+		return registration.protocol;
+	}
+	
+	/** Reads whatever is available from the given channel into the given
+	 * buffer and, once enough has arrived to recognize the protocol, hands
+	 * the channel to that protocol's handler(on the current thread). Call
+	 * this each time the channel becomes readable until it returns something
+	 * other than {@link Match#NEED_MORE_DATA}, always passing the same
+	 * buffer.<br>
+	 * When the channel is registered with a selector, the caller should
+	 * cancel its key once it has been handed off.
+	 * 
+	 * @param channel The newly accepted channel
+	 * @param peekBuffer The connection's peek buffer, in write
+	 *            mode(initially empty, with room for {@link #maxPeekLength}
+	 *            bytes)
+	 * @return {@link Match#MATCH} if the channel was handed to a handler,
+	 *         {@link Match#NEED_MORE_DATA} if not enough data has arrived yet,
+	 *         or {@link Match#NO_MATCH} if none of the registered protocols
+	 *         matched or the channel reached end of stream(in which case it
+	 *         is up to the caller to close it)
+	 * @throws IOException Thrown if an I/O error occurs */
+	public final Match dispatch(SocketChannel channel, ByteBuffer peekBuffer) throws IOException {
+		final int read = channel.read(peekBuffer);
+		final int count = peekBuffer.position();
+		if(count == 0) {
+			return read == -1 ? Match.NO_MATCH : Match.NEED_MORE_DATA;
+		}
+		final ByteBuffer peeked = peekBuffer.duplicate();
+		peeked.flip();
+		final Registration registration = this.match(peeked, true, read == -1 || !peekBuffer.hasRemaining());
+		if(registration == null) {
+			return Match.NEED_MORE_DATA;
+		}
+		final ChannelHandler handler = registration.channelHandler;
+		if(registration == unknown || handler == null) {
+			return Match.NO_MATCH;
+		}
+		handler.handle(channel, peeked);
+		return Match.MATCH;
+	}
+	
+	/** Starts the server side of a TLS connection over a socket whose first
+	 * bytes were already read by a detector.
+	 * 
+	 * @param factory The factory to create the SSL socket with
+	 * @param socket The socket that was handed to the {@link #TLS} handler
+	 * @param peeked The bytes that were peeked from the socket
+	 * @return The SSL socket(in server mode; the handshake happens when it
+	 *         is first read from or written to)
+	 * @throws IOException Thrown if the SSL socket could not be created */
+	public static final SSLSocket startTLS(SSLSocketFactory factory, Socket socket, ByteBuffer peeked) throws IOException {
+		final byte[] consumed = new byte[peeked.remaining()];
+		peeked.duplicate().get(consumed);
+		final SSLSocket ssl = (SSLSocket) factory.createSocket(socket, new ByteArrayInputStream(consumed), true);
+		ssl.setUseClientMode(false);
+		return ssl;
+	}
+	
+	//=============================================
+	
+	/** Serves HTTP, TLS and packets on one loopback port, using a detector in
+	 * front of a {@link PacketServer}(non-blocking) and then a blocking
+	 * accept loop, and prints what each test client was recognized as. The
+	 * TLS clients finish their handshake(with a temporary self-signed
+	 * certificate) and have a packet echoed back over it.
+	 * 
+	 * @param args Program command line arguments
+	 * @throws Exception Thrown if the demo fails */
+	public static final void main(String[] args) throws Exception {
+		final PacketHandler echo = new PacketHandler() {
+			@Override
+			public final void onConnect(PacketConnection connection) {
+			}
+			
+			@Override
+			public final void onPacket(PacketConnection connection, Packet packet) throws IOException {
+				connection.send(packet);//echo
+			}
+			
+			@Override
+			public final void onDisconnect(PacketConnection connection, Throwable cause) {
+			}
+		};
+		final byte[] httpResponse = "HTTP/1.1 200 OK\r\nContent-Length: 5\r\nConnection: close\r\n\r\nHello".getBytes(StandardCharsets.US_ASCII);
+		final SSLContext[] contexts = SSLHandshakeBenchmark.createContexts(SSLHandshakeBenchmark.createKeyStore("ProtocolDetector"), "ProtocolDetector", "TLS");
+		
+		//Non-blocking: a selector loop that only detects, in front of a packet server that doesn't listen itself
+		try(final PacketServer packets = new PacketServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), echo).start(); final ServerSocketChannel server = ServerSocketChannel.open(); final Selector selector = Selector.open()) {
+			final ProtocolDetector detector = new ProtocolDetector();
+			detector.register(TLS, new ChannelHandler() {
+				@Override
+				public final void handle(SocketChannel channel, ByteBuffer peeked) throws IOException {
+					System.out.println("NIO: TLS ClientHello from " + channel.getRemoteAddress() + " (" + peeked.remaining() + " bytes peeked); handed to the packet server");
+					packets.adopt(channel, peeked, contexts[0]);
+				}
+			}).register(HTTP, new ChannelHandler() {
+				@Override
+				public final void handle(SocketChannel channel, ByteBuffer peeked) throws IOException {
+					System.out.println("NIO: HTTP request starting with \"" + StandardCharsets.US_ASCII.decode(peeked.duplicate()).toString().trim() + "\"");
+					skipRequestHeaders(channel, peeked);
+					ByteBuffer response = ByteBuffer.wrap(httpResponse);
+					while(response.hasRemaining()) {
+						channel.write(response);
+					}
+					channel.close();
+				}
+			}).register(PACKET, new ChannelHandler() {
+				@Override
+				public final void handle(SocketChannel channel, ByteBuffer peeked) throws IOException {
+					System.out.println("NIO: packet connection handed to the packet server");
+					packets.adopt(channel, peeked);
+				}
+			});
+			server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			server.configureBlocking(false);
+			server.register(selector, SelectionKey.OP_ACCEPT);
+			final Thread loop = new Thread(new Runnable() {
+				@Override
+				public final void run() {
+					try {
+						while(selector.isOpen()) {
+							selector.select();
+							Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+							while(it.hasNext()) {
+								SelectionKey key = it.next();
+								it.remove();
+								if(!key.isValid()) {
+									continue;
+								}
+								if(key.isAcceptable()) {
+									SocketChannel channel;
+									while((channel = server.accept()) != null) {
+										channel.configureBlocking(false);
+										channel.register(selector, SelectionKey.OP_READ, ByteBuffer.allocate(maxPeekLength));
+									}
+									continue;
+								}
+								SocketChannel channel = (SocketChannel) key.channel();
+								try {
+									Match result = detector.dispatch(channel, (ByteBuffer) key.attachment());
+									if(result == Match.NEED_MORE_DATA) {
+										continue;
+									}
+									key.cancel();
+									if(result == Match.NO_MATCH) {
+										System.out.println("NIO: unknown protocol; closing");
+										channel.close();
+									}
+								} catch(IOException e) {
+									key.cancel();
+									channel.close();
+								}
+							}
+						}
+					} catch(Exception e) {
+						if(selector.isOpen()) {
+							e.printStackTrace();
+						}
+					}
+				}
+			}, "ProtocolDetector-demo");
+			loop.setDaemon(true);
+			loop.start();
+			runClients(server.socket().getLocalPort(), contexts[1]);
+		}
+		
+		//Blocking: the same protocols on a plain ServerSocket
+		try(final ServerSocket server = new java.net.ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+			final ProtocolDetector detector = new ProtocolDetector();
+			detector.register(TLS, new StreamHandler() {
+				@Override
+				public final void handle(Socket socket, ByteBuffer peeked, InputStream in) throws IOException {
+					System.out.println("Blocking: TLS ClientHello from " + socket.getRemoteSocketAddress() + " (" + peeked.remaining() + " bytes peeked)");
+					try(SSLSocket ssl = startTLS(contexts[0].getSocketFactory(), socket, peeked)) {
+						Packet packet = Packet.readNextPacket(ssl.getInputStream());
+						System.out.println("Blocking: " + ssl.getSession().getProtocol() + " packet \"" + packet.getText() + "\"");
+						Packet.writePacket(packet, ssl.getOutputStream());
+					} catch(PacketReadException e) {
+						throw new IOException(e);
+					}
+				}
+			}).register(HTTP, new StreamHandler() {
+				@Override
+				public final void handle(Socket socket, ByteBuffer peeked, InputStream in) throws IOException {
+					StringBuilder line = new StringBuilder();
+					int b;
+					while((b = in.read()) != -1 && b != '\n') {
+						line.append((char) b);
+					}
+					System.out.println("Blocking: HTTP request line \"" + line.toString().trim() + "\"");
+					int matched = 2;//The request line's "\r\n"
+					while(matched < 4 && (b = in.read()) != -1) {//Skip the rest of the request's headers(see skipRequestHeaders(...))
+						matched = b == (matched % 2 == 0 ? '\r' : '\n') ? matched + 1 : (b == '\r' ? 1 : 0);
+					}
+					socket.getOutputStream().write(httpResponse);
+				}
+			}).register(PACKET, new StreamHandler() {
+				@Override
+				public final void handle(Socket socket, ByteBuffer peeked, InputStream in) throws IOException {
+					try {
+						Packet packet = Packet.readNextPacket(in);
+						System.out.println("Blocking: packet \"" + packet.getText() + "\"");
+						Packet.writePacket(packet, socket.getOutputStream());
+					} catch(PacketReadException e) {
+						throw new IOException(e);
+					}
+				}
+			});
+			final Thread loop = new Thread(new Runnable() {
+				@Override
+				public final void run() {
+					while(!server.isClosed()) {
+						try(Socket socket = server.accept()) {
+							socket.setSoTimeout(5000);
+							if(detector.dispatch(socket) == null) {
+								System.out.println("Blocking: unknown protocol; closing");
+							}
+						} catch(IOException e) {
+							if(!server.isClosed()) {
+								e.printStackTrace();
+							}
+						}
+					}
+				}
+			}, "ProtocolDetector-demo");
+			loop.setDaemon(true);
+			loop.start();
+			runClients(server.getLocalPort(), contexts[1]);
+		}
+	}
+	
+	/** Reads the rest of an HTTP request's headers(up to and including the
+	 * blank line) and discards them. Closing a socket that still has unread
+	 * data makes the operating system reset the connection, which can
+	 * discard the response before the client gets to read it.
+	 * 
+	 * @param channel The non-blocking channel to read from
+	 * @param peeked The bytes that were already read from the channel
+	 * @throws IOException Thrown if the client doesn't finish sending its
+	 *             headers within five seconds */
+	private static final void skipRequestHeaders(SocketChannel channel, ByteBuffer peeked) throws IOException {
+		ByteBuffer buf = peeked.duplicate();
+		int matched = 0;
+		try(Selector selector = Selector.open()) {
+			channel.register(selector, SelectionKey.OP_READ);
+			while(true) {
+				while(buf.hasRemaining()) {
+					final byte b = buf.get();
+					matched = b == (matched % 2 == 0 ? '\r' : '\n') ? matched + 1 : (b == '\r' ? 1 : 0);
+					if(matched == 4) {
+						return;
+					}
+				}
+				buf = ByteBuffer.allocate(256);
+				final int read = channel.read(buf);
+				if(read == -1) {
+					return;
+				}
+				if(read == 0) {
+					if(selector.select(5000L) == 0) {
+						throw new IOException("Timed out waiting for the rest of the HTTP request!");
+					}
+					selector.selectedKeys().clear();
+				}
+				buf.flip();
+			}
+		}
+	}
+	
+	private static final void runClients(int port, SSLContext clientContext) throws Exception {
+		final InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+		try(Socket socket = new Socket()) {//HTTP
+			socket.connect(address);
+			socket.getOutputStream().write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			final InputStream in = socket.getInputStream();
+			StringBuilder response = new StringBuilder();
+			int b;
+			while((b = in.read()) != -1) {
+				response.append((char) b);
+			}
+			System.out.println("  client received: " + response.substring(0, response.indexOf("\r\n")));
+		}
+		try(Socket socket = new Socket()) {//Packet
+			socket.connect(address);
+			socket.setSoTimeout(5000);
+			Packet.writePacket(new Packet("Hello, packets!"), socket.getOutputStream());
+			System.out.println("  client received echo: \"" + Packet.readNextPacket(socket.getInputStream()).getText() + "\"");
+		}
+		try(Socket plain = new Socket()) {//TLS
+			plain.connect(address);
+			plain.setSoTimeout(5000);
+			try(SSLSocket socket = (SSLSocket) clientContext.getSocketFactory().createSocket(plain, "localhost", port, true)) {
+				Packet.writePacket(new Packet("Hello, TLS!"), socket.getOutputStream());
+				System.out.println("  client received " + socket.getSession().getProtocol() + " echo: \"" + Packet.readNextPacket(socket.getInputStream()).getText() + "\"");
+			}
+		}
+		try(Socket socket = new Socket()) {//Garbage
+			socket.connect(address);
+			socket.setSoTimeout(5000);
+			final OutputStream out = socket.getOutputStream();
+			out.write(new byte[] {0x10, 0x20, 0x30, 0x40});
+			out.flush();
+			try {
+				System.out.println("  client read after garbage: " + socket.getInputStream().read());
+			} catch(SocketException e) {//The server may not have read every byte before closing, in which case the connection is reset instead
+				System.out.println("  client read after garbage: " + e.getMessage());
+			}
+		}
+		Thread.sleep(100L);//Let the server print its last line
+	}
+	
+}
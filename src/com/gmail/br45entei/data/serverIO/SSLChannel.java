@@ -0,0 +1,657 @@
+package com.gmail.br45entei.data.serverIO;
+
+import com.gmail.br45entei.util.StringUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+
+/** A TLS connection over a non-blocking {@link SocketChannel}, driven by an
+ * {@link SSLEngine}, so that TLS connections can share a selector thread
+ * with plaintext ones instead of needing a thread each like the blocking
+ * {@link javax.net.ssl.SSLSocket SSLSocket}s created by
+ * {@link SocketWrapper#wrapSSL(String[])}.<br>
+ * <br>
+ * {@link #read(ByteBuffer)} and {@link #write(ByteBuffer)} never block: they
+ * return 0 when nothing can be done until the channel is readable or
+ * writable again, which {@link #needsWrite()} tells apart. Handshakes
+ * (including renegotiations and key updates started by either end) are
+ * performed along the way, with the engine's delegated tasks run on the
+ * calling thread, and a close_notify is answered and sent on
+ * {@link #close()}.<br>
+ * <br>
+ * The network buffers, and the application buffer that records are
+ * decrypted into when the caller's buffer is too small, are direct buffers
+ * borrowed from a shared pool and given back when the channel is closed.
+ * Reading and writing may happen on different threads at once.
+ * 
+ * @author Brian_Entei
+ * @see PacketServer#adopt(SocketChannel, ByteBuffer, javax.net.ssl.SSLContext) */
+public class SSLChannel implements ByteChannel {
+	
+	/** The most buffers of each size that are kept around for reuse */
+	public static final int maxPooledBuffers = 256;
+	
+	private static final ConcurrentHashMap<Integer, ConcurrentLinkedQueue<ByteBuffer>> pool = new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<Integer, AtomicInteger> poolSizes = new ConcurrentHashMap<>();
+	private static final ByteBuffer empty = ByteBuffer.allocate(0);
+	
+	/** @param capacity The least capacity that the buffer should have
+	 * @return A cleared direct buffer from the pool, or a new one */
+	static final ByteBuffer acquireBuffer(int capacity) {
+		final Integer size = Integer.valueOf((capacity + 0xFFF) & ~0xFFF);//Round up to 4KB so that sessions with slightly different sizes share buffers
+		ConcurrentLinkedQueue<ByteBuffer> queue = pool.get(size);
+		ByteBuffer buffer = queue == null ? null : queue.poll();
+		if(buffer == null) {
+			return ByteBuffer.allocateDirect(size.intValue());
+		}
+		poolSizes.get(size).decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+	
+	/** @param buffer The buffer to give back to the pool(may be
+	 *            {@code null}) */
+	static final void releaseBuffer(ByteBuffer buffer) {
+		if(buffer == null || !buffer.isDirect()) {
+			return;
+		}
+		final Integer size = Integer.valueOf(buffer.capacity());
+		ConcurrentLinkedQueue<ByteBuffer> queue = pool.get(size);
+		if(queue == null) {
+			pool.putIfAbsent(size, new ConcurrentLinkedQueue<ByteBuffer>());
+			poolSizes.putIfAbsent(size, new AtomicInteger(0));
+			queue = pool.get(size);
+		}
+		if(poolSizes.get(size).incrementAndGet() > maxPooledBuffers) {
+			poolSizes.get(size).decrementAndGet();
+			return;
+		}
+		queue.add(buffer);
+	}
+	
+	private final SocketChannel channel;
+	private final SSLEngine engine;
+	
+	private final ReentrantLock readLock = new ReentrantLock();
+	private final ReentrantLock writeLock = new ReentrantLock();
+	
+	//Read side(guarded by the read lock):
+	private ByteBuffer netIn;//In write mode
+	private ByteBuffer appIn = null;//In read mode; only used when the caller's buffer is too small for a whole record
+	private boolean inboundDone = false;
+	private volatile boolean pendingInput = false, readAfterFlush = false;
+	
+	//Write side(guarded by the write lock):
+	private volatile ByteBuffer netOut;//In read mode; null once closed
+	
+	private volatile boolean handshakeComplete = false;
+	private volatile boolean closed = false;
+	
+	/** @param channel The connected channel(which should be non-blocking)
+	 * @param engine The engine to use, already set to client or server mode
+	 * @throws SSLException Thrown if the handshake could not be started */
+	public SSLChannel(SocketChannel channel, SSLEngine engine) throws SSLException {
+		this(channel, engine, null);
+	}
+	
+	/** @param channel The connected channel(which should be non-blocking)
+	 * @param engine The engine to use, already set to client or server mode
+	 * @param initialData The bytes that were already read from the channel
+	 *            (e.g. by a {@link ProtocolDetector}), from its position to
+	 *            its limit, or {@code null}
+	 * @throws SSLException Thrown if the handshake could not be started */
+	public SSLChannel(SocketChannel channel, SSLEngine engine, ByteBuffer initialData) throws SSLException {
+		if(channel == null || engine == null) {
+			throw new NullPointerException("channel and engine cannot be null!");
+		}
+		this.channel = channel;
+		this.engine = engine;
+		final SSLSession session = engine.getSession();
+		this.netIn = acquireBuffer(Math.max(session.getPacketBufferSize(), initialData == null ? 0 : initialData.remaining()));
+		this.netOut = acquireBuffer(session.getPacketBufferSize());
+		this.netOut.flip();
+		if(initialData != null) {
+			this.netIn.put(initialData.duplicate());
+		}
+		engine.beginHandshake();
+	}
+	
+	/** @return The underlying channel */
+	public final SocketChannel getChannel() {
+		return this.channel;
+	}
+	
+	/** @return The engine that this channel uses */
+	public final SSLEngine getEngine() {
+		return this.engine;
+	}
+	
+	/** @return The current session(which is a placeholder until the first
+	 *         handshake has completed) */
+	public final SSLSession getSession() {
+		return this.engine.getSession();
+	}
+	
+	/** @return Whether or not the first handshake has completed */
+	public final boolean isHandshakeComplete() {
+		return this.handshakeComplete;
+	}
+	
+	/** @return Whether or not there is data that has to be written to the
+	 *         channel before this channel can go on(i.e. the caller should
+	 *         wait for the channel to become writable and then call
+	 *         {@link #flush()}) */
+	public final boolean needsWrite() {
+		final ByteBuffer netOut = this.netOut;
+		return netOut != null && (netOut.hasRemaining() || this.engine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP);
+	}
+	
+	/** @return Whether or not {@link #write(ByteBuffer)} can make progress
+	 *         right now, which it can't while a handshake is waiting for the
+	 *         other end */
+	public final boolean canWrite() {
+		final HandshakeStatus status = this.engine.getHandshakeStatus();
+		return status == HandshakeStatus.NOT_HANDSHAKING || status == HandshakeStatus.NEED_WRAP;
+	}
+	
+	/** @return The operations that the channel should be selected for so
+	 *         that this channel can make progress: {@link SelectionKey#OP_READ},
+	 *         plus {@link SelectionKey#OP_WRITE} if {@link #needsWrite()} */
+	public final int getInterestOps() {
+		return SelectionKey.OP_READ | (this.needsWrite() ? SelectionKey.OP_WRITE : 0);
+	}
+	
+	/** @return Whether or not data that was already received may be waiting
+	 *         to be {@link #read(ByteBuffer) read}(because the last read
+	 *         filled the caller's buffer, or had to wait for handshake data
+	 *         to be written first), in which case the channel won't be
+	 *         selected as readable for it */
+	public final boolean hasBufferedData() {
+		return this.pendingInput;
+	}
+	
+	@Override
+	public final boolean isOpen() {
+		return !this.closed && this.channel.isOpen();
+	}
+	
+	private final void runDelegatedTasks() {
+		Runnable task;
+		while((task = this.engine.getDelegatedTask()) != null) {
+			task.run();
+		}
+	}
+	
+	/** Must be called while holding the write lock.
+	 * 
+	 * @return Whether or not all of the pending network data was written */
+	private final boolean flushNetOut() throws IOException {
+		while(this.netOut.hasRemaining()) {
+			if(this.channel.write(this.netOut) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/** Must be called while holding the write lock.
+	 * 
+	 * @param src The application data to encrypt
+	 * @return The result of wrapping, after making room in the network
+	 *         buffer if needed, or {@code null} if the pending network data
+	 *         could not be written */
+	private final SSLEngineResult wrap(ByteBuffer src) throws IOException {
+		while(true) {
+			this.netOut.compact();
+			final SSLEngineResult result;
+			try {
+				result = this.engine.wrap(src, this.netOut);
+			} finally {
+				this.netOut.flip();
+			}
+			if(result.getHandshakeStatus() == HandshakeStatus.NEED_TASK) {
+				this.runDelegatedTasks();
+			}
+			if(result.getHandshakeStatus() == HandshakeStatus.FINISHED) {
+				this.handshakeComplete = true;
+			}
+			if(result.getStatus() != SSLEngineResult.Status.BUFFER_OVERFLOW) {
+				return result;
+			}
+			if(this.netOut.hasRemaining()) {
+				if(!this.flushNetOut()) {
+					return null;
+				}
+				continue;
+			}
+			final ByteBuffer larger = acquireBuffer(this.engine.getSession().getPacketBufferSize());
+			larger.flip();
+			releaseBuffer(this.netOut);
+			this.netOut = larger;
+		}
+	}
+	
+	/** Writes any pending network data and carries on with the handshake
+	 * data that the engine has to send.
+	 * 
+	 * @return Whether or not everything was written(if not, wait for the
+	 *         channel to become writable and call this again)
+	 * @throws IOException Thrown if an I/O error occurs */
+	public final boolean flush() throws IOException {
+		this.writeLock.lock();
+		try {
+			if(this.netOut == null) {
+				return true;
+			}
+			if(!this.flushNetOut()) {
+				return false;
+			}
+			while(this.engine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP) {
+				final SSLEngineResult result = this.wrap(empty);
+				if(result == null || !this.flushNetOut()) {
+					return false;
+				}
+				if(result.getStatus() == SSLEngineResult.Status.CLOSED) {
+					break;
+				}
+			}
+			if(this.readAfterFlush) {
+				this.readAfterFlush = false;
+				this.pendingInput = true;
+			}
+			return true;
+		} finally {
+			this.writeLock.unlock();
+		}
+	}
+	
+	/** Encrypts and writes as much of the given data as possible without
+	 * blocking. During a handshake, this sends the engine's handshake data
+	 * first and consumes nothing while waiting for the other end.
+	 * 
+	 * @param src The data to write
+	 * @return The number of bytes consumed from the buffer, possibly 0
+	 * @throws IOException Thrown if an I/O error occurs, or if this channel is
+	 *             closed */
+	@Override
+	public final int write(ByteBuffer src) throws IOException {
+		this.writeLock.lock();
+		try {
+			if(this.netOut == null || this.engine.isOutboundDone()) {
+				throw new ClosedChannelException();
+			}
+			if(!this.flushNetOut()) {
+				return 0;
+			}
+			int consumed = 0;
+			while(src.hasRemaining()) {
+				final SSLEngineResult result = this.wrap(src);
+				if(result == null) {
+					break;
+				}
+				consumed += result.bytesConsumed();
+				if(result.getStatus() == SSLEngineResult.Status.CLOSED) {
+					if(consumed == 0) {
+						throw new ClosedChannelException();
+					}
+					break;
+				}
+				if(!this.flushNetOut() || (result.bytesConsumed() == 0 && result.bytesProduced() == 0)) {
+					break;
+				}
+			}
+			return consumed;
+		} finally {
+			this.writeLock.unlock();
+		}
+	}
+	
+	/** Copies decrypted data that didn't fit into an earlier caller's buffer.
+	 * Must be called while holding the read lock. */
+	private final int drainAppIn(ByteBuffer dst) {
+		final ByteBuffer appIn = this.appIn;
+		if(appIn == null || !appIn.hasRemaining() || !dst.hasRemaining()) {
+			return 0;
+		}
+		final int count = Math.min(appIn.remaining(), dst.remaining());
+		final int limit = appIn.limit();
+		appIn.limit(appIn.position() + count);
+		dst.put(appIn);
+		appIn.limit(limit);
+		return count;
+	}
+	
+	/** Reads and decrypts as much data as is available without blocking,
+	 * carrying on with any handshake along the way. The channel should be
+	 * read from again without waiting for it to be selected while
+	 * {@link #hasBufferedData()} returns {@code true}.
+	 * 
+	 * @param dst The buffer to read into
+	 * @return The number of bytes read, possibly 0, or -1 if the other end
+	 *         has closed the connection
+	 * @throws IOException Thrown if an I/O error occurs, or if this channel is
+	 *             closed */
+	@Override
+	public final int read(ByteBuffer dst) throws IOException {
+		this.readLock.lock();
+		try {
+			if(this.closed) {
+				throw new ClosedChannelException();
+			}
+			int total = this.drainAppIn(dst);
+			boolean waiting = false;
+			while((dst.hasRemaining() || !this.canWrite()) && !this.inboundDone) {
+				final HandshakeStatus status = this.engine.getHandshakeStatus();
+				if(status == HandshakeStatus.NEED_TASK) {
+					this.runDelegatedTasks();
+					continue;
+				}
+				if(status == HandshakeStatus.NEED_WRAP) {
+					if(!this.flush()) {
+						waiting = true;
+						this.readAfterFlush = true;
+						break;//Carry on once the handshake data has been written
+					}
+					continue;
+				}
+				if(this.appIn != null && this.appIn.hasRemaining()) {
+					break;//The caller's buffer is full and the handshake has to wait for it
+				}
+				final int appBufferSize = this.engine.getSession().getApplicationBufferSize();
+				final boolean direct = dst.remaining() >= appBufferSize;
+				ByteBuffer target = dst;
+				if(!direct) {
+					if(this.appIn == null || this.appIn.capacity() < appBufferSize) {
+						releaseBuffer(this.appIn);
+						this.appIn = acquireBuffer(appBufferSize);
+					}
+					target = this.appIn;
+					target.clear();
+				}
+				this.netIn.flip();
+				final SSLEngineResult result;
+				try {
+					result = this.engine.unwrap(this.netIn, target);
+				} finally {
+					this.netIn.compact();
+					if(!direct) {
+						target.flip();
+					}
+				}
+				total += direct ? result.bytesProduced() : this.drainAppIn(dst);
+				if(result.getHandshakeStatus() == HandshakeStatus.FINISHED) {
+					this.handshakeComplete = true;
+				}
+				switch(result.getStatus()) {
+				case CLOSED://The other end sent a close_notify; answer it
+					this.inboundDone = true;
+					this.writeLock.lock();
+					try {
+						this.engine.closeOutbound();
+						this.flush();
+					} finally {
+						this.writeLock.unlock();
+					}
+					break;
+				case BUFFER_UNDERFLOW:
+					if(!this.netIn.hasRemaining()) {//A record larger than the buffer
+						final ByteBuffer larger = acquireBuffer(Math.max(this.engine.getSession().getPacketBufferSize(), this.netIn.capacity() + 1));
+						this.netIn.flip();
+						larger.put(this.netIn);
+						releaseBuffer(this.netIn);
+						this.netIn = larger;
+					}
+					final int read = this.channel.read(this.netIn);
+					if(read == -1) {
+						this.inboundDone = true;
+						try {
+							this.engine.closeInbound();
+						} catch(SSLException ignored) {//Closed without a close_notify(possibly truncated); nothing more will be read either way
+						}
+						break;
+					}
+					if(read == 0) {
+						waiting = true;
+					}
+					break;
+				case BUFFER_OVERFLOW://The session's application buffer size went up; the next pass uses a larger buffer
+				case OK:
+				default:
+					break;
+				}
+				if(waiting) {
+					break;
+				}
+			}
+			this.pendingInput = !waiting && ((this.appIn != null && this.appIn.hasRemaining()) || (!this.inboundDone && this.netIn.position() > 0));
+			return total == 0 && this.inboundDone && (this.appIn == null || !this.appIn.hasRemaining()) ? -1 : total;
+		} finally {
+			if(this.closed) {
+				this.releaseReadBuffers();
+			}
+			this.readLock.unlock();
+		}
+	}
+	
+	/** Progresses the handshake as far as possible without blocking(e.g. to
+	 * send a client's ClientHello before it has anything to write).
+	 * 
+	 * @return Whether or not the engine is no longer handshaking
+	 * @throws IOException Thrown if an I/O error occurs */
+	public final boolean handshake() throws IOException {
+		this.flush();
+		if(!this.canWrite()) {
+			this.read(empty);
+		}
+		return this.engine.getHandshakeStatus() == HandshakeStatus.NOT_HANDSHAKING;
+	}
+	
+	/** Starts a new handshake on an established connection(a renegotiation
+	 * for TLS 1.2 and earlier, or a key update for TLS 1.3). The handshake is
+	 * carried out by the following reads and writes.
+	 * 
+	 * @throws IOException Thrown if an I/O error occurs */
+	public final void renegotiate() throws IOException {
+		this.writeLock.lock();
+		try {
+			this.engine.beginHandshake();
+			this.flush();
+		} finally {
+			this.writeLock.unlock();
+		}
+	}
+	
+	private final void releaseReadBuffers() {
+		releaseBuffer(this.netIn);
+		releaseBuffer(this.appIn);
+		this.netIn = null;
+		this.appIn = null;
+	}
+	
+	/** Sends a close_notify(as far as possible without blocking), closes the
+	 * underlying channel and gives this channel's buffers back to the
+	 * pool. */
+	@Override
+	public final void close() throws IOException {
+		if(this.closed) {
+			return;
+		}
+		this.closed = true;
+		try {
+			this.writeLock.lock();
+			try {
+				try {
+					this.engine.closeOutbound();
+					this.flush();
+				} catch(IOException ignored) {//Best effort; the other end may already be gone
+				}
+				releaseBuffer(this.netOut);
+				this.netOut = null;
+			} finally {
+				this.writeLock.unlock();
+			}
+		} finally {
+			this.channel.close();
+			if(this.readLock.tryLock()) {//Otherwise the reader gives them back when it is done
+				try {
+					this.releaseReadBuffers();
+				} finally {
+					this.readLock.unlock();
+				}
+			}
+		}
+	}
+	
+	@Override
+	public final String toString() {
+		return "SSLChannel[" + this.channel + ", " + this.engine.getHandshakeStatus() + (this.closed ? ", closed" : "") + "]";
+	}
+	
+	//=============================================
+	
+	/** Runs a TLS echo server and client over loopback, once with TLS 1.2
+	 * and once with the newest protocol that both ends support: the server
+	 * accepts connections itself and hands them to a {@link PacketServer}
+	 * with {@link PacketServer#adopt(SocketChannel, ByteBuffer, SSLContext)},
+	 * and the client connects with
+	 * {@link PacketClient#connect(InetSocketAddress, PacketHandler, SSLContext)}.
+	 * The client pipelines packets of mixed sizes(from a few bytes up to
+	 * {@link Packet#maxSize}) in two halves with a renegotiation in between,
+	 * checks that every echo comes back intact and in order, then closes the
+	 * connection with a close_notify.
+	 * 
+	 * @param args Program command line arguments: [packets] [key store file]
+	 *            [key store password](a temporary key store with a
+	 *            self-signed certificate is created when none is given)
+	 * @throws Exception Thrown if the demo fails */
+	public static final void main(String[] args) throws Exception {
+		final int count = args.length > 0 && StringUtil.isStrInt(args[0]) ? Math.max(2, Integer.parseInt(args[0])) : 2000;
+		final String password = args.length > 2 ? args[2] : "SSLChannel";
+		final File keyStoreFile = args.length > 1 ? new File(args[1]) : SSLHandshakeBenchmark.createKeyStore(password);
+		for(String protocol : new String[] {"TLSv1.2", "TLS"}) {
+			final SSLContext[] contexts = SSLHandshakeBenchmark.createContexts(keyStoreFile, password, protocol);
+			echo(contexts[0], contexts[1], count);
+		}
+	}
+	
+	private static final void echo(final SSLContext serverContext, SSLContext clientContext, int count) throws Exception {
+		final CountDownLatch serverClosed = new CountDownLatch(1);
+		final AtomicReference<Throwable> serverCloseCause = new AtomicReference<>();
+		try(final PacketServer server = new PacketServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), new PacketHandler() {
+			@Override
+			public final void onConnect(PacketConnection connection) {
+			}
+			
+			@Override
+			public final void onPacket(PacketConnection connection, Packet packet) throws IOException {
+				connection.send(packet);//echo
+			}
+			
+			@Override
+			public final void onDisconnect(PacketConnection connection, Throwable cause) {
+				serverCloseCause.set(cause);
+				serverClosed.countDown();
+			}
+		}).start(); final ServerSocketChannel listener = ServerSocketChannel.open(); final PacketClient client = new PacketClient()) {
+			listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			final Thread acceptor = new Thread(new Runnable() {
+				@Override
+				public final void run() {
+					try {
+						while(listener.isOpen()) {
+							server.adopt(listener.accept(), null, serverContext);
+						}
+					} catch(IOException e) {
+						if(listener.isOpen()) {
+							e.printStackTrace();
+						}
+					}
+				}
+			}, "SSLChannel-demo-acceptor");
+			acceptor.setDaemon(true);
+			acceptor.start();
+			
+			final ConcurrentLinkedQueue<byte[]> expected = new ConcurrentLinkedQueue<>();
+			final AtomicInteger received = new AtomicInteger(0), mismatches = new AtomicInteger(0);
+			final CountDownLatch firstHalf = new CountDownLatch(count / 2), echoed = new CountDownLatch(count);
+			final PacketConnection connection = client.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), ((InetSocketAddress) listener.getLocalAddress()).getPort()), new PacketHandler() {
+				@Override
+				public final void onConnect(PacketConnection connection) {
+				}
+				
+				@Override
+				public final void onPacket(PacketConnection connection, Packet packet) {
+					if(!Arrays.equals(packet.getBackingData(), expected.poll())) {
+						mismatches.incrementAndGet();
+					}
+					received.incrementAndGet();
+					firstHalf.countDown();
+					echoed.countDown();
+				}
+				
+				@Override
+				public final void onDisconnect(PacketConnection connection, Throwable cause) {
+					while(echoed.getCount() > 0) {//Don't wait for echoes that will never come
+						firstHalf.countDown();
+						echoed.countDown();
+					}
+				}
+			}, clientContext);
+			
+			final Random random = new Random(1337L);
+			final long startTime = System.nanoTime();
+			long bytes = 0;
+			SSLSession session = null;
+			for(int i = 0; i < count; i++) {
+				if(i == count / 2) {//Wait for the first half, so that the renegotiation doesn't just become part of the initial handshake
+					firstHalf.await(30L, TimeUnit.SECONDS);
+					session = connection.getSSLSession();
+					connection.renegotiate();
+				}
+				final long[] values = new long[random.nextInt(4) == 0 ? 1 + random.nextInt(Packet.maxSize / 8) : 1 + random.nextInt(8)];//Mostly small packets, with some large ones mixed in
+				for(int j = 0; j < values.length; j++) {
+					values[j] = random.nextLong();
+				}
+				final Packet packet = new Packet(values);
+				expected.add(packet.getBackingData());
+				connection.send(packet);
+				bytes += values.length * 8L;
+			}
+			final boolean complete = echoed.await(30L, TimeUnit.SECONDS) && received.get() == count;
+			final long elapsed = System.nanoTime() - startTime;
+			final String protocol = session == null ? "?" : session.getProtocol();
+			System.out.println(protocol + " " + (session == null ? "" : session.getCipherSuite()) + ":");
+			System.out.println("  Renegotiated halfway through(" + ("TLSv1.3".equals(protocol) ? "a key update, as TLS 1.3 has no renegotiation" : "a new handshake, " + (connection.getSSLSession() != session ? "with a new session" : "resuming the session")) + ")");
+			System.out.println("  " + received.get() + " of " + count + " packets(" + bytes + " bytes) echoed in " + TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms; " + mismatches.get() + " mismatched" + (complete && mismatches.get() == 0 ? "" : "; FAILED"));
+			
+			connection.close();
+			final boolean closed = serverClosed.await(5L, TimeUnit.SECONDS);
+			System.out.println("  Server side after close(): " + (!closed ? "still open; FAILED" : serverCloseCause.get() == null ? "closed cleanly by the client's close_notify" : "closed with " + serverCloseCause.get()));
+		}
+	}
+	
+}
@@ -0,0 +1,210 @@
+package com.gmail.br45entei.data.serverIO;
+
+import com.gmail.br45entei.util.StringUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+/** Measures the cost of setting up TLS connections with
+ * {@link SSLSocketFactoryEx} over loopback: full handshakes(the client's
+ * cached session is invalidated after every connection) versus resumed ones
+ * (the default, tunable with
+ * {@link SSLSocketFactoryEx#configureSessionCache(int, int, int, int)}),
+ * reporting the wall clock time and the client and server CPU time per
+ * connection, along with how long creating a factory takes now that the
+ * protocol and cipher lists are cached per context.
+ * 
+ * @author Brian_Entei */
+public class SSLHandshakeBenchmark {
+	
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	
+	private static final class Result {
+		long wallTime = 0, clientCPU = 0, serverCPU = 0;
+		int resumed = 0;
+		String protocol, cipherSuite;
+	}
+	
+	private static final class EchoServer implements Runnable {
+		final SSLServerSocket server;
+		volatile long cpuTime = 0;
+		
+		EchoServer(SSLServerSocket server) {
+			this.server = server;
+		}
+		
+		@Override
+		public final void run() {
+			while(!this.server.isClosed()) {
+				try(Socket socket = this.server.accept()) {
+					final InputStream in = socket.getInputStream();
+					final OutputStream out = socket.getOutputStream();
+					int b;
+					while((b = in.read()) != -1) {
+						out.write(b);
+						out.flush();
+					}
+				} catch(IOException ignored) {
+				}
+				this.cpuTime = threads.getCurrentThreadCpuTime();
+			}
+		}
+	}
+	
+	private static final Result connect(SSLSocketFactoryEx factory, EchoServer echo, int connections, boolean invalidate) throws IOException {
+		final Result result = new Result();
+		final String host = InetAddress.getLoopbackAddress().getHostAddress();
+		final int port = echo.server.getLocalPort();
+		factory.invalidateSessions(host, port);
+		byte[] lastID = null;
+		final long serverCPU = echo.cpuTime, clientCPU = threads.getCurrentThreadCpuTime(), startTime = System.nanoTime();
+		for(int i = 0; i < connections; i++) {
+			try(SSLSocket socket = (SSLSocket) factory.createSocket(host, port)) {
+				socket.setTcpNoDelay(true);
+				final OutputStream out = socket.getOutputStream();
+				out.write(i & 0x7F);
+				out.flush();
+				if(socket.getInputStream().read() != (i & 0x7F)) {
+					throw new IOException("Echo mismatch!");
+				}
+				final SSLSession session = socket.getSession();
+				if(lastID != null && Arrays.equals(lastID, session.getId())) {
+					result.resumed++;
+				}
+				lastID = session.getId();
+				result.protocol = session.getProtocol();
+				result.cipherSuite = session.getCipherSuite();
+			}
+			if(invalidate) {
+				factory.invalidateSessions(host, port);
+			}
+		}
+		result.wallTime = System.nanoTime() - startTime;
+		result.clientCPU = threads.getCurrentThreadCpuTime() - clientCPU;
+		long serverEnd = echo.cpuTime;
+		for(int i = 0; i < 100 && serverEnd == serverCPU && connections > 0; i++) {//Let the server finish with the last connection
+			Thread.yield();
+			serverEnd = echo.cpuTime;
+		}
+		result.serverCPU = serverEnd - serverCPU;
+		return result;
+	}
+	
+	private static final void print(String name, Result result, int connections) {
+		System.out.println(String.format("%-18s %10d %12d %12d %9d/%d  %s %s", name, Long.valueOf(TimeUnit.NANOSECONDS.toMicros(result.wallTime / connections)), Long.valueOf(TimeUnit.NANOSECONDS.toMicros(result.clientCPU / connections)), Long.valueOf(TimeUnit.NANOSECONDS.toMicros(result.serverCPU / connections)), Integer.valueOf(result.resumed), Integer.valueOf(connections - 1), result.protocol, result.cipherSuite));
+	}
+	
+	/** Creates a temporary key store with a self-signed RSA certificate using
+	 * the JDK's keytool.
+	 * 
+	 * @param password The password to protect the key store and key with
+	 * @return The key store file
+	 * @throws IOException Thrown if keytool failed */
+	static final File createKeyStore(String password) throws IOException {
+		final File file = File.createTempFile("SSLHandshakeBenchmark", ".jks");
+		if(!file.delete()) {
+			throw new IOException("Unable to delete the temporary file \"" + file.getAbsolutePath() + "\"!");
+		}
+		file.deleteOnExit();
+		final String keytool = new File(new File(System.getProperty("java.home"), "bin"), "keytool").getAbsolutePath();
+		Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "benchmark", "-keyalg", "RSA", "-keysize", "2048", "-dname", "CN=localhost", "-validity", "1", "-storetype", "JKS", "-keystore", file.getAbsolutePath(), "-storepass", password, "-keypass", password).redirectErrorStream(true).start();
+		try {
+			if(process.waitFor() != 0 || !file.isFile()) {
+				throw new IOException("keytool exited with code " + process.exitValue());
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for keytool", e);
+		}
+		return file;
+	}
+	
+	/** @param keyStoreFile The key store holding the server's certificate
+	 *            (which must be self-signed, as the client trusts it
+	 *            directly)
+	 * @param password The key store's password
+	 * @param clientProtocol The protocol to create the client's context for
+	 *            (e.g. {@code "TLSv1.2"} to keep the client from offering
+	 *            anything newer), or {@code "TLS"}
+	 * @return The server's context, followed by a client context that trusts
+	 *         the server's certificate
+	 * @throws IOException Thrown if the key store could not be read
+	 * @throws GeneralSecurityException Thrown if the contexts could not be
+	 *             created */
+	static final SSLContext[] createContexts(File keyStoreFile, String password, String clientProtocol) throws IOException, GeneralSecurityException {
+		final KeyStore keyStore = KeyStore.getInstance(keyStoreFile.getName().toLowerCase().endsWith(".p12") || keyStoreFile.getName().toLowerCase().endsWith(".pfx") ? "PKCS12" : "JKS");
+		try(FileInputStream in = new FileInputStream(keyStoreFile)) {
+			keyStore.load(in, password.toCharArray());
+		}
+		final KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keys.init(keyStore, password.toCharArray());
+		final TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		trust.init(keyStore);//The certificate is self-signed, so the client just trusts it directly
+		
+		final SSLContext serverContext = SSLContext.getInstance("TLS");
+		serverContext.init(keys.getKeyManagers(), null, null);
+		final SSLContext clientContext = SSLContext.getInstance(clientProtocol);
+		clientContext.init(null, trust.getTrustManagers(), null);
+		return new SSLContext[] {serverContext, clientContext};
+	}
+	
+	/** @param args Program command line arguments: [connections] [key store
+	 *            file] [key store password](a temporary key store is
+	 *            created when none is given)
+	 * @throws Exception Thrown if the benchmark fails */
+	public static final void main(String[] args) throws Exception {
+		final int connections = args.length > 0 && StringUtil.isStrInt(args[0]) ? Math.max(2, Integer.parseInt(args[0])) : 200;
+		final String password = args.length > 2 ? args[2] : "benchmark";
+		final File keyStoreFile = args.length > 1 ? new File(args[1]) : createKeyStore(password);
+		final SSLContext[] contexts = createContexts(keyStoreFile, password, "TLS");
+		final SSLContext serverContext = contexts[0], clientContext = contexts[1];
+		
+		long startTime = System.nanoTime();
+		final SSLSocketFactoryEx factory = SSLSocketFactoryEx.withSessionCache(clientContext, 1000, 3600, 1000, 3600);
+		final long firstFactory = System.nanoTime() - startTime;
+		startTime = System.nanoTime();
+		for(int i = 0; i < 1000; i++) {
+			new SSLSocketFactoryEx(clientContext);
+		}
+		final long cachedFactory = (System.nanoTime() - startTime) / 1000;
+		new SSLSocketFactoryEx(serverContext).configureSessionCache(1000, 3600, 1000, 3600);
+		
+		try(SSLServerSocket server = (SSLServerSocket) serverContext.getServerSocketFactory().createServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+			final EchoServer echo = new EchoServer(server);
+			Thread thread = new Thread(echo, "SSLHandshakeBenchmark-server");
+			thread.setDaemon(true);
+			thread.start();
+			
+			connect(factory, echo, Math.max(2, connections / 4), true);//Warm up
+			connect(factory, echo, Math.max(2, connections / 4), false);
+			
+			System.out.println("Factory creation: first for the context: " + TimeUnit.NANOSECONDS.toMicros(firstFactory) + "us; after that: " + TimeUnit.NANOSECONDS.toMicros(cachedFactory) + "us");
+			System.out.println(String.format("%-18s %10s %12s %12s %11s  %s", "mode", "wall(us)", "client(us)", "server(us)", "resumed", "protocol/cipher"));
+			final Result full = connect(factory, echo, connections, true);
+			print("full handshake", full, connections);
+			final Result resumed = connect(factory, echo, connections, false);
+			print("resumed session", resumed, connections);
+			final long fullCPU = full.clientCPU + full.serverCPU, resumedCPU = resumed.clientCPU + resumed.serverCPU;
+			System.out.println("Handshake CPU per connection: " + TimeUnit.NANOSECONDS.toMicros(fullCPU / connections) + "us -> " + TimeUnit.NANOSECONDS.toMicros(resumedCPU / connections) + "us(" + String.format("%.1f", Double.valueOf(fullCPU / (double) Math.max(1L, resumedCPU))) + "x less)");
+		}
+	}
+	
+}
@@ -1,17 +1,36 @@
 package com.gmail.br45entei.data.serverIO;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.security.GeneralSecurityException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
@@ -26,6 +45,13 @@ public final class SSLSocketFactoryEx extends SSLSocketFactory {
 		for(String cipher : cipherSuites) {
 			System.out.println("\t\t\t\t\"" + cipher + "\",//");
 		}
+		
+		SSLSocketFactoryEx ordered = withMeasuredCipherOrder(context);
+		System.out.println();
+		System.out.println("Cipher order: " + ordered.getCipherOrderDescription());
+		for(String cipher : ordered.getDefaultCipherSuites()) {
+			System.out.println("\t" + cipher);
+		}
 	}
 	
 	private static volatile SSLSocketFactoryEx instance;
@@ -41,10 +67,163 @@ public final class SSLSocketFactoryEx extends SSLSocketFactory {
 		return instance;
 	}
 	
+	/** The protocol and cipher lists of each context, so that they are only
+	 * computed once no matter how many factories share the context */
+	private static final Map<SSLContext, String[][]> contextLists = new WeakHashMap<>();
+	
 	private SSLContext m_ctx;
 	
 	private String[] m_ciphers;
 	private String[] m_protocols;
+	private boolean m_useCipherOrder = false;
+	private String m_cipherOrderDescription = "Not ordered by speed";
+	
+	/** The name of the AES-GCM transformation that is measured by
+	 * {@link #measureCipherSpeeds(long)} */
+	public static final String AES_GCM = "AES/GCM/NoPadding";
+	/** The name of the ChaCha20-Poly1305 transformation that is measured by
+	 * {@link #measureCipherSpeeds(long)}(available since Java 11) */
+	public static final String CHACHA20_POLY1305 = "ChaCha20-Poly1305";
+	/** How long {@link #getCipherSpeeds()} measures each cipher for, in
+	 * milliseconds */
+	public static final long defaultMeasureMillis = 200L;
+	
+	/** The AEAD suites that {@link #orderCiphersBySpeed()} puts first, grouped
+	 * by key exchange(TLS 1.3 first): the AES-GCM suites, then the
+	 * ChaCha20-Poly1305 ones */
+	private static final String[][][] aeadSuites = {//
+			{{"TLS_AES_128_GCM_SHA256", "TLS_AES_256_GCM_SHA384"}, {"TLS_CHACHA20_POLY1305_SHA256"}},//
+			{{"TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256", "TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384"}, {"TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256"}},//
+			{{"TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256", "TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384"}, {"TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256"}},//
+			{{"TLS_DHE_RSA_WITH_AES_128_GCM_SHA256", "TLS_DHE_RSA_WITH_AES_256_GCM_SHA384"}, {"TLS_DHE_RSA_WITH_CHACHA20_POLY1305_SHA256"}}};
+	
+	private static volatile Map<String, Double> cipherSpeeds = null;
+	
+	/** Encrypts full sized TLS records with one cipher for speed tests */
+	private static final class CipherSpeedTest {
+		final String transformation;
+		final boolean aes;
+		final Cipher cipher;
+		final SecretKeySpec key;
+		final byte[] record = new byte[0x4000], out = new byte[0x4000 + 16], header = new byte[13], nonce = new byte[12];
+		long counter = 0;
+		
+		CipherSpeedTest(String transformation) throws GeneralSecurityException {
+			this.transformation = transformation;
+			this.aes = AES_GCM.equals(transformation);
+			this.cipher = Cipher.getInstance(transformation);
+			this.key = new SecretKeySpec(new byte[this.aes ? 16 : 32], this.aes ? "AES" : "ChaCha20");
+		}
+		
+		/** @param millis How long to encrypt for
+		 * @param length The length of the records to encrypt(at most 16KB)
+		 * @return The speed, in MB/s */
+		final double run(long millis, int length) throws GeneralSecurityException {
+			long bytes = 0, now;
+			final long startTime = System.nanoTime(), endTime = startTime + TimeUnit.MILLISECONDS.toNanos(Math.max(1L, millis));
+			do {
+				this.counter++;//Neither cipher may be reused with the same key and nonce
+				for(int i = 0; i < 8; i++) {
+					this.nonce[4 + i] = (byte) (this.counter >>> (56 - (i * 8)));
+				}
+				this.cipher.init(Cipher.ENCRYPT_MODE, this.key, this.aes ? new GCMParameterSpec(128, this.nonce) : new IvParameterSpec(this.nonce));
+				this.cipher.updateAAD(this.header);
+				this.cipher.doFinal(this.record, 0, length, this.out, 0);
+				bytes += length;
+			} while((now = System.nanoTime()) < endTime);
+			return (bytes / 1048576.0D) / ((now - startTime) / 1000000000.0D);
+		}
+	}
+	
+	/** The most warm up rounds that {@link #measureCipherSpeeds(long)} runs
+	 * before measuring anyway */
+	private static final int maxWarmUpRounds = 40;
+	
+	/** Measures the bulk encryption speed of {@link #AES_GCM} and
+	 * {@link #CHACHA20_POLY1305} on this JVM and CPU(which can differ by
+	 * several times either way, depending on whether the CPU has AES
+	 * instructions and whether the JVM uses them), by encrypting full sized
+	 * TLS records.<br>
+	 * Both ciphers are first warmed up in short rounds until their speeds stop
+	 * changing and the JIT compiler has gone idle, since the compiled code(and
+	 * intrinsics) for them only kicks in after a while; a fixed warm up time
+	 * can easily pick the wrong cipher, especially with few processors. The
+	 * warm up encrypts small records, which gets them compiled several times
+	 * sooner than full sized ones.
+	 * 
+	 * @param millis How long to measure each cipher for
+	 * @return The speed of each available cipher, in MB/s */
+	public static final Map<String, Double> measureCipherSpeeds(long millis) {
+		final List<CipherSpeedTest> tests = new ArrayList<>();
+		for(String transformation : new String[] {AES_GCM, CHACHA20_POLY1305}) {
+			try {
+				tests.add(new CipherSpeedTest(transformation));
+			} catch(GeneralSecurityException ignored) {//Not supported by this JVM
+			}
+		}
+		final Map<String, Double> speeds = new LinkedHashMap<>();
+		final CompilationMXBean jit = ManagementFactory.getCompilationMXBean();
+		final boolean jitTimed = jit != null && jit.isCompilationTimeMonitoringSupported();
+		try {
+			final long roundMillis = Math.max(1L, millis / 4L);
+			final double[] last = new double[tests.size()];
+			final int[] stableRounds = new int[tests.size()];
+			int idleRounds = 0;
+			for(int round = 0; round < maxWarmUpRounds; round++) {
+				final long compileTime = jitTimed ? jit.getTotalCompilationTime() : 0L;
+				boolean stable = true;
+				for(int i = 0; i < tests.size(); i++) {
+					final CipherSpeedTest test = tests.get(i);
+					test.run(roundMillis, 0x400);
+					final double speed = test.run(Math.max(1L, roundMillis / 2L), test.record.length);
+					stableRounds[i] = Math.abs(speed - last[i]) <= last[i] * 0.1D ? stableRounds[i] + 1 : 0;
+					last[i] = speed;
+					stable &= stableRounds[i] >= 2;
+				}
+				idleRounds = !jitTimed || jit.getTotalCompilationTime() == compileTime ? idleRounds + 1 : 0;
+				if(stable && idleRounds >= 2) {
+					break;
+				}
+			}
+			for(CipherSpeedTest test : tests) {
+				speeds.put(test.transformation, Double.valueOf(test.run(millis, test.record.length)));
+			}
+		} catch(GeneralSecurityException | RuntimeException e) {
+			speeds.clear();//Leave the order alone rather than trust a partial measurement
+		}
+		return Collections.unmodifiableMap(speeds);
+	}
+	
+	/** Returns the cipher speeds measured by
+	 * {@link #measureCipherSpeeds(long)}. The first call measures them, which
+	 * blocks the calling thread for a few seconds(longer with few processors
+	 * or while the JIT is still busy), so avoid making it on a latency
+	 * sensitive thread such as a selector loop; later calls return the cached
+	 * result right away.
+	 * 
+	 * @return The measured cipher speeds, in MB/s, keyed by cipher */
+	public static final Map<String, Double> getCipherSpeeds() {
+		Map<String, Double> speeds = cipherSpeeds;
+		if(speeds == null) {
+			synchronized(SSLSocketFactoryEx.class) {
+				speeds = cipherSpeeds;
+				if(speeds == null) {
+					cipherSpeeds = speeds = measureCipherSpeeds(defaultMeasureMillis);
+				}
+			}
+		}
+		return speeds;
+	}
+	
+	/** Creates a factory for the given context whose cipher suites are ordered
+	 * by {@link #orderCiphersBySpeed()}. The first call blocks for a few
+	 * seconds, as described in {@link #getCipherSpeeds()}.
+	 * 
+	 * @param ctx The context to use
+	 * @return The new factory */
+	public static final SSLSocketFactoryEx withMeasuredCipherOrder(SSLContext ctx) {
+		return new SSLSocketFactoryEx(ctx).orderCiphersBySpeed();
+	}
 	
 	public SSLSocketFactoryEx() throws NoSuchAlgorithmException, KeyManagementException {
 		initSSLSocketFactoryEx(null, null, null);
@@ -58,33 +237,190 @@ public final class SSLSocketFactoryEx extends SSLSocketFactory {
 		initSSLSocketFactoryEx(ctx);
 	}
 	
+	/** Creates a factory for the given context with its session caches
+	 * tuned for repeated connections: resuming a cached session skips the
+	 * key exchange and certificate verification of a full handshake, which
+	 * is most of a handshake's CPU time.
+	 * 
+	 * @param ctx The context to use
+	 * @param clientCacheSize The number of client sessions to cache(0 for no
+	 *            limit)
+	 * @param clientTimeout How long client sessions may be resumed for, in
+	 *            seconds(0 for no limit)
+	 * @param serverCacheSize The number of server sessions to cache(0 for no
+	 *            limit)
+	 * @param serverTimeout How long server sessions may be resumed for, in
+	 *            seconds(0 for no limit)
+	 * @return The new factory */
+	public static final SSLSocketFactoryEx withSessionCache(SSLContext ctx, int clientCacheSize, int clientTimeout, int serverCacheSize, int serverTimeout) {
+		return new SSLSocketFactoryEx(ctx).configureSessionCache(clientCacheSize, clientTimeout, serverCacheSize, serverTimeout);
+	}
+	
+	/** Sets the sizes and timeouts of this factory's context's session
+	 * caches. The caches belong to the context, so this affects every factory
+	 * and socket that uses it.
+	 * 
+	 * @param clientCacheSize The number of client sessions to cache(0 for no
+	 *            limit)
+	 * @param clientTimeout How long client sessions may be resumed for, in
+	 *            seconds(0 for no limit)
+	 * @param serverCacheSize The number of server sessions to cache(0 for no
+	 *            limit)
+	 * @param serverTimeout How long server sessions may be resumed for, in
+	 *            seconds(0 for no limit)
+	 * @return This factory */
+	public final SSLSocketFactoryEx configureSessionCache(int clientCacheSize, int clientTimeout, int serverCacheSize, int serverTimeout) {
+		if(clientCacheSize < 0 || clientTimeout < 0 || serverCacheSize < 0 || serverTimeout < 0) {
+			throw new IllegalArgumentException("Session cache sizes and timeouts cannot be negative!");
+		}
+		SSLSessionContext client = this.m_ctx.getClientSessionContext();
+		if(client != null) {
+			client.setSessionCacheSize(clientCacheSize);
+			client.setSessionTimeout(clientTimeout);
+		}
+		SSLSessionContext server = this.m_ctx.getServerSessionContext();
+		if(server != null) {
+			server.setSessionCacheSize(serverCacheSize);
+			server.setSessionTimeout(serverTimeout);
+		}
+		return this;
+	}
+	
+	/** Puts the AEAD suites that this factory already enables first, with
+	 * the ChaCha20-Poly1305 suites ahead of the AES-GCM ones for each key
+	 * exchange if ChaCha20-Poly1305 {@link #getCipherSpeeds() measured}
+	 * faster on this machine, and behind them otherwise. The rest of the
+	 * suites follow in their usual order. Only the order changes; no suite
+	 * is enabled that wasn't already. Sockets in server mode then pick
+	 * suites in this order rather than in the client's.<br>
+	 * The first call blocks for a few seconds while the cipher speeds are
+	 * measured(see {@link #getCipherSpeeds()}).<br>
+	 * The order that was chosen, and why, is available from
+	 * {@link #getCipherOrderDescription()}.
+	 * 
+	 * @return This factory */
+	public final SSLSocketFactoryEx orderCiphersBySpeed() {
+		final Map<String, Double> speeds = getCipherSpeeds();
+		final Double aes = speeds.get(AES_GCM), chacha = speeds.get(CHACHA20_POLY1305);
+		final boolean chachaFirst = chacha != null && (aes == null || chacha.doubleValue() > aes.doubleValue());
+		final String[] enabled = this.m_ciphers.clone();
+		Arrays.sort(enabled);
+		
+		final LinkedHashSet<String> order = new LinkedHashSet<>();
+		for(String[][] group : aeadSuites) {
+			for(String suite : group[chachaFirst ? 1 : 0]) {
+				if(Arrays.binarySearch(enabled, suite) >= 0) order.add(suite);
+			}
+			for(String suite : group[chachaFirst ? 0 : 1]) {
+				if(Arrays.binarySearch(enabled, suite) >= 0) order.add(suite);
+			}
+		}
+		boolean scsv = false;
+		for(String suite : this.m_ciphers) {
+			if(suite.equals("TLS_EMPTY_RENEGOTIATION_INFO_SCSV")) {
+				scsv = true;
+			} else {
+				order.add(suite);
+			}
+		}
+		if(scsv) {
+			order.add("TLS_EMPTY_RENEGOTIATION_INFO_SCSV");//Not a real suite; keep it last
+		}
+		
+		this.m_ciphers = order.toArray(new String[order.size()]);
+		this.m_useCipherOrder = true;
+		this.m_cipherOrderDescription = String.format("%s: %s, %s: %s -> %s suites first", AES_GCM, aes == null ? "unavailable" : String.format("%.1fMB/s", aes), CHACHA20_POLY1305, chacha == null ? "unavailable" : String.format("%.1fMB/s", chacha), chachaFirst ? "ChaCha20-Poly1305" : "AES-GCM");
+		return this;
+	}
+	
+	/** @return A description of how this factory's cipher suites were
+	 *         ordered, for diagnostics(the order itself is returned by
+	 *         {@link #getDefaultCipherSuites()}) */
+	public final String getCipherOrderDescription() {
+		return this.m_cipherOrderDescription;
+	}
+	
+	/** @return The context that this factory creates its sockets with */
+	public final SSLContext getContext() {
+		return this.m_ctx;
+	}
+	
+	/** Sessions are resumed per host: a new client socket is offered the
+	 * cached session of the host and port that it connects to(which is why
+	 * {@link #createSocket(Socket, String, int, boolean)} fills in the
+	 * layered socket's address when no host is given).
+	 * 
+	 * @param host The peer's host name or address, as it was given when
+	 *            connecting
+	 * @param port The peer's port, or -1 for any port
+	 * @return The cached client sessions for the given host */
+	public final List<SSLSession> getCachedSessions(String host, int port) {
+		List<SSLSession> sessions = new ArrayList<>();
+		SSLSessionContext client = this.m_ctx.getClientSessionContext();
+		if(client == null || host == null) {
+			return sessions;
+		}
+		for(Enumeration<byte[]> ids = client.getIds(); ids.hasMoreElements();) {
+			SSLSession session = client.getSession(ids.nextElement());
+			if(session != null && host.equalsIgnoreCase(session.getPeerHost()) && (port == -1 || port == session.getPeerPort())) {
+				sessions.add(session);
+			}
+		}
+		return sessions;
+	}
+	
+	/** Stops the cached client sessions for the given host from being
+	 * resumed, so that the next connection to it performs a full handshake
+	 * (e.g. after its certificate has changed).
+	 * 
+	 * @param host The peer's host name or address, as it was given when
+	 *            connecting
+	 * @param port The peer's port, or -1 for any port
+	 * @return The number of sessions that were invalidated */
+	public final int invalidateSessions(String host, int port) {
+		List<SSLSession> sessions = this.getCachedSessions(host, port);
+		for(SSLSession session : sessions) {
+			session.invalidate();
+		}
+		return sessions.size();
+	}
+	
 	@Override
 	public String[] getDefaultCipherSuites() {
-		return this.m_ciphers;
+		return this.m_ciphers.clone();
 	}
 	
 	@Override
 	public String[] getSupportedCipherSuites() {
-		return this.m_ciphers;
+		return this.m_ciphers.clone();
 	}
 	
 	public String[] getDefaultProtocols() {
-		return this.m_protocols;
+		return this.m_protocols.clone();
 	}
 	
 	public String[] getSupportedProtocols() {
-		return this.m_protocols;
+		return this.m_protocols.clone();
 	}
 	
 	@Override
 	public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+		if(host == null && s.getInetAddress() != null) {//Without the peer's address, the session could never be resumed
+			host = s.getInetAddress().getHostAddress();
+			port = s.getPort();
+		}
 		SSLSocketFactory factory = this.m_ctx.getSocketFactory();
 		SSLSocket ss = (SSLSocket) factory.createSocket(s, host, port, autoClose);
 		
-		ss.setEnabledProtocols(this.m_protocols);
-		ss.setEnabledCipherSuites(this.m_ciphers);
+		return this.configure(ss);
+	}
+	
+	@Override
+	public Socket createSocket(Socket s, InputStream consumed, boolean autoClose) throws IOException {
+		SSLSocketFactory factory = this.m_ctx.getSocketFactory();
+		SSLSocket ss = (SSLSocket) factory.createSocket(s, consumed, autoClose);
 		
-		return ss;
+		return this.configure(ss);
 	}
 	
 	@Override
@@ -92,10 +428,7 @@ public final class SSLSocketFactoryEx extends SSLSocketFactory {
 		SSLSocketFactory factory = this.m_ctx.getSocketFactory();
 		SSLSocket ss = (SSLSocket) factory.createSocket(address, port, localAddress, localPort);
 		
-		ss.setEnabledProtocols(this.m_protocols);
-		ss.setEnabledCipherSuites(this.m_ciphers);
-		
-		return ss;
+		return this.configure(ss);
 	}
 	
 	@Override
@@ -103,10 +436,7 @@ public final class SSLSocketFactoryEx extends SSLSocketFactory {
 		SSLSocketFactory factory = this.m_ctx.getSocketFactory();
 		SSLSocket ss = (SSLSocket) factory.createSocket(host, port, localHost, localPort);
 		
-		ss.setEnabledProtocols(this.m_protocols);
-		ss.setEnabledCipherSuites(this.m_ciphers);
-		
-		return ss;
+		return this.configure(ss);
 	}
 	
 	@Override
@@ -114,10 +444,7 @@ public final class SSLSocketFactoryEx extends SSLSocketFactory {
 		SSLSocketFactory factory = this.m_ctx.getSocketFactory();
 		SSLSocket ss = (SSLSocket) factory.createSocket(host, port);
 		
-		ss.setEnabledProtocols(this.m_protocols);
-		ss.setEnabledCipherSuites(this.m_ciphers);
-		
-		return ss;
+		return this.configure(ss);
 	}
 	
 	@Override
@@ -125,46 +452,54 @@ public final class SSLSocketFactoryEx extends SSLSocketFactory {
 		SSLSocketFactory factory = this.m_ctx.getSocketFactory();
 		SSLSocket ss = (SSLSocket) factory.createSocket(host, port);
 		
-		ss.setEnabledProtocols(this.m_protocols);
-		ss.setEnabledCipherSuites(this.m_ciphers);
-		
-		return ss;
+		return this.configure(ss);
 	}
 	
 	private void initSSLSocketFactoryEx(KeyManager[] km, TrustManager[] tm, SecureRandom random) throws NoSuchAlgorithmException, KeyManagementException {
 		this.m_ctx = SSLContext.getInstance("TLSv1.2");
 		this.m_ctx.init(km, tm, random);
 		
-		this.m_protocols = GetProtocolList();
-		this.m_ciphers = GetCipherList();
+		this.initLists();
 	}
 	
 	private void initSSLSocketFactoryEx(SSLContext ctx) {
 		this.m_ctx = ctx;
 		
-		this.m_protocols = GetProtocolList();
-		this.m_ciphers = GetCipherList();
+		this.initLists();
+	}
+	
+	private SSLSocket configure(SSLSocket ss) {
+		ss.setEnabledProtocols(this.m_protocols);
+		ss.setEnabledCipherSuites(this.m_ciphers);
+		if(this.m_useCipherOrder) {//Server mode sockets pick the first suite in this order that the client supports, instead of following the client's order
+			SSLParameters params = ss.getSSLParameters();
+			params.setUseCipherSuitesOrder(true);
+			ss.setSSLParameters(params);
+		}
+		return ss;
+	}
+	
+	private void initLists() {
+		synchronized(contextLists) {
+			String[][] lists = contextLists.get(this.m_ctx);
+			if(lists == null) {
+				lists = new String[][] {GetProtocolList(), GetCipherList()};
+				contextLists.put(this.m_ctx, lists);
+			}
+			this.m_protocols = lists[0];
+			this.m_ciphers = lists[1];
+		}
 	}
 	
 	protected String[] GetProtocolList() {
 		String[] preferredProtocols = {"TLSv1", "TLSv1.1", "TLSv1.2", "TLSv1.3"};
 		String[] availableProtocols = null;
 		
-		SSLSocket socket = null;
-		
 		try {
-			SSLSocketFactory factory = this.m_ctx.getSocketFactory();
-			socket = (SSLSocket) factory.createSocket();
-			
-			availableProtocols = socket.getSupportedProtocols();
+			availableProtocols = this.m_ctx.getSupportedSSLParameters().getProtocols();//No need for a throwaway socket just to ask
 			Arrays.sort(availableProtocols);
 		} catch(Exception e) {
 			return new String[] {"TLSv1"};
-		} finally {
-			if(socket != null) try {
-				socket.close();
-			} catch(IOException ignored) {
-			}
 		}
 		
 		List<String> aa = new ArrayList<>();
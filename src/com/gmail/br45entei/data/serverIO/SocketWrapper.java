@@ -10,6 +10,7 @@ import java.net.SocketException;
 import java.nio.channels.SocketChannel;
 import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
@@ -20,7 +21,9 @@ import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
-/** @author Brian_Entei */
+/** @author Brian_Entei
+ * @see ProtocolDetector
+ * @see SSLChannel */
 @SuppressWarnings("javadoc")
 public class SocketWrapper extends Socket {
 	
@@ -101,6 +104,7 @@ public class SocketWrapper extends Socket {
 	
 	private final Socket socket;
 	private InputStreamSSLWrapper inWrapper;
+	private final ReentrantLock lock = new ReentrantLock();
 	
 	public SocketWrapper(Socket socket) throws IOException {
 		this.socket = socket;
@@ -144,15 +148,19 @@ public class SocketWrapper extends Socket {
 		}
 		this.inWrapper.dispose();
 		this.inWrapper = null;
-		System.gc();
 	}
 	
 	//'Pass-through' methods:
 	
 	@Override
-	public final synchronized void close() throws IOException {
-		this.dispose();
-		this.socket.close();
+	public final void close() throws IOException {
+		this.lock.lock();
+		try {
+			this.dispose();
+			this.socket.close();
+		} finally {
+			this.lock.unlock();
+		}
 	}
 	
 	@Override
@@ -246,33 +254,63 @@ public class SocketWrapper extends Socket {
 	}
 	
 	@Override
-	public synchronized void setSoTimeout(int timeout) throws SocketException {
-		this.socket.setSoTimeout(timeout);
+	public void setSoTimeout(int timeout) throws SocketException {
+		this.lock.lock();
+		try {
+			this.socket.setSoTimeout(timeout);
+		} finally {
+			this.lock.unlock();
+		}
 	}
 	
 	@Override
-	public synchronized int getSoTimeout() throws SocketException {
-		return this.socket.getSoTimeout();
+	public int getSoTimeout() throws SocketException {
+		this.lock.lock();
+		try {
+			return this.socket.getSoTimeout();
+		} finally {
+			this.lock.unlock();
+		}
 	}
 	
 	@Override
-	public synchronized void setSendBufferSize(int size) throws SocketException {
-		this.socket.setSendBufferSize(size);
+	public void setSendBufferSize(int size) throws SocketException {
+		this.lock.lock();
+		try {
+			this.socket.setSendBufferSize(size);
+		} finally {
+			this.lock.unlock();
+		}
 	}
 	
 	@Override
-	public synchronized int getSendBufferSize() throws SocketException {
-		return this.socket.getSendBufferSize();
+	public int getSendBufferSize() throws SocketException {
+		this.lock.lock();
+		try {
+			return this.socket.getSendBufferSize();
+		} finally {
+			this.lock.unlock();
+		}
 	}
 	
 	@Override
-	public synchronized void setReceiveBufferSize(int size) throws SocketException {
-		this.socket.setReceiveBufferSize(size);
+	public void setReceiveBufferSize(int size) throws SocketException {
+		this.lock.lock();
+		try {
+			this.socket.setReceiveBufferSize(size);
+		} finally {
+			this.lock.unlock();
+		}
 	}
 	
 	@Override
-	public synchronized int getReceiveBufferSize() throws SocketException {
-		return this.socket.getReceiveBufferSize();
+	public int getReceiveBufferSize() throws SocketException {
+		this.lock.lock();
+		try {
+			return this.socket.getReceiveBufferSize();
+		} finally {
+			this.lock.unlock();
+		}
 	}
 	
 	@Override
@@ -0,0 +1,359 @@
+package com.gmail.br45entei.data.serverIO;
+
+import com.gmail.br45entei.util.StringUtil;
+import com.gmail.br45entei.util.ThreadUtils;
+import com.gmail.br45entei.util.ThreadUtils.CustomThreadFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/** A blocking, thread-per-connection packet server. Each accepted connection
+ * is wrapped in a {@link SocketWrapper} and handed to the
+ * {@link ConnectionHandler} on its own thread, so the handler can simply read
+ * and write packets with {@link PacketCodec#readNextPacket(InputStream)} and
+ * {@link PacketCodec#writePacket(Packet, OutputStream)}.<br>
+ * When the JVM supports virtual threads({@link #isUsingVirtualThreads()}),
+ * each connection gets a virtual thread instead of a platform thread, which
+ * makes idle connections nearly as cheap as they are with the selector based
+ * {@link PacketServer} while keeping the simpler blocking code.
+ * 
+ * @author Brian_Entei
+ * @see PacketServer */
+public class ThreadedPacketServer implements Runnable, Closeable {
+	
+	/** Handles one connection on its own thread.
+	 * 
+	 * @author Brian_Entei */
+	public static interface ConnectionHandler {
+		
+		/** Called on the connection's thread once it has been accepted. The
+		 * connection is closed when this method returns.
+		 * 
+		 * @param socket The accepted connection
+		 * @param codec The connection's packet codec
+		 * @throws IOException Thrown if an I/O error occurs
+		 * @throws PacketReadException Thrown if a malformed packet was
+		 *             received */
+		public void handleConnection(SocketWrapper socket, PacketCodec codec) throws IOException, PacketReadException;
+		
+	}
+	
+	private final ServerSocket server;
+	private final ConnectionHandler handler;
+	private final ThreadFactory threadFactory;
+	private final boolean virtualThreads;
+	private final Set<SocketWrapper> connections = Collections.newSetFromMap(new ConcurrentHashMap<SocketWrapper, Boolean>());
+	private volatile Thread thread = null;
+	private volatile boolean running = false;
+	
+	/** Creates a new server that handles each connection on a virtual thread
+	 * if the JVM supports them, or a platform thread otherwise.
+	 * 
+	 * @param bindAddress The address to listen on
+	 * @param handler The handler that every accepted connection is passed to
+	 * @throws IOException Thrown if the server socket could not be bound */
+	public ThreadedPacketServer(InetSocketAddress bindAddress, ConnectionHandler handler) throws IOException {
+		this(bindAddress, handler, true);
+	}
+	
+	/** @param bindAddress The address to listen on
+	 * @param handler The handler that every accepted connection is passed to
+	 * @param useVirtualThreads Whether or not each connection should be
+	 *            handled on a virtual thread when the JVM supports them
+	 * @throws IOException Thrown if the server socket could not be bound */
+	public ThreadedPacketServer(InetSocketAddress bindAddress, ConnectionHandler handler, boolean useVirtualThreads) throws IOException {
+		this(bindAddress, handler, new CustomThreadFactory("ThreadedPacketServer-" + bindAddress.getPort() + "-", "-connection-", true, 0L).setDelegate(useVirtualThreads ? ThreadUtils.getVirtualThreadFactory() : null));
+	}
+	
+	/** @param bindAddress The address to listen on
+	 * @param handler The handler that every accepted connection is passed to
+	 * @param threadFactory The factory that creates the thread of each
+	 *            connection
+	 * @throws IOException Thrown if the server socket could not be bound */
+	public ThreadedPacketServer(InetSocketAddress bindAddress, ConnectionHandler handler, ThreadFactory threadFactory) throws IOException {
+		if(handler == null) {
+			throw new NullPointerException("handler cannot be null!");
+		}
+		if(threadFactory == null) {
+			throw new NullPointerException("threadFactory cannot be null!");
+		}
+		this.handler = handler;
+		this.threadFactory = threadFactory;
+		ThreadFactory delegate = threadFactory instanceof CustomThreadFactory ? ((CustomThreadFactory) threadFactory).getDelegate() : threadFactory;
+		this.virtualThreads = delegate != null && delegate == ThreadUtils.getVirtualThreadFactory();
+		this.server = new ServerSocket();
+		try {
+			this.server.setReuseAddress(true);
+			this.server.bind(bindAddress, 1024);
+		} catch(IOException e) {
+			this.server.close();
+			throw e;
+		}
+	}
+	
+	/** @return Whether or not connections are handled on virtual threads */
+	public final boolean isUsingVirtualThreads() {
+		return this.virtualThreads;
+	}
+	
+	/** @return The port that this server is listening on */
+	public final int getLocalPort() {
+		return this.server.getLocalPort();
+	}
+	
+	/** @return The number of connections that are currently open */
+	public final int getConnectionCount() {
+		return this.connections.size();
+	}
+	
+	/** @return Whether or not this server is accepting connections */
+	public final boolean isRunning() {
+		return this.running;
+	}
+	
+	/** Starts accepting connections on a new(platform) thread.
+	 * 
+	 * @return This server */
+	public final synchronized ThreadedPacketServer start() {
+		if(this.thread == null) {
+			this.running = true;
+			this.thread = new Thread(this, "ThreadedPacketServer-" + this.getLocalPort());
+			this.thread.setDaemon(true);
+			this.thread.start();
+		}
+		return this;
+	}
+	
+	@Override
+	public final void run() {
+		try {
+			while(this.running) {
+				final Socket socket;
+				try {
+					socket = this.server.accept();
+				} catch(IOException e) {
+					if(!this.running || this.server.isClosed()) {
+						break;
+					}
+					e.printStackTrace();//e.g. too many open files, or a connection that was aborted before it could be accepted
+					try {
+						Thread.sleep(100L);//Don't spin if the error persists(such as while out of file descriptors)
+					} catch(InterruptedException ignored) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+					continue;
+				}
+				try {
+					socket.setTcpNoDelay(true);
+					final SocketWrapper wrapper = new SocketWrapper(socket);
+					Thread thread = this.threadFactory.newThread(new Runnable() {
+						@Override
+						public final void run() {
+							ThreadedPacketServer.this.handle(wrapper);
+						}
+					});
+					this.connections.add(wrapper);
+					thread.start();
+				} catch(IOException | RuntimeException | Error e) {
+					try {
+						socket.close();
+					} catch(IOException ignored) {
+					}
+					if(e instanceof Error) {
+						throw (Error) e;
+					}
+					e.printStackTrace();
+				}
+			}
+		} finally {
+			this.running = false;
+			this.closeAll();
+		}
+	}
+	
+	final void handle(SocketWrapper socket) {
+		try {
+			this.handler.handleConnection(socket, new PacketCodec());
+		} catch(EOFException | SocketException ignored) {
+		} catch(IOException | PacketReadException | RuntimeException e) {
+			if(this.running) {
+				e.printStackTrace();
+			}
+		} finally {
+			this.connections.remove(socket);
+			try {
+				socket.close();
+			} catch(IOException ignored) {
+			}
+		}
+	}
+	
+	private final void closeAll() {
+		List<SocketWrapper> connections = new ArrayList<>(this.connections);
+		for(SocketWrapper socket : connections) {
+			try {
+				socket.close();
+			} catch(IOException ignored) {
+			}
+		}
+	}
+	
+	/** Stops accepting connections, then closes every open connection. */
+	@Override
+	public final void close() throws IOException {
+		this.running = false;
+		try {
+			this.server.close();
+		} finally {
+			final Thread thread = this.thread;
+			if(thread == null) {
+				this.closeAll();
+			} else if(thread != Thread.currentThread()) {
+				try {
+					thread.join();
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+	
+	//=============================================
+	
+	/** @return The resident set size of this process in bytes(from
+	 *         /proc/self/status), or -1 if it is not available */
+	private static final long getResidentMemory() {
+		File status = new File("/proc/self/status");
+		if(!status.isFile()) {
+			return -1L;
+		}
+		try {
+			for(String line : Files.readAllLines(status.toPath(), StandardCharsets.UTF_8)) {
+				if(line.startsWith("VmRSS:")) {
+					String value = line.substring(6).trim();
+					return Long.parseLong(value.substring(0, value.indexOf(' '))) * 1024L;
+				}
+			}
+		} catch(IOException | RuntimeException ignored) {
+		}
+		return -1L;
+	}
+	
+	private static final long getCommittedMemory() {
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+		return heap.getUsed() + nonHeap.getCommitted();
+	}
+	
+	private static final void benchmark(final boolean useVirtualThreads, int connections, int roundTrips) throws IOException, PacketReadException, InterruptedException {
+		if(useVirtualThreads && !ThreadUtils.isVirtualThreadSupported()) {
+			System.out.println("Virtual threads: not supported by this JVM(" + System.getProperty("java.version") + "); skipped.");
+			return;
+		}
+		final String mode = useVirtualThreads ? "Virtual threads" : "Platform threads";
+		System.gc();
+		final int baseThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+		final long baseMemory = getCommittedMemory(), baseRSS = getResidentMemory();
+		
+		try(ThreadedPacketServer server = new ThreadedPacketServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), new ConnectionHandler() {
+			@Override
+			public final void handleConnection(SocketWrapper socket, PacketCodec codec) throws IOException, PacketReadException {
+				InputStream in = socket.getInputStream();
+				OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+				Packet packet;
+				while((packet = codec.readNextPacket(in)) != null) {
+					codec.writePacket(packet, out);//echo
+					out.flush();
+				}
+			}
+		}, useVirtualThreads).start()) {
+			final InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+			List<Socket> clients = new ArrayList<>(connections);
+			try {
+				long startTime = System.nanoTime();
+				for(int i = 0; i < connections; i++) {
+					Socket socket = new Socket();
+					socket.setTcpNoDelay(true);
+					socket.connect(address);
+					clients.add(socket);
+				}
+				while(server.getConnectionCount() < connections) {
+					Thread.sleep(10L);
+				}
+				final long openTime = System.nanoTime() - startTime;
+				
+				//Touch every connection once so that each handler thread has actually blocked in a read with a packet's worth of stack:
+				final PacketCodec codec = new PacketCodec();
+				final Packet ping = new Packet(new int[] {1, 2, 3, 4});
+				startTime = System.nanoTime();
+				for(int j = 0; j < roundTrips; j++) {
+					for(Socket socket : clients) {
+						codec.writePacket(ping, socket.getOutputStream());
+					}
+					for(Socket socket : clients) {
+						Packet echoed = codec.readNextPacket(socket.getInputStream());
+						if(echoed == null || echoed.getIntArray()[3] != 4) {
+							throw new IOException("Bad echo: " + echoed);
+						}
+					}
+				}
+				final long echoTime = System.nanoTime() - startTime;
+				
+				System.gc();
+				final int threads = ManagementFactory.getThreadMXBean().getThreadCount() - baseThreads;
+				final long memory = Math.max(0, getCommittedMemory() - baseMemory);
+				final long rss = getResidentMemory();
+				System.out.println(mode + ": " + connections + " connections opened in " + TimeUnit.NANOSECONDS.toMillis(openTime) + "ms; " + (roundTrips * connections) + " round trips in " + TimeUnit.NANOSECONDS.toMillis(echoTime) + "ms; platform threads: " + threads + "; heap+non-heap per connection: ~" + (memory / connections) + " bytes" + (rss < 0 || baseRSS < 0 ? "" : "; RSS per connection(client and server side): ~" + (Math.max(0, rss - baseRSS) / connections) + " bytes"));
+			} finally {
+				for(Socket socket : clients) {
+					socket.close();
+				}
+			}
+		}
+	}
+	
+	/** Compares the cost of keeping many connections open with platform
+	 * threads against virtual threads: opens a number of loopback connections
+	 * to an echo server, has each of them echo a packet, and reports the
+	 * threads and memory used per connection in each mode.<br>
+	 * Virtual threads require a Java 21+ runtime; on older runtimes only the
+	 * platform thread numbers are printed.
+	 * 
+	 * @param args Program command line arguments: [connections] [round trips
+	 *            per connection]
+	 * @throws IOException Thrown if an I/O error occurs
+	 * @throws PacketReadException Thrown if a malformed packet was echoed
+	 * @throws InterruptedException Thrown if the thread is interrupted */
+	public static final void main(String[] args) throws IOException, PacketReadException, InterruptedException {
+		final int connections = args.length > 0 && StringUtil.isStrInt(args[0]) ? Integer.parseInt(args[0]) : 2000;
+		final int roundTrips = args.length > 1 && StringUtil.isStrInt(args[1]) ? Integer.parseInt(args[1]) : 5;
+		benchmark(false, Math.min(connections, 100), 1);//warm up
+		benchmark(true, Math.min(connections, 100), 1);
+		System.out.println("--");
+		benchmark(false, connections, roundTrips);
+		benchmark(true, connections, roundTrips);
+	}
+	
+}
@@ -4,24 +4,76 @@ import com.gmail.br45entei.data.DisposableByteArrayInputStream;
 import com.gmail.br45entei.data.DisposableByteArrayOutputStream;
 import com.gmail.br45entei.data.OutputInputStream;
 import com.gmail.br45entei.data.Property;
+import com.gmail.br45entei.data.serverIO.CompressionCodec;
+import com.gmail.br45entei.data.serverIO.CompressionCodecs;
+import com.gmail.br45entei.util.ThreadUtils.CustomThreadFactory;
 import com.gmail.br45entei.util.writer.DualPrintWriter;
 import com.gmail.br45entei.util.writer.UnlockedOutputStreamWriter;
 
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.net.URLConnection;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 /** @author Brian_Entei */
 @SuppressWarnings("javadoc")
 public class FileTransfer {
 	
+	/** The size of the buffer that files are copied through when they can't be
+	 * handed to the operating system directly(64KB) */
+	private static final int copyBufferSize = 0x10000;
+	/** Files at least this large are memory-mapped instead of read(1MB) */
+	private static final long mapThreshold = 0x100000L;
+	/** The size of the regions that large files are mapped in(64MB) */
+	private static final long mapRegionSize = 0x4000000L;
+	/** The most that is handed to {@link FileChannel#transferTo(long, long,
+	 * WritableByteChannel)} at once, so that progress can be reported(8MB) */
+	private static final long transferChunkSize = 0x800000L;
+	/** The size of the buffer that received files are written to disk
+	 * through(1MB) */
+	private static final int receiveBufferSize = 0x100000;
+	private static final int maxHeaderLineLength = 0x10000;
+	
 	public static final void main(String[] args) {
 		try {
 			File test = new File(StringUtil.stringArrayToString(' ', args));
@@ -40,41 +92,242 @@ public class FileTransfer {
 		}
 	}
 	
-	public static final String hashBytes(byte[] data) {
-		final MessageDigest hashSum;
-		try {
-			hashSum = MessageDigest.getInstance("SHA-256");
-			hashSum.update(data);
-			byte[] mdBytes = hashSum.digest();
-			StringBuffer hexString = new StringBuffer();
-			for(int i = 0; i < mdBytes.length; i++) {
-				hexString.append(Integer.toHexString(0xFF & mdBytes[i]));
-			}
-			return hexString.toString();
-		} catch(Throwable e) {
-			e.printStackTrace();
-			return "null";
+	//Hashing:
+	
+	/** The size of the chunks that {@link #hashFileTree(File)} hashes
+	 * separately(the same as the chunks of a resumable transfer, so a file's
+	 * tree hash can also be computed from the hashes of its chunks) */
+	public static final int treeHashChunkSize = 0x100000;
+	
+	/** Each thread's SHA-256 digest(creating one means looking the algorithm
+	 * up among the installed providers, which costs more than hashing a small
+	 * file) */
+	private static final ThreadLocal<MessageDigest> sha256 = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected final MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("SHA-256");
+			} catch(NoSuchAlgorithmException e) {
+				throw new IllegalStateException("Every Java platform is required to support SHA-256", e);
+			}
+		}
+	};
+	
+	/** Each thread's buffer for reading the chunks of a file that is being
+	 * hashed */
+	private static final ThreadLocal<byte[]> hashBuffer = new ThreadLocal<byte[]>() {
+		@Override
+		protected final byte[] initialValue() {
+			return new byte[treeHashChunkSize];
 		}
+	};
+	
+	/** @return This thread's SHA-256 digest, reset and ready for use */
+	private static final MessageDigest getSHA256() {
+		final MessageDigest digest = sha256.get();
+		digest.reset();
+		return digest;
 	}
 	
+	public static final String hashBytes(byte[] data) {
+		final MessageDigest digest = getSHA256();
+		digest.update(data);
+		return toHex(digest.digest());
+	}
+	
+	/** Hashes the data of a file that was sent with
+	 * {@link #sendFile(File, OutputStream, Property)}, without holding it in
+	 * memory. */
 	public static final String hashStream(InputStream in) {
 		try {
-			return hashBytes(readFile(in).data);
+			final FileInfo header = readHeader(in);
+			final MessageDigest digest = getSHA256();
+			final byte[] buf = hashBuffer.get();
+			long remaining = header.size;
+			while(remaining > 0) {
+				final int read = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+				if(read == -1) {
+					break;
+				}
+				digest.update(buf, 0, read);
+				remaining -= read;
+			}
+			return toHex(digest.digest());
 		} catch(Throwable e) {
 			e.printStackTrace();
 			return "null";
 		}
 	}
 	
+	/** Hashes the given file with SHA-256, mapping it into memory a region at
+	 * a time rather than reading all of it first. */
 	public static final String hashFile(File file) {
-		try {
-			return hashBytes(readFile(file).data);
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final MessageDigest digest = getSHA256();
+			final long size = channel.size();
+			if(size < mapThreshold) {
+				final byte[] buf = hashBuffer.get();
+				final ByteBuffer wrapped = ByteBuffer.wrap(buf);
+				long position = 0;
+				int read;
+				while(position < size && (read = channel.read(wrapped, position)) != -1) {
+					digest.update(buf, 0, read);
+					position += read;
+					wrapped.clear();
+				}
+			} else {
+				for(long position = 0; position < size; position += mapRegionSize) {
+					digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(mapRegionSize, size - position)));
+				}
+			}
+			return toHex(digest.digest());
 		} catch(Throwable e) {
 			e.printStackTrace();
 			return "null";
 		}
 	}
 	
+	/** Hashes the given file as a two-level hash tree: the file is split into
+	 * {@link #treeHashChunkSize} chunks, each chunk is hashed with SHA-256 on
+	 * one of several threads(one per processor), and the result is the
+	 * SHA-256 of the chunks' hashes, in order. Only a few chunks are in
+	 * flight at a time, so memory use stays small(32 bytes per chunk, for the
+	 * chunks' hashes).<br>
+	 * The result is not the same as {@link #hashFile(File)}'s; both ends of a
+	 * comparison have to use the same method.
+	 * 
+	 * @param file The file to hash
+	 * @return The file's tree hash, as a hexadecimal string
+	 * @throws IOException Thrown if an I/O error occurs */
+	public static final String hashFileTree(File file) throws IOException {
+		final MessageDigest root = getSHA256();
+		root.update(getChunkHashes(file));
+		return toHex(root.digest());
+	}
+	
+	/** The length of a SHA-256 hash, in bytes */
+	private static final int chunkHashLength = 32;
+	/** The most chunk hashes that {@link #getChunkHashes(File)} keeps(16MB,
+	 * enough for 512GB worth of files) */
+	private static final long maxCachedChunkHashBytes = 0x1000000L;
+	
+	/** The chunk hashes of a file, along with the size and last modification
+	 * time that the file had when they were computed */
+	private static final class CachedChunkHashes {
+		final long size, lastModified;
+		final byte[] hashes;
+		
+		CachedChunkHashes(long size, long lastModified, byte[] hashes) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.hashes = hashes;
+		}
+		
+	}
+	
+	/** The chunk hashes of recently hashed files, keyed by their canonical
+	 * paths, least recently used first */
+	private static final LinkedHashMap<String, CachedChunkHashes> chunkHashCache = new LinkedHashMap<>(16, 0.75f, true);
+	private static long cachedChunkHashBytes = 0;
+	
+	/** Returns the SHA-256 hashes of each {@link #treeHashChunkSize} chunk of
+	 * the given file, concatenated. The hashes are cached by the file's
+	 * canonical path, size and last modification time, so sending the same
+	 * file again(or sending it to several receivers) doesn't read it twice
+	 * just to hash it.
+	 * 
+	 * @param file The file to hash
+	 * @return The hashes of the file's chunks, {@value #chunkHashLength}
+	 *         bytes each(the returned array must not be modified)
+	 * @throws IOException Thrown if an I/O error occurs */
+	public static final byte[] getChunkHashes(File file) throws IOException {
+		final String key = file.getCanonicalPath();
+		final long size = file.length(), lastModified = file.lastModified();
+		synchronized(chunkHashCache) {
+			final CachedChunkHashes cached = chunkHashCache.get(key);
+			if(cached != null && cached.size == size && cached.lastModified == lastModified) {
+				return cached.hashes;
+			}
+		}
+		final byte[] hashes = computeChunkHashes(file);
+		if(file.length() != size || file.lastModified() != lastModified || hashes.length != getChunkCount(size) * chunkHashLength) {
+			return hashes;//The file changed while it was being hashed, so these hashes can't be trusted to match either version of it later
+		}
+		synchronized(chunkHashCache) {
+			final CachedChunkHashes previous = chunkHashCache.put(key, new CachedChunkHashes(size, lastModified, hashes));
+			cachedChunkHashBytes += hashes.length - (previous == null ? 0 : previous.hashes.length);
+			final Iterator<CachedChunkHashes> iter = chunkHashCache.values().iterator();
+			while(cachedChunkHashBytes > maxCachedChunkHashBytes && iter.hasNext()) {
+				cachedChunkHashBytes -= iter.next().hashes.length;
+				iter.remove();
+			}
+		}
+		return hashes;
+	}
+	
+	/** Empties the cache of {@link #getChunkHashes(File)}. */
+	public static final void clearChunkHashCache() {
+		synchronized(chunkHashCache) {
+			chunkHashCache.clear();
+			cachedChunkHashBytes = 0;
+		}
+	}
+	
+	/** @return The number of {@link #treeHashChunkSize} chunks that a file of
+	 *         the given size is made of */
+	private static final long getChunkCount(long size) {
+		return (size + treeHashChunkSize - 1) / treeHashChunkSize;
+	}
+	
+	/** Hashes each chunk of the given file on a pool of threads(one per
+	 * processor), without going through the cache. */
+	private static final byte[] computeChunkHashes(final File file) throws IOException {
+		final int threads = Runtime.getRuntime().availableProcessors();
+		final ExecutorService executor = Executors.newFixedThreadPool(threads, new CustomThreadFactory("FileTransfer-", "-hash-", true));
+		try(final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final long size = channel.size();
+			final long count = getChunkCount(size);
+			if(count * chunkHashLength > Integer.MAX_VALUE) {
+				throw new IOException("File \"" + file.getName() + "\" is too large to be hashed in chunks(" + size + " bytes)");
+			}
+			final byte[] hashes = new byte[(int) (count * chunkHashLength)];
+			final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+			long position = 0;
+			int offset = 0;
+			while(position < size || !pending.isEmpty()) {
+				while(pending.size() < threads * 2 && position < size) {//Keep every thread busy, without reading ahead more than that
+					final long start = position, len = Math.min(treeHashChunkSize, size - position);
+					pending.add(executor.submit(new Callable<byte[]>() {
+						@Override
+						public final byte[] call() throws IOException {
+							final MessageDigest digest = getSHA256();
+							final byte[] buf = hashBuffer.get();
+							final ByteBuffer wrapped = ByteBuffer.wrap(buf, 0, (int) len);
+							while(wrapped.hasRemaining()) {
+								if(channel.read(wrapped, start + wrapped.position()) == -1) {
+									throw new EOFException("File \"" + file.getName() + "\" was truncated while it was being hashed");
+								}
+							}
+							digest.update(buf, 0, (int) len);
+							return digest.digest();
+						}
+					}));
+					position += len;
+				}
+				System.arraycopy(pending.poll().get(), 0, hashes, offset, chunkHashLength);
+				offset += chunkHashLength;
+			}
+			return hashes;
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while hashing file \"" + file.getName() + "\"");
+		} catch(ExecutionException e) {
+			throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
 	public static final class FileData {
 		public volatile String name;
 		public volatile byte[] data;
@@ -90,60 +343,200 @@ public class FileTransfer {
 		return readFile(in, null);
 	}
 	
+	/** The name, size and last modification time of a file that was received
+	 * with {@link FileTransfer#readFile(InputStream, Path, Property)}, along
+	 * with where it was saved. */
+	public static final class FileInfo {
+		public final String name;
+		public final long size;
+		public final long lastModified;
+		/** Where the file was saved, or {@code null} if only its header has
+		 * been read */
+		public final Path path;
+		
+		FileInfo(String name, long size, long lastModified, Path path) {
+			this.name = name;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.path = path;
+		}
+		
+		@Override
+		public final String toString() {
+			return "FileInfo[name=" + this.name + ", size=" + this.size + ", lastModified=" + this.lastModified + (this.path != null ? ", path=" + this.path : "") + "]";
+		}
+		
+	}
+	
+	/** Reads one line of a file header sent by
+	 * {@link FileTransfer#sendFile(File, OutputStream, Property)}. Unlike
+	 * {@link StringUtil#readLine(InputStream)}, this doesn't create a string
+	 * for every byte that is read; it still reads one byte at a time, so that
+	 * none of the file's data is consumed. */
+	private static final String readHeaderLine(InputStream in) throws IOException {
+		byte[] buf = new byte[128];
+		int len = 0, read;
+		while((read = in.read()) != -1 && read != '\n') {
+			if(len == buf.length) {
+				if(len >= maxHeaderLineLength) {
+					throw new IOException("File header line is too long(more than " + maxHeaderLineLength + " bytes)");
+				}
+				buf = Arrays.copyOf(buf, len * 2);
+			}
+			buf[len++] = (byte) read;
+		}
+		if(read == -1 && len == 0) {
+			return null;
+		}
+		if(len > 0 && buf[len - 1] == '\r') {
+			len--;
+		}
+		return new String(buf, 0, len, StandardCharsets.UTF_8);
+	}
+	
+	private static final String getHeaderValue(String line, String prefix) {
+		return line != null && line.startsWith(prefix) ? line.substring(prefix.length()) : null;
+	}
+	
+	/** Reads the header(name, size and last modification time) of a file that
+	 * was sent with {@link FileTransfer#sendFile(File, OutputStream, Property)},
+	 * leaving the stream positioned at the start of the file's data.
+	 * 
+	 * @param in The input stream to read from
+	 * @return The file's header
+	 * @throws IOException Thrown if an I/O error occurs or the header is
+	 *             malformed */
+	public static final FileInfo readHeader(InputStream in) throws IOException {
+		return readHeader(readHeaderLine(in), in);
+	}
+	
+	private static final FileInfo readHeader(String fileNameLine, InputStream in) throws IOException {
+		final String fileName = getHeaderValue(fileNameLine, "FILENAME: ");
+		final String fileSize = getHeaderValue(readHeaderLine(in), "FILESIZE: ");
+		final String fileLastMod = getHeaderValue(readHeaderLine(in), "FILELASTMOD: ");
+		if(fileName == null || !StringUtil.isStrLong(fileSize) || !StringUtil.isStrLong(fileLastMod)) {
+			throw new IOException("Malformed file header(name: " + fileName + "; size: " + fileSize + "; last modified: " + fileLastMod + ")");
+		}
+		final long size = Long.parseLong(fileSize);
+		if(size < 0) {
+			throw new IOException("Malformed file header: negative file size: " + size);
+		}
+		return new FileInfo(fileName, size, Long.parseLong(fileLastMod), null);
+	}
+	
+	/** @param fileName The name of a file, as sent by the other end
+	 * @return The name without any directories, so that it can't be used to
+	 *         write outside of the target directory */
+	private static final String getSafeFileName(String fileName) {
+		final String name = fileName.substring(Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\')) + 1);
+		return name.isEmpty() || name.equals(".") || name.equals("..") ? "file" : name;
+	}
+	
+	/** Receives a file that was sent with
+	 * {@link FileTransfer#sendFile(File, OutputStream, Property)} and writes it
+	 * straight to disk through a reusable buffer, so that files of any size
+	 * can be received with the same(small) amount of memory.
+	 * 
+	 * @param in The input stream to read from
+	 * @param target The file to save the received file as, or a directory to
+	 *            save it in(under the name that it was sent with)
+	 * @param progress The property that will be updated with the percentage
+	 *            of the file that has been received, or {@code null}
+	 * @return The received file's header, along with where it was saved
+	 * @throws IOException Thrown if an I/O error occurs, the header is
+	 *             malformed, or the stream ends before the whole file has been
+	 *             received */
+	public static final FileInfo readFile(InputStream in, Path target, Property<Double> progress) throws IOException {
+		return readFile(in, readHeader(in), target, progress);
+	}
+	
+	private static final Path getTargetPath(Path target, FileInfo header) {
+		return Files.isDirectory(target) ? target.resolve(getSafeFileName(header.name)) : target;
+	}
+	
+	private static final FileInfo readFile(InputStream in, FileInfo header, Path target, Property<Double> progress) throws IOException {
+		final Path path = getTargetPath(target, header);
+		final ProgressUpdater updater = new ProgressUpdater(progress, header.size, 100.0D);
+		final byte[] buf = new byte[(int) Math.max(1L, Math.min(receiveBufferSize, header.size))];
+		final ByteBuffer wrapped = ByteBuffer.wrap(buf);
+		try(FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			long received = 0;
+			while(received < header.size) {
+				final int len = (int) Math.min(buf.length, header.size - received);
+				int count = 0;
+				while(count < len) {//Fill the buffer before writing it, so the file is written in large chunks even if the data arrives in small ones
+					final int read = in.read(buf, count, len - count);
+					if(read == -1) {
+						throw new EOFException("End of stream reached after " + (received + count) + " of " + header.size + " bytes of file \"" + header.name + "\"");
+					}
+					count += read;
+					updater.update(received + count);
+				}
+				wrapped.clear();
+				wrapped.limit(count);
+				while(wrapped.hasRemaining()) {
+					out.write(wrapped);
+				}
+				received += count;
+			}
+		}
+		Files.setLastModifiedTime(path, FileTime.fromMillis(header.lastModified));
+		updater.done();
+		return new FileInfo(header.name, header.size, header.lastModified, path);
+	}
+	
 	public static final FileData readFile(InputStream in, Property<Double> progress) throws IOException {
 		DisposableByteArrayOutputStream baos = new DisposableByteArrayOutputStream();
-		final String fileNameRead = StringUtil.readLine(in);
-		final String fileSizeRead = StringUtil.readLine(in);
-		final String fileLastModRead = StringUtil.readLine(in);
-		String fileName = null;
+		final String fileNameRead = String.valueOf(readHeaderLine(in));
+		if(!fileNameRead.startsWith("FILENAME: ")) {//e.g. a resumable or parallel transfer's header; reading it as a plain file would only return garbage
+			throw new IOException("Malformed file header: expected \"FILENAME: <name>\", got: " + fileNameRead);
+		}
+		final String fileSizeRead = String.valueOf(readHeaderLine(in));
+		final String fileLastModRead = String.valueOf(readHeaderLine(in));
+		String fileName = fileNameRead.substring("FILENAME: ".length());
 		long lastModified = -1L;
-		if(fileNameRead.startsWith("FILENAME: ")) {
-			fileName = fileNameRead.substring("FILENAME: ".length());
-			if(fileSizeRead.startsWith("FILESIZE: ")) {
-				if(fileLastModRead.startsWith("FILELASTMOD: ")) {
-					String fileSize = fileSizeRead.substring("FILESIZE: ".length());
-					if(StringUtil.isStrInt(fileSize)) {//XXX prevents reading files bigger than Integer.MAX_VALUE, i know... need a better way to read file data in case this is ever needed
-						String fileLastMod = fileLastModRead.substring("FILELASTMOD: ".length());
-						if(StringUtil.isStrLong(fileLastMod)) {
-							lastModified = Long.valueOf(fileLastMod).longValue();
-							final int size = Integer.valueOf(fileSize).intValue();
-							int count = 0;
-							byte[] buf = new byte[4096];
-							int remaining = size - count;
-							int read = in.read(buf, 0, Math.min(buf.length, remaining));
+		if(fileSizeRead.startsWith("FILESIZE: ")) {
+			if(fileLastModRead.startsWith("FILELASTMOD: ")) {
+				String fileSize = fileSizeRead.substring("FILESIZE: ".length());
+				if(StringUtil.isStrInt(fileSize)) {//Files bigger than Integer.MAX_VALUE can't be held in a byte[] array; use readFile(InputStream, Path, Property) to stream them to disk instead
+					String fileLastMod = fileLastModRead.substring("FILELASTMOD: ".length());
+					if(StringUtil.isStrLong(fileLastMod)) {
+						lastModified = Long.valueOf(fileLastMod).longValue();
+						final int size = Integer.valueOf(fileSize).intValue();
+						int count = 0;
+						byte[] buf = new byte[4096];
+						int remaining = size - count;
+						int read = in.read(buf, 0, Math.min(buf.length, remaining));
+						count += read;
+						baos.write(buf, 0, read);
+						remaining = size - count;
+						if(progress != null) {
+							progress.setValue(Double.valueOf(((count + 0.00D) / (size + 0.00D) * 100.0D)));
+						}
+						while(remaining > 0) {
+							remaining = size - count;
+							read = in.read(buf, 0, Math.min(buf.length, remaining));
+							if(read == -1) {
+								break;
+							}
 							count += read;
 							baos.write(buf, 0, read);
 							remaining = size - count;
 							if(progress != null) {
 								progress.setValue(Double.valueOf(((count + 0.00D) / (size + 0.00D) * 100.0D)));
 							}
-							while(remaining > 0) {
-								remaining = size - count;
-								read = in.read(buf, 0, Math.min(buf.length, remaining));
-								if(read == -1) {
-									break;
-								}
-								count += read;
-								baos.write(buf, 0, read);
-								remaining = size - count;
-								if(progress != null) {
-									progress.setValue(Double.valueOf(((count + 0.00D) / (size + 0.00D) * 100.0D)));
-								}
-							}
-						} else {
-							//System.err.println("fileLastMod isLong: " + StringUtil.isStrLong(fileLastMod) + ": " + fileLastMod);
 						}
 					} else {
-						//System.err.println("fileSize isInt: " + StringUtil.isStrInt(fileSize) + ": " + fileSize);
+						//System.err.println("fileLastMod isLong: " + StringUtil.isStrLong(fileLastMod) + ": " + fileLastMod);
 					}
 				} else {
-					//System.err.println("fileLastModRead.startsWith: " + fileLastModRead);
+					//System.err.println("fileSize isInt: " + StringUtil.isStrInt(fileSize) + ": " + fileSize);
 				}
 			} else {
-				//System.err.println("fileSizeRead.startsWith: " + fileSizeRead);
+				//System.err.println("fileLastModRead.startsWith: " + fileLastModRead);
 			}
 		} else {
-			//System.err.println("fileNameRead.startsWith: " + fileNameRead);
+			//System.err.println("fileSizeRead.startsWith: " + fileSizeRead);
 		}
 		FileData data = new FileData();
 		data.name = fileName;
@@ -156,7 +549,107 @@ public class FileTransfer {
 		return data;
 	}
 	
+	/** Reports a transfer's progress to a {@link Property}, but only when
+	 * another thousandth of the transfer is done, so that sending a large file
+	 * doesn't box and publish a new value for every chunk. */
+	private static final class ProgressUpdater {
+		private final Property<Double> progress;
+		private final long total;
+		private final double scale;
+		private long done = 0L;
+		private long lastStep = -1L;
+		
+		ProgressUpdater(Property<Double> progress, long total) {
+			this(progress, total, 1.0D);
+		}
+		
+		/** @param scale The value that means 'done'(1.0 for a fraction, 100.0
+		 *            for a percentage) */
+		ProgressUpdater(Property<Double> progress, long total, double scale) {
+			this.progress = progress;
+			this.total = total;
+			this.scale = scale;
+			this.update(0L);
+		}
+		
+		/** @param count The number of bytes that were just transferred(by any
+		 *            of the streams of a parallel transfer) */
+		final synchronized void add(long count) {
+			this.update(this.done + count);
+		}
+		
+		final synchronized void update(long done) {
+			this.done = done;
+			if(this.progress == null) {
+				return;
+			}
+			final long step = this.total > 0 ? done * 1000L / this.total : 1000L;
+			if(step != this.lastStep) {
+				this.lastStep = step;
+				this.progress.setValue(Double.valueOf(this.total > 0 ? done / (this.total + 0.00D) * this.scale : this.scale));
+			}
+		}
+		
+		final void done() {
+			if(this.progress != null) {
+				this.progress.setValue(Double.valueOf(this.scale));
+			}
+		}
+		
+	}
+	
+	private static final byte[] getHeader(File file, long fileSize) {
+		return ("FILENAME: " + file.getName() + "\r\nFILESIZE: " + fileSize + "\r\nFILELASTMOD: " + file.lastModified() + "\r\n").getBytes(StandardCharsets.UTF_8);
+	}
+	
+	/** Sends the given file to the given socket. If the socket has a blocking
+	 * {@link Socket#getChannel() channel}, the file is handed straight to the
+	 * operating system({@link #sendFile(File, WritableByteChannel, Property)});
+	 * otherwise(e.g. for SSL sockets) it is written to the socket's output
+	 * stream. */
+	public static final void sendFile(File file, Socket socket, Property<Double> progress) throws IOException {
+		final SocketChannel channel = socket.getChannel();
+		if(channel != null && channel.isBlocking()) {
+			sendFile(file, channel, progress);
+		} else {
+			sendFile(file, socket.getOutputStream(), progress);
+		}
+	}
+	
+	/** Sends the given file to the given (blocking) channel using
+	 * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, which
+	 * lets the operating system copy the file's contents to the channel
+	 * without them ever entering the JVM(e.g. {@code sendfile} for socket
+	 * channels). */
+	public static final void sendFile(File file, WritableByteChannel channel, Property<Double> progress) throws IOException {
+		if(channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking()) {
+			throw new IllegalBlockingModeException();
+		}
+		try(FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final long fileSize = in.size();
+			final ProgressUpdater updater = new ProgressUpdater(progress, fileSize);
+			ByteBuffer header = ByteBuffer.wrap(getHeader(file, fileSize));
+			while(header.hasRemaining()) {
+				channel.write(header);
+			}
+			long sent = 0;
+			while(sent < fileSize) {
+				final long count = in.transferTo(sent, Math.min(transferChunkSize, fileSize - sent), channel);
+				if(count <= 0) {
+					throw new IOException("File \"" + file.getName() + "\" was truncated while it was being sent(" + sent + " of " + fileSize + " bytes sent)");
+				}
+				sent += count;
+				updater.update(sent);
+			}
+			updater.done();
+		}
+	}
+	
 	public static final void sendFile(File file, final OutputStream outStream, Property<Double> progress) throws IOException {
+		if(outStream.getClass() == FileOutputStream.class) {//Not instanceof: before Java 13, Socket.getOutputStream() returns a FileOutputStream subclass that has no channel
+			sendFile(file, ((FileOutputStream) outStream).getChannel(), progress);
+			return;
+		}
 		sendFile(file, new Writable() {
 			private final DualPrintWriter pr = new DualPrintWriter(new UnlockedOutputStreamWriter(outStream, StandardCharsets.UTF_8), true);
 			
@@ -184,40 +677,1180 @@ public class FileTransfer {
 		}, progress);
 	}
 	
+	/** Sends the given file to the given writable. Large files are
+	 * memory-mapped a region at a time rather than read, so they are copied
+	 * once(from the page cache into the write buffer) instead of twice. */
 	public static final void sendFile(File file, Writable writable, Property<Double> progress) throws IOException {
-		if(progress != null) {
-			progress.setValue(Double.valueOf(0.0D));
-		}
-		URLConnection url = file.toURI().toURL().openConnection();
-		int fileSize = url.getContentLength();
-		InputStream fis = url.getInputStream();
-		@SuppressWarnings("resource")
-		DualPrintWriter pr = writable.getPrintWriterUTF8AutoFlush();//new PrintWriter(new OutputStreamWriter(outStream, StandardCharsets.UTF_8), true);
-		//pr.setLineSeparator("\r\n");
-		pr.println("FILENAME: " + file.getName());
-		pr.println("FILESIZE: " + fileSize);
-		pr.println("FILELASTMOD: " + url.getLastModified());
-		//System.out.println("Sending file size: " + fileSize);
-		pr.flush();
-		writable.flush();//outStream.flush();
-		
-		long sent = 0;
-		final double fileSizeD = fileSize + 0.00D;
-		
-		byte[] b = new byte[4096];
-		int len;
-		while((len = fis.read(b)) >= 0) {
-			writable.write(b, 0, len);//outStream.write(b, 0, len);
-			sent += len;
-			if(progress != null) {
-				progress.setValue(Double.valueOf(sent / fileSizeD));
-			}
-		}
-		writable.flush();//outStream.flush();
-		fis.close();
-		if(progress != null) {
-			progress.setValue(Double.valueOf(1.0D));
+		try(FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final long fileSize = in.size();
+			final ProgressUpdater updater = new ProgressUpdater(progress, fileSize);
+			@SuppressWarnings("resource")
+			DualPrintWriter pr = writable.getPrintWriterUTF8AutoFlush();//new PrintWriter(new OutputStreamWriter(outStream, StandardCharsets.UTF_8), true);
+			//pr.setLineSeparator("\r\n");
+			pr.println("FILENAME: " + file.getName());
+			pr.println("FILESIZE: " + fileSize);
+			pr.println("FILELASTMOD: " + file.lastModified());
+			//System.out.println("Sending file size: " + fileSize);
+			pr.flush();
+			writable.flush();//outStream.flush();
+			
+			final byte[] b = new byte[(int) Math.max(1L, Math.min(copyBufferSize, fileSize))];
+			long sent = 0;
+			if(fileSize >= mapThreshold) {
+				for(long position = 0; position < fileSize; position += mapRegionSize) {
+					final MappedByteBuffer region = in.map(FileChannel.MapMode.READ_ONLY, position, Math.min(mapRegionSize, fileSize - position));
+					while(region.hasRemaining()) {
+						final int len = Math.min(b.length, region.remaining());
+						region.get(b, 0, len);
+						writable.write(b, 0, len);
+						sent += len;
+						updater.update(sent);
+					}
+				}
+			} else {
+				final ByteBuffer buf = ByteBuffer.wrap(b);
+				while(sent < fileSize) {
+					buf.clear();
+					final int len = in.read(buf, sent);
+					if(len < 0) {
+						throw new IOException("File \"" + file.getName() + "\" was truncated while it was being sent(" + sent + " of " + fileSize + " bytes sent)");
+					}
+					writable.write(b, 0, len);
+					sent += len;
+					updater.update(sent);
+				}
+			}
+			writable.flush();//outStream.flush();
+			updater.done();
+		}
+	}
+	
+	//Resumable transfers:
+	
+	/** The version of the resumable transfer protocol */
+	private static final int resumableVersion = 1;
+	/** The version of the resumable transfer protocol that sends a part of a
+	 * file(announced with an extra {@code FILEPART} line) over each of several
+	 * streams */
+	private static final int parallelVersion = 2;
+	/** The version of the resumable transfer protocol that deduplicated
+	 * transfers use(see {@link #sendFileDedup(File, InputStream, OutputStream, Property)}) */
+	private static final int dedupVersion = 3;
+	/** The size of the chunks that resumable transfers are sent in(1MB) */
+	public static final int resumableChunkSize = 0x100000;
+	private static final int maxResumableChunkSize = 0x1000000;
+	/** The algorithm that each chunk of a resumable transfer is hashed with */
+	public static final String chunkHashAlgorithm = "SHA-256";
+	
+	private static final void writeLine(OutputStream out, String line) throws IOException {
+		out.write((line + "\r\n").getBytes(StandardCharsets.UTF_8));
+	}
+	
+	private static final MessageDigest getMessageDigest(String algorithm) throws IOException {
+		if(algorithm.equals("SHA-256")) {
+			return getSHA256();
+		}
+		try {
+			return MessageDigest.getInstance(algorithm);
+		} catch(NoSuchAlgorithmException e) {
+			throw new IOException("Unsupported chunk hash algorithm: " + algorithm, e);
+		}
+	}
+	
+	private static final char[] hexChars = "0123456789abcdef".toCharArray();
+	
+	/** @param bytes The bytes to convert
+	 * @return The given bytes as a lowercase hexadecimal string(two
+	 *         characters per byte) */
+	static final String toHex(byte[] bytes) {
+		final char[] chars = new char[bytes.length * 2];
+		for(int i = 0; i < bytes.length; i++) {
+			chars[i * 2] = hexChars[(bytes[i] >> 4) & 0xF];
+			chars[i * 2 + 1] = hexChars[bytes[i] & 0xF];
+		}
+		return new String(chars);
+	}
+	
+	/** Sends the given file over the given socket using the resumable transfer
+	 * protocol.
+	 * 
+	 * @see #sendFileResumable(File, InputStream, OutputStream, Property) */
+	public static final void sendFileResumable(File file, Socket socket, Property<Double> progress) throws IOException {
+		sendFileResumable(file, socket.getInputStream(), socket.getOutputStream(), progress);
+	}
+	
+	/** Sends the given file using the resumable transfer protocol, which lets
+	 * a receiver that already has part of the file(from an earlier, interrupted
+	 * transfer) ask for just the rest of it:
+	 * <ol>
+	 * <li>The sender sends a {@code FILERESUME: <version> <chunk size> <hash
+	 * algorithm>} line, followed by the usual {@code FILENAME}, {@code FILESIZE}
+	 * and {@code FILELASTMOD} header lines.</li>
+	 * <li>The receiver answers with a {@code FILERANGE: <start> <end>} line
+	 * giving the range of bytes that it still needs. {@code start} must be a
+	 * multiple of the chunk size.</li>
+	 * <li>The sender sends that range in chunks, each preceded by a
+	 * {@code CHUNK: <index> <length> <hash>} line, where {@code index} is the
+	 * chunk's offset in the file divided by the chunk size and {@code hash} is
+	 * the hexadecimal hash of the chunk's data.</li>
+	 * </ol>
+	 * A receiver that reads this with
+	 * {@link #readFileResumable(InputStream, OutputStream, Path, Property)}
+	 * verifies every chunk before writing it, so whatever it has on disk after
+	 * a dropped connection can be trusted when the transfer is retried.
+	 * 
+	 * @param file The file to send
+	 * @param in The input stream that the receiver's replies are read from
+	 * @param out The output stream to send the file to
+	 * @param progress The property that will be updated with the fraction of
+	 *            the file that the receiver has, or {@code null}
+	 * @throws IOException Thrown if an I/O error occurs or the receiver asks
+	 *             for an invalid range */
+	public static final void sendFileResumable(File file, InputStream in, OutputStream out, Property<Double> progress) throws IOException {
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final long fileSize = channel.size();
+			final ProgressUpdater updater = new ProgressUpdater(progress, fileSize);
+			sendPart(channel, file, fileSize, in, out, resumableVersion, 0, fileSize, updater);
+			updater.done();
+		}
+	}
+	
+	/** Sends the given part of a file(the whole file, for
+	 * {@link #resumableVersion}) with the resumable transfer protocol. */
+	private static final void sendPart(FileChannel channel, File file, long fileSize, InputStream in, OutputStream out, int version, long partStart, long partEnd, ProgressUpdater updater) throws IOException {
+		writeLine(out, "FILERESUME: " + version + " " + resumableChunkSize + " " + chunkHashAlgorithm);
+		out.write(getHeader(file, fileSize));
+		if(version == parallelVersion) {
+			writeLine(out, "FILEPART: " + partStart + " " + partEnd);
+		}
+		out.flush();
+		final String range = getHeaderValue(readHeaderLine(in), "FILERANGE: ");
+		final String[] args = range == null ? new String[0] : range.split(" ");
+		if(args.length != 2 || !StringUtil.isStrLong(args[0]) || !StringUtil.isStrLong(args[1])) {
+			throw new IOException("Malformed reply from the receiver: expected \"FILERANGE: <start> <end>\", got: " + range);
+		}
+		final long start = Long.parseLong(args[0]), end = Long.parseLong(args[1]);
+		if(start < partStart || start > end || end > partEnd || start % resumableChunkSize != 0) {
+			throw new IOException("Invalid range requested by the receiver: " + start + "-" + end + "(part: " + partStart + "-" + partEnd + ")");
+		}
+		updater.add(start - partStart);//The receiver already has this much
+		sendChunks(channel, file.getName(), out, start, end, resumableChunkSize, getMessageDigest(chunkHashAlgorithm), updater);
+		out.flush();
+	}
+	
+	//Parallel transfers:
+	
+	/** A task that runs on one of the streams of a parallel transfer */
+	private static interface StreamTask {
+		/** @param index The index of the stream
+		 * @param socket The stream's socket
+		 * @throws IOException Thrown if an I/O error occurs */
+		public void run(int index, Socket socket) throws IOException;
+	}
+	
+	/** Runs the given task on each socket in its own thread and waits for all
+	 * of them to finish. If one of them fails, every socket is closed(so that
+	 * the other streams don't wait forever for data that will never come) and
+	 * the first error is thrown. */
+	private static final void runStreams(final List<Socket> sockets, String name, final StreamTask task) throws IOException {
+		final AtomicReference<IOException> error = new AtomicReference<>();
+		final Thread[] threads = new Thread[sockets.size()];
+		for(int i = 0; i < threads.length; i++) {
+			final int index = i;
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public final void run() {
+					try {
+						task.run(index, sockets.get(index));
+					} catch(IOException | RuntimeException e) {
+						if(error.compareAndSet(null, e instanceof IOException ? (IOException) e : new IOException(e))) {
+							closeAll(sockets);
+						}
+					}
+				}
+			}, name + i);
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+		for(Thread thread : threads) {
+			try {
+				thread.join();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				closeAll(sockets);
+				throw new InterruptedIOException("Interrupted while waiting for the transfer to finish");
+			}
+		}
+		if(error.get() != null) {
+			throw error.get();
+		}
+	}
+	
+	private static final void closeAll(List<Socket> sockets) {
+		for(Socket socket : sockets) {
+			try {
+				socket.close();
+			} catch(IOException ignored) {
+			}
+		}
+	}
+	
+	/** @return The boundaries of the given number of parts that a file of the
+	 *         given size is split into(part {@code i} is
+	 *         {@code bounds[i]} to {@code bounds[i + 1]}), each starting at a
+	 *         chunk boundary */
+	private static final long[] getPartBounds(long fileSize, int parts) {
+		final long chunks = (fileSize + resumableChunkSize - 1) / resumableChunkSize;
+		final long[] bounds = new long[parts + 1];
+		for(int i = 0; i <= parts; i++) {
+			bounds[i] = Math.min(fileSize, chunks * i / parts * resumableChunkSize);
+		}
+		bounds[parts] = fileSize;
+		return bounds;
+	}
+	
+	/** Sends the given file over several sockets at once, each of which
+	 * carries one part of it(split at chunk boundaries). A single TCP stream
+	 * can only have one window's worth of data in flight per round trip, so
+	 * on links with a large bandwidth-delay product, several streams can move
+	 * a file many times faster than one.<br>
+	 * Each socket uses the resumable transfer protocol(see
+	 * {@link #sendFileResumable(File, InputStream, OutputStream, Property)}),
+	 * with an additional {@code FILEPART: <start> <end>} header line telling
+	 * the receiver which part of the file it carries. The other end must
+	 * receive the file with {@link #readFileParallel(List, Path, Property)},
+	 * using the same sockets in any order.
+	 * 
+	 * @param file The file to send
+	 * @param sockets The sockets to send the file over(if any of them fails,
+	 *            all of them are closed)
+	 * @param progress The property that will be updated with the fraction of
+	 *            the file that the receiver has, or {@code null}
+	 * @throws IOException Thrown if an I/O error occurs on any of the
+	 *             sockets */
+	public static final void sendFileParallel(final File file, List<Socket> sockets, Property<Double> progress) throws IOException {
+		try(final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final long fileSize = channel.size();
+			final ProgressUpdater updater = new ProgressUpdater(progress, fileSize);
+			final long[] bounds = getPartBounds(fileSize, sockets.size());
+			runStreams(sockets, "FileTransfer-send-", new StreamTask() {
+				@Override
+				public final void run(int index, Socket socket) throws IOException {
+					sendPart(channel, file, fileSize, socket.getInputStream(), socket.getOutputStream(), parallelVersion, bounds[index], bounds[index + 1], updater);
+				}
+			});
+			updater.done();
+		}
+	}
+	
+	/** Receives a file that was sent with
+	 * {@link #sendFileParallel(File, List, Property)}. Each stream's chunks
+	 * are verified and written straight to their place in the file with
+	 * positional writes, so the parts can arrive in any order.<br>
+	 * Unlike {@link #readFileResumable(InputStream, OutputStream, Path, Property)},
+	 * an interrupted parallel transfer starts over from the beginning of each
+	 * part. The parts are written to a {@code .parallel.part} file of their
+	 * own, which is deleted if the transfer fails: since the parts can finish
+	 * in any order, it can't be resumed from its length the way the
+	 * {@code .part} files of resumable transfers are.
+	 * 
+	 * @param sockets The sockets to receive the file over(if any of them
+	 *            fails, all of them are closed)
+	 * @param target The file to save the received file as, or a directory to
+	 *            save it in(under the name that it was sent with)
+	 * @param progress The property that will be updated with the percentage
+	 *            of the file that has been received, or {@code null}
+	 * @return The received file's header, along with where it was saved
+	 * @throws IOException Thrown if an I/O error occurs on any of the
+	 *             sockets, a chunk fails its hash check, or the parts that
+	 *             were announced don't make up the whole file */
+	public static final FileInfo readFileParallel(List<Socket> sockets, Path target, Property<Double> progress) throws IOException {
+		final ResumeHeader[] headers = new ResumeHeader[sockets.size()];
+		try {
+			for(int i = 0; i < headers.length; i++) {
+				final InputStream in = sockets.get(i).getInputStream();
+				headers[i] = new ResumeHeader(readHeaderLine(in), in);
+				if(headers[i].version == dedupVersion) {
+					throw new IOException("Received a deduplicated transfer of file \"" + headers[i].file.name + "\"; use readFileResumable to receive it");
+				}
+			}
+			final FileInfo header = headers[0].file;
+			final ResumeHeader[] parts = headers.clone();
+			Arrays.sort(parts, new Comparator<ResumeHeader>() {
+				@Override
+				public final int compare(ResumeHeader h1, ResumeHeader h2) {
+					return Long.compare(h1.partStart, h2.partStart);
+				}
+			});
+			long position = 0;
+			for(ResumeHeader part : parts) {
+				if(!part.file.name.equals(header.name) || part.file.size != header.size || part.file.lastModified != header.lastModified || part.chunkSize != headers[0].chunkSize) {
+					throw new IOException("The streams of a parallel transfer announced different files: " + part.file + " and " + header);
+				}
+				if(part.partStart != position) {
+					throw new IOException("The parts of a parallel transfer don't make up the whole file: expected a part starting at " + position + ", got " + part.partStart + "-" + part.partEnd);
+				}
+				position = part.partEnd;
+			}
+			if(position != header.size) {
+				throw new IOException("The parts of a parallel transfer don't make up the whole file: the last part ends at " + position + " of " + header.size + " bytes");
+			}
+		} catch(IOException e) {
+			closeAll(sockets);
+			throw e;
+		}
+		final FileInfo header = headers[0].file;
+		final Path path = getTargetPath(target, header);
+		final Path partial = getPartialPath(path, header, ".parallel.part");
+		final ProgressUpdater updater = new ProgressUpdater(progress, header.size, 100.0D);
+		try(final FileChannel file = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			runStreams(sockets, "FileTransfer-receive-", new StreamTask() {
+				@Override
+				public final void run(int index, Socket socket) throws IOException {
+					final ResumeHeader part = headers[index];
+					final OutputStream out = socket.getOutputStream();
+					writeLine(out, "FILERANGE: " + part.partStart + " " + part.partEnd);
+					out.flush();
+					readChunks(socket.getInputStream(), file, part.file, part.partStart, part.partEnd, part.chunkSize, getMessageDigest(part.hashAlgorithm), updater);
+				}
+			});
+		} catch(IOException | RuntimeException e) {
+			Files.deleteIfExists(partial);//It has holes wherever a part didn't finish
+			throw e;
 		}
+		Files.move(partial, path, StandardCopyOption.REPLACE_EXISTING);
+		Files.setLastModifiedTime(path, FileTime.fromMillis(header.lastModified));
+		updater.done();
+		return new FileInfo(header.name, header.size, header.lastModified, path);
+	}
+	
+	private static final void sendChunks(FileChannel channel, String fileName, OutputStream out, long start, long end, int chunkSize, MessageDigest digest, ProgressUpdater updater) throws IOException {
+		final byte[] buf = new byte[(int) Math.max(1L, Math.min(chunkSize, end - start))];
+		for(long position = start; position < end;) {
+			final int len = (int) Math.min(buf.length, end - position);
+			sendChunk(channel, fileName, out, buf, position / chunkSize, position, len, digest);
+			position += len;
+			updater.add(len);
+		}
+	}
+	
+	/** Reads one chunk of a file into the given buffer, then sends it along
+	 * with its {@code CHUNK} line. */
+	private static final void sendChunk(FileChannel channel, String fileName, OutputStream out, byte[] buf, long index, long position, int len, MessageDigest digest) throws IOException {
+		readFully(channel, fileName, buf, position, len);
+		digest.reset();
+		digest.update(buf, 0, len);
+		writeLine(out, "CHUNK: " + index + " " + len + " " + toHex(digest.digest()));
+		out.write(buf, 0, len);
+	}
+	
+	/** Receives a file over the given socket using the resumable transfer
+	 * protocol.
+	 * 
+	 * @see #readFileResumable(InputStream, OutputStream, Path, Property) */
+	public static final FileInfo readFileResumable(Socket socket, Path target, Property<Double> progress) throws IOException {
+		return readFileResumable(socket.getInputStream(), socket.getOutputStream(), target, progress);
+	}
+	
+	/** Receives a file that was sent with
+	 * {@link #sendFileResumable(File, InputStream, OutputStream, Property)}.
+	 * The data is written to a {@code .part} file next to the target(named
+	 * after the sent file's size and last modification time, so that a
+	 * partial copy of an older version of the file is never resumed), which
+	 * replaces the target once the whole file has been received. If the
+	 * transfer is interrupted, calling this again with the same target picks
+	 * up after the last complete chunk.<br>
+	 * Files sent with
+	 * {@link #sendFileDedup(File, InputStream, OutputStream, Property)} are
+	 * received as well, reusing whatever chunks of them are already on
+	 * disk.<br>
+	 * Files sent with {@link #sendFile(File, OutputStream, Property)} are
+	 * received as well(just not resumably), since their header starts with
+	 * {@code FILENAME} instead of {@code FILERESUME}.
+	 * 
+	 * @param in The input stream to read the file from
+	 * @param out The output stream that replies are sent to
+	 * @param target The file to save the received file as, or a directory to
+	 *            save it in(under the name that it was sent with)
+	 * @param progress The property that will be updated with the percentage
+	 *            of the file that has been received, or {@code null}
+	 * @return The received file's header, along with where it was saved
+	 * @throws IOException Thrown if an I/O error occurs, a chunk fails its
+	 *             hash check, or the stream ends before the whole file has
+	 *             been received */
+	public static final FileInfo readFileResumable(InputStream in, OutputStream out, Path target, Property<Double> progress) throws IOException {
+		final String firstLine = readHeaderLine(in);
+		if(getHeaderValue(firstLine, "FILERESUME: ") == null) {
+			return readFile(in, readHeader(firstLine, in), target, progress);
+		}
+		final ResumeHeader resume = new ResumeHeader(firstLine, in);
+		final FileInfo header = resume.file;
+		if(resume.version == dedupVersion) {
+			return readFileDedup(in, out, resume, target, progress);
+		}
+		if(resume.partStart != 0 || resume.partEnd != header.size) {
+			throw new IOException("Received part " + resume.partStart + "-" + resume.partEnd + " of a parallel transfer of file \"" + header.name + "\"; use readFileParallel to receive it");
+		}
+		final Path path = getTargetPath(target, header);
+		final Path partial = getPartialPath(path, header);
+		long start = 0;
+		if(Files.isRegularFile(partial)) {
+			start = Math.min(Files.size(partial), header.size);
+			if(start < header.size) {
+				start -= start % resume.chunkSize;//Only complete chunks have been verified
+			}
+		}
+		writeLine(out, "FILERANGE: " + start + " " + header.size);
+		out.flush();
+		final ProgressUpdater updater = new ProgressUpdater(progress, header.size, 100.0D);
+		updater.update(start);
+		try(FileChannel file = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			file.truncate(start);
+			readChunks(in, file, header, start, header.size, resume.chunkSize, getMessageDigest(resume.hashAlgorithm), updater);
+		}
+		Files.move(partial, path, StandardCopyOption.REPLACE_EXISTING);
+		Files.setLastModifiedTime(path, FileTime.fromMillis(header.lastModified));
+		updater.done();
+		return new FileInfo(header.name, header.size, header.lastModified, path);
+	}
+	
+	private static final Path getPartialPath(Path path, FileInfo header) {
+		return getPartialPath(path, header, ".part");
+	}
+	
+	private static final Path getPartialPath(Path path, FileInfo header, String extension) {
+		return path.resolveSibling(path.getFileName() + "." + header.size + "-" + header.lastModified + extension);
+	}
+	
+	/** The header of a resumable transfer(or of one stream of a parallel
+	 * one). */
+	private static final class ResumeHeader {
+		final int chunkSize;
+		final String hashAlgorithm;
+		final int version;
+		final FileInfo file;
+		/** The range of the file that is sent over this stream */
+		final long partStart, partEnd;
+		/** The hashes of all of the file's chunks, for {@link #dedupVersion}
+		 * (otherwise {@code null}) */
+		final byte[] chunkHashes;
+		
+		/** @param firstLine The {@code FILERESUME} line that was already read
+		 * @param in The input stream to read the rest of the header from */
+		ResumeHeader(String firstLine, InputStream in) throws IOException {
+			final String resume = getHeaderValue(firstLine, "FILERESUME: ");
+			final String[] args = resume == null ? new String[0] : resume.split(" ");
+			if(args.length != 3 || !StringUtil.isStrInt(args[0]) || !StringUtil.isStrInt(args[1])) {
+				throw new IOException("Malformed resumable transfer header: " + firstLine);
+			}
+			this.version = Integer.parseInt(args[0]);
+			if(this.version != resumableVersion && this.version != parallelVersion && this.version != dedupVersion) {
+				throw new IOException("Unsupported resumable transfer version: " + this.version);
+			}
+			this.chunkSize = Integer.parseInt(args[1]);
+			if(this.chunkSize <= 0 || this.chunkSize > maxResumableChunkSize) {
+				throw new IOException("Chunk size out of bounds(must be > 0 and <= " + maxResumableChunkSize + "): " + this.chunkSize);
+			}
+			this.hashAlgorithm = args[2];
+			getMessageDigest(this.hashAlgorithm);//Fail before anything is written if the algorithm isn't supported
+			this.file = readHeader(in);
+			if(this.version == dedupVersion && (this.chunkSize != treeHashChunkSize || !this.hashAlgorithm.equals("SHA-256"))) {
+				throw new IOException("Deduplicated transfers must use " + treeHashChunkSize + " byte SHA-256 chunks: " + firstLine);
+			}
+			if(this.version == parallelVersion) {
+				final String part = getHeaderValue(readHeaderLine(in), "FILEPART: ");
+				final String[] range = part == null ? new String[0] : part.split(" ");
+				if(range.length != 2 || !StringUtil.isStrLong(range[0]) || !StringUtil.isStrLong(range[1])) {
+					throw new IOException("Malformed parallel transfer header: expected \"FILEPART: <start> <end>\", got: " + part);
+				}
+				this.partStart = Long.parseLong(range[0]);
+				this.partEnd = Long.parseLong(range[1]);
+				if(this.partStart < 0 || this.partStart > this.partEnd || this.partEnd > this.file.size || this.partStart % this.chunkSize != 0) {
+					throw new IOException("Invalid part: " + part + "(file size: " + this.file.size + ")");
+				}
+			} else {
+				this.partStart = 0;
+				this.partEnd = this.file.size;
+			}
+			if(this.version == dedupVersion) {
+				final String count = getHeaderValue(readHeaderLine(in), "FILEHASHES: ");
+				if(count == null || !StringUtil.isStrLong(count) || Long.parseLong(count) != getChunkCount(this.file.size)) {
+					throw new IOException("Malformed deduplicated transfer header: expected \"FILEHASHES: " + getChunkCount(this.file.size) + "\", got: " + count);
+				}
+				final long length = Long.parseLong(count) * chunkHashLength;
+				if(length < 0 || length > Integer.MAX_VALUE) {
+					throw new IOException("File \"" + this.file.name + "\" is too large to be transferred in chunks(" + this.file.size + " bytes)");
+				}
+				//The size comes from the other end, so the buffer only grows as the hashes actually arrive:
+				byte[] hashes = new byte[(int) Math.min(length, 0x100000L)];
+				int read = 0;
+				while(read < length) {
+					if(read == hashes.length) {
+						hashes = Arrays.copyOf(hashes, (int) Math.min(length, hashes.length * 2L));
+					}
+					final int len = in.read(hashes, read, hashes.length - read);
+					if(len == -1) {
+						throw new EOFException("End of stream reached while reading the chunk hashes of file \"" + this.file.name + "\"");
+					}
+					read += len;
+				}
+				this.chunkHashes = hashes;
+			} else {
+				this.chunkHashes = null;
+			}
+		}
+		
+	}
+	
+	private static final void readChunks(InputStream in, FileChannel file, FileInfo header, long start, long end, int chunkSize, MessageDigest digest, ProgressUpdater updater) throws IOException {
+		final byte[] buf = new byte[(int) Math.max(1L, Math.min(chunkSize, end - start))];
+		for(long position = start; position < end;) {
+			final int len = (int) Math.min(buf.length, end - position);
+			readChunk(in, header, buf, position / chunkSize, len, digest);
+			writeFully(file, buf, position, len);
+			position += len;
+			updater.add(len);
+		}
+	}
+	
+	/** Reads the given chunk(and its {@code CHUNK} line) into the given buffer
+	 * and checks it against the hash that was sent with it.
+	 * 
+	 * @return The chunk's hash */
+	private static final byte[] readChunk(InputStream in, FileInfo header, byte[] buf, long index, int len, MessageDigest digest) throws IOException {
+		final String line = readHeaderLine(in);
+		if(line == null) {
+			throw new EOFException("End of stream reached before chunk #" + index + " of file \"" + header.name + "\"");
+		}
+		final String chunk = getHeaderValue(line, "CHUNK: ");
+		final String[] args = chunk == null ? new String[0] : chunk.split(" ");
+		if(args.length != 3 || !StringUtil.isStrLong(args[0]) || Long.parseLong(args[0]) != index || !args[1].equals(Integer.toString(len))) {
+			throw new IOException("Unexpected chunk header(expected chunk #" + index + " with " + len + " bytes): " + line);
+		}
+		int count = 0;
+		while(count < len) {
+			final int read = in.read(buf, count, len - count);
+			if(read == -1) {
+				throw new EOFException("End of stream reached after " + count + " of " + len + " bytes of chunk #" + index + " of file \"" + header.name + "\"");
+			}
+			count += read;
+		}
+		digest.reset();
+		digest.update(buf, 0, len);
+		final byte[] hash = digest.digest();
+		if(!toHex(hash).equalsIgnoreCase(args[2])) {
+			throw new IOException("Chunk #" + index + " of file \"" + header.name + "\" is corrupt(hash mismatch)");
+		}
+		return hash;
+	}
+	
+	/** Reads the given number of bytes from the given position of a file. */
+	private static final void readFully(FileChannel file, String fileName, byte[] buf, long position, int len) throws IOException {
+		final ByteBuffer wrapped = ByteBuffer.wrap(buf, 0, len);
+		while(wrapped.hasRemaining()) {
+			if(file.read(wrapped, position + wrapped.position()) < 0) {
+				throw new EOFException("File \"" + fileName + "\" was truncated while it was being read(" + (position + wrapped.position()) + " bytes read)");
+			}
+		}
+	}
+	
+	/** Writes the given bytes to the given position of a file. */
+	private static final void writeFully(FileChannel file, byte[] buf, long position, int len) throws IOException {
+		final ByteBuffer wrapped = ByteBuffer.wrap(buf, 0, len);
+		while(wrapped.hasRemaining()) {
+			file.write(wrapped, position + wrapped.position());
+		}
+	}
+	
+	//Deduplicated transfers:
+	
+	/** Sends the given file over the given socket, skipping the chunks that
+	 * the receiver already has.
+	 * 
+	 * @see #sendFileDedup(File, InputStream, OutputStream, Property) */
+	public static final void sendFileDedup(File file, Socket socket, Property<Double> progress) throws IOException {
+		sendFileDedup(file, socket.getInputStream(), socket.getOutputStream(), progress);
+	}
+	
+	/** Sends the given file using the deduplicating version of the resumable
+	 * transfer protocol, which only sends the chunks that the receiver doesn't
+	 * already have somewhere:
+	 * <ol>
+	 * <li>The sender sends a {@code FILERESUME: 3 <chunk size> SHA-256} line,
+	 * the usual header lines, and a {@code FILEHASHES: <count>} line followed
+	 * by the raw hashes of all of the file's
+	 * {@link #treeHashChunkSize} chunks({@value #chunkHashLength} bytes
+	 * each).</li>
+	 * <li>The receiver answers with a {@code FILEHAVE: <bitmap>} line: one bit
+	 * per chunk, in hexadecimal(chunk {@code i} is bit {@code i % 8} of byte
+	 * {@code i / 8}), set for each chunk that it already has, either at the
+	 * same place in the {@code .part} file of an interrupted transfer or
+	 * anywhere in its current copy of the file.</li>
+	 * <li>The sender sends the remaining chunks in order, the same way as
+	 * {@link #sendFileResumable(File, InputStream, OutputStream, Property)}
+	 * does.</li>
+	 * </ol>
+	 * The chunk hashes come from {@link #getChunkHashes(File)}, so sending a
+	 * file that hasn't changed since the last time it was sent doesn't read it
+	 * just to hash it, and sending a file that has only changed in a few
+	 * places only sends the chunks around those places. The other end must
+	 * receive the file with
+	 * {@link #readFileResumable(InputStream, OutputStream, Path, Property)}.
+	 * 
+	 * @param file The file to send
+	 * @param in The input stream that the receiver's replies are read from
+	 * @param out The output stream to send the file to
+	 * @param progress The property that will be updated with the fraction of
+	 *            the file that the receiver has, or {@code null}
+	 * @throws IOException Thrown if an I/O error occurs, the file changes
+	 *             while it is being hashed, or the receiver's reply is
+	 *             malformed */
+	public static final void sendFileDedup(File file, InputStream in, OutputStream out, Property<Double> progress) throws IOException {
+		final byte[] hashes = getChunkHashes(file);
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final long fileSize = channel.size();
+			final long count = getChunkCount(fileSize);
+			if(hashes.length != count * chunkHashLength) {
+				throw new IOException("File \"" + file.getName() + "\" changed while it was being hashed");
+			}
+			writeLine(out, "FILERESUME: " + dedupVersion + " " + treeHashChunkSize + " SHA-256");
+			out.write(getHeader(file, fileSize));
+			writeLine(out, "FILEHASHES: " + count);
+			out.write(hashes);
+			out.flush();
+			final byte[] have = parseChunkBitmap(getHeaderValue(readHeaderLine(in), "FILEHAVE: "), (int) count);
+			final ProgressUpdater updater = new ProgressUpdater(progress, fileSize);
+			final byte[] buf = new byte[(int) Math.max(1L, Math.min(treeHashChunkSize, fileSize))];
+			final MessageDigest digest = getSHA256();
+			for(int i = 0; i < count; i++) {
+				final int len = getChunkLength(fileSize, i);
+				if((have[i >>> 3] & (1 << (i & 7))) == 0) {
+					sendChunk(channel, file.getName(), out, buf, i, (long) i * treeHashChunkSize, len, digest);
+				}
+				updater.add(len);
+			}
+			out.flush();
+			updater.done();
+		}
+	}
+	
+	/** @return The bitmap of a {@code FILEHAVE} line */
+	private static final byte[] parseChunkBitmap(String hex, int count) throws IOException {
+		final byte[] bitmap = new byte[(count + 7) / 8];
+		if(hex == null || hex.length() != bitmap.length * 2) {
+			throw new IOException("Malformed reply from the receiver: expected \"FILEHAVE: <" + (bitmap.length * 2) + " hexadecimal digits>\", got: " + hex);
+		}
+		for(int i = 0; i < bitmap.length; i++) {
+			final int high = Character.digit(hex.charAt(i * 2), 16), low = Character.digit(hex.charAt(i * 2 + 1), 16);
+			if(high == -1 || low == -1) {
+				throw new IOException("Malformed reply from the receiver: \"" + hex + "\" is not a hexadecimal bitmap");
+			}
+			bitmap[i] = (byte) ((high << 4) | low);
+		}
+		return bitmap;
+	}
+	
+	/** @return The length of the given {@link #treeHashChunkSize} chunk of a
+	 *         file of the given size(zero or less if the file ends before
+	 *         it) */
+	private static final int getChunkLength(long size, int index) {
+		return (int) Math.min(treeHashChunkSize, size - (long) index * treeHashChunkSize);
+	}
+	
+	/** @return Whether chunk {@code i} of the first array of chunk hashes is
+	 *         the same as chunk {@code j} of the second */
+	private static final boolean chunkHashEquals(byte[] hashes1, int i, byte[] hashes2, int j) {
+		for(int k = 0; k < chunkHashLength; k++) {
+			if(hashes1[i * chunkHashLength + k] != hashes2[j * chunkHashLength + k]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/** Receives a file that was sent with
+	 * {@link #sendFileDedup(File, InputStream, OutputStream, Property)}.
+	 * Chunks that are already at their place in the {@code .part} file are
+	 * kept, chunks that can be found anywhere in the current copy of the
+	 * target file(by their hashes) are copied from it, and only the rest are
+	 * asked for. */
+	private static final FileInfo readFileDedup(InputStream in, OutputStream out, ResumeHeader resume, Path target, Property<Double> progress) throws IOException {
+		final FileInfo header = resume.file;
+		final Path path = getTargetPath(target, header);
+		final Path partial = getPartialPath(path, header);
+		final int count = resume.chunkHashes.length / chunkHashLength;
+		final boolean[] inPartial = new boolean[count];
+		final long[] sources = new long[count];
+		Arrays.fill(sources, -1L);
+		if(Files.isRegularFile(partial)) {
+			final long partialSize = Files.size(partial);
+			final byte[] hashes = computeChunkHashes(partial.toFile());//Not cached, since the .part file is about to change
+			for(int i = 0; i < count && i < hashes.length / chunkHashLength; i++) {
+				inPartial[i] = getChunkLength(partialSize, i) == getChunkLength(header.size, i) && chunkHashEquals(hashes, i, resume.chunkHashes, i);
+			}
+		}
+		boolean copying = false;
+		if(Files.isRegularFile(path)) {
+			final byte[] hashes = getChunkHashes(path.toFile());
+			final HashMap<ByteBuffer, Long> offsets = new HashMap<>();
+			for(int i = hashes.length / chunkHashLength - 1; i >= 0; i--) {
+				offsets.put(ByteBuffer.wrap(hashes, i * chunkHashLength, chunkHashLength), Long.valueOf((long) i * treeHashChunkSize));
+			}
+			for(int i = 0; i < count; i++) {
+				final Long offset = inPartial[i] ? null : offsets.get(ByteBuffer.wrap(resume.chunkHashes, i * chunkHashLength, chunkHashLength));
+				if(offset != null) {
+					sources[i] = offset.longValue();
+					copying = true;
+				}
+			}
+		}
+		final byte[] bitmap = new byte[(count + 7) / 8];
+		for(int i = 0; i < count; i++) {
+			if(inPartial[i] || sources[i] != -1L) {
+				bitmap[i >>> 3] |= 1 << (i & 7);
+			}
+		}
+		writeLine(out, "FILEHAVE: " + toHex(bitmap));
+		out.flush();
+		final ProgressUpdater updater = new ProgressUpdater(progress, header.size, 100.0D);
+		final byte[] buf = new byte[(int) Math.max(1L, Math.min(treeHashChunkSize, header.size))];
+		final MessageDigest digest = getSHA256();
+		try(FileChannel file = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE); FileChannel existing = copying ? FileChannel.open(path, StandardOpenOption.READ) : null) {
+			for(int i = 0; i < count; i++) {
+				final int len = getChunkLength(header.size, i);
+				if(!inPartial[i]) {
+					final byte[] hash;
+					if(sources[i] != -1L) {
+						readFully(existing, header.name, buf, sources[i], len);
+						digest.reset();
+						digest.update(buf, 0, len);
+						hash = digest.digest();
+					} else {
+						hash = readChunk(in, header, buf, i, len, digest);
+					}
+					if(!chunkHashEquals(hash, 0, resume.chunkHashes, i)) {
+						throw new IOException("Chunk #" + i + " of file \"" + header.name + "\" doesn't match the hash that was announced for it");
+					}
+					writeFully(file, buf, (long) i * treeHashChunkSize, len);
+				}
+				updater.add(len);
+			}
+			file.truncate(header.size);
+		}
+		Files.move(partial, path, StandardCopyOption.REPLACE_EXISTING);
+		Files.setLastModifiedTime(path, FileTime.fromMillis(header.lastModified));
+		updater.done();
+		return new FileInfo(header.name, header.size, header.lastModified, path);
+	}
+	
+	//Directory transfers:
+	
+	private static final int treeVersion = 1;
+	/** The size of the blocks that a compressed directory transfer is split
+	 * into(256KB) */
+	private static final int treeBlockSize = 0x40000;
+	private static final int maxManifestLength = 0x4000000;
+	
+	/** A file or folder in a directory transfer's manifest */
+	private static final class TreeEntry {
+		/** The entry's path, relative to the root folder, with {@code '/'} as
+		 * the separator */
+		final String path;
+		final boolean isDirectory;
+		final long size, lastModified;
+		/** The file that is being sent, or {@code null} on the receiving end */
+		final Path file;
+		
+		TreeEntry(String path, boolean isDirectory, long size, long lastModified, Path file) {
+			this.path = path;
+			this.isDirectory = isDirectory;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.file = file;
+		}
+		
+	}
+	
+	/** Lists the given folder's contents the same way that
+	 * {@link FileUtil#getSizeDeep(Path)} adds them up, skipping whatever can't
+	 * be read. Every folder comes before its contents. */
+	private static final List<TreeEntry> listTree(final Path root) throws IOException {
+		final List<TreeEntry> entries = new ArrayList<>();
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			private final String getRelativePath(Path path) throws IOException {
+				final String relative = root.relativize(path).toString().replace(File.separatorChar, '/');
+				if(relative.indexOf('\n') != -1 || relative.indexOf('\r') != -1) {
+					throw new IOException("File \"" + path + "\" can't be sent: its name contains a line break");
+				}
+				return relative;
+			}
+			
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				if(!dir.equals(root)) {
+					entries.add(new TreeEntry(this.getRelativePath(dir), true, 0, attrs.lastModifiedTime().toMillis(), dir));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+			
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if(attrs.isRegularFile() && Files.isReadable(file)) {
+					entries.add(new TreeEntry(this.getRelativePath(file), false, attrs.size(), attrs.lastModifiedTime().toMillis(), file));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+			
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+				// Skip folders that can't be traversed
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return entries;
+	}
+	
+	/** Sends the given folder and everything in it over a single stream:
+	 * <ol>
+	 * <li>A {@code FILETREE: <version> <codec id>} line({@code -1} if the
+	 * rest isn't compressed), followed by {@code TREENAME: <name>},
+	 * {@code TREESIZE: <total size of the files>} and
+	 * {@code TREEMANIFEST: <entries> <length>} lines.</li>
+	 * <li>The manifest: one line per entry, every folder before its contents,
+	 * either {@code D <last modified> <path>} for a folder or
+	 * {@code F <size> <last modified> <path>} for a file(paths are relative to
+	 * the folder that was sent, and use {@code '/'} as the separator).</li>
+	 * <li>The contents of the files, back to back, in the manifest's
+	 * order.</li>
+	 * </ol>
+	 * Unlike sending each file with
+	 * {@link #sendFile(File, OutputStream, Property)}, nothing is flushed until
+	 * the end, so many small files are sent in large writes. If a codec is
+	 * given, the manifest and the contents are compressed together in
+	 * {@link #treeBlockSize} blocks, each preceded by its compressed length
+	 * as a 4 byte integer, and followed by a zero length.<br>
+	 * The other end must receive the folder with
+	 * {@link #readFileTree(InputStream, Path, Property)}.
+	 * 
+	 * @param folder The folder to send
+	 * @param out The output stream to send the folder to
+	 * @param codec The codec to compress the folder with(e.g.
+	 *            {@link CompressionCodecs#LZ}), or {@code null}
+	 * @param progress The property that will be updated with the fraction of
+	 *            the folder's contents that have been sent, or {@code null}
+	 * @throws IOException Thrown if an I/O error occurs or a file is
+	 *             truncated while it is being sent */
+	public static final void sendFileTree(File folder, OutputStream out, CompressionCodec codec, Property<Double> progress) throws IOException {
+		final Path root = folder.toPath();
+		if(!Files.isDirectory(root)) {
+			throw new NotDirectoryException(folder.getPath());
+		}
+		final List<TreeEntry> entries = listTree(root);
+		final StringBuilder manifest = new StringBuilder();
+		long totalSize = 0;
+		for(TreeEntry entry : entries) {
+			if(entry.isDirectory) {
+				manifest.append("D ").append(entry.lastModified);
+			} else {
+				manifest.append("F ").append(entry.size).append(' ').append(entry.lastModified);
+				totalSize += entry.size;
+			}
+			manifest.append(' ').append(entry.path).append('\n');
+		}
+		final byte[] manifestData = manifest.toString().getBytes(StandardCharsets.UTF_8);
+		writeLine(out, "FILETREE: " + treeVersion + " " + (codec == null ? -1 : codec.getID()));
+		writeLine(out, "TREENAME: " + folder.getName());
+		writeLine(out, "TREESIZE: " + totalSize);
+		writeLine(out, "TREEMANIFEST: " + entries.size() + " " + manifestData.length);
+		final CompressedBlockOutputStream compressed = codec == null ? null : new CompressedBlockOutputStream(out, codec);
+		final OutputStream body = compressed != null ? compressed : new BufferedOutputStream(out, copyBufferSize);
+		body.write(manifestData);
+		final ProgressUpdater updater = new ProgressUpdater(progress, totalSize);
+		final byte[] buf = new byte[copyBufferSize];
+		for(TreeEntry entry : entries) {
+			if(entry.isDirectory || entry.size == 0) {
+				continue;
+			}
+			try(FileChannel file = FileChannel.open(entry.file, StandardOpenOption.READ)) {
+				for(long position = 0; position < entry.size;) {
+					final int len = (int) Math.min(buf.length, entry.size - position);
+					readFully(file, entry.path, buf, position, len);//Only the size in the manifest is sent, even if the file has grown since
+					body.write(buf, 0, len);
+					position += len;
+					updater.add(len);
+				}
+			}
+		}
+		if(compressed != null) {
+			compressed.finish();
+		} else {
+			body.flush();
+		}
+		updater.done();
+	}
+	
+	/** Receives a folder that was sent with
+	 * {@link #sendFileTree(File, OutputStream, CompressionCodec, Property)}.
+	 * The files' contents are read through one buffer that is refilled with
+	 * as much as the stream has available, so many small files cost about as
+	 * much as one large one(apart from creating them).
+	 * 
+	 * @param in The input stream to read the folder from
+	 * @param target The folder to save the received folder as, or an existing
+	 *            folder to save it in(under the name that it was sent with)
+	 * @param progress The property that will be updated with the percentage
+	 *            of the folder's contents that have been received, or
+	 *            {@code null}
+	 * @return The received files, along with where they were saved
+	 * @throws IOException Thrown if an I/O error occurs, the header or the
+	 *             manifest is malformed(including paths that would leave the
+	 *             target folder), or the stream ends before every file has
+	 *             been received */
+	public static final List<FileInfo> readFileTree(InputStream in, Path target, Property<Double> progress) throws IOException {
+		final String tree = getHeaderValue(readHeaderLine(in), "FILETREE: ");
+		final String[] args = tree == null ? new String[0] : tree.split(" ");
+		if(args.length != 2 || !StringUtil.isStrInt(args[0]) || !StringUtil.isStrInt(args[1])) {
+			throw new IOException("Malformed directory transfer header: " + tree);
+		}
+		if(Integer.parseInt(args[0]) != treeVersion) {
+			throw new IOException("Unsupported directory transfer version: " + args[0]);
+		}
+		final int codecID = Integer.parseInt(args[1]);
+		final CompressionCodec codec = codecID == -1 ? null : CompressionCodecs.getByID(codecID);
+		if(codecID != -1 && codec == null) {
+			throw new IOException("Unknown compression codec id: " + codecID);
+		}
+		final String name = getHeaderValue(readHeaderLine(in), "TREENAME: ");
+		final String size = getHeaderValue(readHeaderLine(in), "TREESIZE: ");
+		final String manifestHeader = getHeaderValue(readHeaderLine(in), "TREEMANIFEST: ");
+		final String[] manifestArgs = manifestHeader == null ? new String[0] : manifestHeader.split(" ");
+		if(name == null || size == null || !StringUtil.isStrLong(size) || manifestArgs.length != 2 || !StringUtil.isStrInt(manifestArgs[0]) || !StringUtil.isStrInt(manifestArgs[1])) {
+			throw new IOException("Malformed directory transfer header(name: " + name + ", size: " + size + ", manifest: " + manifestHeader + ")");
+		}
+		final int entryCount = Integer.parseInt(manifestArgs[0]), manifestLength = Integer.parseInt(manifestArgs[1]);
+		if(manifestLength < 0 || manifestLength > maxManifestLength) {
+			throw new IOException("Manifest length out of bounds(must be >= 0 and <= " + maxManifestLength + "): " + manifestLength);
+		}
+		final InputStream body = codec == null ? in : new CompressedBlockInputStream(in, codec);
+		final byte[] manifestData = new byte[manifestLength];
+		readFully(body, manifestData, 0, manifestLength);
+		final String[] lines = new String(manifestData, StandardCharsets.UTF_8).split("\n");
+		if(entryCount != (manifestLength == 0 ? 0 : lines.length)) {
+			throw new IOException("The manifest has " + (manifestLength == 0 ? 0 : lines.length) + " entries instead of " + entryCount);
+		}
+		final Path root = Files.isDirectory(target) ? target.resolve(getSafeFileName(name)) : target;
+		final Path normalizedRoot = root.toAbsolutePath().normalize();
+		final List<TreeEntry> entries = new ArrayList<>(entryCount);
+		long totalSize = 0;
+		for(int i = 0; i < entryCount; i++) {
+			final String[] entry = lines[i].split(" ", lines[i].startsWith("F ") ? 4 : 3);
+			final boolean isDirectory = entry[0].equals("D");
+			if(!(isDirectory ? entry.length == 3 && StringUtil.isStrLong(entry[1]) : entry[0].equals("F") && entry.length == 4 && StringUtil.isStrLong(entry[1]) && StringUtil.isStrLong(entry[2]) && Long.parseLong(entry[1]) >= 0)) {
+				throw new IOException("Malformed manifest entry: " + lines[i]);
+			}
+			final String path = entry[entry.length - 1];
+			final Path resolved = normalizedRoot.resolve(path).normalize();
+			if(Paths.get(path).isAbsolute() || !resolved.startsWith(normalizedRoot) || resolved.equals(normalizedRoot)) {
+				throw new IOException("Manifest entry \"" + path + "\" is outside of the folder that is being received");
+			}
+			final long entrySize = isDirectory ? 0 : Long.parseLong(entry[1]);
+			entries.add(new TreeEntry(path, isDirectory, entrySize, Long.parseLong(entry[entry.length - 2]), null));
+			totalSize += entrySize;
+		}
+		if(totalSize != Long.parseLong(size)) {
+			throw new IOException("The manifest's files add up to " + totalSize + " bytes instead of " + size);
+		}
+		
+		Files.createDirectories(root);
+		final ProgressUpdater updater = new ProgressUpdater(progress, totalSize, 100.0D);
+		final List<FileInfo> received = new ArrayList<>();
+		final byte[] buf = new byte[(int) Math.max(1L, Math.min(receiveBufferSize, totalSize))];
+		int position = 0, limit = 0;
+		long remaining = totalSize;
+		for(TreeEntry entry : entries) {
+			final Path path = root.resolve(entry.path);
+			if(entry.isDirectory) {
+				Files.createDirectories(path);
+				continue;
+			}
+			try(FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				for(long written = 0; written < entry.size;) {
+					if(position == limit) {//Read as much as is available(even if it belongs to the next few files), so small files don't cost a read each
+						limit = body.read(buf, 0, (int) Math.min(buf.length, remaining));
+						if(limit == -1) {
+							throw new EOFException("End of stream reached after " + written + " of " + entry.size + " bytes of file \"" + entry.path + "\"");
+						}
+						position = 0;
+						remaining -= limit;
+					}
+					final int len = (int) Math.min(limit - position, entry.size - written);
+					final ByteBuffer wrapped = ByteBuffer.wrap(buf, position, len);
+					while(wrapped.hasRemaining()) {
+						file.write(wrapped);
+					}
+					position += len;
+					written += len;
+					updater.add(len);
+				}
+			}
+			path.toFile().setLastModified(entry.lastModified);//A single utimes() call, where Files.setLastModifiedTime opens the file again to set it
+			received.add(new FileInfo(path.getFileName().toString(), entry.size, entry.lastModified, path));
+		}
+		for(int i = entries.size() - 1; i >= 0; i--) {//Creating the files changed their folders' modification times, so these are set last(deepest first)
+			final TreeEntry entry = entries.get(i);
+			if(entry.isDirectory) {
+				Files.setLastModifiedTime(root.resolve(entry.path), FileTime.fromMillis(entry.lastModified));
+			}
+		}
+		if(body != in && body.read() != -1) {//Also reads the compressed stream's end marker, so that whatever follows it can be read from the input stream
+			throw new IOException("Unexpected data after the last file of the folder");
+		}
+		updater.done();
+		return received;
+	}
+	
+	/** Reads the given number of bytes from the given input stream. */
+	private static final void readFully(InputStream in, byte[] buf, int off, int len) throws IOException {
+		int count = 0;
+		while(count < len) {
+			final int read = in.read(buf, off + count, len - count);
+			if(read == -1) {
+				throw new EOFException("End of stream reached after " + count + " of " + len + " bytes");
+			}
+			count += read;
+		}
+	}
+	
+	/** An output stream that compresses everything written to it in
+	 * {@link FileTransfer#treeBlockSize} blocks. {@link #finish()} writes the
+	 * end marker without closing the underlying stream. */
+	private static final class CompressedBlockOutputStream extends OutputStream {
+		private final OutputStream out;
+		private final CompressionCodec codec;
+		private final byte[] buf = new byte[treeBlockSize];
+		private final byte[] compressed;
+		private int count = 0;
+		
+		CompressedBlockOutputStream(OutputStream out, CompressionCodec codec) {
+			this.out = out;
+			this.codec = codec;
+			this.compressed = new byte[4 + codec.maxCompressedLength(treeBlockSize)];
+		}
+		
+		@Override
+		public final void write(int b) throws IOException {
+			if(this.count == this.buf.length) {
+				this.writeBlock();
+			}
+			this.buf[this.count++] = (byte) b;
+		}
+		
+		@Override
+		public final void write(byte[] b, int off, int len) throws IOException {
+			while(len > 0) {
+				if(this.count == this.buf.length) {
+					this.writeBlock();
+				}
+				final int n = Math.min(len, this.buf.length - this.count);
+				System.arraycopy(b, off, this.buf, this.count, n);
+				this.count += n;
+				off += n;
+				len -= n;
+			}
+		}
+		
+		private final void writeBlock() throws IOException {
+			if(this.count == 0) {
+				return;
+			}
+			final int len = this.codec.compress(this.buf, 0, this.count, this.compressed, 4);
+			writeInt(this.compressed, len);
+			this.out.write(this.compressed, 0, 4 + len);
+			this.count = 0;
+		}
+		
+		@Override
+		public final void flush() throws IOException {
+			this.writeBlock();
+			this.out.flush();
+		}
+		
+		final void finish() throws IOException {
+			this.writeBlock();
+			writeInt(this.compressed, 0);
+			this.out.write(this.compressed, 0, 4);
+			this.out.flush();
+		}
+		
+		private static final void writeInt(byte[] b, int i) {
+			b[0] = (byte) (i >>> 24);
+			b[1] = (byte) (i >>> 16);
+			b[2] = (byte) (i >>> 8);
+			b[3] = (byte) i;
+		}
+		
+	}
+	
+	/** Reads what a {@link CompressedBlockOutputStream} wrote, up to(and
+	 * including) its end marker. */
+	private static final class CompressedBlockInputStream extends InputStream {
+		private final InputStream in;
+		private final CompressionCodec codec;
+		private final byte[] length = new byte[4];
+		private byte[] compressed = new byte[0];
+		private byte[] block = new byte[0];
+		private int position = 0;
+		private boolean ended = false;
+		
+		CompressedBlockInputStream(InputStream in, CompressionCodec codec) {
+			this.in = in;
+			this.codec = codec;
+		}
+		
+		/** @return Whether there is another block to read from */
+		private final boolean nextBlock() throws IOException {
+			while(this.position == this.block.length) {
+				if(this.ended) {
+					return false;
+				}
+				readFully(this.in, this.length, 0, 4);
+				final int len = ((this.length[0] & 0xFF) << 24) | ((this.length[1] & 0xFF) << 16) | ((this.length[2] & 0xFF) << 8) | (this.length[3] & 0xFF);
+				if(len == 0) {
+					this.ended = true;
+					return false;
+				}
+				if(len < 0 || len > this.codec.maxCompressedLength(treeBlockSize)) {
+					throw new IOException("Compressed block length out of bounds: " + len);
+				}
+				if(this.compressed.length < len) {
+					this.compressed = new byte[len];
+				}
+				readFully(this.in, this.compressed, 0, len);
+				this.block = this.codec.decompress(this.compressed, 0, len);
+				this.position = 0;
+			}
+			return true;
+		}
+		
+		@Override
+		public final int read() throws IOException {
+			return this.nextBlock() ? this.block[this.position++] & 0xFF : -1;
+		}
+		
+		@Override
+		public final int read(byte[] b, int off, int len) throws IOException {
+			if(len == 0) {
+				return 0;
+			}
+			if(!this.nextBlock()) {
+				return -1;
+			}
+			final int n = Math.min(len, this.block.length - this.position);
+			System.arraycopy(this.block, this.position, b, off, n);
+			this.position += n;
+			return n;
+		}
+		
 	}
 	
 	public static final FileData readFile(File file) throws IOException {
@@ -0,0 +1,425 @@
+package com.gmail.br45entei.util;
+
+import com.gmail.br45entei.data.serverIO.CompressionCodecs;
+import com.gmail.br45entei.util.FileTransfer.FileInfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** Loopback benchmark for {@link FileTransfer#sendFileParallel(File, List, com.gmail.br45entei.data.Property)
+ * parallel file transfers}. Every connection goes through a proxy that
+ * emulates a long, fat link: each direction delays the data that passes
+ * through it and lets only a window's worth of it be in flight at once, so a
+ * single stream is limited to window / latency(just like a TCP stream whose
+ * window can't cover the link's bandwidth-delay product), and adding streams
+ * should scale the throughput until the CPU or the disk becomes the limit.<br>
+ * It then compares sending a folder of many small files one at a time with
+ * {@link FileTransfer#sendFileTree(File, OutputStream, com.gmail.br45entei.data.serverIO.CompressionCodec, com.gmail.br45entei.data.Property)
+ * sending it in bulk}, and with sending one file of the same total size,
+ * over a plain loopback connection.
+ * 
+ * @author Brian_Entei */
+public final class FileTransferBenchmark {
+	
+	/** One direction of an emulated link: copies data from an input stream to
+	 * an output stream, holding every block back for the link's latency and
+	 * never holding more than the window. */
+	private static final class DelayLine {
+		private final InputStream in;
+		private final OutputStream out;
+		private final long latencyNanos;
+		private final int window;
+		private final ArrayDeque<Object[]> queue = new ArrayDeque<>();
+		private int queued = 0;
+		private boolean eof = false;
+		
+		DelayLine(InputStream in, OutputStream out, long latencyNanos, int window) {
+			this.in = in;
+			this.out = out;
+			this.latencyNanos = latencyNanos;
+			this.window = window;
+		}
+		
+		final void start(String name) {
+			Thread reader = new Thread(new Runnable() {
+				@Override
+				public final void run() {
+					DelayLine.this.read();
+				}
+			}, name + "-in");
+			Thread writer = new Thread(new Runnable() {
+				@Override
+				public final void run() {
+					DelayLine.this.write();
+				}
+			}, name + "-out");
+			reader.setDaemon(true);
+			writer.setDaemon(true);
+			reader.start();
+			writer.start();
+		}
+		
+		final void read() {
+			final byte[] buf = new byte[0x4000];
+			try {
+				int read;
+				while((read = this.in.read(buf)) != -1) {
+					final byte[] block = new byte[read];
+					System.arraycopy(buf, 0, block, 0, read);
+					synchronized(this) {
+						while(this.queued >= this.window) {
+							this.wait();
+						}
+						this.queue.add(new Object[] {Long.valueOf(System.nanoTime() + this.latencyNanos), block});
+						this.queued += read;
+						this.notifyAll();
+					}
+				}
+			} catch(IOException | InterruptedException ignored) {
+			} finally {
+				synchronized(this) {
+					this.eof = true;
+					this.notifyAll();
+				}
+			}
+		}
+		
+		final void write() {
+			try {
+				while(true) {
+					final Object[] entry;
+					synchronized(this) {
+						while(this.queue.isEmpty() && !this.eof) {
+							this.wait();
+						}
+						if(this.queue.isEmpty()) {
+							break;
+						}
+						entry = this.queue.peek();
+					}
+					final long delay = ((Long) entry[0]).longValue() - System.nanoTime();
+					if(delay > 0) {
+						TimeUnit.NANOSECONDS.sleep(delay);
+					}
+					final byte[] block = (byte[]) entry[1];
+					this.out.write(block);
+					synchronized(this) {
+						this.queue.poll();
+						this.queued -= block.length;
+						this.notifyAll();
+					}
+				}
+				this.out.close();
+			} catch(IOException | InterruptedException ignored) {
+			}
+		}
+		
+	}
+	
+	/** Accepts connections and forwards each one to the target address over
+	 * a pair of {@link DelayLine}s. */
+	private static final ServerSocket startProxy(final InetSocketAddress target, final long latencyNanos, final int window) throws IOException {
+		final ServerSocket server = new ServerSocket(0, 64, InetAddress.getLoopbackAddress());
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public final void run() {
+				int count = 0;
+				while(!server.isClosed()) {
+					try {
+						Socket client = server.accept();
+						Socket upstream = new Socket(target.getAddress(), target.getPort());
+						client.setTcpNoDelay(true);
+						upstream.setTcpNoDelay(true);
+						new DelayLine(client.getInputStream(), upstream.getOutputStream(), latencyNanos, window).start("Proxy-" + count + "-up");
+						new DelayLine(upstream.getInputStream(), client.getOutputStream(), latencyNanos, window).start("Proxy-" + count + "-down");
+						count++;
+					} catch(IOException ignored) {
+					}
+				}
+			}
+		}, "Proxy-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+		return server;
+	}
+	
+	/** Sends the file over the given number of streams through the proxy and
+	 * receives it on the other end.
+	 * 
+	 * @return The time the transfer took, in nanoseconds */
+	private static final long transfer(final File file, final Path outDir, int streams, final boolean parallel, ServerSocket receiver, ServerSocket proxy) throws IOException, InterruptedException {
+		final int count = streams;
+		final AtomicReference<Object> result = new AtomicReference<>();
+		Thread receiving = new Thread(new Runnable() {
+			@Override
+			public final void run() {
+				List<Socket> sockets = new ArrayList<>();
+				try {
+					for(int i = 0; i < count; i++) {
+						sockets.add(receiver.accept());
+					}
+					if(parallel) {
+						result.set(FileTransfer.readFileParallel(sockets, outDir, null));
+					} else {
+						result.set(FileTransfer.readFile(sockets.get(0).getInputStream(), outDir, null));
+					}
+				} catch(IOException e) {
+					result.set(e);
+				} finally {
+					for(Socket socket : sockets) {
+						try {
+							socket.close();
+						} catch(IOException ignored) {
+						}
+					}
+				}
+			}
+		}, "Receiver");
+		receiving.start();
+		final long startTime = System.nanoTime();
+		List<Socket> sockets = new ArrayList<>();
+		try {
+			for(int i = 0; i < count; i++) {
+				Socket socket = new Socket(InetAddress.getLoopbackAddress(), proxy.getLocalPort());
+				socket.setTcpNoDelay(true);
+				sockets.add(socket);
+			}
+			if(parallel) {
+				FileTransfer.sendFileParallel(file, sockets, null);
+			} else {
+				FileTransfer.sendFile(file, sockets.get(0).getOutputStream(), null);
+				sockets.get(0).shutdownOutput();
+			}
+			receiving.join();
+		} finally {
+			for(Socket socket : sockets) {
+				socket.close();
+			}
+		}
+		final long elapsed = System.nanoTime() - startTime;
+		if(!(result.get() instanceof FileInfo)) {
+			throw new IOException("The transfer failed: " + result.get(), result.get() instanceof Throwable ? (Throwable) result.get() : null);
+		}
+		final Path received = ((FileInfo) result.get()).path;
+		if(!FileTransfer.hashFile(received.toFile()).equals(FileTransfer.hashFile(file))) {
+			throw new IOException("The received file doesn't match the one that was sent!");
+		}
+		Files.delete(received);
+		return elapsed;
+	}
+	
+	/** One end of a loopback transfer */
+	private static interface TransferSide {
+		/** @param socket The connection to the other end
+		 * @throws IOException Thrown if an I/O error occurs */
+		public void run(Socket socket) throws IOException;
+	}
+	
+	/** Runs the given sender and receiver against each other over a loopback
+	 * connection.
+	 * 
+	 * @return The time the transfer took, in nanoseconds */
+	private static final long loopback(ServerSocket server, TransferSide sender, final TransferSide receiver) throws IOException, InterruptedException {
+		final AtomicReference<IOException> error = new AtomicReference<>();
+		Thread receiving = new Thread(new Runnable() {
+			@Override
+			public final void run() {
+				try(Socket socket = server.accept()) {
+					receiver.run(socket);
+				} catch(IOException e) {
+					error.set(e);
+				}
+			}
+		}, "Receiver");
+		receiving.start();
+		final long startTime = System.nanoTime();
+		try(Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort())) {
+			socket.setTcpNoDelay(true);
+			sender.run(socket);
+			socket.shutdownOutput();
+			receiving.join();
+		}
+		if(error.get() != null) {
+			throw error.get();
+		}
+		return System.nanoTime() - startTime;
+	}
+	
+	private static final void deleteTree(File file) {
+		final File[] children = file.listFiles();
+		if(children != null) {
+			for(File child : children) {
+				deleteTree(child);
+			}
+		}
+		file.delete();
+	}
+	
+	/** Deletes everything in the given folder, so that every transfer has to
+	 * create its files(which costs much more than overwriting them). */
+	private static final void clear(Path folder) {
+		for(File child : folder.toFile().listFiles()) {
+			deleteTree(child);
+		}
+	}
+	
+	/** Sends a folder of small files one at a time, then in bulk(with and
+	 * without compression), and a single file of the same total size, and
+	 * prints how long each took. */
+	private static final void benchmarkTree(final int fileCount, final int fileSize) throws IOException, InterruptedException {
+		final File folder = Files.createTempDirectory("FileTransferBenchmark-tree").toFile();
+		final File single = File.createTempFile("FileTransferBenchmark", ".bin");
+		final Path outDir = Files.createTempDirectory("FileTransferBenchmark-out");
+		try {
+			final Random random = new Random(fileCount);
+			final String[] words = {"the ", "server ", "client ", "packet ", "data ", "file ", "transfer ", "folder ", "0123 ", "\r\n"};
+			final File[] files = new File[fileCount];
+			try(OutputStream singleOut = Files.newOutputStream(single.toPath())) {
+				for(int i = 0; i < fileCount; i++) {
+					final StringBuilder text = new StringBuilder(fileSize + 16);
+					while(text.length() < fileSize) {//Text-like data, so that compression has something to do
+						text.append(words[random.nextInt(words.length)]);
+					}
+					final byte[] data = text.substring(0, fileSize).getBytes(StandardCharsets.US_ASCII);
+					final File subFolder = new File(folder, "dir" + (i / 100));
+					subFolder.mkdirs();
+					files[i] = new File(subFolder, "file" + i + ".txt");
+					Files.write(files[i].toPath(), data);
+					singleOut.write(data);
+				}
+			}
+			final double totalMB = fileCount * (long) fileSize / 1048576.0D;
+			System.out.println(fileCount + " files of " + fileSize + " bytes(" + String.format("%.1f", Double.valueOf(totalMB)) + "MB) over loopback:");
+			try(final ServerSocket server = new ServerSocket(0, 64, InetAddress.getLoopbackAddress())) {
+				for(int run = 0; run < 2; run++) {//The first run warms up the JIT and the page cache
+					final boolean print = run == 1;
+					long elapsed = loopback(server, new TransferSide() {
+						@Override
+						public final void run(Socket socket) throws IOException {
+							FileTransfer.sendFile(single, socket.getOutputStream(), null);
+						}
+					}, new TransferSide() {
+						@Override
+						public final void run(Socket socket) throws IOException {
+							FileTransfer.readFile(socket.getInputStream(), outDir, null);
+						}
+					});
+					printTree(print, "one file", elapsed, totalMB, 1);
+					clear(outDir);
+					elapsed = loopback(server, new TransferSide() {
+						@Override
+						public final void run(Socket socket) throws IOException {
+							for(File file : files) {
+								FileTransfer.sendFile(file, socket.getOutputStream(), null);
+							}
+						}
+					}, new TransferSide() {
+						@Override
+						public final void run(Socket socket) throws IOException {
+							for(int i = 0; i < fileCount; i++) {
+								FileTransfer.readFile(socket.getInputStream(), outDir, null);
+							}
+						}
+					});
+					printTree(print, "sendFile per file", elapsed, totalMB, fileCount);
+					clear(outDir);
+					for(final boolean compress : new boolean[] {false, true}) {
+						elapsed = loopback(server, new TransferSide() {
+							@Override
+							public final void run(Socket socket) throws IOException {
+								FileTransfer.sendFileTree(folder, socket.getOutputStream(), compress ? CompressionCodecs.LZ : null, null);
+							}
+						}, new TransferSide() {
+							@Override
+							public final void run(Socket socket) throws IOException {
+								final List<FileInfo> received = FileTransfer.readFileTree(socket.getInputStream(), outDir, null);
+								if(received.size() != fileCount) {
+									throw new IOException("Received " + received.size() + " of " + fileCount + " files");
+								}
+							}
+						});
+						printTree(print, compress ? "sendFileTree(LZ)" : "sendFileTree", elapsed, totalMB, fileCount);
+						clear(outDir);
+					}
+				}
+			}
+		} finally {
+			deleteTree(folder);
+			deleteTree(outDir.toFile());
+			single.delete();
+		}
+	}
+	
+	private static final void printTree(boolean print, String name, long elapsed, double totalMB, int files) {
+		if(print) {
+			final double seconds = elapsed / 1000000000.0D;
+			System.out.println(String.format("%-22s %8.3fs %9.1f MB/s %10.0f files/s", name, Double.valueOf(seconds), Double.valueOf(totalMB / seconds), Double.valueOf(files / seconds)));
+		}
+	}
+	
+	/** Runs the benchmark.
+	 * 
+	 * @param args Program command line arguments: [file size in MB]
+	 *            [one-way latency in milliseconds] [window per stream in KB]
+	 *            [maximum number of streams] [number of small files] [size of
+	 *            each small file in bytes]
+	 * @throws Exception Thrown if a transfer fails */
+	public static final void main(String[] args) throws Exception {
+		final int sizeMB = args.length > 0 && StringUtil.isStrInt(args[0]) ? Integer.parseInt(args[0]) : 32;
+		final int latency = args.length > 1 && StringUtil.isStrInt(args[1]) ? Integer.parseInt(args[1]) : 10;
+		final int windowKB = args.length > 2 && StringUtil.isStrInt(args[2]) ? Integer.parseInt(args[2]) : 256;
+		final int maxStreams = args.length > 3 && StringUtil.isStrInt(args[3]) ? Integer.parseInt(args[3]) : 8;
+		final int smallFiles = args.length > 4 && StringUtil.isStrInt(args[4]) ? Integer.parseInt(args[4]) : 5000;
+		final int smallFileSize = args.length > 5 && StringUtil.isStrInt(args[5]) ? Integer.parseInt(args[5]) : 4096;
+		
+		final File file = File.createTempFile("FileTransferBenchmark", ".bin");
+		final Path outDir = Files.createTempDirectory("FileTransferBenchmark");
+		try {
+			try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				final byte[] block = new byte[0x100000];
+				new Random(sizeMB).nextBytes(block);
+				for(int i = 0; i < sizeMB; i++) {
+					raf.write(block);
+				}
+			}
+			System.out.println("Emulated link: " + latency + "ms latency, " + windowKB + "KB window per stream(at most " + String.format("%.1f", Double.valueOf(windowKB / 1024.0D / (latency / 1000.0D))) + "MB/s per stream); file: " + sizeMB + "MB");
+			try(ServerSocket receiver = new ServerSocket(0, 64, InetAddress.getLoopbackAddress()); ServerSocket proxy = startProxy(new InetSocketAddress(InetAddress.getLoopbackAddress(), receiver.getLocalPort()), TimeUnit.MILLISECONDS.toNanos(latency), windowKB * 1024)) {
+				long elapsed = transfer(file, outDir, 1, false, receiver, proxy);
+				System.out.println(String.format("%-22s %8.3fs %9.1f MB/s", "sendFile(1 stream)", Double.valueOf(elapsed / 1000000000.0D), Double.valueOf(sizeMB / (elapsed / 1000000000.0D))));
+				double single = 0;
+				for(int streams = 1; streams <= maxStreams; streams *= 2) {
+					elapsed = transfer(file, outDir, streams, true, receiver, proxy);
+					final double throughput = sizeMB / (elapsed / 1000000000.0D);
+					if(streams == 1) {
+						single = throughput;
+					}
+					System.out.println(String.format("%-22s %8.3fs %9.1f MB/s %6.2fx", "parallel(" + streams + (streams == 1 ? " stream)" : " streams)"), Double.valueOf(elapsed / 1000000000.0D), Double.valueOf(throughput), Double.valueOf(throughput / single)));
+				}
+			}
+		} finally {
+			file.delete();
+			for(File child : outDir.toFile().listFiles()) {
+				child.delete();
+			}
+			Files.delete(outDir);
+		}
+		benchmarkTree(smallFiles, smallFileSize);
+	}
+	
+}
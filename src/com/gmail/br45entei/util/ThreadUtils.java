@@ -1,6 +1,7 @@
 package com.gmail.br45entei.util;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
@@ -52,6 +53,44 @@ public class ThreadUtils {
 		return defaultThreadGroup;
 	}
 	
+	private static volatile ThreadFactory virtualThreadFactory = null;
+	private static volatile boolean virtualThreadsChecked = false;
+	
+	/** Virtual threads were added in Java 21, so they are looked up
+	 * reflectively; on older runtimes this returns {@code null}.<br>
+	 * The builder's methods are called through the public
+	 * {@code Thread.Builder} interface, as the builder itself is an instance
+	 * of a JDK-internal class that reflection may not access.
+	 * 
+	 * @return A thread factory that creates (unstarted) virtual threads, or
+	 *         {@code null} if the running JVM does not support them */
+	public static final ThreadFactory getVirtualThreadFactory() {
+		if(!virtualThreadsChecked) {
+			ThreadFactory factory = null;
+			try {
+				Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+				factory = (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+			} catch(ClassNotFoundException | NoSuchMethodException ignored) {//Java 20 or older
+			} catch(InvocationTargetException e) {
+				if(!(e.getCause() instanceof UnsupportedOperationException)) {//Java 19 and 20 without --enable-preview
+					System.err.println("Unable to create a virtual thread factory:");
+					e.getCause().printStackTrace();
+				}
+			} catch(ReflectiveOperationException | RuntimeException e) {
+				System.err.println("Unable to create a virtual thread factory:");
+				e.printStackTrace();
+			}
+			virtualThreadFactory = factory;
+			virtualThreadsChecked = true;
+		}
+		return virtualThreadFactory;
+	}
+	
+	/** @return Whether or not the running JVM supports virtual threads */
+	public static final boolean isVirtualThreadSupported() {
+		return getVirtualThreadFactory() != null;
+	}
+	
 	/** @author Brian_Entei */
 	public static final class CustomThreadFactory implements ThreadFactory {
 		
@@ -70,6 +109,7 @@ public class ThreadUtils {
 		private final AtomicInteger threadNumber = new AtomicInteger(1);
 		private volatile String poolPrefix;
 		private volatile String threadPrefix;
+		private volatile ThreadFactory delegate = null;
 		
 		private final long stackSize;
 		private final boolean daemon;
@@ -252,8 +292,35 @@ public class ThreadUtils {
 			return this;
 		}
 		
+		/** @return The factory that this factory delegates thread creation to,
+		 *         or {@code null} if it creates platform threads itself */
+		public final ThreadFactory getDelegate() {
+			return this.delegate;
+		}
+		
+		/** Makes this factory create its threads with the given factory
+		 * instead, e.g. {@link ThreadUtils#getVirtualThreadFactory()}. The
+		 * threads are still named with this factory's prefix, but their thread
+		 * group, stack size and daemon status are left up to the delegate.
+		 * 
+		 * @param delegate The factory to delegate thread creation to, or
+		 *            {@code null} to create platform threads again
+		 * @return A reference to this thread factory */
+		public final CustomThreadFactory setDelegate(ThreadFactory delegate) {
+			this.delegate = delegate == this ? null : delegate;
+			return this;
+		}
+		
 		@Override
 		public Thread newThread(Runnable r) {
+			final ThreadFactory delegate = this.delegate;
+			if(delegate != null) {
+				Thread t = delegate.newThread(r);
+				if(t != null) {
+					t.setName(this.getThreadPrefix() + this.threadNumber.getAndIncrement());
+				}
+				return t;
+			}
 			Thread t = new Thread(this.group, r, this.getThreadPrefix() + this.threadNumber.getAndIncrement(), this.stackSize);
 			if(t.isDaemon() != this.daemon) t.setDaemon(this.daemon);//if(t.isDaemon()) t.setDaemon(false);
 			if(t.getPriority() != Thread.NORM_PRIORITY) t.setPriority(Thread.NORM_PRIORITY);